@@ -0,0 +1,250 @@
+package nCoV;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nCoV.Main.Stage;
+
+/**
+ * Adaptive number of runs (replicas) of a scenario: runs are added until the confidence interval of the mean of each chosen metric is narrow enough, or until the budget of runs is used.
+ * The half-width of the interval is t_{(1 + confidence) / 2, n - 1} * s / sqrt(n) over the n runs so far, and is compared with the target relative to the mean.
+ * The metrics of a run follow from its national counts:
+ * peakICU the largest number of patients in the hospitals in an epoch, dead the number of deceased agents at the last epoch, and peakEpoch the epoch with the most infected agents.
+ */
+public class AdaptiveReplicas {
+
+	public static final String[] METRICS = {"peakICU", "dead", "peakEpoch"};
+	// Names of the metrics that can be chosen in the settings
+
+	private int[] metrics;
+	// Chosen metrics, as index in METRICS
+	private double precision;
+	// Target of the half-width of each confidence interval relative to the mean
+	private double confidence;
+	private int minimumRuns;
+	private int budget;
+	// Number of runs before the intervals are checked, and the largest number of runs
+	private StreamingStatistics statistics;
+	// Mean and variance of each chosen metric over the runs
+	private List<double[]> relativeHalfWidths;
+	// Relative half-width of the interval of each chosen metric after each run
+
+	private static final int DEAD = Stage.DEAD.ordinal();
+
+	/**
+	 * @param metricNames names of the chosen metrics (see METRICS)
+	 * @param quantiles quantiles of the metrics in the summary, as in the ensemble summary
+	 */
+	public AdaptiveReplicas(String[] metricNames, double precision, double confidence, int minimumRuns, int budget, double[] quantiles) {
+		if(precision <= 0) throw new IllegalArgumentException("The target of the confidence intervals should be larger than 0.");
+		if(confidence <= 0 || confidence >= 1) throw new IllegalArgumentException("The confidence level should be between 0 and 1.");
+		if(minimumRuns < 2) throw new IllegalArgumentException("At least two runs are needed for a confidence interval.");
+		if(metricNames.length == 0) throw new IllegalArgumentException("No metrics are chosen for the adaptive number of runs.");
+
+		this.metrics = new int[metricNames.length];
+		for(int m = 0; m < metricNames.length; m++) {
+			metrics[m] = List.of(METRICS).indexOf(metricNames[m]);
+			if(metrics[m] < 0) throw new IllegalArgumentException("Unknown metric " + metricNames[m] + ", use " + String.join(", ", METRICS) + ".");
+		}
+		this.precision = precision;
+		this.confidence = confidence;
+		this.minimumRuns = minimumRuns;
+		this.budget = budget;
+		this.statistics = new StreamingStatistics(metrics.length, quantiles);
+		this.relativeHalfWidths = new ArrayList<>();
+	}
+
+	/**
+	 * Adds the metrics of a completed run
+	 * @param stageCounts number of agents [epoch][stage][age group][corop] at the beginning of each epoch
+	 * @param patientCounts number of patients [epoch][hospital][age group] at the beginning of each epoch
+	 * @param queueCounts number of patients in the queue [epoch] at the beginning of each epoch
+	 */
+	public void addRun(int[][][][] stageCounts, int[][][] patientCounts, int[] queueCounts) {
+		double[] values = AdaptiveReplicas.metricValues(stageCounts, patientCounts);
+
+		double[] halfWidths = new double[metrics.length];
+		for(int m = 0; m < metrics.length; m++) {
+			statistics.add(m, values[metrics[m]]);
+			halfWidths[m] = this.getRelativeHalfWidth(m);
+		}
+		relativeHalfWidths.add(halfWidths);
+	}
+
+	/**
+	 * Values of all metrics (in the order of METRICS) of a run
+	 * @param stageCounts number of agents [epoch][stage][age group][corop] at the beginning of each epoch
+	 * @param patientCounts number of patients [epoch][hospital][age group] at the beginning of each epoch
+	 */
+	static double[] metricValues(int[][][][] stageCounts, int[][][] patientCounts) {
+		int peakPatients = 0;
+		int peakInfected = -1;
+		int peakEpoch = 0;
+		for(int epoch = 0; epoch < stageCounts.length; epoch++) {
+			int patients = 0;
+			for(int[] hospital : patientCounts[epoch]) {
+				for(int number : hospital) {
+					patients += number;
+				}
+			}
+			peakPatients = Math.max(peakPatients, patients);
+
+			int infected = 0;
+			for(Stage stage : Stage.values()) {
+				if(stage != Stage.HEALTHY && stage != Stage.CURED && stage != Stage.DEAD) {
+					infected += AdaptiveReplicas.total(stageCounts[epoch][stage.ordinal()]);
+				}
+			}
+			if(infected > peakInfected) {
+				peakInfected = infected;
+				peakEpoch = epoch;
+			}
+		}
+		return new double[] {peakPatients, AdaptiveReplicas.total(stageCounts[stageCounts.length - 1][DEAD]), peakEpoch};
+	}
+
+	private static int total(int[][] counts) {
+		int total = 0;
+		for(int[] ageGroup : counts) {
+			for(int number : ageGroup) {
+				total += number;
+			}
+		}
+		return total;
+	}
+
+	public int getNumberOfRuns() {
+		return relativeHalfWidths.size();
+	}
+
+	/**
+	 * True when no more runs are needed: the intervals of all metrics are narrow enough after the minimum number of runs, or the budget is used
+	 */
+	public boolean isDone() {
+		return this.getNumberOfRuns() >= budget || this.isPrecise();
+	}
+
+	/**
+	 * True when the minimum number of runs is done and the intervals of all metrics are within the target
+	 */
+	public boolean isPrecise() {
+		if(this.getNumberOfRuns() < minimumRuns) {
+			return false;
+		}
+		for(int m = 0; m < metrics.length; m++) {
+			if(!(this.getRelativeHalfWidth(m) <= precision)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Half-width of the confidence interval of the mean of the m-th chosen metric, infinite with less than two runs
+	 */
+	public double getHalfWidth(int m) {
+		int n = statistics.getCount(m);
+		if(n < 2) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return AdaptiveReplicas.studentQuantile((1 + confidence) / 2, n - 1) * Math.sqrt(statistics.getVariance(m) / n);
+	}
+
+	/**
+	 * Half-width relative to the mean, 0 when all runs gave 0
+	 */
+	public double getRelativeHalfWidth(int m) {
+		double halfWidth = this.getHalfWidth(m);
+		double mean = Math.abs(statistics.getMean(m));
+		return halfWidth == 0 ? 0.0 : halfWidth / mean;
+	}
+
+	public String getMetricName(int m) {
+		return METRICS[metrics[m]];
+	}
+
+	public int getNumberOfMetrics() {
+		return metrics.length;
+	}
+
+	public StreamingStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Relative half-width of each chosen metric after each run
+	 */
+	public List<double[]> getRelativeHalfWidths() {
+		return relativeHalfWidths;
+	}
+
+	public double getPrecision() {
+		return precision;
+	}
+
+	public double getConfidence() {
+		return confidence;
+	}
+
+	public int getMinimumRuns() {
+		return minimumRuns;
+	}
+
+	public int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Quantile p >= 0.5 of Student's t distribution with df degrees of freedom, by bisection on the distribution function
+	 */
+	static double studentQuantile(double p, int df) {
+		double low = 0.0;
+		double high = 1.0;
+		while(AdaptiveReplicas.studentDistribution(high, df) < p) {
+			high *= 2;
+		}
+		for(int i = 0; i < 100 && high - low > 1e-12 * high; i++) {
+			double middle = (low + high) / 2;
+			if(AdaptiveReplicas.studentDistribution(middle, df) < p) {
+				low = middle;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return (low + high) / 2;
+	}
+
+	/**
+	 * Distribution function of Student's t distribution at t >= 0 for an integer number of degrees of freedom (Abramowitz and Stegun 26.7.3 and 26.7.4)
+	 */
+	static double studentDistribution(double t, int df) {
+		double theta = Math.atan(t / Math.sqrt(df));
+		double cos2 = Math.cos(theta) * Math.cos(theta);
+		double sum;
+		double term;
+		double a; // A(t|df) = P(|T| <= t)
+		if(df % 2 == 1) {
+			sum = 0.0;
+			term = Math.cos(theta);
+			if(df > 1) {
+				sum = term;
+				for(int k = 3; k <= df - 2; k += 2) {
+					term *= cos2 * (k - 1) / k;
+					sum += term;
+				}
+			}
+			a = 2 / Math.PI * (theta + Math.sin(theta) * sum);
+		}
+		else {
+			sum = 1.0;
+			term = 1.0;
+			for(int k = 2; k <= df - 2; k += 2) {
+				term *= cos2 * (k - 1) / k;
+				sum += term;
+			}
+			a = Math.sin(theta) * sum;
+		}
+		return (1 + a) / 2;
+	}
+}
@@ -0,0 +1,109 @@
+package nCoV;
+
+import java.util.Arrays;
+
+import nCoV.Main.Stage;
+
+/**
+ * Population stored as one array (column) per characteristic. This is the default storage, without limits on the number of regions or the time in a stage.
+ */
+public class ColumnPopulation extends Population {
+
+	private byte[] ageGroup;
+	private byte[] stage;
+	private int[] timeInStage;
+	// Number of epochs the agent has been in its current stage
+	private int[] residentPlace;
+	// Index of the region the agent lives in
+	private int[] commutePlace;
+	// Index of the region the agent is during the day, equal to residentPlace when the agent does not commute
+
+	private static final byte HEALTHY = (byte) Stage.HEALTHY.ordinal();
+
+	public ColumnPopulation(int size, Regions regions) {
+		super(size, regions);
+		this.ageGroup = new byte[size];
+		this.stage = new byte[size];
+		this.timeInStage = new int[size];
+		this.residentPlace = new int[size];
+		this.commutePlace = new int[size];
+		Arrays.fill(stage, HEALTHY);
+	}
+
+	private ColumnPopulation(ColumnPopulation other) {
+		super(other);
+		this.ageGroup = other.grown ? other.ageGroup.clone() : other.ageGroup; // does not change after creation (unless agents are added), so it is shared
+		this.stage = other.stage.clone();
+		this.timeInStage = other.timeInStage.clone();
+		this.residentPlace = other.grown ? other.residentPlace.clone() : other.residentPlace; // shared
+		this.commutePlace = other.grown ? other.commutePlace.clone() : other.commutePlace; // shared
+	}
+
+	@Override
+	public Population copy() {
+		return new ColumnPopulation(this);
+	}
+
+	@Override
+	public void fill(int start, int end, int ageGroup, int residentPlace) {
+		Arrays.fill(this.ageGroup, start, end, (byte) ageGroup);
+		Arrays.fill(this.residentPlace, start, end, residentPlace);
+		Arrays.fill(this.commutePlace, start, end, residentPlace);
+	}
+
+	@Override
+	public void setCommutePlace(int start, int end, int commutePlace) {
+		Arrays.fill(this.commutePlace, start, end, commutePlace);
+	}
+
+	@Override
+	protected void grow(int capacity) {
+		super.grow(capacity);
+		this.ageGroup = Arrays.copyOf(ageGroup, capacity);
+		this.stage = Arrays.copyOf(stage, capacity);
+		this.timeInStage = Arrays.copyOf(timeInStage, capacity);
+		this.residentPlace = Arrays.copyOf(residentPlace, capacity);
+		this.commutePlace = Arrays.copyOf(commutePlace, capacity);
+	}
+
+	@Override
+	protected void resetStages() {
+		Arrays.fill(stage, HEALTHY);
+		Arrays.fill(timeInStage, 0);
+	}
+
+	@Override
+	public int getAgeGroup(int i) {
+		return ageGroup[i];
+	}
+
+	@Override
+	public int getStage(int i) {
+		return stage[i];
+	}
+
+	@Override
+	public void setStage(int i, int stage) {
+		this.stage[i] = (byte) stage;
+	}
+
+	@Override
+	public int getTimeInStage(int i) {
+		return timeInStage[i];
+	}
+
+	@Override
+	public void setTimeInStage(int i, int timeInStage) {
+		this.timeInStage[i] = timeInStage;
+	}
+
+	@Override
+	public int getResidentPlace(int i) {
+		return residentPlace[i];
+	}
+
+	@Override
+	public int getCommutePlace(int i) {
+		return commutePlace[i];
+	}
+}
@@ -0,0 +1,437 @@
+package nCoV;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Random;
+import java.util.Set;
+
+import nCoV.Main.AgeGroup;
+import nCoV.Main.Stage;
+
+/**
+ * Count-based part of the hybrid engine (hybridEngine,true). All agents living in the same corop, commuting to the same corop and of the same age group form a group,
+ * and the agents of a group that are not severely ill are only counted: per stage and per epoch in which they entered that stage (a cohort), so the time spent in each stage is still known.
+ * Each epoch the cohorts progress with binomial draws (tau-leaping with a step of one epoch), which gives the same distribution as drawing each agent separately,
+ * as the transition probabilities do not depend on the time in stage.
+ * Only when agents become severely ill (AGENT_STAGES) they are added as agents to the population, such that the hospitals and the queue work with agents as before.
+ * When they are cured or deceased they are counted in their group again (see add).
+ */
+public class Compartments {
+
+	private int[] groupAge;
+	private int[] groupResident;
+	private int[] groupCommute;
+	private int[] groupSize;
+	// Age group (ordinal), resident corop, commute corop and number of agents of each group
+	private int[] groupAlphaIndex;
+	// Position of (resident corop, commute corop) in the structure of ALPHA, used for the commute scaling
+	private int[] blockStart;
+	// The groups of corop c and age group a are blockStart[c * #age groups + a] until blockStart[c * #age groups + a + 1]
+	private int totalEpochsHorizon;
+
+	private int[][][] cohorts;
+	// Number of agents [group][stage][entry epoch + 1] in a stage that is counted, the agents of the start situation have entry epoch -1. Null until a stage of a group gets agents
+	private int[][] total;
+	// Number of agents [group][stage], the sum over the cohorts
+	private int[][] firstCohort;
+	// [group][stage] all cohorts before this one are empty
+
+	private static final Stage[] STAGES = Stage.values();
+	private static final int HEALTHY = Stage.HEALTHY.ordinal();
+	private static final int EXPOSED = Stage.INFECTED_NOSYMPTOMS_NOTCONTAGIOUS.ordinal();
+	private static final int BINOMIAL_INVERSION_MEAN = 30;
+	// Binomial draws with a smaller mean are drawn by inversion, larger ones are first split with beta distributed order statistics
+
+	/**
+	 * Stages of which the agents are simulated as agents in the hybrid engine, the other stages are counted
+	 */
+	public static final Set<Stage> AGENT_STAGES = Set.of(Stage.INFECTED_SYMPTOMS_SEVERE_ICpossible, Stage.INFECTED_SYMPTOMS_SEVERE_ICnotpossible, Stage.INFECTED_SYMPTOMS_SEVERE_QUEUE);
+
+	/**
+	 * Creates the groups of all corops and age groups, all agents are healthy
+	 * @param alphaStructure any of the ALPHA matrices, all have the same structure
+	 */
+	public Compartments(Regions regions, EnumMap<AgeGroup, SparseMatrix> COMMUTE_DISTRIBUTION, int[][] POPULATION_NUMBER, SparseMatrix alphaStructure, int totalEpochsHorizon) {
+		int nrAgeGroups = AgeGroup.values().length;
+		int nrBlocks = regions.getNumberOfRegions() * nrAgeGroups;
+		this.totalEpochsHorizon = totalEpochsHorizon;
+
+		int nrGroups = 0;
+		for(AgeGroup ageGroup : AgeGroup.values()) { // at most one group for each commute flow and one for the agents who stay in their own corop
+			nrGroups += COMMUTE_DISTRIBUTION.get(ageGroup).getNumberOfNonZeros() + regions.getNumberOfRegions();
+		}
+		int[] age = new int[nrGroups];
+		int[] resident = new int[nrGroups];
+		int[] commute = new int[nrGroups];
+		int[] size = new int[nrGroups];
+		this.blockStart = new int[nrBlocks + 1];
+
+		int g = 0;
+		for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+			for(AgeGroup ageGroup : AgeGroup.values()) {
+				int block = city * nrAgeGroups + ageGroup.ordinal();
+				SparseMatrix commuteFlows = COMMUTE_DISTRIBUTION.get(ageGroup);
+				blockStart[block] = g;
+
+				int stayingHome = POPULATION_NUMBER[city][ageGroup.ordinal()]; // the agents who stay in their own corop form the first group of the block
+				int home = g;
+				age[g] = ageGroup.ordinal();
+				resident[g] = city;
+				commute[g] = city;
+				g++;
+
+				for(int k = commuteFlows.getRowStart(city); k < commuteFlows.getRowEnd(city); k++) {
+					int nrCommuters = (int) commuteFlows.getValue(k);
+					if(commuteFlows.getColumn(k) == city || nrCommuters == 0) { // commuting within the own corop is staying home
+						continue;
+					}
+					age[g] = ageGroup.ordinal();
+					resident[g] = city;
+					commute[g] = commuteFlows.getColumn(k);
+					size[g] = nrCommuters;
+					stayingHome -= nrCommuters;
+					g++;
+				}
+				if(stayingHome < 0) throw new IllegalArgumentException("Cannot generate number of people needed.");
+				size[home] = stayingHome;
+			}
+		}
+		blockStart[nrBlocks] = g;
+
+		this.groupAge = Arrays.copyOf(age, g);
+		this.groupResident = Arrays.copyOf(resident, g);
+		this.groupCommute = Arrays.copyOf(commute, g);
+		this.groupSize = Arrays.copyOf(size, g);
+		this.groupAlphaIndex = new int[g];
+		for(int i = 0; i < g; i++) {
+			groupAlphaIndex[i] = alphaStructure.find(groupResident[i], groupCommute[i]);
+		}
+
+		this.cohorts = new int[g][STAGES.length][];
+		this.total = new int[g][STAGES.length];
+		this.firstCohort = new int[g][STAGES.length];
+		this.reset();
+	}
+
+	/**
+	 * Copies the counts of all groups, used when forking a simulation. The groups themselves are shared.
+	 */
+	private Compartments(Compartments other) {
+		this.groupAge = other.groupAge;
+		this.groupResident = other.groupResident;
+		this.groupCommute = other.groupCommute;
+		this.groupSize = other.groupSize;
+		this.groupAlphaIndex = other.groupAlphaIndex;
+		this.blockStart = other.blockStart;
+		this.totalEpochsHorizon = other.totalEpochsHorizon;
+
+		this.cohorts = new int[other.cohorts.length][STAGES.length][];
+		this.total = new int[other.total.length][];
+		this.firstCohort = new int[other.firstCohort.length][];
+		for(int g = 0; g < cohorts.length; g++) {
+			for(int stage = 0; stage < STAGES.length; stage++) {
+				if(other.cohorts[g][stage] != null) {
+					cohorts[g][stage] = other.cohorts[g][stage].clone();
+				}
+			}
+			total[g] = other.total[g].clone();
+			firstCohort[g] = other.firstCohort[g].clone();
+		}
+	}
+
+	public Compartments copy() {
+		return new Compartments(this);
+	}
+
+	public int getNumberOfGroups() {
+		return groupSize.length;
+	}
+
+	/**
+	 * Sets all agents back to healthy
+	 */
+	public void reset() {
+		for(int g = 0; g < cohorts.length; g++) {
+			for(int[] cohortsStage : cohorts[g]) {
+				if(cohortsStage != null) {
+					Arrays.fill(cohortsStage, 0);
+				}
+			}
+			Arrays.fill(total[g], 0);
+			Arrays.fill(firstCohort[g], 0);
+			this.add(g, HEALTHY, 0, groupSize[g]);
+		}
+	}
+
+	/**
+	 * Assigns the stages of the start situation to random agents of each corop and age group, each agent gets at most one stage.
+	 * Agents who get a stage in AGENT_STAGES are added to the population.
+	 * @param INFECTION_NUMBERS number of agents [corop][age group][stage] in each stage
+	 */
+	public void seed(int[][][] INFECTION_NUMBERS, Population population, Random rand) {
+		int nrAgeGroups = AgeGroup.values().length;
+
+		for(int block = 0; block < blockStart.length - 1; block++) {
+			int[] eligible = new int[blockStart[block + 1] - blockStart[block]]; // agents of each group who did not get a stage yet
+			int eligibleBlock = 0;
+			for(int g = blockStart[block]; g < blockStart[block + 1]; g++) {
+				eligible[g - blockStart[block]] = groupSize[g];
+				eligibleBlock += groupSize[g];
+			}
+
+			for(Stage stage : STAGES) {
+				int numberThisStage = INFECTION_NUMBERS[block / nrAgeGroups][block % nrAgeGroups][stage.ordinal()];
+				if(numberThisStage > eligibleBlock) throw new IllegalStateException("Number of people in a certain stage exceed number of people in that corop and agegroup. Check your input files.");
+
+				for(int i = 0; i < numberThisStage; i++) { // each agent is drawn uniformly from the eligible agents of the block
+					int r = rand.nextInt(eligibleBlock);
+					int g = blockStart[block];
+					while(r >= eligible[g - blockStart[block]]) {
+						r -= eligible[g - blockStart[block]];
+						g++;
+					}
+					eligible[g - blockStart[block]] --;
+					eligibleBlock --;
+
+					if(stage.ordinal() != HEALTHY) {
+						this.remove(g, HEALTHY, 0, 1);
+						if(AGENT_STAGES.contains(stage)) {
+							population.add(groupAge[g], groupResident[g], groupCommute[g], stage.ordinal());
+						}
+						else {
+							this.add(g, stage.ordinal(), 0, 1);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates the counted agents of all groups for this epoch, as Simulation.updateStages does for each agent. Agents who become severely ill are added to the population.
+	 * @param infectionRisk infection risk [city][age group] of a susceptible agent in this epoch
+	 * @param commuteScaling fraction of the commuters that still commute, indexed as ALPHA. Null when nobody stays at home.
+	 * @param progressionTable transition probabilities [age group][stage][next stage]
+	 */
+	public void update(int epoch, double[][] infectionRisk, double[] commuteScaling, double[][][] progressionTable, Population population, StageCounters counters, Random rand) {
+
+		for(int g = 0; g < cohorts.length; g++) {
+			int age = groupAge[g];
+
+			for(int stage = 0; stage < STAGES.length; stage++) {
+				if(total[g][stage] == 0) {
+					continue;
+				}
+				double[] probabilities = progressionTable[age][stage];
+
+				if(stage != HEALTHY && probabilities[stage] >= 1.0) { // nobody leaves this stage (cured, deceased), the agents who entered it this epoch (cohort epoch + 1) are already counted
+					counters.countSwitch(age, stage, stage, total[g][stage] - cohorts[g][stage][epoch + 1]);
+					continue;
+				}
+
+				double risk = 0.0;
+				if(stage == HEALTHY) {
+					int currentCity = (epoch % 2 == 0) ? groupCommute[g] : groupResident[g];
+					risk = infectionRisk[currentCity][age];
+					if(commuteScaling != null && epoch % 2 == 0 && currentCity != groupResident[g]) { // part of the commuters stays at home during the day, so a commuter has the risk of both corops
+						double stillCommuting = commuteScaling[groupAlphaIndex[g]];
+						risk = stillCommuting * risk + (1 - stillCommuting) * infectionRisk[groupResident[g]][age];
+					}
+				}
+
+				int[] cohortsStage = cohorts[g][stage];
+				for(int cohort = firstCohort[g][stage]; cohort <= epoch; cohort++) { // agents entering a stage this epoch are in cohort epoch + 1, they are updated from the next epoch onwards
+					int n = cohortsStage[cohort];
+					if(n == 0) {
+						continue;
+					}
+					int timeInStage = epoch + 1 - cohort;
+
+					if(stage == HEALTHY) { // healthy agents stay healthy or become exposed
+						int infected = Compartments.binomial(rand, n, risk);
+						this.move(g, stage, cohort, EXPOSED, infected, epoch, timeInStage, population, counters);
+						counters.countSwitch(age, stage, stage, n - infected);
+						continue;
+					}
+
+					int remaining = n; // the next stages are drawn one after the other, as determineNextStage walks over the probabilities
+					double mass = 1.0;
+					for(int next = 0; next < probabilities.length && remaining > 0; next++) {
+						double value = probabilities[next];
+						if(value > 1e-13) {
+							int number = (mass <= value) ? remaining : Compartments.binomial(rand, remaining, value / mass);
+							if(next == stage) {
+								counters.countSwitch(age, stage, stage, number);
+							}
+							else {
+								this.move(g, stage, cohort, next, number, epoch, timeInStage, population, counters);
+							}
+							remaining -= number;
+						}
+						mass -= value;
+					}
+					if(remaining > 0) { // as determineNextStage, when the probabilities do not sum up to 1
+						this.move(g, stage, cohort, STAGES.length - 1, remaining, epoch, timeInStage, population, counters);
+					}
+				}
+
+				while(firstCohort[g][stage] <= epoch && cohortsStage[firstCohort[g][stage]] == 0) {
+					firstCohort[g][stage] ++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves number agents of a cohort to the next stage in this epoch, or to the population when the next stage is in AGENT_STAGES
+	 */
+	private void move(int g, int stage, int cohort, int next, int number, int epoch, int timeInStage, Population population, StageCounters counters) {
+		if(number == 0) {
+			return;
+		}
+		this.remove(g, stage, cohort, number);
+		if(AGENT_STAGES.contains(STAGES[next])) {
+			for(int i = 0; i < number; i++) {
+				population.add(groupAge[g], groupResident[g], groupCommute[g], next);
+			}
+		}
+		else {
+			this.add(g, next, epoch + 1, number);
+		}
+		counters.countSwitch(groupAge[g], stage, next, number);
+		counters.countTimeInStage(groupAge[g], stage, timeInStage, number);
+	}
+
+	/**
+	 * Counts an agent of the population who entered a counted stage in this epoch (e.g. cured after being severely ill) in its group again
+	 */
+	public void add(int ageGroup, int residentPlace, int commutePlace, int stage, int epoch) {
+		if(AGENT_STAGES.contains(STAGES[stage])) throw new IllegalArgumentException("Stage " + STAGES[stage] + " is not counted.");
+
+		int block = residentPlace * AgeGroup.values().length + ageGroup;
+		for(int g = blockStart[block]; g < blockStart[block + 1]; g++) {
+			if(groupCommute[g] == commutePlace) {
+				this.add(g, stage, epoch + 1, 1);
+				return;
+			}
+		}
+		throw new IllegalArgumentException("No group of agents living in corop " + residentPlace + " and commuting to corop " + commutePlace + ".");
+	}
+
+	private void add(int g, int stage, int cohort, int number) {
+		if(cohorts[g][stage] == null) {
+			cohorts[g][stage] = new int[totalEpochsHorizon + 1];
+		}
+		cohorts[g][stage][cohort] += number;
+		total[g][stage] += number;
+		if(cohort < firstCohort[g][stage]) {
+			firstCohort[g][stage] = cohort;
+		}
+	}
+
+	private void remove(int g, int stage, int cohort, int number) {
+		cohorts[g][stage][cohort] -= number;
+		total[g][stage] -= number;
+	}
+
+	/**
+	 * Adds the counted agents to the number of agents [stage][age group][resident city]
+	 */
+	public void countStages(int[][][] stageCounts) {
+		for(int g = 0; g < total.length; g++) {
+			for(int stage = 0; stage < STAGES.length; stage++) {
+				stageCounts[stage][groupAge[g]][groupResident[g]] += total[g][stage];
+			}
+		}
+	}
+
+	/**
+	 * Adds the counted agents to the infectious agents (Ia and Is) and the agents you could encounter [resident city][age group], as Simulation.countNumberInfections does for the agents
+	 */
+	public void countInfections(int[][] infectedWhoSpreadIa, int[][] infectedWhoSpreadIs, int[][] encounterGroup, Set<Stage> notEncounterStages) {
+		for(int g = 0; g < total.length; g++) {
+			int city = groupResident[g];
+			int age = groupAge[g];
+			infectedWhoSpreadIa[city][age] += total[g][Stage.INFECTED_NOSYMPTOMS_ISCONTAGIOUS.ordinal()];
+			infectedWhoSpreadIs[city][age] += total[g][Stage.INFECTED_SYMPTOMS_MILD.ordinal()];
+			for(int stage = 0; stage < STAGES.length; stage++) {
+				if(!notEncounterStages.contains(STAGES[stage])) {
+					encounterGroup[city][age] += total[g][stage];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws from the binomial distribution with n trials and success probability p. Exact for all n and p:
+	 * a large mean is reduced by splitting at the i-th smallest of n uniforms, which is beta(i, n + 1 - i) distributed (Knuth, TAOCP 3.4.1),
+	 * a small mean is drawn by inverting the distribution function.
+	 */
+	static int binomial(Random rand, int n, double p) {
+		if(n <= 0 || p <= 0.0) {
+			return 0;
+		}
+		if(p >= 1.0) {
+			return n;
+		}
+		if(p > 0.5) {
+			return n - Compartments.binomial(rand, n, 1.0 - p);
+		}
+
+		int successes = 0;
+		while(n * p > BINOMIAL_INVERSION_MEAN) {
+			int i = (n + 1) / 2;
+			double x = Compartments.beta(rand, i, n + 1 - i);
+			if(x >= p) { // the successes are among the i - 1 uniforms below x
+				n = i - 1;
+				p = p / x;
+			}
+			else { // the i uniforms up to x are all successes, the others are above x
+				successes += i;
+				n = n - i;
+				p = (p - x) / (1.0 - x);
+			}
+		}
+
+		double q = p / (1.0 - p);
+		double probability = Math.exp(n * Math.log1p(-p)); // P(X = 0)
+		double u = rand.nextDouble();
+		int x = 0;
+		while(u > probability && x < n) {
+			u -= probability;
+			x++;
+			probability *= q * (n - x + 1) / x;
+		}
+		return successes + x;
+	}
+
+	/**
+	 * Draws from the beta distribution with shape parameters a, b >= 1
+	 */
+	private static double beta(Random rand, double a, double b) {
+		double x = Compartments.gamma(rand, a);
+		double y = Compartments.gamma(rand, b);
+		return x / (x + y);
+	}
+
+	/**
+	 * Draws from the gamma distribution with shape a >= 1 and scale 1 (Marsaglia and Tsang)
+	 */
+	private static double gamma(Random rand, double a) {
+		double d = a - 1.0 / 3.0;
+		double c = 1.0 / Math.sqrt(9.0 * d);
+		while(true) {
+			double x;
+			double v;
+			do {
+				x = rand.nextGaussian();
+				v = 1.0 + c * x;
+			} while(v <= 0.0);
+			v = v * v * v;
+			double u = rand.nextDouble();
+			if(u < 1.0 - 0.0331 * x * x * x * x || Math.log(u) < 0.5 * x * x + d * (1.0 - v + Math.log(v))) {
+				return d * v;
+			}
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package nCoV;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import nCoV.Main.AgeGroup;
+import nCoV.Main.Stage;
+
+/**
+ * One layer of groups of agents who meet each other every day: households (where the agents are during the night) or venues (schools and workplaces, during the day).
+ * Each agent is in at most one group of a layer. The groups are stored in compressed sparse row form: the members of group g are members[groupStart[g]] until members[groupStart[g + 1]],
+ * and groupOfAgent gives the group of each agent (-1 when it is in no group). The layer thus takes two ints per agent, instead of a list of contacts per agent.
+ * The groups are synthetic: they are drawn once, with a generator of their own, so all runs of a scenario use the same groups and the random numbers of the runs do not change.
+ */
+public class ContactNetwork {
+
+	private int[] groupStart;
+	private int[] members;
+	// Members of each group, in CSR form
+	private int[] groupOfAgent;
+	// Group of each agent, -1 when the agent is in no group of this layer
+
+	private static final int NONE = -1;
+	private static final int SCHOOL = 0;
+	private static final int WORK = 1;
+	// Kinds of venues: schools for the agents up to 19 years old, workplaces for the agents of 20 until 69 years old
+
+	private ContactNetwork(int[] groupStart, int[] members, int[] groupOfAgent) {
+		this.groupStart = groupStart;
+		this.members = members;
+		this.groupOfAgent = groupOfAgent;
+	}
+
+	/**
+	 * Draws households of the agents of each corop. The agents of a corop (all age groups) are put in random order and split into households,
+	 * whose sizes are drawn from the given distribution. The households of each corop are drawn with their own generator, so a partition (see Partition) gets the same households.
+	 * @param population agents of corop firstCity until endCity (exclusive)
+	 * @param cityStart the agents of corop c are cityStart[c] until cityStart[c + 1] of the population
+	 * @param sizeFractions fraction of the households with 1, 2, ... members
+	 */
+	public static ContactNetwork households(Population population, int[] cityStart, int firstCity, int endCity, double[] sizeFractions, long seed) {
+		int[] members = new int[population.size()];
+		int[] groupOfAgent = new int[population.size()];
+		int[] groupStart = new int[population.size() + 1]; // at most one household per agent
+		int nrGroups = 0;
+
+		double total = 0.0;
+		for(double fraction : sizeFractions) {
+			total += fraction;
+		}
+
+		for(int city = firstCity; city < endCity; city++) {
+			Random random = new XoroshiroRandom(seed * 31 + city);
+			int first = cityStart[city];
+			int end = cityStart[city + 1];
+			for(int i = first; i < end; i++) {
+				members[i] = i;
+			}
+			ContactNetwork.shuffle(members, first, end, random);
+
+			int next = first;
+			while(next < end) {
+				int size = ContactNetwork.drawSize(sizeFractions, total, random);
+				groupStart[nrGroups++] = next;
+				next = Math.min(next + size, end);
+			}
+		}
+		groupStart[nrGroups] = members.length;
+		groupStart = Arrays.copyOf(groupStart, nrGroups + 1);
+		return new ContactNetwork(groupStart, members, ContactNetwork.groupOfAgent(groupStart, members, groupOfAgent));
+	}
+
+	/**
+	 * Draws venues of about venueSize agents during the day: schools for the agents up to 19 years old and workplaces for the agents of 20 until 69 years old, of the corop where they are during the day (commutePlace).
+	 * Agents of 70 and older are not in a venue.
+	 * @param nrCities number of corops
+	 */
+	public static ContactNetwork venues(Population population, int nrCities, int venueSize, long seed) {
+		int[] bucketStart = new int[2 * nrCities + 1]; // agents of the same commute corop and kind of venue, sorted by counting
+		for(int i = 0; i < population.size(); i++) {
+			int kind = ContactNetwork.kindOfVenue(population.getAgeGroup(i));
+			if(kind != NONE) {
+				bucketStart[2 * population.getCommutePlace(i) + kind + 1] ++;
+			}
+		}
+		for(int bucket = 0; bucket < 2 * nrCities; bucket++) {
+			bucketStart[bucket + 1] += bucketStart[bucket];
+		}
+		int[] members = new int[bucketStart[2 * nrCities]];
+		int[] next = bucketStart.clone();
+		for(int i = 0; i < population.size(); i++) {
+			int kind = ContactNetwork.kindOfVenue(population.getAgeGroup(i));
+			if(kind != NONE) {
+				members[next[2 * population.getCommutePlace(i) + kind] ++] = i;
+			}
+		}
+
+		int nrGroups = 0;
+		for(int bucket = 0; bucket < 2 * nrCities; bucket++) {
+			nrGroups += (bucketStart[bucket + 1] - bucketStart[bucket] + venueSize - 1) / venueSize;
+		}
+		int[] groupStart = new int[nrGroups + 1];
+		int g = 0;
+		for(int bucket = 0; bucket < 2 * nrCities; bucket++) {
+			Random random = new XoroshiroRandom(seed * 31 + bucket);
+			ContactNetwork.shuffle(members, bucketStart[bucket], bucketStart[bucket + 1], random);
+			for(int first = bucketStart[bucket]; first < bucketStart[bucket + 1]; first += venueSize) {
+				groupStart[g++] = first;
+			}
+		}
+		groupStart[nrGroups] = members.length;
+
+		int[] groupOfAgent = new int[population.size()];
+		Arrays.fill(groupOfAgent, NONE);
+		return new ContactNetwork(groupStart, members, ContactNetwork.groupOfAgent(groupStart, members, groupOfAgent));
+	}
+
+	private static int kindOfVenue(int ageGroup) {
+		if(ageGroup <= AgeGroup.Age_10_19.ordinal()) {
+			return SCHOOL;
+		}
+		if(ageGroup <= AgeGroup.Age_60_69.ordinal()) {
+			return WORK;
+		}
+		return NONE;
+	}
+
+	public int getNumberOfGroups() {
+		return groupStart.length - 1;
+	}
+
+	/**
+	 * Counts for the healthy members of the group of this (infectious) agent that they have one more infectious contact. The work is proportional to the size of the group.
+	 * @param contacts number of infectious contacts of each agent, at most Byte.MAX_VALUE
+	 */
+	public void addInfectiousContacts(int agent, Population population, byte[] contacts) {
+		int g = groupOfAgent[agent];
+		if(g == NONE) {
+			return;
+		}
+		int healthy = Stage.HEALTHY.ordinal();
+		for(int k = groupStart[g]; k < groupStart[g + 1]; k++) {
+			int member = members[k];
+			if(member != agent && population.getStage(member) == healthy && contacts[member] < Byte.MAX_VALUE) {
+				contacts[member] ++;
+			}
+		}
+	}
+
+	/**
+	 * Sets the infectious contacts of the members of the group of this agent back to 0, such that the counts are cleared without going over all agents
+	 */
+	public void clearContacts(int agent, byte[] contacts) {
+		int g = groupOfAgent[agent];
+		if(g == NONE) {
+			return;
+		}
+		for(int k = groupStart[g]; k < groupStart[g + 1]; k++) {
+			contacts[members[k]] = 0;
+		}
+	}
+
+	private static int[] groupOfAgent(int[] groupStart, int[] members, int[] groupOfAgent) {
+		for(int g = 0; g < groupStart.length - 1; g++) {
+			for(int k = groupStart[g]; k < groupStart[g + 1]; k++) {
+				groupOfAgent[members[k]] = g;
+			}
+		}
+		return groupOfAgent;
+	}
+
+	/**
+	 * Draws a household size from the fractions of the households with 1, 2, ... members
+	 */
+	private static int drawSize(double[] sizeFractions, double total, Random random) {
+		double u = random.nextDouble() * total;
+		for(int size = 0; size < sizeFractions.length; size++) {
+			u -= sizeFractions[size];
+			if(u < 0) {
+				return size + 1;
+			}
+		}
+		return sizeFractions.length;
+	}
+
+	/**
+	 * Fisher-Yates shuffle of values[first] until values[end]
+	 */
+	private static void shuffle(int[] values, int first, int end, Random random) {
+		for(int i = end - 1; i > first; i--) {
+			int j = first + random.nextInt(i - first + 1);
+			int value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+}
@@ -0,0 +1,364 @@
+package nCoV;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import nCoV.Main.AgeGroup;
+import nCoV.Main.Stage;
+
+/**
+ * Coordinator of a distributed run (started with "java nCoV.Main coordinator"). The runs of all scenarios, P(T)'s and seeds are work units,
+ * which are handed out over a socket to workers (see Worker) on this or other machines. The workers return the counts of each run,
+ * which are aggregated into one ensemble summary per scenario and P(T). When a worker fails (its connection is lost, or it does not answer within the timeout of the settings) its unit is handed out again.
+ * With an adaptive number of runs the minimum number of runs of each scenario and P(T) is handed out first, and each added result that leaves a confidence interval too wide adds the next seed
+ * (see AdaptiveReplicas). Results are still added in the order of the units, so the number of runs is the same as when the runs are done one after the other.
+ * With common random numbers the variance reduction of each scenario and P(T) compared with the first is written (see VarianceReduction).
+ *
+ * Protocol (one line per message): the worker sends READY with its horizon, number of regions and hospitals and the hash of its settings (see ResultCache.settingsKey),
+ * the coordinator answers UNIT id scenario P(T) seed
+ * or STOP when all units are done. The worker answers a unit with RESULT id, a line with the stage counts, a line with the patient counts, a line with the queue counts and END,
+ * after which it gets the next unit.
+ */
+public class Coordinator {
+
+	static final String READY = "READY";
+	static final String UNIT = "UNIT";
+	static final String STOP = "STOP";
+	static final String RESULT = "RESULT";
+	static final String END = "END";
+
+	private static final int MAX_ATTEMPTS = 3;
+	// Number of times a unit is handed out before the distributed run fails
+	private static final int POLL_MILLIS = 1000;
+	// Interval at which waiting threads check whether all units are done
+
+	private InputSettings inputSet;
+	private Regions regions;
+	private List<WorkUnit> units;
+	// All units, in the order in which their results are added to the ensemble summaries
+	private LinkedBlockingDeque<WorkUnit> pending;
+	// Units that still have to be handed out, units of failed workers are put in front
+	private Map<Integer, int[][][][]> stageCounts;
+	private Map<Integer, int[][][]> patientCounts;
+	private Map<Integer, int[]> queueCounts;
+	// Results that are received, but not yet added to the ensemble summaries as a result of an earlier unit is still missing
+	private int nextToAdd;
+	// Index in units of the next result to add, such that the summaries are the same as when the runs are done one after the other
+	private Map<String, EnsembleAggregator> ensembles;
+	// Ensemble summary of each scenario and P(T), by the name of the summary file
+	private Map<String, AdaptiveReplicas> replicas;
+	// Adaptive number of runs of each scenario and P(T), empty for a fixed number of runs
+	private Map<String, Integer> lastSeeds;
+	// Seed of the last unit of each scenario and P(T)
+	private Map<String, VarianceReduction> reductions;
+	// Metrics of the runs of each scenario and P(T) with common random numbers, to report the variance reduction. Empty without common random numbers
+	private String failure;
+	// Reason why the distributed run failed, null while it has not failed
+
+	/**
+	 * A run of a scenario with a given P(T) and seed
+	 */
+	private static class WorkUnit {
+		private int id;
+		private int scenario;
+		private double transmissionProbability;
+		private int seed;
+		private String summaryName;
+		private int attempts;
+
+		private WorkUnit(int id, int scenario, double transmissionProbability, int seed, String summaryName) {
+			this.id = id;
+			this.scenario = scenario;
+			this.transmissionProbability = transmissionProbability;
+			this.seed = seed;
+			this.summaryName = summaryName;
+		}
+
+		@Override
+		public String toString() {
+			return UNIT + " " + id + " " + scenario + " " + transmissionProbability + " " + seed;
+		}
+	}
+
+	private Coordinator(InputSettings inputSet, Regions regions) {
+		if(inputSet.getBranchInterventionSchedules().length > 0) throw new IllegalArgumentException("Branches are not supported in a distributed run.");
+
+		this.inputSet = inputSet;
+		this.regions = regions;
+		this.units = new ArrayList<>();
+		this.pending = new LinkedBlockingDeque<>();
+		this.stageCounts = new HashMap<>();
+		this.patientCounts = new HashMap<>();
+		this.queueCounts = new HashMap<>();
+		this.ensembles = new LinkedHashMap<>();
+		this.replicas = new HashMap<>();
+		this.lastSeeds = new HashMap<>();
+		this.reductions = new LinkedHashMap<>();
+
+		String interventionName = inputSet.getInterventionSchedule();
+		for(int scenario : inputSet.getCoordinatorScenarios()) {
+			for(double transmissionProbability : inputSet.getCoordinatorTransmissionProbabilities()) {
+				String summaryName = "matrix-" + scenario + "_" + (interventionName.isEmpty() ? "" + transmissionProbability : transmissionProbability + "_" + interventionName);
+				ensembles.put(summaryName, new EnsembleAggregator(inputSet.getTotalEpochsHorizon(), inputSet.getEnsembleQuantiles(), regions));
+				if(inputSet.isCommonRandomNumbers()) {
+					reductions.put(summaryName, new VarianceReduction(summaryName, inputSet.isAntitheticRuns()));
+				}
+				AdaptiveReplicas adaptive = inputSet.createAdaptiveReplicas();
+				if(adaptive != null) {
+					replicas.put(summaryName, adaptive);
+				}
+
+				int seeds = adaptive == null ? inputSet.getTotalNumberSimulations() : adaptive.getMinimumRuns();
+				for(int seed = 1; seed <= seeds; seed++) {
+					this.addUnit(scenario, transmissionProbability, seed, summaryName);
+				}
+			}
+		}
+	}
+
+	private void addUnit(int scenario, double transmissionProbability, int seed, String summaryName) {
+		WorkUnit unit = new WorkUnit(units.size(), scenario, transmissionProbability, seed, summaryName);
+		units.add(unit);
+		pending.add(unit);
+		lastSeeds.put(summaryName, seed);
+	}
+
+	/**
+	 * True when the scenario and P(T) of the unit needs no more runs, its result is not added
+	 */
+	private boolean isSkipped(WorkUnit unit) {
+		AdaptiveReplicas adaptive = replicas.get(unit.summaryName);
+		return adaptive != null && adaptive.isDone();
+	}
+
+	/**
+	 * Hands out all runs to the workers that connect to the port in the settings, and writes the ensemble summaries when all runs are done
+	 */
+	public static void run(InputSettings inputSet, Regions regions) throws IOException {
+
+		Coordinator coordinator = new Coordinator(inputSet, regions);
+		System.out.println("Coordinator: " + coordinator.units.size() + " runs, waiting for workers on port " + inputSet.getCoordinatorPort());
+
+		try(ServerSocket server = new ServerSocket(inputSet.getCoordinatorPort())) {
+			server.setSoTimeout(POLL_MILLIS);
+			while(!coordinator.isDone()) {
+				try {
+					Socket socket = server.accept();
+					Thread thread = new Thread(() -> coordinator.handleWorker(socket));
+					thread.setDaemon(true);
+					thread.start();
+				} catch (SocketTimeoutException e) {
+					// check again whether all units are done
+				}
+			}
+		}
+
+		if(coordinator.failure != null) throw new IllegalStateException(coordinator.failure);
+
+		for(Map.Entry<String, EnsembleAggregator> entry : coordinator.ensembles.entrySet()) {
+			String[] name = entry.getKey().split("_", 2); // transition matrix and the rest of the summary name
+			Main.writeEnsembleSummary(entry.getValue(), inputSet.getFolderName(), name[0], name[1]);
+			if(coordinator.replicas.containsKey(entry.getKey())) {
+				AdaptiveReplicas adaptive = coordinator.replicas.get(entry.getKey());
+				System.out.println("Coordinator: " + entry.getKey() + " " + adaptive.getNumberOfRuns() + " runs, " + (adaptive.isPrecise() ? "target reached" : "budget used"));
+				Main.writeAdaptiveReplicas(adaptive, inputSet.getFolderName(), name[0], name[1]);
+			}
+		}
+		if(coordinator.reductions.size() > 1 || (inputSet.isAntitheticRuns() && !coordinator.reductions.isEmpty())) { // named after the reference, the first scenario and P(T)
+			List<VarianceReduction> summaries = new ArrayList<>(coordinator.reductions.values());
+			String[] name = summaries.get(0).getName().split("_", 2);
+			Main.writeVarianceReduction(summaries, inputSet.isAntitheticRuns(), inputSet.getFolderName(), name[0], name[1]);
+		}
+		System.out.println("Coordinator: all runs done");
+	}
+
+	private synchronized boolean isDone() {
+		return failure != null || nextToAdd == units.size();
+	}
+
+	/**
+	 * Hands out units to one worker until all units are done or the connection to the worker is lost
+	 */
+	private void handleWorker(Socket socket) {
+
+		WorkUnit unit = null;
+		try(Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+
+			s.setSoTimeout(inputSet.getCoordinatorTimeout() * 1000);
+			String expected = Coordinator.ready(inputSet, regions);
+			String ready = in.readLine();
+			if(!expected.equals(ready)) { // the worker uses other settings, its results cannot be aggregated
+				System.out.println("Coordinator: worker " + s.getRemoteSocketAddress() + " refused, expected " + expected + " but got " + ready);
+				out.println(STOP);
+				return;
+			}
+
+			while(true) {
+				unit = this.nextUnit();
+				if(unit == null) {
+					out.println(STOP);
+					out.flush();
+					return;
+				}
+				out.println(unit);
+				out.flush();
+				this.readResult(in, s, unit, System.currentTimeMillis() + inputSet.getCoordinatorTimeout() * 1000L);
+				unit = null;
+			}
+		} catch (IOException | RuntimeException e) {
+			if(unit != null) {
+				System.out.println("Coordinator: worker " + socket.getRemoteSocketAddress() + " failed on unit " + unit.id + " (" + e + ")");
+				this.retry(unit);
+			}
+		}
+	}
+
+	/**
+	 * READY message of a worker with these settings, the coordinator only accepts workers with the same message
+	 */
+	static String ready(InputSettings inputSet, Regions regions) {
+		return READY + " " + inputSet.getTotalEpochsHorizon() + " " + regions.getNumberOfRegions() + " " + regions.getNumberOfHospitals() + " " + ResultCache.settingsKey(inputSet);
+	}
+
+	/**
+	 * Next unit to hand out, waits while all remaining units are handed out to other workers (one of them may still fail). Null when all units are done.
+	 */
+	private WorkUnit nextUnit() {
+		try {
+			while(!this.isDone()) {
+				WorkUnit unit = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if(unit != null) {
+					synchronized(this) {
+						if(this.isSkipped(unit)) { // the result would not be added
+							continue;
+						}
+						unit.attempts++;
+					}
+					return unit;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+
+	private synchronized void retry(WorkUnit unit) {
+		if(unit.attempts >= MAX_ATTEMPTS) {
+			failure = "Unit " + unit.id + " (scenario " + unit.scenario + ", P(T) " + unit.transmissionProbability + ", seed " + unit.seed + ") failed " + unit.attempts + " times.";
+		}
+		else {
+			pending.addFirst(unit);
+		}
+	}
+
+	/**
+	 * Reads the result of a unit and adds all results that are complete in the order of the units to the ensemble summaries
+	 * @param deadline time (in milliseconds) at which the result should be read, a worker that hangs without closing the connection then gives a SocketTimeoutException
+	 */
+	private void readResult(BufferedReader in, Socket socket, WorkUnit unit, long deadline) throws IOException {
+		int nrStages = Stage.values().length;
+		int nrAgeGroups = AgeGroup.values().length;
+		int horizon = inputSet.getTotalEpochsHorizon();
+
+		Coordinator.expect(Coordinator.readLine(in, socket, deadline), RESULT + " " + unit.id);
+		int[] stages = Coordinator.parseCounts(Coordinator.readLine(in, socket, deadline), horizon * nrStages * nrAgeGroups * regions.getNumberOfRegions());
+		int[] patients = Coordinator.parseCounts(Coordinator.readLine(in, socket, deadline), horizon * regions.getNumberOfHospitals() * nrAgeGroups);
+		int[] queue = Coordinator.parseCounts(Coordinator.readLine(in, socket, deadline), horizon);
+		Coordinator.expect(Coordinator.readLine(in, socket, deadline), END);
+
+		int[][][][] stageCountsUnit = new int[horizon][nrStages][nrAgeGroups][regions.getNumberOfRegions()];
+		int[][][] patientCountsUnit = new int[horizon][regions.getNumberOfHospitals()][nrAgeGroups];
+		int k = 0;
+		for(int epoch = 0; epoch < horizon; epoch++) {
+			for(int stage = 0; stage < nrStages; stage++) {
+				for(int age = 0; age < nrAgeGroups; age++) {
+					for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+						stageCountsUnit[epoch][stage][age][city] = stages[k++];
+					}
+				}
+			}
+		}
+		k = 0;
+		for(int epoch = 0; epoch < horizon; epoch++) {
+			for(int hos = 0; hos < regions.getNumberOfHospitals(); hos++) {
+				for(int age = 0; age < nrAgeGroups; age++) {
+					patientCountsUnit[epoch][hos][age] = patients[k++];
+				}
+			}
+		}
+
+		synchronized(this) {
+			if(unit.id >= nextToAdd) {
+				stageCounts.put(unit.id, stageCountsUnit);
+				patientCounts.put(unit.id, patientCountsUnit);
+				queueCounts.put(unit.id, queue);
+			}
+			while(nextToAdd < units.size() && (stageCounts.containsKey(nextToAdd) || this.isSkipped(units.get(nextToAdd)))) {
+				WorkUnit next = units.get(nextToAdd);
+				int[][][][] stageCountsNext = stageCounts.remove(nextToAdd);
+				int[][][] patientCountsNext = patientCounts.remove(nextToAdd);
+				int[] queueCountsNext = queueCounts.remove(nextToAdd);
+				nextToAdd++;
+				if(this.isSkipped(next)) {
+					continue;
+				}
+
+				ensembles.get(next.summaryName).addRun(stageCountsNext, patientCountsNext, queueCountsNext);
+				if(reductions.containsKey(next.summaryName)) {
+					reductions.get(next.summaryName).addRun(stageCountsNext, patientCountsNext, queueCountsNext);
+				}
+				AdaptiveReplicas adaptive = replicas.get(next.summaryName);
+				if(adaptive != null) {
+					adaptive.addRun(stageCountsNext, patientCountsNext, queueCountsNext);
+					int seed = lastSeeds.get(next.summaryName) + 1;
+					if(!adaptive.isDone() && seed <= adaptive.getBudget()) { // the next seed, the minimum number of runs stays handed out
+						this.addUnit(next.scenario, next.transmissionProbability, seed, next.summaryName);
+					}
+				}
+			}
+		}
+		System.out.println("Coordinator: unit " + unit.id + " done");
+	}
+
+	/**
+	 * Reads a line, waiting at most until the deadline
+	 */
+	private static String readLine(BufferedReader in, Socket socket, long deadline) throws IOException {
+		long remaining = deadline - System.currentTimeMillis();
+		if(remaining <= 0) throw new SocketTimeoutException("The deadline of the unit has passed.");
+		socket.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+		return in.readLine();
+	}
+
+	private static void expect(String line, String expected) throws IOException {
+		if(!expected.equals(line)) throw new IOException("Expected " + expected + " but got " + line);
+	}
+
+	private static int[] parseCounts(String line, int length) throws IOException {
+		if(line == null) throw new IOException("Connection closed.");
+		String[] words = line.isEmpty() ? new String[0] : line.split(" ");
+		if(words.length != length) throw new IOException("Expected " + length + " counts but got " + words.length);
+		int[] counts = new int[length];
+		for(int i = 0; i < length; i++) {
+			counts[i] = Integer.parseInt(words[i]);
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,120 @@
+package nCoV;
+
+import nCoV.Main.AgeGroup;
+import nCoV.Main.Stage;
+
+/**
+ * Aggregates the results of all runs (replicas) of a scenario while they complete, such that the per-run output files do not have to be kept or read again.
+ * For each epoch it keeps the mean, variance and quantiles of the number of agents in each stage (in total and per corop and age group) and of the number of patients in each hospital.
+ * Memory only depends on the number of epochs and quantiles, not on the number of runs.
+ */
+public class EnsembleAggregator {
+
+	private int totalEpochsHorizon;
+	private int numberOfRuns;
+	private Regions regions;
+	private int nrRegions;
+	private int nrHospitals;
+
+	private StreamingStatistics totalPerStage;
+	// cells (epoch, stage)
+	private StreamingStatistics perStageAgeGroupCity;
+	// cells (epoch, stage, age group, corop)
+	private StreamingStatistics patientsPerHospital;
+	// cells (epoch, hospital, age group)
+	private StreamingStatistics patientsInQueue;
+	// cells (epoch)
+
+	private static final int NR_STAGES = Stage.values().length;
+	private static final int NR_AGEGROUPS = AgeGroup.values().length;
+
+	public EnsembleAggregator(int totalEpochsHorizon, double[] quantiles, Regions regions) {
+		this.totalEpochsHorizon = totalEpochsHorizon;
+		this.numberOfRuns = 0;
+		this.regions = regions;
+		this.nrRegions = regions.getNumberOfRegions();
+		this.nrHospitals = regions.getNumberOfHospitals();
+		this.totalPerStage = new StreamingStatistics(totalEpochsHorizon * NR_STAGES, quantiles);
+		this.perStageAgeGroupCity = new StreamingStatistics(totalEpochsHorizon * NR_STAGES * NR_AGEGROUPS * nrRegions, quantiles);
+		this.patientsPerHospital = new StreamingStatistics(totalEpochsHorizon * nrHospitals * NR_AGEGROUPS, quantiles);
+		this.patientsInQueue = new StreamingStatistics(totalEpochsHorizon, quantiles);
+	}
+
+	/**
+	 * Adds the results of a completed run.
+	 * @param stageCounts number of agents [epoch][stage][age group][corop] at the beginning of each epoch
+	 * @param patientCounts number of patients [epoch][hospital][age group] at the beginning of each epoch
+	 * @param queueCounts number of patients in the queue [epoch] at the beginning of each epoch
+	 */
+	public void addRun(int[][][][] stageCounts, int[][][] patientCounts, int[] queueCounts) {
+
+		for(int epoch = 0; epoch < totalEpochsHorizon; epoch++) {
+
+			for(int stage = 0; stage < NR_STAGES; stage++) {
+				int total = 0;
+				for(int age = 0; age < NR_AGEGROUPS; age++) {
+					for(int city = 0; city < nrRegions; city++) {
+						int number = stageCounts[epoch][stage][age][city];
+						perStageAgeGroupCity.add(this.cellStageAgeGroupCity(epoch, stage, age, city), number);
+						total += number;
+					}
+				}
+				totalPerStage.add(epoch * NR_STAGES + stage, total);
+			}
+
+			for(int hos = 0; hos < nrHospitals; hos++) {
+				for(int age = 0; age < NR_AGEGROUPS; age++) {
+					patientsPerHospital.add((epoch * nrHospitals + hos) * NR_AGEGROUPS + age, patientCounts[epoch][hos][age]);
+				}
+			}
+			patientsInQueue.add(epoch, queueCounts[epoch]);
+		}
+		numberOfRuns++;
+	}
+
+	private int cellStageAgeGroupCity(int epoch, int stage, int age, int city) {
+		return ((epoch * NR_STAGES + stage) * NR_AGEGROUPS + age) * nrRegions + city;
+	}
+
+	public int getNumberOfRuns() {
+		return numberOfRuns;
+	}
+
+	public int getTotalEpochsHorizon() {
+		return totalEpochsHorizon;
+	}
+
+	public Regions getRegions() {
+		return regions;
+	}
+
+	public StreamingStatistics getTotalPerStage() {
+		return totalPerStage;
+	}
+
+	public StreamingStatistics getPatientsInQueue() {
+		return patientsInQueue;
+	}
+
+	/**
+	 * Statistics of the number of agents in the stage, age group and corop at the beginning of the epoch. Use getCellStageAgeGroupCity() for the cell.
+	 */
+	public StreamingStatistics getPerStageAgeGroupCity() {
+		return perStageAgeGroupCity;
+	}
+
+	public int getCellStageAgeGroupCity(int epoch, Stage stage, AgeGroup ageGroup, int city) {
+		return this.cellStageAgeGroupCity(epoch, stage.ordinal(), ageGroup.ordinal(), city);
+	}
+
+	/**
+	 * Statistics of the number of patients in the hospital and age group at the beginning of the epoch. Use getCellHospitalAgeGroup() for the cell.
+	 */
+	public StreamingStatistics getPatientsPerHospital() {
+		return patientsPerHospital;
+	}
+
+	public int getCellHospitalAgeGroup(int epoch, int hos, AgeGroup ageGroup) {
+		return (epoch * nrHospitals + hos) * NR_AGEGROUPS + ageGroup.ordinal();
+	}
+}
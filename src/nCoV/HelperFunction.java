@@ -2,7 +2,6 @@ package nCoV;
 
 import java.util.EnumMap;
 import nCoV.Main.AgeGroup;
-import nCoV.Main.City;
 /**
  * These functions are used to determine the daily contact patterns and to determine alpha.
  * Parameter alpha (\alpha_{c,c',a}) represents the fraction of people from age group a living in corop c and being present in corop c' during the day epoch.  
@@ -30,40 +29,55 @@ public class HelperFunction {
 		return output;
 	}
 
-	public static EnumMap<AgeGroup, EnumMap<City, EnumMap<City, Double>>> determineAlpha(EnumMap<AgeGroup, EnumMap<City, EnumMap<City,Integer>>> COMMUTE_DISTRIBUTION, EnumMap<City, EnumMap<AgeGroup, Integer>> POPULATION_NUMBER){
+	/**
+	 * Determines alpha for each age group (ordinal) as a sparse matrix [c][c']. All age groups use the same structure: the diagonal and every pair of regions with commuters of any age group, 
+	 * alpha is 0 for all other pairs of regions. The work therefore grows with the number of commute flows instead of the number of regions squared.
+	 */
+	public static SparseMatrix[] determineAlpha(EnumMap<AgeGroup, SparseMatrix> COMMUTE_DISTRIBUTION, int[][] POPULATION_NUMBER){
 
-		EnumMap<AgeGroup, EnumMap<City, EnumMap<City, Double>>> output = new EnumMap<>(AgeGroup.class);
+		int nrRegions = POPULATION_NUMBER.length;
 
+		SparseMatrix.Builder pattern = new SparseMatrix.Builder(nrRegions, nrRegions);
+		for(int city = 0; city < nrRegions; city++) {
+			pattern.add(city, city, 0.0); // the diagonal is always stored, as agents who no longer commute stay in their own region
+		}
 		for(AgeGroup agegroup : AgeGroup.values()) {
-			EnumMap<City, EnumMap<City, Double>> tempMap = new EnumMap<>(City.class);
+			SparseMatrix commute = COMMUTE_DISTRIBUTION.get(agegroup);
+			for(int city = 0; city < nrRegions; city++) {
+				for(int k = commute.getRowStart(city); k < commute.getRowEnd(city); k++) {
+					pattern.add(city, commute.getColumn(k), 0.0);
+				}
+			}
+		}
+		SparseMatrix structure = pattern.build();
 
-			for(City city : City.values()) {
+		SparseMatrix[] output = new SparseMatrix[AgeGroup.values().length];
 
-				EnumMap<City, Double> tempMapinside = new EnumMap<>(City.class);
-				double numberPeopleLiving = POPULATION_NUMBER.get(city).get(agegroup);
-				
-				double numberWorkers = 0.0;
+		for(AgeGroup agegroup : AgeGroup.values()) {
+			SparseMatrix commute = COMMUTE_DISTRIBUTION.get(agegroup);
+			SparseMatrix alpha = structure.copy();
 
-				for(City cityCommute : City.values()) {
-					numberWorkers += COMMUTE_DISTRIBUTION.get(agegroup).get(city).get(cityCommute);
-				}
+			for(int city = 0; city < nrRegions; city++) {
+
+				double numberPeopleLiving = POPULATION_NUMBER[city][agegroup.ordinal()];
+				
+				double numberWorkers = commute.rowSum(city);
 				
 				double peopleStayingHome = numberPeopleLiving - numberWorkers;
 
-				for(City cityCommute : City.values()) {
-					if(city.equals(cityCommute)) {
-						double alpha_a_c_cprime = (COMMUTE_DISTRIBUTION.get(agegroup).get(city).get(cityCommute) + peopleStayingHome) / numberPeopleLiving;
-						tempMapinside.put(cityCommute, alpha_a_c_cprime);
+				for(int k = alpha.getRowStart(city); k < alpha.getRowEnd(city); k++) {
+					int cityCommute = alpha.getColumn(k);
+					if(cityCommute == city) {
+						double alpha_a_c_cprime = (commute.get(city, cityCommute) + peopleStayingHome) / numberPeopleLiving;
+						alpha.setValue(k, alpha_a_c_cprime);
 					}
 					else {
-						double alpha_a_c_cprime = COMMUTE_DISTRIBUTION.get(agegroup).get(city).get(cityCommute) / numberPeopleLiving; 
-						tempMapinside.put(cityCommute, alpha_a_c_cprime);
+						double alpha_a_c_cprime = commute.get(city, cityCommute) / numberPeopleLiving; 
+						alpha.setValue(k, alpha_a_c_cprime);
 					}
 				}
-				tempMap.put(city, tempMapinside);
 			}
-
-			output.put(agegroup, tempMap);
+			output[agegroup.ordinal()] = alpha;
 		}
 		return output;
 	}
@@ -0,0 +1,289 @@
+package nCoV;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Attribution of the new infections to their infector. The infection rate of a susceptible agent of age group a in corop c is a sum of contributions: the infectious agents of each age group a'
+ * (hazard -0.5 * #DailyContacts_{a,a'} * log(1 - P_{a,a',c,t})) and within a' the infectious agents living in each corop (during the day the part of corop c that stays at home and
+ * the commuters of ALPHA coming into c). For each infection the age group, the corop and the stage (Ia or Is) of the infector are drawn in proportion to these contributions.
+ * The contributions are made cumulative once per epoch, so an infection costs a few binary searches. The infections are counted per origin and destination corop, and can be written to a binary log.
+ */
+public class InfectionSources {
+
+	public static final int IA = 0;
+	public static final int IS = 1;
+	public static final int NONE = 2;
+	// Stage of the infector: infectious without symptoms (Ia), with mild symptoms (Is), or no infector (the transition from healthy to exposed in the transition matrix)
+	public static final int RECORD_BYTES = 16;
+	// A record of the log: epoch (int), agent (int), corop of the infection (short), corop of the infector (short, -1 without infector),
+	// age group of the agent (byte), age group of the infector (byte, -1 without infector), stage of the infector (byte) and strain (byte)
+
+	private int nrCities;
+	private int nrAgeGroups;
+	private int[][] columnStart;
+	private int[][] columnPosition;
+	private int[][] columnRow;
+	// Column c of ALPHA[a'] (the agents of age group a' commuting into corop c) is stored at positions columnPosition[a'][k] of rows columnRow[a'][k], for k from columnStart[a'][c] until columnStart[a'][c + 1]
+	private double[][][][] ageWeight;
+	// Cumulative hazard [strain][corop][age group][a'] of the infectious agents of age group a' for a susceptible agent of the age group in the corop
+	private double[][][] originWeight;
+	// Cumulative contribution [strain][a'][slot] of the corops where the infectious agents of age group a' live. For corop c, slot columnStart[a'][c] + c is the part of c itself, followed by a slot for each k of column c
+	private int[][][] infectedIa;
+	private int[][][] infectedIs;
+	// Infectious agents [strain][corop][age group] of the current epoch
+	private int[][][][] counts;
+	// Infections [day 0 or night 1][IA, IS or NONE][corop of the infector][corop of the infection], without infector the corop of the infection is used twice
+	private DataOutputStream log;
+	// Log of all infections, null when no log is written
+	private boolean logged;
+
+	public InfectionSources(SparseMatrix[] alpha, int nrStrains, boolean logged) {
+		this.nrCities = alpha[0].getNumberOfRows();
+		this.nrAgeGroups = alpha.length;
+		this.logged = logged;
+
+		this.columnStart = new int[nrAgeGroups][nrCities + 1];
+		this.columnPosition = new int[nrAgeGroups][];
+		this.columnRow = new int[nrAgeGroups][];
+		for(int ap = 0; ap < nrAgeGroups; ap++) { // counting sort of the stored values on their column, in increasing order of the rows
+			SparseMatrix matrix = alpha[ap];
+			for(int k = 0; k < matrix.getNumberOfNonZeros(); k++) {
+				columnStart[ap][matrix.getColumn(k) + 1] ++;
+			}
+			for(int c = 0; c < nrCities; c++) {
+				columnStart[ap][c + 1] += columnStart[ap][c];
+			}
+			int[] next = columnStart[ap].clone();
+			columnPosition[ap] = new int[matrix.getNumberOfNonZeros()];
+			columnRow[ap] = new int[matrix.getNumberOfNonZeros()];
+			for(int row = 0; row < nrCities; row++) {
+				for(int k = matrix.getRowStart(row); k < matrix.getRowEnd(row); k++) {
+					int j = next[matrix.getColumn(k)] ++;
+					columnPosition[ap][j] = k;
+					columnRow[ap][j] = row;
+				}
+			}
+		}
+
+		this.ageWeight = new double[nrStrains][nrCities][nrAgeGroups][nrAgeGroups];
+		this.originWeight = new double[nrStrains][nrAgeGroups][];
+		for(int strain = 0; strain < nrStrains; strain++) {
+			for(int ap = 0; ap < nrAgeGroups; ap++) {
+				originWeight[strain][ap] = new double[columnStart[ap][nrCities] + nrCities];
+			}
+		}
+		this.counts = new int[2][3][nrCities][nrCities];
+	}
+
+	private InfectionSources(InfectionSources other) {
+		this.nrCities = other.nrCities;
+		this.nrAgeGroups = other.nrAgeGroups;
+		this.logged = other.logged;
+		this.columnStart = other.columnStart;
+		this.columnPosition = other.columnPosition;
+		this.columnRow = other.columnRow;
+		this.ageWeight = new double[other.ageWeight.length][nrCities][nrAgeGroups][nrAgeGroups]; // filled again at the next epoch
+		this.originWeight = new double[other.originWeight.length][nrAgeGroups][];
+		for(int strain = 0; strain < originWeight.length; strain++) {
+			for(int ap = 0; ap < nrAgeGroups; ap++) {
+				originWeight[strain][ap] = new double[other.originWeight[strain][ap].length];
+			}
+		}
+		this.counts = new int[2][3][nrCities][];
+		for(int period = 0; period < 2; period++) {
+			for(int stage = 0; stage < 3; stage++) {
+				for(int c = 0; c < nrCities; c++) {
+					counts[period][stage][c] = other.counts[period][stage][c].clone();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy with the same counts and without log, used when a simulation is forked (the fork opens its own log)
+	 */
+	public InfectionSources copy() {
+		return new InfectionSources(this);
+	}
+
+	/**
+	 * Sets the counts back to 0 for a new run
+	 */
+	public void reset() {
+		for(int[][][] period : counts) {
+			for(int[][] stage : period) {
+				for(int[] origin : stage) {
+					Arrays.fill(origin, 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Infections [day 0 or night 1][IA, IS or NONE][corop of the infector][corop of the infection] so far
+	 */
+	public int[][][][] getCounts() {
+		return counts;
+	}
+
+	public boolean isLogged() {
+		return logged;
+	}
+
+	/**
+	 * Opens the log when infections are logged
+	 * @param fileName file of the log, null when the output of the run is not written
+	 * @param append true to continue the log (e.g. of a fork)
+	 */
+	public void openLog(String fileName, boolean append) throws IOException {
+		if(!logged) {
+			return;
+		}
+		OutputStream out = fileName == null ? OutputStream.nullOutputStream() : Simulation.openOutputFile(fileName, append);
+		this.log = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+	}
+
+	/**
+	 * Writes the buffered records, such that the log file can be copied
+	 */
+	public void flushLog() throws IOException {
+		if(log != null) {
+			log.flush();
+		}
+	}
+
+	public void closeLog() throws IOException {
+		if(log != null) {
+			log.close();
+			log = null;
+		}
+	}
+
+	/**
+	 * Makes the contributions of this epoch cumulative, in one pass over ALPHA for each strain
+	 * @param infectedIa infectious agents without symptoms [strain][corop][age group]
+	 * @param infectedIs infectious agents with mild symptoms [strain][corop][age group]
+	 * @param alpha ALPHA of this epoch
+	 * @param homeShortcut part [a'][corop] of the agents that is in another corop during the day
+	 * @param infectionProbability P_{a,a',c,t} [strain][a][a'][c]
+	 * @param dailyContacts #DailyContacts_{a,a'} of this epoch
+	 */
+	public void update(int epoch, int[][][] infectedIa, int[][][] infectedIs, SparseMatrix[] alpha, double[][] homeShortcut, double[][][][] infectionProbability, double[][] dailyContacts) {
+		this.infectedIa = infectedIa;
+		this.infectedIs = infectedIs;
+		boolean day = epoch % 2 == 0;
+
+		for(int strain = 0; strain < ageWeight.length; strain++) {
+			for(int c = 0; c < nrCities; c++) {
+				for(int a = 0; a < nrAgeGroups; a++) {
+					double[] weights = ageWeight[strain][c][a];
+					double total = 0.0;
+					for(int ap = 0; ap < nrAgeGroups; ap++) {
+						total += -0.5 * dailyContacts[a][ap] * Math.log1p(-infectionProbability[strain][a][ap][c]);
+						weights[ap] = total;
+					}
+				}
+			}
+
+			for(int ap = 0; ap < nrAgeGroups; ap++) {
+				double[] weights = originWeight[strain][ap];
+				for(int c = 0; c < nrCities; c++) {
+					int slot = columnStart[ap][c] + c;
+					double infected = infectedIa[strain][c][ap] + infectedIs[strain][c][ap];
+					double total = day ? infected * (1 - homeShortcut[ap][c]) : infected; // the part of corop c that is in c
+					weights[slot] = total;
+					for(int j = columnStart[ap][c]; j < columnStart[ap][c + 1]; j++) {
+						int row = columnRow[ap][j];
+						if(day && row != c) { // commuters living in another corop
+							total += alpha[ap].getValue(columnPosition[ap][j]) * (infectedIa[strain][row][ap] + infectedIs[strain][row][ap]);
+						}
+						weights[slot + 1 + j - columnStart[ap][c]] = total;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws the infector of an agent who is infected in this epoch in corop city and counts the infection
+	 * @param agent index of the agent in the whole population, for the log
+	 * @param background part of the infection risk without infector (the transition from healthy to exposed in the transition matrix)
+	 * @param hash random bits of this infection
+	 */
+	public void attribute(int epoch, int agent, int city, int age, int strain, double background, long hash) {
+		int period = epoch % 2;
+		double u = InfectionSources.uniform(hash);
+
+		double[] ageWeights = ageWeight[strain][city][age];
+		if(u < background || !(ageWeights[nrAgeGroups - 1] > 0)) {
+			this.record(epoch, agent, city, age, strain, period, NONE, city, -1);
+			return;
+		}
+
+		hash = XoroshiroRandom.mix(hash);
+		int ap = InfectionSources.search(ageWeights, 0, nrAgeGroups, InfectionSources.uniform(hash) * ageWeights[nrAgeGroups - 1]);
+
+		double[] originWeights = originWeight[strain][ap];
+		int first = columnStart[ap][city] + city;
+		int end = columnStart[ap][city + 1] + city + 1;
+		if(!(originWeights[end - 1] > 0)) { // rounding, the infectious agents of a' add (almost) nothing
+			this.record(epoch, agent, city, age, strain, period, NONE, city, -1);
+			return;
+		}
+		hash = XoroshiroRandom.mix(hash);
+		int slot = InfectionSources.search(originWeights, first, end, InfectionSources.uniform(hash) * originWeights[end - 1]);
+		int origin = slot == first ? city : columnRow[ap][columnStart[ap][city] + slot - first - 1];
+
+		hash = XoroshiroRandom.mix(hash);
+		int ia = infectedIa[strain][origin][ap];
+		int stage = InfectionSources.uniform(hash) * (ia + infectedIs[strain][origin][ap]) < ia ? IA : IS;
+		this.record(epoch, agent, city, age, strain, period, stage, origin, ap);
+	}
+
+	private void record(int epoch, int agent, int city, int age, int strain, int period, int stage, int origin, int infectorAge) {
+		counts[period][stage][origin][city] ++;
+		if(log != null) {
+			try {
+				log.writeInt(epoch);
+				log.writeInt(agent);
+				log.writeShort(city);
+				log.writeShort(stage == NONE ? -1 : origin);
+				log.writeByte(age);
+				log.writeByte(infectorAge);
+				log.writeByte(stage);
+				log.writeByte(strain);
+			} catch (IOException e) {
+				throw new IllegalStateException("The infection log cannot be written.", e);
+			}
+		}
+	}
+
+	/**
+	 * First index from until end (exclusive) whose cumulative weight exceeds x, the last index when none does (rounding)
+	 */
+	private static int search(double[] cumulative, int from, int end, double x) {
+		int low = from;
+		int high = end - 1;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(cumulative[middle] > x) {
+				high = middle;
+			}
+			else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Uniform number in [0, 1) of the 53 highest bits
+	 */
+	private static double uniform(long hash) {
+		return (hash >>> 11) * 0x1.0p-53;
+	}
+}
@@ -2,8 +2,13 @@ package nCoV;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
 
 import nCoV.Main.*;
@@ -21,6 +26,43 @@ public class InputReader
 		int scenarioNumber = 0;
 		int totalEpochsHorizon = 0;
 		String folderName = "";
+		String interventionSchedule = "";
+		int branchEpoch = 0;
+		String[] branchInterventionSchedules = new String[0];
+		boolean ensembleSummary = false;
+		double[] ensembleQuantiles = {0.05, 0.5, 0.95};
+		boolean writeRunOutput = true;
+		String regions = "corop";
+		boolean legacySeeding = false;
+		boolean packedAgents = false;
+		String coordinatorHost = "localhost";
+		int coordinatorPort = 5005;
+		int[] coordinatorScenarios = new int[0];
+		double[] coordinatorTransmissionProbabilities = new double[0];
+		int partitions = 1;
+		String resultCache = "";
+		long resultCacheBudget = 1024;
+		boolean hybridEngine = false;
+		String randomGenerator = RandomSource.XOROSHIRO;
+		double[] householdSizes = new double[0];
+		double householdTransmissionProbability = 0;
+		int venueSize = 0;
+		double venueTransmissionProbability = 0;
+		double immunityDuration = 0;
+		String strains = "";
+		boolean infectionSources = false;
+		boolean infectionLog = false;
+		int epochsPerStep = 1;
+		boolean stepErrorReport = false;
+		boolean meanFieldEngine = false;
+		double adaptivePrecision = 0;
+		double adaptiveConfidence = 0.95;
+		int adaptiveMinRuns = 10;
+		String[] adaptiveMetrics = AdaptiveReplicas.METRICS;
+		boolean commonRandomNumbers = false;
+		boolean antitheticRuns = false;
+		double[][] contactSchedule = new double[0][];
+		int coordinatorTimeout = 3600;
 
 		// Create the scanner
 		Scanner in = new Scanner(new File( System.getProperty("user.dir") + "/input/" + fileName));
@@ -45,6 +87,198 @@ public class InputReader
 			{
 				totalEpochsHorizon = Integer.parseInt(words[1]);
 			}			
+			else if(words[0].equals("interventionSchedule"))
+			{
+				if(words.length > 1) { // only when input is given, otherwise the input stays the same over the whole horizon
+					interventionSchedule = words[1].trim();
+				}
+			}
+			else if(words[0].equals("branchEpoch"))
+			{
+				branchEpoch = Integer.parseInt(words[1]);
+			}
+			else if(words[0].equals("branchInterventionSchedules"))
+			{
+				branchInterventionSchedules = new String[words.length - 1]; // all remaining words are names of intervention schedules
+				for(int i = 1; i < words.length; i++) {
+					branchInterventionSchedules[i - 1] = words[i].trim();
+				}
+			}
+			else if(words[0].equals("ensembleSummary"))
+			{
+				ensembleSummary = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("ensembleQuantiles"))
+			{
+				ensembleQuantiles = new double[words.length - 1]; // all remaining words are quantiles
+				for(int i = 1; i < words.length; i++) {
+					ensembleQuantiles[i - 1] = Double.parseDouble(words[i]);
+				}
+			}
+			else if(words[0].equals("writeRunOutput"))
+			{
+				writeRunOutput = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("regions"))
+			{
+				regions = words[1].trim();
+			}
+			else if(words[0].equals("legacySeeding"))
+			{
+				legacySeeding = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("packedAgents"))
+			{
+				packedAgents = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("coordinatorHost"))
+			{
+				coordinatorHost = words[1].trim();
+			}
+			else if(words[0].equals("coordinatorPort"))
+			{
+				coordinatorPort = Integer.parseInt(words[1].trim());
+			}
+			else if(words[0].equals("coordinatorTimeout"))
+			{
+				coordinatorTimeout = Integer.parseInt(words[1].trim());
+			}
+			else if(words[0].equals("coordinatorScenarios"))
+			{
+				List<Integer> scenarios = new ArrayList<>(); // all remaining words are scenarios or ranges of scenarios such as 1-48
+				for(int i = 1; i < words.length; i++) {
+					String[] range = words[i].trim().split("-");
+					int first = Integer.parseInt(range[0]);
+					int last = range.length > 1 ? Integer.parseInt(range[1]) : first;
+					for(int s = first; s <= last; s++) {
+						scenarios.add(s);
+					}
+				}
+				coordinatorScenarios = scenarios.stream().mapToInt(Integer::intValue).toArray();
+			}
+			else if(words[0].equals("coordinatorTransmissionProbabilities"))
+			{
+				coordinatorTransmissionProbabilities = new double[words.length - 1]; // all remaining words are values of P(T)
+				for(int i = 1; i < words.length; i++) {
+					coordinatorTransmissionProbabilities[i - 1] = Double.parseDouble(words[i]);
+				}
+			}
+			else if(words[0].equals("partitions"))
+			{
+				partitions = Integer.parseInt(words[1].trim());
+			}
+			else if(words[0].equals("resultCache"))
+			{
+				if(words.length > 1) { // only when a folder is given, otherwise all runs are simulated
+					resultCache = words[1].trim();
+				}
+			}
+			else if(words[0].equals("resultCacheBudget"))
+			{
+				resultCacheBudget = Long.parseLong(words[1].trim());
+			}
+			else if(words[0].equals("hybridEngine"))
+			{
+				hybridEngine = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("randomGenerator"))
+			{
+				randomGenerator = words[1].trim();
+				if(!randomGenerator.equals(RandomSource.XOROSHIRO) && !randomGenerator.equals(RandomSource.LEGACY)) throw new IllegalArgumentException("Unknown random generator " + randomGenerator + ", use " + RandomSource.XOROSHIRO + " or " + RandomSource.LEGACY + ".");
+			}
+			else if(words[0].equals("householdSizes"))
+			{
+				householdSizes = new double[words.length - 1]; // all remaining words are the fractions of the households with 1, 2, ... members
+				for(int i = 1; i < words.length; i++) {
+					householdSizes[i - 1] = Double.parseDouble(words[i]);
+				}
+			}
+			else if(words[0].equals("householdTransmissionProbability"))
+			{
+				householdTransmissionProbability = Double.parseDouble(words[1]);
+			}
+			else if(words[0].equals("venueSize"))
+			{
+				venueSize = Integer.parseInt(words[1].trim());
+			}
+			else if(words[0].equals("venueTransmissionProbability"))
+			{
+				venueTransmissionProbability = Double.parseDouble(words[1]);
+			}
+			else if(words[0].equals("contactSchedule"))
+			{
+				contactSchedule = new double[2][2]; // all remaining words are slots period:layer:fraction, the fractions of the same period and layer are added
+				for(int i = 1; i < words.length; i++) {
+					String[] slot = words[i].trim().split(":");
+					if(slot.length != 3) throw new IllegalArgumentException("A slot of the contact schedule is period:layer:fraction: " + line);
+					int period = Arrays.asList("day", "night").indexOf(slot[0]);
+					int layer = Arrays.asList("venues", "households").indexOf(slot[1]);
+					if(period < 0 || layer < 0) throw new IllegalArgumentException("Unknown slot " + words[i].trim() + ", use day or night and venues or households: " + line);
+					contactSchedule[period][layer] += Double.parseDouble(slot[2]);
+				}
+			}
+			else if(words[0].equals("immunityDuration"))
+			{
+				immunityDuration = Double.parseDouble(words[1]);
+			}
+			else if(words[0].equals("strains"))
+			{
+				if(words.length > 1) { // only when input is given
+					strains = words[1].trim();
+				}
+			}
+			else if(words[0].equals("infectionSources"))
+			{
+				infectionSources = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("infectionLog"))
+			{
+				infectionLog = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("epochsPerStep"))
+			{
+				epochsPerStep = Integer.parseInt(words[1].trim());
+				if(epochsPerStep < 1) throw new IllegalStateException("The number of epochs per step should be at least 1: " + line);
+			}
+			else if(words[0].equals("stepErrorReport"))
+			{
+				stepErrorReport = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("meanFieldEngine"))
+			{
+				meanFieldEngine = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("adaptivePrecision"))
+			{
+				adaptivePrecision = Double.parseDouble(words[1].trim());
+				if(adaptivePrecision < 0) throw new IllegalStateException("The target of the confidence intervals cannot be negative: " + line);
+			}
+			else if(words[0].equals("adaptiveConfidence"))
+			{
+				adaptiveConfidence = Double.parseDouble(words[1].trim());
+				if(adaptiveConfidence <= 0 || adaptiveConfidence >= 1) throw new IllegalStateException("The confidence level should be between 0 and 1: " + line);
+			}
+			else if(words[0].equals("adaptiveMinRuns"))
+			{
+				adaptiveMinRuns = Integer.parseInt(words[1].trim());
+				if(adaptiveMinRuns < 2) throw new IllegalStateException("At least two runs are needed for a confidence interval: " + line);
+			}
+			else if(words[0].equals("commonRandomNumbers"))
+			{
+				commonRandomNumbers = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("antitheticRuns"))
+			{
+				antitheticRuns = Boolean.parseBoolean(words[1].trim());
+			}
+			else if(words[0].equals("adaptiveMetrics"))
+			{
+				adaptiveMetrics = new String[words.length - 1]; // all remaining words are metrics
+				for(int i = 1; i < words.length; i++) {
+					adaptiveMetrics[i - 1] = words[i].trim();
+					if(!Arrays.asList(AdaptiveReplicas.METRICS).contains(adaptiveMetrics[i - 1])) throw new IllegalStateException("Unknown metric " + adaptiveMetrics[i - 1] + ", use " + String.join(", ", AdaptiveReplicas.METRICS) + ": " + line);
+				}
+			}
 			else if(words[0].equals("folderNameOutput"))
 			{
 				if(words.length > 1) { // only when input is given
@@ -70,49 +304,136 @@ public class InputReader
 			}
 		}
 		in.close();
-		InputSettings inputSet = new InputSettings(scenarioNumber, totalNumberSimulations, virusTransmissionProbability,totalEpochsHorizon,folderName);
+
+		if(!writeRunOutput && !ensembleSummary) throw new IllegalArgumentException("Without the output of each run and without the ensemble summary no output would be written.");
+		if(branchInterventionSchedules.length > 0 && (branchEpoch < 0 || branchEpoch > totalEpochsHorizon)) throw new IllegalArgumentException("Branch epoch " + branchEpoch + " is outside the time horizon.");
+		if(adaptivePrecision > 0 && branchInterventionSchedules.length > 0) throw new IllegalArgumentException("An adaptive number of runs is not supported with branches.");
+		if(adaptivePrecision > 0 && totalNumberSimulations < 2) throw new IllegalArgumentException("An adaptive number of runs needs a total number of simulations of at least 2.");
+		if(adaptivePrecision > 0 && adaptiveMetrics.length == 0) throw new IllegalArgumentException("No metrics are chosen for the adaptive number of runs.");
+		if(antitheticRuns && !commonRandomNumbers) throw new IllegalArgumentException("Antithetic runs need common random numbers.");
+		if(commonRandomNumbers && (hybridEngine || meanFieldEngine)) throw new IllegalArgumentException("Common random numbers cannot be used with the hybrid or the mean-field engine.");
+		if(antitheticRuns && adaptivePrecision > 0) throw new IllegalArgumentException("Antithetic runs are not independent, so they cannot be used with an adaptive number of runs.");
+		if(coordinatorTimeout <= 0) throw new IllegalArgumentException("The timeout of a worker should be larger than 0 seconds.");
+		if(venueSize < 0) throw new IllegalArgumentException("The venue size cannot be negative.");
+		if(coordinatorScenarios.length == 0) coordinatorScenarios = new int[] {scenarioNumber}; // a distributed run uses the scenario and P(T) of a single run by default
+		if(coordinatorTransmissionProbabilities.length == 0) coordinatorTransmissionProbabilities = new double[] {virusTransmissionProbability};
+		InputSettings inputSet = new InputSettings(scenarioNumber, totalNumberSimulations, virusTransmissionProbability,totalEpochsHorizon,folderName,interventionSchedule,branchEpoch,branchInterventionSchedules,ensembleSummary,ensembleQuantiles,writeRunOutput,regions,legacySeeding,packedAgents,coordinatorHost,coordinatorPort,coordinatorScenarios,coordinatorTransmissionProbabilities,partitions,resultCache,resultCacheBudget,hybridEngine,randomGenerator,householdSizes,householdTransmissionProbability,venueSize,venueTransmissionProbability,immunityDuration,strains,infectionSources,infectionLog,epochsPerStep,stepErrorReport,meanFieldEngine,adaptivePrecision,adaptiveConfidence,adaptiveMinRuns,adaptiveMetrics,commonRandomNumbers,antitheticRuns,contactSchedule,coordinatorTimeout);
 		return inputSet; 
 
 	}
 
 
-	public static EnumMap<City, EnumMap<City, Integer>> readCommuteCSV(String fileName) throws FileNotFoundException
+	/**
+	 * Reads the regions of the simulation and the hospital of each region. Each line gives Region,Hospital, hospitals get an index in the order they first appear.
+	 */
+	public static Regions readRegionsCSV(String fileName) throws FileNotFoundException
+	{
+		// Create the scanner
+		Scanner in = new Scanner(new File(fileName));
+
+		List<String> regionNames = new ArrayList<>();
+		List<String> hospitalNames = new ArrayList<>();
+		List<Integer> hospitalOfRegion = new ArrayList<>();
+		Map<String, Integer> hospitalIndex = new HashMap<>();
+
+		if(in.hasNextLine()) {
+			in.nextLine(); // skip header
+		}
+
+		while(in.hasNextLine()) {
+			String line = in.nextLine();
+			if(line.trim().isEmpty()) continue;
+			String[] words = line.split(",");
+			if(words.length < 2) {
+				in.close();
+				throw new IllegalStateException("Region line should contain Region,Hospital: " + line);
+			}
+
+			String regionName = words[0].trim();
+			String hospitalName = words[1].trim();
+
+			Integer hos = hospitalIndex.get(hospitalName);
+			if(hos == null) {
+				hos = hospitalNames.size();
+				hospitalIndex.put(hospitalName, hos);
+				hospitalNames.add(hospitalName);
+			}
+			regionNames.add(regionName);
+			hospitalOfRegion.add(hos);
+		}
+		in.close();
+
+		if(regionNames.isEmpty()) throw new IllegalStateException("No regions found in " + fileName + ".");
+
+		int[] hospitals = new int[hospitalOfRegion.size()];
+		for(int region = 0; region < hospitals.length; region++) {
+			hospitals[region] = hospitalOfRegion.get(region);
+		}
+		return new Regions(regionNames.toArray(new String[0]), hospitalNames.toArray(new String[0]), hospitals);
+	}
+
+	/**
+	 * Reads the number of commuters (x1000) between the regions. The file is either a full grid (a row for each region of residence, a column for each commute region, in the order of the regions)
+	 * or, for a large number of regions, a list with header From,To,Number where only the nonzero flows are given. In both cases the numbers are in thousands.
+	 */
+	public static SparseMatrix readCommuteCSV(String fileName, Regions regions) throws FileNotFoundException
 	{
 		// Try to open the file
 		Scanner in = new Scanner(new File(fileName));
 		in.useLocale(Locale.ENGLISH); // Avoid dot-comma mess
 
-		// Create output map
-		EnumMap<City, EnumMap<City, Integer>> map = new EnumMap<>(City.class);
-		// Fill the map with maps
-		for (City city : City.values())
-		{
-			map.put(city, new EnumMap<>(City.class));
+		int nrRegions = regions.getNumberOfRegions();
+		SparseMatrix.Builder builder = new SparseMatrix.Builder(nrRegions, nrRegions);
+
+		String firstLine = in.hasNextLine() ? in.nextLine() : "";
+
+		if(firstLine.startsWith("From")) { // list of flows
+			while(in.hasNextLine()) {
+				String line = in.nextLine();
+				if(line.trim().isEmpty()) continue;
+				String[] words = line.split(",");
+				if(words.length < 3) {
+					in.close();
+					throw new IllegalStateException("Commute line should contain From,To,Number: " + line);
+				}
+				int cFrom = regions.getRegionIndex(words[0].trim());
+				int cTo = regions.getRegionIndex(words[1].trim());
+				int number = (int) (Double.parseDouble(words[2].trim())*1000);
+				if(number != 0) { // only the nonzero flows are stored
+					builder.add(cFrom, cTo, number);
+				}
+			}
+			in.close();
+			return builder.build();
 		}
 
-		// Fill the array
-		// It is a double for-loop over the cities. We'll check if the file is formatted well
+		// Fill the matrix
+		// It is a double for-loop over the regions. We'll check if the file is formatted well
 		// and has the right dimensions
-		for (City cFrom : City.values())
+		for (int cFrom = 0; cFrom < nrRegions; cFrom++)
 		{
 			// Create a scanner over a line
-			if (!in.hasNextLine())
+			if (cFrom > 0 && !in.hasNextLine())
 			{
 				in.close();
 				throw new IllegalStateException("File has too little rows. Are some cities missing?");
 			}
-			Scanner line = new Scanner(in.nextLine());
+			Scanner line = new Scanner(cFrom == 0 ? firstLine : in.nextLine());
 			line.useLocale(Locale.ENGLISH);
 			line.useDelimiter(",");
 
-			for (City cTo : City.values())
+			for (int cTo = 0; cTo < nrRegions; cTo++)
 			{
 				if (!line.hasNextDouble())
 				{
 					line.close();
+					in.close();
 					throw new IllegalStateException("File has too little columns. Are some cities missing?");
 				}
-				map.get(cFrom).put(cTo, (int) (line.nextDouble()*1000));
+				int number = (int) (line.nextDouble()*1000);
+				if(number != 0) { // only the nonzero flows are stored
+					builder.add(cFrom, cTo, number);
+				}
 			}
 
 			line.close();
@@ -120,18 +441,18 @@ public class InputReader
 
 		in.close();
 
-		return map;
+		return builder.build();
 	}
 
-	public static EnumMap<City, Integer> readPopulationNumberCSV(String fileName) throws FileNotFoundException
+	public static int[] readPopulationNumberCSV(String fileName, Regions regions) throws FileNotFoundException
 	{
 		// Create the scanner
 		Scanner in = new Scanner(new File(fileName));
 
-		//Create the output map
-		EnumMap<City, Integer> map = new EnumMap<>(City.class);
+		//Create the output array
+		int[] map = new int[regions.getNumberOfRegions()];
 
-		for (City c : City.values())
+		for (int c = 0; c < map.length; c++)
 		{
 			if (!in.hasNextLine())
 			{
@@ -154,19 +475,19 @@ public class InputReader
 			cityName = cityName.replace('\'', '_');
 			cityName = cityName.replace('/', '_');
 
-			if (!c.toString().equals(cityName))
+			if (!regions.getRegionName(c).equals(cityName))
 			{
 				line.close();
-				throw new IllegalStateException("Provided city name does not match: " + c + " expected, found " + cityName + ".");
+				throw new IllegalStateException("Provided city name does not match: " + regions.getRegionName(c) + " expected, found " + cityName + ".");
 			}
 
 			// Get the integer
 			if (!line.hasNextInt())
 			{
 				line.close();
-				throw new IllegalStateException("Integer not found for city " + c + ".");
+				throw new IllegalStateException("Integer not found for city " + regions.getRegionName(c) + ".");
 			}
-			map.put(c, line.nextInt());
+			map[c] = line.nextInt();
 
 			line.close();
 		}
@@ -176,16 +497,15 @@ public class InputReader
 		return map;
 	}
 
-	public static EnumMap<Hospital, Integer> readICcapacityCSV(String fileName) throws FileNotFoundException{
+	/**
+	 * Reads the IC capacity of each hospital. Hospitals which are not used by any of the regions are skipped.
+	 */
+	public static int[] readICcapacityCSV(String fileName, Regions regions) throws FileNotFoundException{
 		// Create the scanner
 		Scanner in = new Scanner(new File(fileName));
 
-		//Create the output map
-		EnumMap<Hospital, Integer> map = new EnumMap<>(Hospital.class);
-
-		for(Hospital hos : Hospital.values()) {
-			map.put(hos, 0);
-		}
+		//Create the output array
+		int[] map = new int[regions.getNumberOfHospitals()];
 
 		if(in.hasNextLine()) {
 			in.nextLine(); //skip first line
@@ -198,15 +518,11 @@ public class InputReader
 			String coropName = words[1];
 			Integer ICbeds = 5000000 * 2 * Integer.parseInt(words[13]); // Large IC capacity
 
-			Hospital hos = null;
-
-			try {
-				hos = Hospital.valueOf(coropName);
-			} catch (IllegalArgumentException ex) {  
+			if(!regions.containsHospital(coropName)) {
+				continue;
 			}
-
-			Integer currentICbeds = map.get(hos);
-			map.put(hos, ICbeds + currentICbeds);
+			int hos = regions.getHospitalIndex(coropName);
+			map[hos] += ICbeds;
 		}
 		in.close();
 		return map;
@@ -269,26 +585,16 @@ public class InputReader
 	}
 
 
-	public static EnumMap<City, EnumMap<AgeGroup, EnumMap<Stage, Integer>>> readInitialInfectionCSV(String fileName) throws FileNotFoundException{
+	/**
+	 * Reads the number of agents in each stage [region][age group][stage] at the start of the simulation
+	 */
+	public static int[][][] readInitialInfectionCSV(String fileName, Regions regions) throws FileNotFoundException{
 
 		// Create the scanner
 		Scanner in = new Scanner(new File(fileName));
 
-		//Create the output map
-		EnumMap<City, EnumMap<AgeGroup, EnumMap<Stage, Integer>>> map = new EnumMap<>(City.class);
-
-		// Initialize
-		for(City city : City.values()) {
-			EnumMap<AgeGroup, EnumMap<Stage, Integer>> tempMap = new EnumMap<>(AgeGroup.class);
-			for(AgeGroup ageGroup: AgeGroup.values()) {
-				EnumMap<Stage, Integer> tempMap2 = new EnumMap<>(Stage.class);
-				for(Stage stage : Stage.values()) {
-					tempMap2.put(stage, 0);
-				}
-				tempMap.put(ageGroup, tempMap2);
-			}
-			map.put(city, tempMap);
-		}
+		//Create the output array, initialized at 0
+		int[][][] map = new int[regions.getNumberOfRegions()][AgeGroup.values().length][Stage.values().length];
 
 		if(in.hasNextLine()) {
 			in.nextLine(); 
@@ -302,13 +608,12 @@ public class InputReader
 			String ageGroupName = words[1];
 			String stageName = words[2];
 
-			City city = null;
+			int city = regions.getRegionIndex(coropName);
 			AgeGroup ageGroup = null;
 			Stage currentStage = null;
 
 
 			try {
-				city = City.valueOf(coropName);
 				ageGroup = AgeGroup.valueOf(ageGroupName);
 				currentStage = Stage.valueOf(stageName);
 				//yes
@@ -316,8 +621,8 @@ public class InputReader
 				//nope
 			}
 
-			Integer numberInThisStage = Integer.parseInt(words[3]);
-			map.get(city).get(ageGroup).put(currentStage, numberInThisStage);
+			int numberInThisStage = Integer.parseInt(words[3]);
+			map[city][ageGroup.ordinal()][currentStage.ordinal()] = numberInThisStage;
 
 		}
 
@@ -326,22 +631,16 @@ public class InputReader
 	}
 
 
-	public static EnumMap<City, EnumMap<AgeGroup, Integer>> readPopulationDistributionCSV(String fileName) throws FileNotFoundException{
+	/**
+	 * Reads the number of agents [region][age group] living in each region
+	 */
+	public static int[][] readPopulationDistributionCSV(String fileName, Regions regions) throws FileNotFoundException{
 
 		// Create the scanner
 		Scanner in = new Scanner(new File(fileName));
 
-		//Create the output map
-		EnumMap<City, EnumMap<AgeGroup, Integer>> map = new EnumMap<>(City.class);
-
-		// Initialize
-		for(City city : City.values()) {
-			EnumMap<AgeGroup, Integer> tempMap = new EnumMap<>(AgeGroup.class);
-			for(AgeGroup ageGroup: AgeGroup.values()) {
-				tempMap.put(ageGroup, 0);
-			}
-			map.put(city, tempMap);
-		}
+		//Create the output array, initialized at 0
+		int[][] map = new int[regions.getNumberOfRegions()][AgeGroup.values().length];
 
 		if(in.hasNextLine()) {
 			in.nextLine(); 
@@ -354,19 +653,18 @@ public class InputReader
 			String coropName = words[0];
 			String ageGroupName = words[1];
 
-			City city = null;
+			int city = regions.getRegionIndex(coropName);
 			AgeGroup ageGroup = null;
 
 			try {
-				city = City.valueOf(coropName);
 				ageGroup = AgeGroup.valueOf(ageGroupName);
 				//yes
 			} catch (IllegalArgumentException ex) {  
 				//nope
 			}
 
-			Integer numberInThisStage = Integer.parseInt(words[2]);
-			map.get(city).put(ageGroup, numberInThisStage);
+			int numberInThisStage = Integer.parseInt(words[2]);
+			map[city][ageGroup.ordinal()] = numberInThisStage;
 		}
 
 		in.close();
@@ -445,4 +743,147 @@ public class InputReader
 		return output;
 	}
 
+	public static InterventionSchedule readInterventionSchedule(String fileName, Regions regions) throws FileNotFoundException{
+
+		// Create the scanner
+		Scanner in = new Scanner(new File(fileName));
+		in.useLocale(Locale.ENGLISH); 
+
+		//Create the output schedule
+		InterventionSchedule schedule = new InterventionSchedule();
+
+		if(in.hasNextLine()) {
+			in.nextLine(); // skip header
+		}
+
+		while(in.hasNextLine()) {
+			String line = in.nextLine();
+			if(line.trim().isEmpty()) continue;
+			String[] words = line.split(",", -1);
+			if(words.length < 5) {
+				in.close();
+				throw new IllegalStateException("Intervention line should contain Epoch,Intervention,From,To,Value: " + line);
+			}
+
+			int epoch = Integer.parseInt(words[0].trim());
+			String typeName = words[1].trim();
+			double value = Double.parseDouble(words[4].trim());
+
+			InterventionSchedule.InterventionType type = null;
+			int from = InterventionSchedule.ALL;
+			int to = InterventionSchedule.ALL;
+
+			if(typeName.equals("transmissionProbability")) {
+				type = InterventionSchedule.InterventionType.TRANSMISSION_PROBABILITY;
+			}
+			else if(typeName.equals("contactRatio") || typeName.equals("contactScaling")) {
+				type = typeName.equals("contactRatio") ? InterventionSchedule.InterventionType.CONTACT_RATIO : InterventionSchedule.InterventionType.CONTACT_SCALING;
+				from = InputReader.parseInterventionIndex(words[2].trim(), AgeGroup.class);
+				to = InputReader.parseInterventionIndex(words[3].trim(), AgeGroup.class);
+			}
+			else if(typeName.equals("commuteScaling")) {
+				type = InterventionSchedule.InterventionType.COMMUTE_SCALING;
+				from = InputReader.parseInterventionRegion(words[2].trim(), regions);
+				to = InputReader.parseInterventionRegion(words[3].trim(), regions);
+			}
+			else if(typeName.equals("vaccinationDoses")) {
+				type = InterventionSchedule.InterventionType.VACCINATION_DOSES;
+			}
+			else if(typeName.equals("vaccinationPriority")) {
+				type = InterventionSchedule.InterventionType.VACCINATION_PRIORITY;
+				from = InputReader.parseInterventionIndex(words[2].trim(), AgeGroup.class);
+				to = InputReader.parseInterventionRegion(words[3].trim(), regions);
+			}
+			else {
+				in.close();
+				throw new IllegalStateException("Unknown intervention " + typeName + ".");
+			}
+
+			schedule.addIntervention(new InterventionSchedule.Intervention(epoch, type, from, to, value));
+		}
+
+		in.close();
+		return schedule;
+	}
+
+	/**
+	 * Reads the strains of the virus. Each line Strain,Transmissibility,TransitionMatrix,IntroductionEpoch,Introductions is followed by the protection against this strain
+	 * of an agent cured from each strain, in the order of the lines (the names in the header). The first strain is the strain of the start situation.
+	 * An empty transmissibility means 1, an empty transition matrix the matrix of the scenario.
+	 */
+	public static Strains readStrains(String fileName) throws FileNotFoundException {
+
+		// Create the scanner
+		Scanner in = new Scanner(new File(fileName));
+		in.useLocale(Locale.ENGLISH);
+
+		String[] header = in.hasNextLine() ? in.nextLine().split(",", -1) : new String[0];
+		int nrStrains = header.length - 5;
+		if(nrStrains < 1) {
+			in.close();
+			throw new IllegalStateException("Strain header should contain Strain,Transmissibility,TransitionMatrix,IntroductionEpoch,Introductions followed by the names of the strains.");
+		}
+
+		String[] names = new String[nrStrains];
+		double[] transmissibility = new double[nrStrains];
+		String[] transitionMatrices = new String[nrStrains];
+		int[] introductionEpoch = new int[nrStrains];
+		int[] introductions = new int[nrStrains];
+		double[][] immunity = new double[nrStrains][nrStrains];
+
+		int strain = 0;
+		while(in.hasNextLine()) {
+			String line = in.nextLine();
+			if(line.trim().isEmpty()) continue;
+			String[] words = line.split(",", -1);
+			if(strain >= nrStrains || words.length != header.length || !words[0].trim().equals(header[5 + strain].trim())) {
+				in.close();
+				throw new IllegalStateException("Strain line " + (strain + 1) + " should be strain " + (strain < nrStrains ? header[5 + strain].trim() : "") + " with a value for each column: " + line);
+			}
+
+			names[strain] = words[0].trim();
+			transmissibility[strain] = words[1].trim().isEmpty() ? 1.0 : Double.parseDouble(words[1].trim());
+			transitionMatrices[strain] = words[2].trim();
+			introductionEpoch[strain] = words[3].trim().isEmpty() ? 0 : Integer.parseInt(words[3].trim());
+			introductions[strain] = words[4].trim().isEmpty() ? 0 : Integer.parseInt(words[4].trim());
+			for(int cured = 0; cured < nrStrains; cured++) {
+				immunity[strain][cured] = Double.parseDouble(words[5 + cured].trim());
+				if(immunity[strain][cured] < 0 || immunity[strain][cured] > 1) {
+					in.close();
+					throw new IllegalStateException("Protection of strain " + names[strain] + " should be between 0 and 1: " + line);
+				}
+			}
+			strain++;
+		}
+		in.close();
+
+		if(strain != nrStrains) throw new IllegalStateException("Strain input: " + nrStrains + " strains in the header, but " + strain + " lines.");
+		return new Strains(names, transmissibility, transitionMatrices, introductionEpoch, introductions, immunity);
+	}
+
+	/**
+	 * Converts the name of a region in the intervention file to its index. "All" (or an empty field) means all of them.
+	 */
+	private static int parseInterventionRegion(String name, Regions regions) {
+		if(name.isEmpty() || name.equals("All")) {
+			return InterventionSchedule.ALL;
+		}
+		if(!regions.containsRegion(name)) throw new IllegalStateException("Intervention input: " + name + " is not a valid region.");
+		return regions.getRegionIndex(name);
+	}
+
+	/**
+	 * Converts the name of an age group in the intervention file to its ordinal. "All" (or an empty field) means all of them.
+	 */
+	private static <T extends Enum<T>> int parseInterventionIndex(String name, Class<T> enumClass) {
+		if(name.isEmpty() || name.equals("All")) {
+			return InterventionSchedule.ALL;
+		}
+		try {
+			return Enum.valueOf(enumClass, name).ordinal();
+		} catch (IllegalArgumentException ex) {
+			throw new IllegalStateException("Intervention input: " + name + " is not a valid " + enumClass.getSimpleName() + ".");
+		}
+	}
+
 }
@@ -1,5 +1,7 @@
 package nCoV;
 
+import java.util.Arrays;
+
 /**
  * This class saves all input settings of a given simulation.
  *
@@ -11,19 +13,130 @@ public class InputSettings {
 	private double virusTransmissionProbability;
 	private int totalEpochsHorizon;
 	private String folderName;
+	private String interventionSchedule;
+	private int branchEpoch;
+	private String[] branchInterventionSchedules;
+	private boolean ensembleSummary;
+	private double[] ensembleQuantiles;
+	private boolean writeRunOutput;
+	private String regions;
+	private boolean legacySeeding;
+	private boolean packedAgents;
+	private String coordinatorHost;
+	private int coordinatorPort;
+	private int[] coordinatorScenarios;
+	private double[] coordinatorTransmissionProbabilities;
+	private int partitions;
+	private String resultCache;
+	private long resultCacheBudget;
+	private boolean hybridEngine;
+	private String randomGenerator;
+	private double[] householdSizes;
+	private double householdTransmissionProbability;
+	private int venueSize;
+	private double venueTransmissionProbability;
+	private double immunityDuration;
+	private String strains;
+	private boolean infectionSources;
+	private boolean infectionLog;
+	private int epochsPerStep;
+	private boolean stepErrorReport;
+	private boolean meanFieldEngine;
+	private double adaptivePrecision;
+	private double adaptiveConfidence;
+	private int adaptiveMinRuns;
+	private String[] adaptiveMetrics;
+	private boolean commonRandomNumbers;
+	private boolean antitheticRuns;
+	private double[][] contactSchedule;
+	private int coordinatorTimeout;
 
 	
 	public InputSettings(int scenario,
 						int totalNumberSimulations,
 						double virusTransmissionProbability,
 						int totalEpochsHorizon,
-						String folderName) {
+						String folderName,
+						String interventionSchedule,
+						int branchEpoch,
+						String[] branchInterventionSchedules,
+						boolean ensembleSummary,
+						double[] ensembleQuantiles,
+						boolean writeRunOutput,
+						String regions,
+						boolean legacySeeding,
+						boolean packedAgents,
+						String coordinatorHost,
+						int coordinatorPort,
+						int[] coordinatorScenarios,
+						double[] coordinatorTransmissionProbabilities,
+						int partitions,
+						String resultCache,
+						long resultCacheBudget,
+						boolean hybridEngine,
+						String randomGenerator,
+						double[] householdSizes,
+						double householdTransmissionProbability,
+						int venueSize,
+						double venueTransmissionProbability,
+						double immunityDuration,
+						String strains,
+						boolean infectionSources,
+						boolean infectionLog,
+						int epochsPerStep,
+						boolean stepErrorReport,
+						boolean meanFieldEngine,
+						double adaptivePrecision,
+						double adaptiveConfidence,
+						int adaptiveMinRuns,
+						String[] adaptiveMetrics,
+						boolean commonRandomNumbers,
+						boolean antitheticRuns,
+						double[][] contactSchedule,
+						int coordinatorTimeout) {
 		
 		this.scenario = scenario;
 		this.totalNumberSimulations = totalNumberSimulations;
 		this.virusTransmissionProbability = virusTransmissionProbability;
 		this.totalEpochsHorizon = totalEpochsHorizon;
 		this.folderName = folderName;
+		this.interventionSchedule = interventionSchedule;
+		this.branchEpoch = branchEpoch;
+		this.branchInterventionSchedules = branchInterventionSchedules;
+		this.ensembleSummary = ensembleSummary;
+		this.ensembleQuantiles = ensembleQuantiles;
+		this.writeRunOutput = writeRunOutput;
+		this.regions = regions;
+		this.legacySeeding = legacySeeding;
+		this.packedAgents = packedAgents;
+		this.coordinatorHost = coordinatorHost;
+		this.coordinatorPort = coordinatorPort;
+		this.coordinatorScenarios = coordinatorScenarios;
+		this.coordinatorTransmissionProbabilities = coordinatorTransmissionProbabilities;
+		this.partitions = partitions;
+		this.resultCache = resultCache;
+		this.resultCacheBudget = resultCacheBudget;
+		this.hybridEngine = hybridEngine;
+		this.randomGenerator = randomGenerator;
+		this.householdSizes = householdSizes;
+		this.householdTransmissionProbability = householdTransmissionProbability;
+		this.venueSize = venueSize;
+		this.venueTransmissionProbability = venueTransmissionProbability;
+		this.immunityDuration = immunityDuration;
+		this.strains = strains;
+		this.infectionSources = infectionSources;
+		this.infectionLog = infectionLog;
+		this.epochsPerStep = epochsPerStep;
+		this.stepErrorReport = stepErrorReport;
+		this.meanFieldEngine = meanFieldEngine;
+		this.adaptivePrecision = adaptivePrecision;
+		this.adaptiveConfidence = adaptiveConfidence;
+		this.adaptiveMinRuns = adaptiveMinRuns;
+		this.adaptiveMetrics = adaptiveMetrics;
+		this.commonRandomNumbers = commonRandomNumbers;
+		this.antitheticRuns = antitheticRuns;
+		this.contactSchedule = contactSchedule;
+		this.coordinatorTimeout = coordinatorTimeout;
 	}
 
 
@@ -48,6 +161,274 @@ public class InputSettings {
 	public String getFolderName() {
 		return folderName;
 	}
-	
-	
+
+	/**
+	 * Name of the intervention schedule in input/Interventions (without .csv), empty when no interventions are used
+	 */
+	public String getInterventionSchedule() {
+		return interventionSchedule;
+	}
+
+	/**
+	 * Epoch at which each run is forked into the branches, the epochs before are simulated only once
+	 */
+	public int getBranchEpoch() {
+		return branchEpoch;
+	}
+
+	/**
+	 * Names of the intervention schedules in input/Interventions for which a branch is forked, empty when runs are not branched
+	 */
+	public String[] getBranchInterventionSchedules() {
+		return branchInterventionSchedules;
+	}
+
+	/**
+	 * True when the statistics over all runs are aggregated and written to a single summary file
+	 */
+	public boolean isEnsembleSummary() {
+		return ensembleSummary;
+	}
+
+	/**
+	 * Quantiles estimated in the summary over all runs
+	 */
+	public double[] getEnsembleQuantiles() {
+		return ensembleQuantiles;
+	}
+
+	/**
+	 * False when the output files of each single run are not written (e.g. when only the summary over all runs is needed)
+	 */
+	public boolean isWriteRunOutput() {
+		return writeRunOutput;
+	}
+
+	/**
+	 * Name of the regions file in input/Regions, defines the regions (e.g. corops) and hospitals of the simulation
+	 */
+	public String getRegions() {
+		return regions;
+	}
+
+	/**
+	 * True when the initial stages are assigned with the same random draws as the original implementation, such that earlier results can be reproduced
+	 */
+	public boolean isLegacySeeding() {
+		return legacySeeding;
+	}
+
+	/**
+	 * True when each agent is stored in a single 32-bit word (see PackedPopulation) instead of one array per characteristic
+	 */
+	public boolean isPackedAgents() {
+		return packedAgents;
+	}
+
+	/**
+	 * Host on which the coordinator of a distributed run listens, used by the workers
+	 */
+	public String getCoordinatorHost() {
+		return coordinatorHost;
+	}
+
+	/**
+	 * Port on which the coordinator of a distributed run listens
+	 */
+	public int getCoordinatorPort() {
+		return coordinatorPort;
+	}
+
+	/**
+	 * Seconds the coordinator of a distributed run waits for the result of a unit, after which the unit is handed to another worker
+	 */
+	public int getCoordinatorTimeout() {
+		return coordinatorTimeout;
+	}
+
+	/**
+	 * Scenarios that are run in a distributed run
+	 */
+	public int[] getCoordinatorScenarios() {
+		return coordinatorScenarios;
+	}
+
+	/**
+	 * Values of P(T) that are run for each scenario in a distributed run
+	 */
+	public double[] getCoordinatorTransmissionProbabilities() {
+		return coordinatorTransmissionProbabilities;
+	}
+
+	/**
+	 * Number of processes of a spatially partitioned simulation (see Partition), each simulating the agents of part of the regions
+	 */
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * Folder (in user.dir) of the cache of results of earlier runs (see ResultCache), empty when all runs are simulated
+	 */
+	public String getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * Maximum size of the result cache in MB
+	 */
+	public long getResultCacheBudget() {
+		return resultCacheBudget;
+	}
+
+	/**
+	 * True when only the severely ill are simulated as agents and all other agents are counted per group (see Compartments)
+	 */
+	public boolean isHybridEngine() {
+		return hybridEngine;
+	}
+
+	/**
+	 * Name of the random generator of the runs (see RandomSource.create)
+	 */
+	public String getRandomGenerator() {
+		return randomGenerator;
+	}
+
+	/**
+	 * Fraction of the households with 1, 2, ... members (see ContactNetwork), empty when the agents have no households
+	 */
+	public double[] getHouseholdSizes() {
+		return householdSizes;
+	}
+
+	/**
+	 * Probability that an infectious agent infects a healthy member of its household during one night
+	 */
+	public double getHouseholdTransmissionProbability() {
+		return householdTransmissionProbability;
+	}
+
+	/**
+	 * Number of agents of a school or workplace, 0 when the agents have no venues
+	 */
+	public int getVenueSize() {
+		return venueSize;
+	}
+
+	/**
+	 * Probability that an infectious agent infects a healthy member of its venue during one day
+	 */
+	public double getVenueTransmissionProbability() {
+		return venueTransmissionProbability;
+	}
+
+	/**
+	 * Mean number of epochs a cured agent stays immune, 0 when immunity is lifelong
+	 */
+	public double getImmunityDuration() {
+		return immunityDuration;
+	}
+
+	/**
+	 * Name of the strains in input/Strains, empty when only the strain of the scenario circulates
+	 */
+	public String getStrains() {
+		return strains;
+	}
+
+	/**
+	 * True when each infection is attributed to an infector and the infections per corop of the infector and of the infection are written
+	 */
+	public boolean isInfectionSources() {
+		return infectionSources || infectionLog;
+	}
+
+	/**
+	 * True when each attributed infection is written to a binary log
+	 */
+	public boolean isInfectionLog() {
+		return infectionLog;
+	}
+
+	/**
+	 * Number of epochs (half days) in a time step of the agents, 1 as in the manuscript
+	 */
+	public int getEpochsPerStep() {
+		return epochsPerStep;
+	}
+
+	/**
+	 * True when each run with time steps is compared with a run of one epoch per step
+	 */
+	public boolean isStepErrorReport() {
+		return stepErrorReport;
+	}
+
+	/**
+	 * True to propagate the expected number of agents in each stage without random numbers instead of simulating agents (see MeanField)
+	 */
+	public boolean isMeanFieldEngine() {
+		return meanFieldEngine;
+	}
+
+	/**
+	 * Target of the half-width of the confidence interval of each adaptive metric relative to its mean, 0 for a fixed number of runs (see AdaptiveReplicas)
+	 */
+	public double getAdaptivePrecision() {
+		return adaptivePrecision;
+	}
+
+	public double getAdaptiveConfidence() {
+		return adaptiveConfidence;
+	}
+
+	/**
+	 * Number of runs before the confidence intervals are checked, the total number of simulations is the largest number of runs
+	 */
+	public int getAdaptiveMinRuns() {
+		return adaptiveMinRuns;
+	}
+
+	public String[] getAdaptiveMetrics() {
+		return adaptiveMetrics;
+	}
+
+	/**
+	 * The replicas of a scenario with an adaptive number of runs, null for a fixed number of runs
+	 */
+	public AdaptiveReplicas createAdaptiveReplicas() {
+		if(adaptivePrecision == 0) {
+			return null;
+		}
+		return new AdaptiveReplicas(adaptiveMetrics, adaptivePrecision, adaptiveConfidence, Math.min(adaptiveMinRuns, totalNumberSimulations), totalNumberSimulations, ensembleQuantiles);
+	}
+
+	/**
+	 * True when the random numbers of the agents are drawn from a hash of the seed, the agent, the epoch and the purpose of the draw, so runs with the same seed share their noise
+	 */
+	public boolean isCommonRandomNumbers() {
+		return commonRandomNumbers;
+	}
+
+	/**
+	 * True when runs 2k - 1 and 2k use the same seed and run 2k draws 1 - U for the agents
+	 */
+	public boolean isAntitheticRuns() {
+		return antitheticRuns;
+	}
+
+	/**
+	 * Part of the day (row 0) and of the night (row 1) that the agents spend in their venue (column 0) and in their household (column 1), empty for the whole day in the venue and the whole night in the household
+	 */
+	public double[][] getContactSchedule() {
+		return contactSchedule;
+	}
+
+	/**
+	 * All settings of the contact network and the immunity in one string, used in the key of the result cache
+	 */
+	public String getModelKey() {
+		return Arrays.toString(householdSizes) + "," + householdTransmissionProbability + "," + venueSize + "," + venueTransmissionProbability + "," + Arrays.deepToString(contactSchedule) + "," + immunityDuration + "," + this.isInfectionSources() + "," + infectionLog + "," + epochsPerStep + "," + meanFieldEngine + "," + commonRandomNumbers + "," + antitheticRuns;
+	}
 }
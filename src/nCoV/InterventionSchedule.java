@@ -0,0 +1,95 @@
+package nCoV;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class saves a schedule of interventions (e.g. the lockdown measures of March 2020) that change the input of a simulation at given epochs.
+ * An intervention stays active until it is overwritten by a later intervention of the same type on the same entries.
+ * All values are absolute (P(T), P(E_{a,a'})) or factors relative to the original input (contacts, commute), so lifting a measure means setting it back to 1.
+ */
+public class InterventionSchedule {
+
+	public enum InterventionType{
+		TRANSMISSION_PROBABILITY, // sets P(T)
+		CONTACT_RATIO, // sets P(E_{a,a'}) for age groups a (from) and a' (to)
+		CONTACT_SCALING, // scales the number of daily contacts of age group a (from) with age group a' (to)
+		COMMUTE_SCALING, // scales the number of agents commuting from corop c (from) to corop c' (to)
+		VACCINATION_DOSES, // sets the number of vaccine doses per epoch
+		VACCINATION_PRIORITY // sets the priority of age group a (from) in corop c (to) for vaccination: 1 first, then 2, ..., 0 not vaccinated
+	}
+
+	public static final int ALL = -1;
+	// Used as from/to index when the intervention holds for all age groups or corops
+
+	/**
+	 * A single change of the input at the beginning of an epoch.
+	 */
+	public static class Intervention {
+
+		private int epoch;
+		private InterventionType type;
+		private int from; // ordinal of the age group or corop, or ALL
+		private int to; // ordinal of the age group or corop, or ALL
+		private double value;
+
+		public Intervention(int epoch, InterventionType type, int from, int to, double value) {
+			this.epoch = epoch;
+			this.type = type;
+			this.from = from;
+			this.to = to;
+			this.value = value;
+		}
+
+		public int getEpoch() {
+			return epoch;
+		}
+
+		public InterventionType getType() {
+			return type;
+		}
+
+		public int getFrom() {
+			return from;
+		}
+
+		public int getTo() {
+			return to;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return "Intervention [epoch=" + epoch + ", type=" + type + ", from=" + from + ", to=" + to + ", value=" + value + "]";
+		}
+	}
+
+	private Map<Integer, List<Intervention>> interventionsPerEpoch;
+	// For each epoch the interventions starting at that epoch, in the order of the input file
+
+	public InterventionSchedule() {
+		this.interventionsPerEpoch = new HashMap<>();
+	}
+
+	public void addIntervention(Intervention intervention) {
+		if(intervention.getEpoch() < 0) throw new IllegalArgumentException("Intervention cannot start before epoch 0: " + intervention);
+		interventionsPerEpoch.computeIfAbsent(intervention.getEpoch(), k -> new ArrayList<>()).add(intervention);
+	}
+
+	/**
+	 * Returns the interventions starting at the given epoch (empty when nothing changes)
+	 */
+	public List<Intervention> getInterventions(int epoch) {
+		return interventionsPerEpoch.getOrDefault(epoch, Collections.emptyList());
+	}
+
+	public boolean isEmpty() {
+		return interventionsPerEpoch.isEmpty();
+	}
+}
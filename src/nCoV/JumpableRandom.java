@@ -0,0 +1,86 @@
+package nCoV;
+
+/**
+ * Legacy random generator (randomGenerator,legacy), drawing exactly the same numbers as java.util.Random with the same seed, such that earlier results can be reproduced.
+ * Unlike java.util.Random it keeps its state in a plain field instead of an AtomicLong, and it can skip ahead any number of draws in O(log n) steps.
+ * A partition of the population (see Partition) uses this to draw only the random numbers of its own agents, while staying in step with the other partitions.
+ */
+public class JumpableRandom extends RandomSource {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+	private static final double DOUBLE_UNIT = 0x1.0p-53;
+	// Constants of the linear congruential generator of java.util.Random
+
+	private long state;
+	// Current 48-bit state, equal to the seed of java.util.Random
+
+	public JumpableRandom(long seed) {
+		super(seed); // calls setSeed
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		this.state = (seed ^ MULTIPLIER) & MASK; // the same scrambling as java.util.Random
+	}
+
+	@Override
+	protected int next(int bits) {
+		state = (state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (state >>> (48 - bits));
+	}
+
+	/**
+	 * The same uniforms as java.util.Random.nextDouble(), two steps of the generator each
+	 */
+	@Override
+	public void nextDoubles(double[] values, int length) {
+		long s = state;
+		for(int i = 0; i < length; i++) {
+			s = (s * MULTIPLIER + ADDEND) & MASK;
+			long high = s >>> (48 - 26);
+			s = (s * MULTIPLIER + ADDEND) & MASK;
+			long low = s >>> (48 - 27);
+			values[i] = ((high << 27) + low) * DOUBLE_UNIT;
+		}
+		state = s;
+	}
+
+	@Override
+	public void skipDoubles(long n) {
+		this.skip(2 * n);
+	}
+
+	@Override
+	public RandomSource copy() {
+		JumpableRandom copy = new JumpableRandom(0);
+		copy.state = state;
+		this.copyGaussian(copy);
+		return copy;
+	}
+
+	/**
+	 * Skips the given number of steps of the generator, as if next() was called that many times. nextInt() uses one step, nextDouble() two.
+	 */
+	public void skip(long steps) {
+		long multiplier = 1L; // the steps skipped so far map the state x to multiplier * x + addend
+		long addend = 0L;
+		long stepMultiplier = MULTIPLIER; // 2^k steps map the state x to stepMultiplier * x + stepAddend
+		long stepAddend = ADDEND;
+
+		while(steps > 0) {
+			if((steps & 1) != 0) {
+				multiplier = (multiplier * stepMultiplier) & MASK;
+				addend = (addend * stepMultiplier + stepAddend) & MASK;
+			}
+			stepAddend = (stepAddend * (stepMultiplier + 1)) & MASK;
+			stepMultiplier = (stepMultiplier * stepMultiplier) & MASK;
+			steps >>>= 1;
+		}
+		state = (state * multiplier + addend) & MASK;
+	}
+}
@@ -1,19 +1,35 @@
 package nCoV;
 
+import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.EnumMap;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Main {	
 
-	public static void main(String[] args) throws FileNotFoundException{
+	/**
+	 * Runs the scenario in the settings, or with argument coordinator or worker takes part in a distributed run (see Coordinator).
+	 * With arguments partition and a number, simulates the agents of part of the regions in a spatially partitioned simulation (see Partition).
+	 */
+	public static void main(String[] args) throws IOException{
+
+		String mode = args.length > 0 ? args[0] : "";
+		if(!mode.isEmpty() && !mode.equals("coordinator") && !mode.equals("worker") && !mode.equals("partition")) throw new IllegalArgumentException("Unknown mode " + mode + ", use coordinator, worker or partition.");
+		if(mode.equals("partition") && args.length < 2) throw new IllegalArgumentException("Give the number of the partition, e.g. partition 0.");
 
 		/*
-		 * Catching errors in an error log file 
+		 * Catching errors in an error log file, each process of a distributed run has its own
 		 */
+		String errorLog = mode.isEmpty() ? "errorLog.log" : "errorLog_" + mode + "_" + ProcessHandle.current().pid() + ".log";
 		try {
-			System.setErr(new PrintStream(new FileOutputStream(System.getProperty("user.dir")+"/errorLog.log")));
+			System.setErr(new PrintStream(new FileOutputStream(System.getProperty("user.dir")+"/" + errorLog)));
 		} catch (FileNotFoundException ex) {
 			ex.printStackTrace();
 		}
@@ -32,122 +48,104 @@ public class Main {
 		double VIRUS_TRANSMISSION_PROBABILITY = inputSet.getVirusTransmissionProbability();
 		int totalEpochsHorizon = inputSet.getTotalEpochsHorizon();
 		String outputMap = inputSet.getFolderName();
+		String interventionName = inputSet.getInterventionSchedule();
+		int branchEpoch = inputSet.getBranchEpoch();
+		String[] branchNames = inputSet.getBranchInterventionSchedules();
+		boolean writeRunOutput = inputSet.isWriteRunOutput();
 
 		/*
-		 * 
+		 * Input: the regions (e.g. corops) and their hospitals, all other input per region is matched on these regions
 		 */
-		for(int runNumber = 1; runNumber <= totalNumberSimulations; runNumber ++) {
-			String runName = VIRUS_TRANSMISSION_PROBABILITY + "_" + runNumber ;
-			String transitionName = "matrix-" + scenario;
-			String startSituationName =	"startSit_"  + scenario;
-
-			/*
-			 * Filenames for the input files.
-			 */
-			String fileInput_contactRatio = System.getProperty("user.dir") + "/input/ContactData/ratioContacten.csv";
-			String fileInput_numberDailyContacts = System.getProperty("user.dir") + "/input/ContactData/number_daily_contacts.csv";
-			String fileInput_populationNumber = System.getProperty("user.dir") + "/input/Demographics/Bevolking_corop_leeftijd.csv";
-			String fileInput_commute = System.getProperty("user.dir") + "/input/Commute/Woonwerk_"; // filename is finished in the loop below, output is x1000 in inputreader
-			String fileInput_transitions = System.getProperty("user.dir") + "/input/TransitionMatrices/" + transitionName + ".csv"; 
-			String fileInput_hospital = System.getProperty("user.dir") + "/input/HospitalCapacity/Ziekenhuizen_NL.csv"; // output is set at a reasonable high number such that IC capacity is never an issue
-			String fileInput_initialInfection = System.getProperty("user.dir") + "/input/StartSituations/" + startSituationName + ".csv"; // updated 10-05
+		String fileInput_regions = System.getProperty("user.dir") + "/input/Regions/" + inputSet.getRegions() + ".csv";
+		Regions REGIONS = InputReader.readRegionsCSV(fileInput_regions);
 
-			/* 
-			 * Filenames for the output files. 
-			 */
-			String fileOutput_totalInfections = System.getProperty("user.dir") + "/output/" + outputMap+ "/" +  "totalInfection_" + transitionName + "_" + runName + ".txt";
-			String fileOutput_totalInfections_perAgegroup_perCity = System.getProperty("user.dir") + "/output/" + outputMap+  "/" +  "totalInfectionPerAgeGroupPerCity_" + transitionName + "_" + runName + ".txt";
-			String fileOutput_hospital = System.getProperty("user.dir") + "/output/" +outputMap+  "/" + "hospitalInfo_" + transitionName + "_" + runName + ".txt";
-			String fileOutput_timeInEachStage = System.getProperty("user.dir") + "/output/" + outputMap+  "/" +"timeInEachStage_" + transitionName + "_" + runName + ".txt"; 
-			String fileOutput_infectionRateInEachCorop = System.getProperty("user.dir") + "/output/" +outputMap+  "/" +"infectionRateInEachCorop_" + transitionName + "_" + runName + ".txt"; 
-			String fileOutput_switchStages = System.getProperty("user.dir") + "/output/" +outputMap+   "/" +"switchStages_" + transitionName + "_" + runName + ".txt"; 
-			String[] allFileNames = {fileOutput_totalInfections, fileOutput_totalInfections_perAgegroup_perCity, fileOutput_hospital, fileOutput_timeInEachStage, fileOutput_infectionRateInEachCorop, fileOutput_switchStages};
+		if(mode.equals("coordinator")) {
+			Coordinator.run(inputSet, REGIONS);
+			return;
+		}
+		if(mode.equals("worker")) {
+			Worker.run(inputSet, REGIONS);
+			return;
+		}
 
-			/*
-			 * Input: contact patterns of individuals (given their age group)
-			 */
-			EnumMap<AgeGroup, EnumMap<AgeGroup, Double>> CONTACT_RATIO = null;
-			EnumMap<AgeGroup, Double> NUMBER_DAILY_CONTACTS = null;
+		/*
+		 * In a spatially partitioned simulation this process only simulates the agents of part of the regions, partition 0 writes all output
+		 */
+		Partition partition = null;
+		if(mode.equals("partition")) {
+			if(branchNames.length > 0) throw new IllegalArgumentException("Branches are not supported in a partitioned simulation.");
+			partition = Partition.connect(Integer.parseInt(args[1]), inputSet.getPartitions(), inputSet.getCoordinatorHost(), inputSet.getCoordinatorPort());
+		}
+		boolean writeOutput = partition == null || partition.getRank() == 0;
 
-			try {
-				CONTACT_RATIO = InputReader.readContactPatternCSV(fileInput_contactRatio);
-				NUMBER_DAILY_CONTACTS = InputReader.readDailyContacts(fileInput_numberDailyContacts);
+		/*
+		 * Statistics over all runs, one aggregator for the runs themselves and one for each branch
+		 */
+		EnsembleAggregator ensemble = null;
+		Map<String, EnsembleAggregator> branchEnsembles = new HashMap<>();
+		if(inputSet.isEnsembleSummary() && writeOutput) {
+			ensemble = new EnsembleAggregator(totalEpochsHorizon, inputSet.getEnsembleQuantiles(), REGIONS);
+			for(String branchName : branchNames) {
+				branchEnsembles.put(branchName, new EnsembleAggregator(totalEpochsHorizon, inputSet.getEnsembleQuantiles(), REGIONS));
 			}
-			catch (FileNotFoundException e)
-			{
-				e.printStackTrace();
-			}	
+		}
 
-			EnumMap<AgeGroup, EnumMap<AgeGroup, Double>> NUMBER_DAILY_CONTACTS_PERAGEGROUP = HelperFunction.determineNumberDailyContactsPerAgeGroup(CONTACT_RATIO, NUMBER_DAILY_CONTACTS);
+		/*
+		 * With an adaptive number of runs, runs are added until the confidence intervals of the metrics are narrow enough (in all partitions, which have the same national counts)
+		 */
+		AdaptiveReplicas replicas = inputSet.createAdaptiveReplicas();
+		String summaryName = interventionName.isEmpty() ? "" + VIRUS_TRANSMISSION_PROBABILITY : VIRUS_TRANSMISSION_PROBABILITY + "_" + interventionName;
 
-			/* 
-			 * Input: Demographics and commute characteristics
-			 * Number of people in each corop and commute distribution per age group
-			 */
-			EnumMap<AgeGroup, EnumMap<City, EnumMap<City,Integer>>> COMMUTE_DISTRIBUTION = new EnumMap<>(AgeGroup.class);		
-			EnumMap<City, EnumMap<AgeGroup, Integer>> POPULATION_NUMBER = null;
-			int[] agesForTheGroups = {0, 9, 10, 19, 20, 29, 30, 39, 40, 49, 50, 59, 60, 69, 70, 79, 80, 150}; // HARDCODED
+		/*
+		 * With antithetic runs the variance reduction of the pairs is reported, the differences between scenarios and P(T)'s are reported by the coordinator
+		 */
+		VarianceReduction reduction = inputSet.isAntitheticRuns() && branchNames.length == 0 ? new VarianceReduction("matrix-" + scenario + "_" + summaryName, true) : null;
 
-			try
-			{
-				POPULATION_NUMBER = InputReader.readPopulationDistributionCSV(fileInput_populationNumber);
-				for(int i = 0; i < agesForTheGroups.length; i = i + 2) { // HARDCODED
+		/*
+		 * With the step error report each run with time steps is simulated again with one epoch per step, and the mean difference over the runs is reported
+		 */
+		StepError stepError = inputSet.isStepErrorReport() && inputSet.getEpochsPerStep() > 1 && branchNames.length == 0 ? new StepError(inputSet.getEpochsPerStep(), totalEpochsHorizon) : null;
 
-					int x = agesForTheGroups[i];
-					int y = agesForTheGroups[i + 1];
+		/*
+		 * Input of the scenario, read once and shared by all runs
+		 */
+		ScenarioInput scenarioInput = ScenarioInput.read(scenario, REGIONS, interventionName, inputSet.getStrains());
+		String transitionName = "matrix-" + scenario;
 
-					String ageName = "Age_" + x + "_" + y;
-					AgeGroup ageGroup = AgeGroup.valueOf(ageName);
-					if(ageGroup == null) { throw new IllegalArgumentException("Input stage: age group does not exist.");				}
+		/*
+		 * Runs of which the input did not change are taken from the result cache (only runs without branches in a single process)
+		 */
+		ResultCache cache = null;
+		String inputHash = null;
+		if(!inputSet.getResultCache().isEmpty() && branchNames.length == 0 && partition == null) {
+			cache = new ResultCache(System.getProperty("user.dir") + "/" + inputSet.getResultCache(), inputSet.getResultCacheBudget() * 1024 * 1024);
+			List<String> inputFiles = new ArrayList<>(scenarioInput.getInputFiles());
+			inputFiles.add(fileInput_regions);
+			inputHash = ResultCache.hashFiles(inputFiles);
+		}
 
-					String fileInput2 = fileInput_commute + x + "tot" + y + "jaar.csv";
-					EnumMap<City, EnumMap<City, Integer>> cDist = InputReader.readCommuteCSV(fileInput2);
-					COMMUTE_DISTRIBUTION.put(ageGroup, cDist);
-				}
+		/*
+		 * The runs of the scenario and P(T) reuse one simulation: it is created for the first run that is not cached, and reinitialized with the seed of each next run
+		 */
+		Simulation sim = null;
+		for(int runNumber = 1; runNumber <= totalNumberSimulations && (replicas == null || !replicas.isDone()); runNumber ++) {
+			String runName = VIRUS_TRANSMISSION_PROBABILITY + "_" + runNumber ;
+			if(!interventionName.isEmpty()) {
+				runName = VIRUS_TRANSMISSION_PROBABILITY + "_" + interventionName + "_" + runNumber ;
 			}
-			catch (FileNotFoundException e)
-			{
-				e.printStackTrace();
-			}		
-
-			EnumMap<AgeGroup, EnumMap<City, EnumMap<City, Double>>> ALPHA = HelperFunction.determineAlpha(COMMUTE_DISTRIBUTION, POPULATION_NUMBER);
 
 			/* 
-			 * Input: Related to virus characteristics 
-			 * Progression of the virus into the next stages. Virus progression depends on each age group
-			 */
-			EnumMap<AgeGroup,EnumMap<Stage, EnumMap<Stage, Double>>> VIRUS_PROGRESSION = null;
-			try {
-				VIRUS_PROGRESSION = InputReader.readTransitionProbabilities(fileInput_transitions);			
-			} catch (FileNotFoundException e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
-
-			/*
-			 *  Input: Capacity of each hospital. Now it overwrites the original capacity to a high number, can be changed to read original capacity.
-			 */
-			EnumMap<Hospital, Integer> HOSPITAL_CAPACITY = null;
-
-			try {
-				HOSPITAL_CAPACITY = InputReader.readICcapacityCSV(fileInput_hospital);	
-
-			} catch (FileNotFoundException e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
-
-			/*
-			 * Number of individuals in each stage of their infection in their age group for every city
+			 * Filenames for the output files. 
 			 */
-			EnumMap<City, EnumMap<AgeGroup, EnumMap<Stage, Integer>>> INFECTION_NUMBERS = null;
-
-			try {
-				INFECTION_NUMBERS = InputReader.readInitialInfectionCSV(fileInput_initialInfection);	
-
-			} catch (FileNotFoundException e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+			String[] allFileNames = writeRunOutput && writeOutput ? Main.outputFileNames(outputMap, transitionName, runName, inputSet) : null;
+
+			String cacheKey = null;
+			if(cache != null) {
+				cacheKey = ResultCache.key(inputHash, VIRUS_TRANSMISSION_PROBABILITY, totalEpochsHorizon, runNumber, inputSet.isLegacySeeding(), inputSet.isPackedAgents(), inputSet.isHybridEngine(), inputSet.getRandomGenerator(), inputSet.getModelKey());
+				if(cache.restore(cacheKey, allFileNames, ensemble, replicas, reduction)) {
+					System.out.println("Run " + runNumber + " is taken from the result cache");
+					continue;
+				}
 			}
 
 			/*
@@ -155,23 +153,60 @@ public class Main {
 			 */
 
 			long timeBegin = System.nanoTime();
-			Simulation sim = new Simulation(
-					totalEpochsHorizon, 
-					COMMUTE_DISTRIBUTION, 
-					VIRUS_PROGRESSION,
-					HOSPITAL_CAPACITY,
-					INFECTION_NUMBERS,
-					POPULATION_NUMBER, 
-					CONTACT_RATIO,
-					NUMBER_DAILY_CONTACTS_PERAGEGROUP,
-					VIRUS_TRANSMISSION_PROBABILITY,
-					ALPHA,
-					allFileNames);
-
-			sim.initializeSimulation(runNumber);
+			if(sim == null) {
+				sim = scenarioInput.createSimulation(inputSet, VIRUS_TRANSMISSION_PROBABILITY, runNumber, partition, allFileNames);
+			}
+			else {
+				sim.setOutputFiles(allFileNames);
+				sim.initializeSimulation(runNumber);
+			}
 			long timeEnd = System.nanoTime() - timeBegin;
 			long timeB2 = System.nanoTime();
-			sim.startSimulation();
+			if(branchNames.length == 0) {
+				sim.startSimulation();
+				if(ensemble != null) {
+					ensemble.addRun(sim.getStageCountsPerEpoch(), sim.getPatientCountsPerEpoch(), sim.getQueueCountsPerEpoch());
+				}
+				if(replicas != null) {
+					replicas.addRun(sim.getStageCountsPerEpoch(), sim.getPatientCountsPerEpoch(), sim.getQueueCountsPerEpoch());
+				}
+				if(reduction != null) {
+					reduction.addRun(sim.getStageCountsPerEpoch(), sim.getPatientCountsPerEpoch(), sim.getQueueCountsPerEpoch());
+				}
+				if(cache != null) {
+					cache.store(cacheKey, allFileNames, sim);
+				}
+				if(stepError != null) {
+					Main.addStepError(scenarioInput, inputSet, VIRUS_TRANSMISSION_PROBABILITY, runNumber, partition, sim, stepError);
+				}
+			}
+			else { // the first epochs are shared, then the simulation is forked for each branch intervention schedule and all branches are finished concurrently
+				sim.simulateUntil(branchEpoch);
+				List<Simulation> branches = new ArrayList<>();
+				branches.add(sim);
+
+				for(String branchName : branchNames) {
+					String fileInput_branch = System.getProperty("user.dir") + "/input/Interventions/" + branchName + ".csv";
+					String branchRunName = VIRUS_TRANSMISSION_PROBABILITY + "_" + branchName + "_" + runNumber ;
+					InterventionSchedule BRANCH_INTERVENTIONS = null;
+
+					try {
+						BRANCH_INTERVENTIONS = InputReader.readInterventionSchedule(fileInput_branch, REGIONS);
+					} catch (FileNotFoundException e1) {
+						e1.printStackTrace();
+					}
+					branches.add(sim.fork(writeRunOutput ? Main.outputFileNames(outputMap, transitionName, branchRunName, inputSet) : null, BRANCH_INTERVENTIONS));
+				}
+				Simulation.finishConcurrently(branches);
+
+				if(ensemble != null) {
+					ensemble.addRun(sim.getStageCountsPerEpoch(), sim.getPatientCountsPerEpoch(), sim.getQueueCountsPerEpoch());
+					for(int i = 0; i < branchNames.length; i++) {
+						Simulation branch = branches.get(i + 1);
+						branchEnsembles.get(branchNames[i]).addRun(branch.getStageCountsPerEpoch(), branch.getPatientCountsPerEpoch(), branch.getQueueCountsPerEpoch());
+					}
+				}
+			}
 			long timeEnd2 = System.nanoTime() - timeB2;
 
 			System.out.println("Initialize first time: " + timeEnd/1e9);
@@ -180,6 +215,108 @@ public class Main {
 			System.out.println("Done");
 		}
 
+		/*
+		 * Writing the statistics over all runs
+		 */
+		if(replicas != null && writeOutput) {
+			System.out.println("Adaptive number of runs: " + replicas.getNumberOfRuns() + " runs, " + (replicas.isPrecise() ? "target reached" : "budget used"));
+			Main.writeAdaptiveReplicas(replicas, outputMap, transitionName, summaryName);
+		}
+		if(reduction != null && writeOutput) {
+			Main.writeVarianceReduction(List.of(reduction), true, outputMap, transitionName, summaryName);
+		}
+		if(stepError != null && stepError.getNumberOfPairs() > 0) {
+			Main.reportStepError(stepError, writeOutput ? outputMap : null, transitionName, summaryName);
+		}
+		if(ensemble != null) {
+			Main.writeEnsembleSummary(ensemble, outputMap, transitionName, summaryName);
+			for(String branchName : branchNames) {
+				Main.writeEnsembleSummary(branchEnsembles.get(branchName), outputMap, transitionName, VIRUS_TRANSMISSION_PROBABILITY + "_" + branchName);
+			}
+		}
+
+		if(partition != null) {
+			partition.close();
+		}
+	}
+
+	/**
+	 * Filenames for the output files of a single run. When infections are attributed the infection sources follow, and when they are logged the infection log (see Simulation.setInfectionSources).
+	 */
+	static String[] outputFileNames(String outputMap, String transitionName, String runName, InputSettings inputSet) {
+		String fileOutput_totalInfections = System.getProperty("user.dir") + "/output/" + outputMap+ "/" +  "totalInfection_" + transitionName + "_" + runName + ".txt";
+		String fileOutput_totalInfections_perAgegroup_perCity = System.getProperty("user.dir") + "/output/" + outputMap+  "/" +  "totalInfectionPerAgeGroupPerCity_" + transitionName + "_" + runName + ".txt";
+		String fileOutput_hospital = System.getProperty("user.dir") + "/output/" +outputMap+  "/" + "hospitalInfo_" + transitionName + "_" + runName + ".txt";
+		String fileOutput_timeInEachStage = System.getProperty("user.dir") + "/output/" + outputMap+  "/" +"timeInEachStage_" + transitionName + "_" + runName + ".txt"; 
+		String fileOutput_infectionRateInEachCorop = System.getProperty("user.dir") + "/output/" +outputMap+  "/" +"infectionRateInEachCorop_" + transitionName + "_" + runName + ".txt"; 
+		String fileOutput_switchStages = System.getProperty("user.dir") + "/output/" +outputMap+   "/" +"switchStages_" + transitionName + "_" + runName + ".txt"; 
+		String[] allFileNames = {fileOutput_totalInfections, fileOutput_totalInfections_perAgegroup_perCity, fileOutput_hospital, fileOutput_timeInEachStage, fileOutput_infectionRateInEachCorop, fileOutput_switchStages};
+		if(inputSet.isInfectionSources()) {
+			allFileNames = Arrays.copyOf(allFileNames, inputSet.isInfectionLog() ? 8 : 7);
+			allFileNames[6] = System.getProperty("user.dir") + "/output/" +outputMap+   "/" +"infectionSources_" + transitionName + "_" + runName + ".txt"; 
+			if(inputSet.isInfectionLog()) {
+				allFileNames[7] = System.getProperty("user.dir") + "/output/" +outputMap+   "/" +"infectionLog_" + transitionName + "_" + runName + ".bin"; 
+			}
+		}
+		return allFileNames;
+	}
+
+	/**
+	 * Runs the same run again with one epoch per step and adds the stage counts of both runs to the step error
+	 */
+	static void addStepError(ScenarioInput scenarioInput, InputSettings inputSet, double virusTransmissionProbability, int runNumber, Partition partition, Simulation coarse,
+			StepError stepError) throws IOException {
+		long timeBegin = System.nanoTime();
+		Simulation halfDay = scenarioInput.createSimulation(inputSet, virusTransmissionProbability, runNumber, partition, null);
+		halfDay.setTimeStep(1);
+		halfDay.startSimulation();
+		System.out.println("Simulation time with 1 epoch per step: " + (System.nanoTime() - timeBegin)/1e9);
+		stepError.addPair(halfDay.getStageCountsPerEpoch(), coarse.getStageCountsPerEpoch());
+	}
+
+	/**
+	 * Prints the largest mean difference of each stage over the epochs with its confidence interval, and writes the mean differences of all epochs (see OutputWriter.outputWriterStepError)
+	 * @param outputMap folder of the output, null when this process does not write output
+	 */
+	static void reportStepError(StepError stepError, String outputMap, String transitionName, String summaryName) throws FileNotFoundException {
+		for(Stage stage : Stage.values()) {
+			int largest = 0;
+			for(int epoch = 1; epoch < stepError.getNumberOfEpochs(); epoch++) {
+				if(Math.abs(stepError.getMeanDifference(epoch, stage.ordinal())) > Math.abs(stepError.getMeanDifference(largest, stage.ordinal()))) {
+					largest = epoch;
+				}
+			}
+			System.out.println("Largest mean difference in " + stage + " with " + stepError.getEpochsPerStep() + " epochs per step over " + stepError.getNumberOfPairs() + " runs: "
+					+ stepError.getMeanDifference(largest, stage.ordinal()) + " +- " + stepError.getHalfWidth(largest, stage.ordinal()) + " at epoch " + largest);
+		}
+
+		if(outputMap != null) {
+			String fileOutput_stepError = System.getProperty("user.dir") + "/output/" + outputMap + "/" + "stepError_" + transitionName + "_" + summaryName + ".txt";
+			PrintWriter printer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(fileOutput_stepError)));
+			OutputWriter.outputWriterStepError(printer, stepError);
+			printer.close();
+		}
+	}
+
+	static void writeEnsembleSummary(EnsembleAggregator ensemble, String outputMap, String transitionName, String summaryName) throws FileNotFoundException {
+		String fileOutput_ensemble = System.getProperty("user.dir") + "/output/" + outputMap + "/" + "ensembleSummary_" + transitionName + "_" + summaryName + ".txt";
+		PrintWriter printer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(fileOutput_ensemble)));
+		OutputWriter.outputWriterEnsembleSummary(printer, ensemble);
+		printer.close();
+	}
+
+	static void writeAdaptiveReplicas(AdaptiveReplicas replicas, String outputMap, String transitionName, String summaryName) throws FileNotFoundException {
+		String fileOutput_adaptive = System.getProperty("user.dir") + "/output/" + outputMap + "/" + "adaptiveReplicas_" + transitionName + "_" + summaryName + ".txt";
+		PrintWriter printer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(fileOutput_adaptive)));
+		OutputWriter.outputWriterAdaptiveReplicas(printer, replicas);
+		printer.close();
+	}
+
+	static void writeVarianceReduction(List<VarianceReduction> summaries, boolean antitheticRuns, String outputMap, String transitionName, String summaryName) throws FileNotFoundException {
+		String fileOutput_reduction = System.getProperty("user.dir") + "/output/" + outputMap + "/" + "varianceReduction_" + transitionName + "_" + summaryName + ".txt";
+		PrintWriter printer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(fileOutput_reduction)));
+		OutputWriter.outputWriterVarianceReduction(printer, summaries, antitheticRuns);
+		printer.close();
 	}
 
 	public enum AgeGroup{
@@ -225,94 +362,4 @@ public class Main {
 //	| 6  | ISQ   | INFECTED_SYMPTOMS_SEVERE_QUEUE         | N/A                     | N/A        |
 //	| 7  | C     | CURED                                  | Immune                  | IM         |
 //	| 8  | D     | DEAD                                   | Deceased                | D          |
-
-	/**
-	 * All corops in the Netherlands
-	 *
-	 */
-	public enum City{
-		Achterhoek,
-		Agglomeratie_s_Gravenhage,
-		AgglomeratieHaarlem,
-		AgglomeratieLeidenenBollenstreek,
-		Alkmaarenomgeving,
-		Arnhem_Nijmegen,
-		DelftenWestland,
-		Delfzijlenomgeving,
-		Flevoland,
-		Groot_Amsterdam,
-		Groot_Rijnmond,
-		HetGooienVechtstreek,
-		IJmond,
-		KopvanNoord_Holland,
-		Midden_Limburg,
-		Midden_Noord_Brabant,
-		Noord_Drenthe,
-		Noord_Friesland,
-		Noord_Limburg,
-		Noord_Overijssel,
-		Noordoost_Noord_Brabant,
-		Oost_Groningen,
-		Oost_Zuid_Holland,
-		OverigGroningen,
-		OverigZeeland,
-		Twente,
-		Utrecht,
-		Veluwe,
-		West_Noord_Brabant,
-		Zaanstreek,
-		Zeeuwsch_Vlaanderen,
-		Zuid_Limburg,
-		Zuidoost_Drenthe,
-		Zuidoost_Friesland,
-		Zuidoost_Noord_Brabant,
-		Zuidoost_Zuid_Holland,
-		Zuidwest_Drenthe,
-		Zuidwest_Friesland,
-		Zuidwest_Gelderland,
-		Zuidwest_Overijssel
-	}
-
-	public enum Hospital{
-		H_Achterhoek,
-		H_Agglomeratie_s_Gravenhage,
-		H_AgglomeratieHaarlem,
-		H_AgglomeratieLeidenenBollenstreek,
-		H_Alkmaarenomgeving,
-		H_Arnhem_Nijmegen,
-		H_DelftenWestland,
-		H_Delfzijlenomgeving,
-		H_Flevoland,
-		H_Groot_Amsterdam,
-		H_Groot_Rijnmond,
-		H_HetGooienVechtstreek,
-		H_IJmond,
-		H_KopvanNoord_Holland,
-		H_Midden_Limburg,
-		H_Midden_Noord_Brabant,
-		H_Noord_Drenthe,
-		H_Noord_Friesland,
-		H_Noord_Limburg,
-		H_Noord_Overijssel,
-		H_Noordoost_Noord_Brabant,
-		H_Oost_Groningen,
-		H_Oost_Zuid_Holland,
-		H_OverigGroningen,
-		H_OverigZeeland,
-		H_Twente,
-		H_Utrecht,
-		H_Veluwe,
-		H_West_Noord_Brabant,
-		H_Zaanstreek,
-		H_Zeeuwsch_Vlaanderen,
-		H_Zuid_Limburg,
-		H_Zuidoost_Drenthe,
-		H_Zuidoost_Friesland,
-		H_Zuidoost_Noord_Brabant,
-		H_Zuidoost_Zuid_Holland,
-		H_Zuidwest_Drenthe,
-		H_Zuidwest_Friesland,
-		H_Zuidwest_Gelderland,
-		H_Zuidwest_Overijssel
-	}
 }
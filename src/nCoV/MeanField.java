@@ -0,0 +1,395 @@
+package nCoV;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Set;
+
+import nCoV.Main.AgeGroup;
+import nCoV.Main.Stage;
+
+/**
+ * Expected number of agents of the mean-field engine (meanFieldEngine,true), without random numbers. The healthy agents are counted per group of agents living in the same corop,
+ * commuting to the same corop and of the same age group, as their infection risk depends on where they are. Infected agents only progress with the transition matrix of their age group,
+ * so they are counted per corop and age group (a block), per stage and per epoch in which they entered that stage (a cohort) such that the time spent in each stage is known.
+ * Each epoch every count moves to the next stages in proportion to the transition probabilities, as Compartments does with binomial draws.
+ * The counts are fractions of agents, the output gets the counts rounded to whole agents.
+ */
+public class MeanField {
+
+	private int[] groupAge;
+	private int[] groupResident;
+	private int[] groupCommute;
+	private int[] groupSize;
+	// Age group (ordinal), resident corop, commute corop and number of agents of each group
+	private int[] groupAlphaIndex;
+	// Position of (resident corop, commute corop) in the structure of ALPHA, used for the commute scaling
+	private int[] blockStart;
+	// The groups of corop c and age group a are blockStart[c * #age groups + a] until blockStart[c * #age groups + a + 1]
+	private int nrAgeGroups;
+	private int totalEpochsHorizon;
+
+	private double[] healthy;
+	// Expected number of healthy agents of each group, all healthy agents are in the stage since the start
+	private double[][] agents;
+	// Expected number of agents [block][stage] in an infected, cured or deceased stage
+	private double[][] nextAgents;
+	// The expected number of agents of the next epoch, while they are updated
+	private double[][][] cohorts;
+	// Expected number of agents [age group][stage][entry epoch + 1] of all corops in an infected, cured or deceased stage, the agents of the start situation have entry epoch -1
+	private double[][][] switchers;
+	// Expected number of agents [age group][stage][next stage] who went from one stage to the next in the current epoch
+	private double[][][] timeInStage;
+	// Expected number of agents [age group][stage][epochs] who left the stage after that many epochs, over the whole run
+
+	private static final Stage[] STAGES = Stage.values();
+	private static final int HEALTHY = Stage.HEALTHY.ordinal();
+	private static final int EXPOSED = Stage.INFECTED_NOSYMPTOMS_NOTCONTAGIOUS.ordinal();
+
+	/**
+	 * Creates the groups of all corops and age groups, all agents are healthy
+	 * @param alphaStructure any of the ALPHA matrices, all have the same structure
+	 */
+	public MeanField(Regions regions, EnumMap<AgeGroup, SparseMatrix> COMMUTE_DISTRIBUTION, int[][] POPULATION_NUMBER, SparseMatrix alphaStructure, int totalEpochsHorizon) {
+		this.nrAgeGroups = AgeGroup.values().length;
+		this.totalEpochsHorizon = totalEpochsHorizon;
+		int nrBlocks = regions.getNumberOfRegions() * nrAgeGroups;
+
+		int nrGroups = 0;
+		for(AgeGroup ageGroup : AgeGroup.values()) { // at most one group for each commute flow and one for the agents who stay in their own corop
+			nrGroups += COMMUTE_DISTRIBUTION.get(ageGroup).getNumberOfNonZeros() + regions.getNumberOfRegions();
+		}
+		int[] age = new int[nrGroups];
+		int[] resident = new int[nrGroups];
+		int[] commute = new int[nrGroups];
+		int[] size = new int[nrGroups];
+		this.blockStart = new int[nrBlocks + 1];
+
+		int g = 0;
+		for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+			for(AgeGroup ageGroup : AgeGroup.values()) {
+				SparseMatrix commuteFlows = COMMUTE_DISTRIBUTION.get(ageGroup);
+				blockStart[city * nrAgeGroups + ageGroup.ordinal()] = g;
+
+				int stayingHome = POPULATION_NUMBER[city][ageGroup.ordinal()]; // the agents who stay in their own corop form the first group of the block
+				int home = g;
+				age[g] = ageGroup.ordinal();
+				resident[g] = city;
+				commute[g] = city;
+				g++;
+
+				for(int k = commuteFlows.getRowStart(city); k < commuteFlows.getRowEnd(city); k++) {
+					int nrCommuters = (int) commuteFlows.getValue(k);
+					if(commuteFlows.getColumn(k) == city || nrCommuters == 0) { // commuting within the own corop is staying home
+						continue;
+					}
+					age[g] = ageGroup.ordinal();
+					resident[g] = city;
+					commute[g] = commuteFlows.getColumn(k);
+					size[g] = nrCommuters;
+					stayingHome -= nrCommuters;
+					g++;
+				}
+				if(stayingHome < 0) throw new IllegalArgumentException("Cannot generate number of people needed.");
+				size[home] = stayingHome;
+			}
+		}
+		blockStart[nrBlocks] = g;
+
+		this.groupAge = Arrays.copyOf(age, g);
+		this.groupResident = Arrays.copyOf(resident, g);
+		this.groupCommute = Arrays.copyOf(commute, g);
+		this.groupSize = Arrays.copyOf(size, g);
+		this.groupAlphaIndex = new int[g];
+		for(int i = 0; i < g; i++) {
+			groupAlphaIndex[i] = alphaStructure.find(groupResident[i], groupCommute[i]);
+		}
+
+		this.healthy = new double[g];
+		this.agents = new double[nrBlocks][STAGES.length];
+		this.nextAgents = new double[nrBlocks][STAGES.length];
+		this.cohorts = new double[nrAgeGroups][STAGES.length][totalEpochsHorizon + 1];
+		this.switchers = new double[nrAgeGroups][STAGES.length][STAGES.length];
+		this.timeInStage = new double[nrAgeGroups][STAGES.length][totalEpochsHorizon + 1];
+		this.reset();
+	}
+
+	/**
+	 * Copies the counts of all groups and blocks, used when forking a simulation. The groups themselves are shared.
+	 */
+	private MeanField(MeanField other) {
+		this.groupAge = other.groupAge;
+		this.groupResident = other.groupResident;
+		this.groupCommute = other.groupCommute;
+		this.groupSize = other.groupSize;
+		this.groupAlphaIndex = other.groupAlphaIndex;
+		this.blockStart = other.blockStart;
+		this.nrAgeGroups = other.nrAgeGroups;
+		this.totalEpochsHorizon = other.totalEpochsHorizon;
+
+		this.healthy = other.healthy.clone();
+		this.agents = new double[other.agents.length][];
+		for(int block = 0; block < agents.length; block++) {
+			agents[block] = other.agents[block].clone();
+		}
+		this.nextAgents = new double[agents.length][STAGES.length];
+		this.cohorts = MeanField.copy(other.cohorts);
+		this.switchers = MeanField.copy(other.switchers);
+		this.timeInStage = MeanField.copy(other.timeInStage);
+	}
+
+	public MeanField copy() {
+		return new MeanField(this);
+	}
+
+	private static double[][][] copy(double[][][] counts) {
+		double[][][] copy = new double[counts.length][][];
+		for(int i = 0; i < counts.length; i++) {
+			copy[i] = new double[counts[i].length][];
+			for(int j = 0; j < counts[i].length; j++) {
+				copy[i][j] = counts[i][j].clone();
+			}
+		}
+		return copy;
+	}
+
+	private static void clear(double[][][] counts) {
+		for(double[][] countsI : counts) {
+			for(double[] countsIJ : countsI) {
+				Arrays.fill(countsIJ, 0.0);
+			}
+		}
+	}
+
+	public int getNumberOfGroups() {
+		return groupSize.length;
+	}
+
+	/**
+	 * Sets all agents back to healthy
+	 */
+	public void reset() {
+		for(int g = 0; g < healthy.length; g++) {
+			healthy[g] = groupSize[g];
+		}
+		for(double[] agentsBlock : agents) {
+			Arrays.fill(agentsBlock, 0.0);
+		}
+		MeanField.clear(cohorts);
+		MeanField.clear(switchers);
+		MeanField.clear(timeInStage);
+	}
+
+	/**
+	 * Gives each corop and age group the stages of the start situation. The agents of each stage are drawn from all agents of the corop and age group,
+	 * so each group of the block keeps the same part of its agents healthy.
+	 * @param INFECTION_NUMBERS number of agents [corop][age group][stage] in each stage
+	 */
+	public void seed(int[][][] INFECTION_NUMBERS) {
+		for(int block = 0; block < blockStart.length - 1; block++) {
+			int blockSize = 0;
+			for(int g = blockStart[block]; g < blockStart[block + 1]; g++) {
+				blockSize += groupSize[g];
+			}
+
+			int infected = 0;
+			for(Stage stage : STAGES) {
+				int numberThisStage = INFECTION_NUMBERS[block / nrAgeGroups][block % nrAgeGroups][stage.ordinal()];
+				if(stage.ordinal() != HEALTHY) {
+					agents[block][stage.ordinal()] += numberThisStage;
+					cohorts[block % nrAgeGroups][stage.ordinal()][0] += numberThisStage;
+					infected += numberThisStage;
+				}
+			}
+			if(infected > blockSize) throw new IllegalStateException("Number of people in a certain stage exceed number of people in that corop and agegroup. Check your input files.");
+
+			for(int g = blockStart[block]; g < blockStart[block + 1]; g++) {
+				healthy[g] = groupSize[g] * ((blockSize - infected) / (double) blockSize);
+			}
+		}
+	}
+
+	/**
+	 * Moves the expected number of agents of all groups and blocks to their next stage for this epoch, as Compartments.update does with binomial draws.
+	 * @param infectionRisk infection risk [city][age group] of a susceptible agent in this epoch
+	 * @param commuteScaling fraction of the commuters that still commute, indexed as ALPHA. Null when nobody stays at home.
+	 * @param progressionTable transition probabilities [age group][stage][next stage]
+	 */
+	public void update(int epoch, double[][] infectionRisk, double[] commuteScaling, double[][][] progressionTable) {
+		MeanField.clear(switchers);
+		for(double[] agentsBlock : nextAgents) {
+			Arrays.fill(agentsBlock, 0.0);
+		}
+		double[][] entering = new double[nrAgeGroups][STAGES.length]; // agents [age group][stage] entering the stage in this epoch
+
+		for(int block = 0; block < agents.length; block++) {
+			int age = block % nrAgeGroups;
+			for(int stage = 0; stage < STAGES.length; stage++) {
+				double n = agents[block][stage];
+				if(stage == HEALTHY || n == 0) {
+					continue;
+				}
+				double[] probabilities = progressionTable[age][stage];
+				double mass = 1.0; // as determineNextStage, probabilities of at most 1e-13 are skipped and the remainder goes to the last stage
+				for(int next = 0; next < probabilities.length; next++) {
+					double value = probabilities[next];
+					if(value > 1e-13) {
+						this.move(block, age, stage, next, n * value, entering);
+						mass -= value;
+					}
+				}
+				if(mass > 0) {
+					this.move(block, age, stage, STAGES.length - 1, n * mass, entering);
+				}
+			}
+		}
+
+		for(int g = 0; g < healthy.length; g++) {
+			int age = groupAge[g];
+			int currentCity = (epoch % 2 == 0) ? groupCommute[g] : groupResident[g];
+			double risk = infectionRisk[currentCity][age];
+			if(commuteScaling != null && epoch % 2 == 0 && currentCity != groupResident[g]) { // part of the commuters stays at home during the day, so a commuter has the risk of both corops
+				double stillCommuting = commuteScaling[groupAlphaIndex[g]];
+				risk = stillCommuting * risk + (1 - stillCommuting) * infectionRisk[groupResident[g]][age];
+			}
+
+			double infected = healthy[g] * risk;
+			healthy[g] -= infected;
+			nextAgents[groupResident[g] * nrAgeGroups + age][EXPOSED] += infected;
+			entering[age][EXPOSED] += infected;
+			switchers[age][HEALTHY][EXPOSED] += infected;
+			switchers[age][HEALTHY][HEALTHY] += healthy[g];
+			timeInStage[age][HEALTHY][epoch + 1] += infected;
+		}
+
+		for(int age = 0; age < nrAgeGroups; age++) { // the cohorts of all corops leave their stage with the same probability
+			for(int stage = 0; stage < STAGES.length; stage++) {
+				if(stage == HEALTHY) {
+					continue;
+				}
+				double staying = MeanField.staying(progressionTable[age][stage], stage);
+				double[] cohortsStage = cohorts[age][stage];
+				if(staying < 1.0) {
+					for(int cohort = 0; cohort <= epoch; cohort++) {
+						timeInStage[age][stage][epoch + 1 - cohort] += cohortsStage[cohort] * (1 - staying);
+						cohortsStage[cohort] *= staying;
+					}
+				}
+				cohortsStage[epoch + 1] += entering[age][stage];
+			}
+		}
+
+		double[][] swap = agents;
+		this.agents = nextAgents;
+		this.nextAgents = swap;
+	}
+
+	/**
+	 * Moves number agents of a block to the next stage in this epoch
+	 */
+	private void move(int block, int age, int stage, int next, double number, double[][] entering) {
+		nextAgents[block][next] += number;
+		switchers[age][stage][next] += number;
+		if(next != stage) {
+			entering[age][next] += number;
+		}
+	}
+
+	/**
+	 * Part of the agents that stays in the stage in an epoch, as determineNextStage and update walk over the probabilities
+	 */
+	private static double staying(double[] probabilities, int stage) {
+		double mass = 1.0;
+		for(double value : probabilities) {
+			if(value > 1e-13) {
+				mass -= value;
+			}
+		}
+		double staying = probabilities[stage] > 1e-13 ? probabilities[stage] : 0.0;
+		return stage == probabilities.length - 1 && mass > 0 ? staying + mass : staying;
+	}
+
+	/**
+	 * Adds the expected counts rounded to whole agents to the number of agents [stage][age group][resident city]
+	 */
+	public void countStages(int[][][] stageCounts) {
+		double[][][] counts = new double[STAGES.length][nrAgeGroups][stageCounts[0][0].length];
+		for(int g = 0; g < healthy.length; g++) {
+			counts[HEALTHY][groupAge[g]][groupResident[g]] += healthy[g];
+		}
+		for(int block = 0; block < agents.length; block++) {
+			for(int stage = 0; stage < STAGES.length; stage++) {
+				counts[stage][block % nrAgeGroups][block / nrAgeGroups] += agents[block][stage];
+			}
+		}
+		for(int stage = 0; stage < STAGES.length; stage++) {
+			for(int age = 0; age < nrAgeGroups; age++) {
+				for(int city = 0; city < counts[stage][age].length; city++) {
+					stageCounts[stage][age][city] += Math.round(counts[stage][age][city]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the expected patients rounded to whole agents to the number of patients [hospital][age group]. All agents needing intensive care are in the hospital of their resident corop,
+	 * the capacity of the hospitals is not applied.
+	 */
+	public void countPatients(Regions regions, int[][] patientCounts) {
+		double[][] patients = new double[patientCounts.length][nrAgeGroups];
+		int severe = Stage.INFECTED_SYMPTOMS_SEVERE_ICpossible.ordinal();
+		for(int block = 0; block < agents.length; block++) {
+			patients[regions.getHospitalOfRegion(block / nrAgeGroups)][block % nrAgeGroups] += agents[block][severe];
+		}
+		for(int hos = 0; hos < patientCounts.length; hos++) {
+			for(int age = 0; age < nrAgeGroups; age++) {
+				patientCounts[hos][age] += Math.round(patients[hos][age]);
+			}
+		}
+	}
+
+	/**
+	 * Expected infectious agents (Ia and Is) and agents you could encounter [resident city][age group], as Simulation.countNumberInfections counts the agents
+	 */
+	public void countInfections(double[][] infectedWhoSpreadIa, double[][] infectedWhoSpreadIs, double[][] encounterGroup, Set<Stage> notEncounterStages) {
+		for(int g = 0; g < healthy.length; g++) {
+			if(!notEncounterStages.contains(Stage.HEALTHY)) {
+				encounterGroup[groupResident[g]][groupAge[g]] += healthy[g];
+			}
+		}
+		for(int block = 0; block < agents.length; block++) {
+			int city = block / nrAgeGroups;
+			int age = block % nrAgeGroups;
+			infectedWhoSpreadIa[city][age] += agents[block][Stage.INFECTED_NOSYMPTOMS_ISCONTAGIOUS.ordinal()];
+			infectedWhoSpreadIs[city][age] += agents[block][Stage.INFECTED_SYMPTOMS_MILD.ordinal()];
+			for(int stage = 0; stage < STAGES.length; stage++) {
+				if(stage != HEALTHY && !notEncounterStages.contains(STAGES[stage])) {
+					encounterGroup[city][age] += agents[block][stage];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the expected transitions of the current epoch rounded to whole agents to the number of agents [age group][stage][next stage]
+	 */
+	public void addSwitchers(int[][][] switchersTotal) {
+		MeanField.addRounded(switchers, switchersTotal);
+	}
+
+	/**
+	 * Adds the expected time spent in each stage over the whole run rounded to whole agents to the number of agents [age group][stage][epochs]
+	 */
+	public void addTimeInStage(int[][][] timeInStageTotal) {
+		MeanField.addRounded(timeInStage, timeInStageTotal);
+	}
+
+	private static void addRounded(double[][][] counts, int[][][] total) {
+		for(int i = 0; i < counts.length; i++) {
+			for(int j = 0; j < counts[i].length; j++) {
+				for(int k = 0; k < counts[i][j].length; k++) {
+					total[i][j][k] += Math.round(counts[i][j][k]);
+				}
+			}
+		}
+	}
+}
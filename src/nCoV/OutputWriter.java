@@ -1,9 +1,7 @@
 package nCoV;
 
 import java.io.PrintWriter;
-import java.util.EnumMap;
 import java.util.List;
-import java.util.Set;
 
 import nCoV.Main.*;
 
@@ -13,7 +11,7 @@ public class OutputWriter {
 	 * When the simulation has finished, you can call this function to write down all relevant output to .csv
 	 * This specific function writes for a given time horizon all patients inside each hospital.
 	 */
-	public static void outputWriterHospitalInfo(PrintWriter printer, EnumMap<Hospital, EnumMap<AgeGroup,List<Individual>>> idvPerHospital, int nrInQueue, int epoch){
+	public static void outputWriterHospitalInfo(PrintWriter printer, Regions regions, int[][] patientsPerHospital, int nrInQueue, int epoch){
 		if(epoch == 0){
 			StringBuilder expl = new StringBuilder();
 			expl.append("Number of patients in each hospital given their age group. Patients in queue is the total for all age groups, and prints the same value for all age groups.");
@@ -21,8 +19,8 @@ public class OutputWriter {
 
 			StringBuilder lineHosp = new StringBuilder();
 			lineHosp.append("Time,AgeGroup"); 
-			for(Hospital hos : Hospital.values()){
-				lineHosp.append("," + hos.toString());	
+			for(int hos = 0; hos < regions.getNumberOfHospitals(); hos++){
+				lineHosp.append("," + regions.getHospitalName(hos));	
 			}
 			lineHosp.append("," + "Patients in queue");
 			printer.print(lineHosp.toString());
@@ -34,8 +32,8 @@ public class OutputWriter {
 
 			line.append(epoch + "," + ageGroup.toString()); 
 
-			for(Hospital hos : Hospital.values()){
-				int numberPatients = idvPerHospital.get(hos).get(ageGroup).size();
+			for(int hos = 0; hos < regions.getNumberOfHospitals(); hos++){
+				int numberPatients = patientsPerHospital[hos][ageGroup.ordinal()];
 				line.append("," + numberPatients);
 			}
 			line.append("," + nrInQueue);
@@ -47,8 +45,9 @@ public class OutputWriter {
 	/**
 	 * When the simulation has finished, you can call this function to write down all relevant output to .csv
 	 * This specific function writes for a given time horizon number of people in each infection Stage
+	 * @param stageCounts number of people [stage][age group][city] in this epoch
 	 */
-	public static void outputWriterAggregateStageInfection(PrintWriter printer, Individual[] individuals, int epoch){
+	public static void outputWriterAggregateStageInfection(PrintWriter printer, int[][][] stageCounts, int epoch){
 		if(epoch == 0){
 			StringBuilder firstLine = new StringBuilder();
 			firstLine.append("Time");
@@ -58,20 +57,16 @@ public class OutputWriter {
 			printer.println(firstLine);
 		}
 
-		EnumMap<Stage, Integer> countingPeopleInStage = new EnumMap<>(Stage.class);
-		for(Stage stage : Stage.values()){ //initializing
-			countingPeopleInStage.put(stage, 0);
-		}
-
-		for(Individual idv : individuals){
-			Stage currentStage = idv.getStage();
-			countingPeopleInStage.put(currentStage, countingPeopleInStage.get(currentStage) + 1); // adding number of people in this stage
-		}
-
 		StringBuilder line = new StringBuilder();
 		line.append(epoch);
 		for(Stage stage : Stage.values()){
-			line.append("," + countingPeopleInStage.get(stage));
+			int countingPeopleInStage = 0;
+			for(int[] countsPerCity : stageCounts[stage.ordinal()]) {
+				for(int count : countsPerCity) {
+					countingPeopleInStage += count; // adding number of people in this stage
+				}
+			}
+			line.append("," + countingPeopleInStage);
 		}
 
 		printer.println(line);
@@ -81,8 +76,9 @@ public class OutputWriter {
 	/**
 	 * When the simulation has finished, you can call this function to write down all relevant output to .csv
 	 * This specific function writes for a given time horizon number of people in each infection Stage, but now for each city in specific
+	 * @param stageCounts number of people [stage][age group][city] in this epoch, counted in their hometown city
 	 */
-	public static void outputWriterAggregateStageInfectionCityTotal(PrintWriter printer, Individual[] individuals, int epoch){
+	public static void outputWriterAggregateStageInfectionCityTotal(PrintWriter printer, Regions regions, int[][][] stageCounts, int epoch){
 		if(epoch == 0){
 			StringBuilder firstLine = new StringBuilder();
 			StringBuilder secondLine = new StringBuilder();
@@ -90,19 +86,20 @@ public class OutputWriter {
 			secondLine.append("Agegroup,Time");
 			boolean ignoreFirst = true;
 
-			for(City city : City.values()){
+			for(int city = 0; city < regions.getNumberOfRegions(); city++){
+				String cityName = regions.getRegionName(city);
 				if(ignoreFirst){
 					ignoreFirst = false;
-					firstLine.append("," + city.toString());
+					firstLine.append("," + cityName);
 				}
 				else{
-					firstLine.append("," + city.toString());
+					firstLine.append("," + cityName);
 					secondLine.append(",Time");
 				}
 
 				for(Stage stage : Stage.values()){
 					secondLine.append("," + stage.toString());
-					firstLine.append("," + city.toString());
+					firstLine.append("," + cityName);
 				}
 			}
 
@@ -110,35 +107,10 @@ public class OutputWriter {
 			printer.println(secondLine);
 		}
 
-		EnumMap<Stage, EnumMap<AgeGroup,EnumMap<City,Integer>>> countingPeopleInStageInAgeGroup = new EnumMap<>(Stage.class);
-		for(Stage stage : Stage.values()){ //initializing
-
-			EnumMap<AgeGroup, EnumMap<City, Integer>> countingPeopleInStage = new EnumMap<>(AgeGroup.class);
-			for(AgeGroup ageGroup : AgeGroup.values()) {
-				EnumMap<City, Integer> initMap = new EnumMap<City, Integer>(City.class);
-
-				for(City city : City.values()){
-					initMap.put(city, 0);
-				}
-				countingPeopleInStage.put(ageGroup, initMap);
-			}
-			countingPeopleInStageInAgeGroup.put(stage, countingPeopleInStage);
-
-		}
-
-		for(Individual idv : individuals){
-			Stage currentStage = idv.getStage();
-			City ownCity = idv.getResidentPlace();
-			AgeGroup ageGroup =idv.getAgeGroup();
-			EnumMap<City, Integer> storeMap = countingPeopleInStageInAgeGroup.get(currentStage).get(ageGroup);
-			storeMap.put(ownCity, storeMap.get(ownCity) + 1); // adding number of people in this stage to hometown city
-		}
-
-
 		for(AgeGroup ageGroup : AgeGroup.values()) {
 			boolean doOnce = true;
 			StringBuilder line = new StringBuilder();
-			for(City city : City.values()){
+			for(int city = 0; city < regions.getNumberOfRegions(); city++){
 				if(doOnce){
 					line.append(ageGroup.toString() + "," + epoch);
 					doOnce = false;
@@ -148,7 +120,7 @@ public class OutputWriter {
 				}
 				for(Stage stage : Stage.values()){
 
-					line.append("," + countingPeopleInStageInAgeGroup.get(stage).get(ageGroup).get(city));
+					line.append("," + stageCounts[stage.ordinal()][ageGroup.ordinal()][city]);
 				}
 			}
 			printer.println(line);
@@ -160,7 +132,7 @@ public class OutputWriter {
 	 * When the simulation has finished, you can call this function to write down all relevant output to .csv
 	 * This specific function writes for a given time horizon number of people in each infection Stage, but now for each city in specific
 	 */
-	public static void outputWriterAggregateStageInfectionCity(PrintWriter printer, Set<Individual> individuals, int epoch, AgeGroup givenAgeGroup){
+	public static void outputWriterAggregateStageInfectionCity(PrintWriter printer, Regions regions, Population population, int epoch, AgeGroup givenAgeGroup){
 		if(epoch == 0){
 			StringBuilder firstLine = new StringBuilder();
 			StringBuilder secondLine = new StringBuilder();
@@ -168,19 +140,20 @@ public class OutputWriter {
 			secondLine.append("AgeGroup,Time");
 			boolean ignoreFirst = true;
 
-			for(City city : City.values()){
+			for(int city = 0; city < regions.getNumberOfRegions(); city++){
+				String cityName = regions.getRegionName(city);
 				if(ignoreFirst){
 					ignoreFirst = false;
-					firstLine.append("," + city.toString());
+					firstLine.append("," + cityName);
 				}
 				else{
-					firstLine.append("," + city.toString());
+					firstLine.append("," + cityName);
 					secondLine.append(",Time");
 				}
 
 				for(Stage stage : Stage.values()){
 					secondLine.append("," + stage.toString());
-					firstLine.append("," + city.toString());
+					firstLine.append("," + cityName);
 				}
 			}
 
@@ -188,28 +161,17 @@ public class OutputWriter {
 			printer.println(secondLine);
 		}
 
-		EnumMap<Stage, EnumMap<City,Integer>> countingPeopleInStage = new EnumMap<>(Stage.class);
-		for(Stage stage : Stage.values()){ //initializing
-			EnumMap<City, Integer> initMap = new EnumMap<City, Integer>(City.class);
-
-			for(City city : City.values()){
-				initMap.put(city, 0);
-			}
-			countingPeopleInStage.put(stage, initMap);
-		}
+		int[][] countingPeopleInStage = new int[Stage.values().length][regions.getNumberOfRegions()]; // [stage][city]
 
-		for(Individual idv : individuals){
-			Stage currentStage = idv.getStage();
-			if(idv.getAgeGroup().equals(givenAgeGroup)) {
-				City ownCity = idv.getResidentPlace();
-				EnumMap<City, Integer> storeMap = countingPeopleInStage.get(currentStage);
-				storeMap.put(ownCity, storeMap.get(ownCity) + 1); // adding number of people in this stage to hometown city
+		for(int idv = 0; idv < population.size(); idv++){
+			if(population.getAgeGroup(idv) == givenAgeGroup.ordinal()) {
+				countingPeopleInStage[population.getStage(idv)][population.getResidentPlace(idv)] ++; // adding number of people in this stage to hometown city
 			}
 		}
 
 		boolean doOnce = true;
 		StringBuilder line = new StringBuilder();
-		for(City city : City.values()){
+		for(int city = 0; city < regions.getNumberOfRegions(); city++){
 			if(doOnce){
 				line.append(givenAgeGroup.toString() +"," + epoch);
 				doOnce = false;
@@ -219,13 +181,16 @@ public class OutputWriter {
 			}
 			for(Stage stage : Stage.values()){
 
-				line.append("," + countingPeopleInStage.get(stage).get(city));
+				line.append("," + countingPeopleInStage[stage.ordinal()][city]);
 			}
 		}
 		printer.println(line);
 	}
 
-	public static void outputWriterTimeSpendEachStage(PrintWriter printer,EnumMap<AgeGroup, EnumMap<Stage, int[]>> numberOfPeopleInEachStage, int timeHorizon) {
+	/**
+	 * @param numberOfPeopleInEachStage number of people [age group][stage][epochs] who have been in the stage for that many epochs
+	 */
+	public static void outputWriterTimeSpendEachStage(PrintWriter printer, int[][][] numberOfPeopleInEachStage, int timeHorizon) {
 
 		// Print header
 		StringBuilder firstLine = new StringBuilder();
@@ -247,7 +212,7 @@ public class OutputWriter {
 
 				StringBuilder line = new StringBuilder();
 				line.append(ageGroup.toString() +"," + stage.toString());
-				int[] printInt = numberOfPeopleInEachStage.get(ageGroup).get(stage); 
+				int[] printInt = numberOfPeopleInEachStage[ageGroup.ordinal()][stage.ordinal()]; 
 
 				for(int i = 0 ; i < printInt.length ; i++) {
 					line.append("," + printInt[i]);
@@ -258,7 +223,10 @@ public class OutputWriter {
 	}
 
 
-	public static void outputWriterInfectionRateInEachCorop(PrintWriter printer, EnumMap<City,EnumMap<AgeGroup, double[]>> infectionRate, int timeHorizon) {
+	/**
+	 * @param infectionRate infection rate [city][age group][epoch]
+	 */
+	public static void outputWriterInfectionRateInEachCorop(PrintWriter printer, Regions regions, double[][][] infectionRate, int timeHorizon) {
 
 		// Print header
 		StringBuilder firstLine = new StringBuilder();
@@ -274,13 +242,13 @@ public class OutputWriter {
 		printer.println(firstLine);
 		printer.println(secondLine);
 
-		for(City city : City.values()) {
+		for(int city = 0; city < regions.getNumberOfRegions(); city++) {
 
 			for(AgeGroup agegroup : AgeGroup.values()) {
 				StringBuilder line = new StringBuilder();
-				line.append(city.toString() + "," + agegroup.toString());
+				line.append(regions.getRegionName(city) + "," + agegroup.toString());
 
-				double[] allRates = infectionRate.get(city).get(agegroup);
+				double[] allRates = infectionRate[city][agegroup.ordinal()];
 				for(int i = 0 ; i < allRates.length; i ++) {
 					line.append("," + allRates[i]);
 				}
@@ -289,7 +257,133 @@ public class OutputWriter {
 		}
 	}
 
-	public static void outputWriterStageSwitching(PrintWriter printer, EnumMap<AgeGroup,EnumMap<Stage, EnumMap<Stage, Integer>>> switchMap, int timeHorizon) {
+	/**
+	 * Writes the infections over the whole horizon per corop of the infector (rows) and corop where the agent was infected (columns), for the day and night epochs and the stage of the infector.
+	 * Infections without infector (Source None) are in the row of the corop of the infection.
+	 * @param counts infections [day 0 or night 1][Ia, Is or none][corop of the infector][corop of the infection] (see InfectionSources)
+	 */
+	public static void outputWriterInfectionSources(PrintWriter printer, Regions regions, int[][][][] counts) {
+
+		String[] periods = {"Day", "Night"};
+		String[] sources = {"Ia", "Is", "None"};
+
+		printer.println("Number of infections by the corop of the infector (rows) and the corop where the agent was infected (columns), over the whole horizon.");
+		StringBuilder header = new StringBuilder();
+		header.append("Period,Source,Corop");
+		for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+			header.append("," + regions.getRegionName(city));
+		}
+		printer.println(header);
+
+		for(int period = 0; period < periods.length; period++) {
+			for(int source = 0; source < sources.length; source++) {
+				for(int origin = 0; origin < regions.getNumberOfRegions(); origin++) {
+					StringBuilder line = new StringBuilder();
+					line.append(periods[period] + "," + sources[source] + "," + regions.getRegionName(origin));
+					for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+						line.append("," + counts[period][source][origin][city]);
+					}
+					printer.println(line);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the mean national number of agents in each stage of the runs with time steps of several epochs and of the same runs with one epoch per step,
+	 * and the mean difference with its confidence interval (see StepError)
+	 */
+	public static void outputWriterStepError(PrintWriter printer, StepError error) {
+
+		printer.println("Mean national number of agents in each stage over " + error.getNumberOfPairs() + " runs with " + error.getEpochsPerStep() + " epochs per step (Coarse) and the same runs with 1 epoch per step (HalfDay), "
+				+ "and the mean difference with the half-width of its " + error.getConfidence() + " confidence interval.");
+		printer.println("Time,Stage,HalfDay,Coarse,Difference,HalfWidth");
+		for(int epoch = 0; epoch < error.getNumberOfEpochs(); epoch++) {
+			for(Stage stage : Stage.values()) {
+				printer.println(epoch + "," + stage.toString() + "," + error.getMeanHalfDay(epoch, stage.ordinal()) + "," + error.getMeanCoarse(epoch, stage.ordinal()) + ","
+						+ error.getMeanDifference(epoch, stage.ordinal()) + "," + error.getHalfWidth(epoch, stage.ordinal()));
+			}
+		}
+	}
+
+	/**
+	 * Confidence intervals of the metrics of an adaptive number of runs, and the relative half-width of each interval after each run (see AdaptiveReplicas)
+	 */
+	public static void outputWriterAdaptiveReplicas(PrintWriter printer, AdaptiveReplicas replicas) {
+
+		StreamingStatistics statistics = replicas.getStatistics();
+		double[] quantiles = statistics.getProbabilities();
+		printer.println("Adaptive number of runs with a target relative half-width of " + replicas.getPrecision() + " at confidence " + replicas.getConfidence() + ", after at least " + replicas.getMinimumRuns()
+				+ " and at most " + replicas.getBudget() + " runs: " + replicas.getNumberOfRuns() + " runs, " + (replicas.isPrecise() ? "target reached" : "budget used"));
+
+		StringBuilder header = new StringBuilder("Metric,Runs,Mean,StandardDeviation,HalfWidth,RelativeHalfWidth,Reached");
+		for(double q : quantiles) {
+			header.append(",Q" + q);
+		}
+		printer.println(header);
+		for(int m = 0; m < replicas.getNumberOfMetrics(); m++) {
+			StringBuilder line = new StringBuilder();
+			line.append(replicas.getMetricName(m) + "," + statistics.getCount(m) + "," + statistics.getMean(m) + "," + Math.sqrt(statistics.getVariance(m)) + "," + replicas.getHalfWidth(m)
+					+ "," + replicas.getRelativeHalfWidth(m) + "," + (replicas.getRelativeHalfWidth(m) <= replicas.getPrecision()));
+			for(int q = 0; q < quantiles.length; q++) {
+				line.append("," + statistics.getQuantile(m, q));
+			}
+			printer.println(line);
+		}
+
+		printer.println();
+		printer.println("Relative half-width of each metric after each run");
+		StringBuilder trace = new StringBuilder("Run");
+		for(int m = 0; m < replicas.getNumberOfMetrics(); m++) {
+			trace.append("," + replicas.getMetricName(m));
+		}
+		printer.println(trace);
+		List<double[]> relativeHalfWidths = replicas.getRelativeHalfWidths();
+		for(int run = 0; run < relativeHalfWidths.size(); run++) {
+			StringBuilder line = new StringBuilder("" + (run + 1));
+			for(double halfWidth : relativeHalfWidths.get(run)) {
+				line.append("," + halfWidth);
+			}
+			printer.println(line);
+		}
+	}
+
+	/**
+	 * Variance reduction achieved by antithetic runs for each scenario and P(T), and by common random numbers for the difference of each scenario and P(T) with the first (see VarianceReduction)
+	 * @param summaries runs of each scenario and P(T), the first is the reference of the differences
+	 */
+	public static void outputWriterVarianceReduction(PrintWriter printer, List<VarianceReduction> summaries, boolean antitheticRuns) {
+
+		printer.println("Variance of a single run with independent runs (VarianceIndependent) and with " + (antitheticRuns ? "antithetic runs and " : "") + "common random numbers (VarianceAchieved), "
+				+ "estimated from the same runs. Antithetic: the mean of the metric, Common: the mean difference with the reference. Factor: VarianceIndependent / VarianceAchieved.");
+		printer.println("Type,Summary,Reference,Metric,Units,Mean,VarianceIndependent,VarianceAchieved,Factor");
+		for(VarianceReduction summary : summaries) {
+			if(!antitheticRuns) {
+				break;
+			}
+			int units = summary.getNumberOfUnits();
+			for(int m = 0; m < AdaptiveReplicas.METRICS.length; m++) {
+				double independent = summary.getRunVariance(m, units);
+				double achieved = summary.getUnitVariance(m, units);
+				printer.println("Antithetic," + summary.getName() + ",," + AdaptiveReplicas.METRICS[m] + "," + units + "," + summary.getMean(m, units) + "," + independent + "," + achieved + "," + independent / achieved);
+			}
+		}
+		VarianceReduction reference = summaries.get(0);
+		for(VarianceReduction summary : summaries.subList(1, summaries.size())) {
+			int units = Math.min(summary.getNumberOfUnits(), reference.getNumberOfUnits());
+			for(int m = 0; m < AdaptiveReplicas.METRICS.length; m++) {
+				double independent = summary.getRunVariance(m, units) + reference.getRunVariance(m, units);
+				double achieved = summary.getDifferenceVariance(reference, m, units);
+				printer.println("Common," + summary.getName() + "," + reference.getName() + "," + AdaptiveReplicas.METRICS[m] + "," + units + "," + (summary.getMean(m, units) - reference.getMean(m, units))
+						+ "," + independent + "," + achieved + "," + independent / achieved);
+			}
+		}
+	}
+
+	/**
+	 * @param switchers number of people [age group][stage][next stage] who went from one stage to the next in this epoch
+	 */
+	public static void outputWriterStageSwitching(PrintWriter printer, int[][][] switchers, int timeHorizon) {
 
 		if(timeHorizon == 0) {
 			StringBuilder line = new StringBuilder();
@@ -306,10 +400,67 @@ public class OutputWriter {
 				StringBuilder line = new StringBuilder();
 				line.append(timeHorizon + "," + ageGroup.toString() + "," + stage.toString());
 				for(Stage stage2 : Stage.values()) {
-					line.append("," + switchMap.get(ageGroup).get(stage).get(stage2));
+					line.append("," + switchers[ageGroup.ordinal()][stage.ordinal()][stage2.ordinal()]);
 				}
 				printer.println(line);
 			}
 		}
 	}
+
+	/**
+	 * Writes the statistics over all runs of a scenario (see EnsembleAggregator) to .csv
+	 * Each line gives for an epoch and output category the mean, variance and the estimated quantiles over the runs.
+	 */
+	public static void outputWriterEnsembleSummary(PrintWriter printer, EnsembleAggregator aggregator) {
+
+		double[] quantiles = aggregator.getTotalPerStage().getProbabilities();
+		Regions regions = aggregator.getRegions();
+
+		// Print header
+		StringBuilder firstLine = new StringBuilder();
+		StringBuilder secondLine = new StringBuilder();
+
+		firstLine.append("Statistics over " + aggregator.getNumberOfRuns() + " runs of the number of people in each stage (Total and per Corop and Agegroup), patients in each hospital per Agegroup and patients in queue.");
+		secondLine.append("Type,Time,Stage,Agegroup,Corop,Mean,Variance");
+		for(double q : quantiles) {
+			secondLine.append(",Q" + q);
+		}
+		printer.println(firstLine);
+		printer.println(secondLine);
+
+		for(int epoch = 0; epoch < aggregator.getTotalEpochsHorizon(); epoch++) {
+
+			StreamingStatistics totals = aggregator.getTotalPerStage();
+			for(Stage stage : Stage.values()) {
+				OutputWriter.printStatistics(printer, "Total," + epoch + "," + stage.toString() + ",,", totals, epoch * Stage.values().length + stage.ordinal());
+			}
+
+			StreamingStatistics perCity = aggregator.getPerStageAgeGroupCity();
+			for(Stage stage : Stage.values()) {
+				for(AgeGroup ageGroup : AgeGroup.values()) {
+					for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+						OutputWriter.printStatistics(printer, "Corop," + epoch + "," + stage.toString() + "," + ageGroup.toString() + "," + regions.getRegionName(city), perCity, aggregator.getCellStageAgeGroupCity(epoch, stage, ageGroup, city));
+					}
+				}
+			}
+
+			StreamingStatistics patients = aggregator.getPatientsPerHospital();
+			for(int hos = 0; hos < regions.getNumberOfHospitals(); hos++) {
+				for(AgeGroup ageGroup : AgeGroup.values()) {
+					OutputWriter.printStatistics(printer, "Hospital," + epoch + ",," + ageGroup.toString() + "," + regions.getHospitalName(hos), patients, aggregator.getCellHospitalAgeGroup(epoch, hos, ageGroup));
+				}
+			}
+
+			OutputWriter.printStatistics(printer, "Queue," + epoch + ",,,", aggregator.getPatientsInQueue(), epoch);
+		}
+	}
+
+	private static void printStatistics(PrintWriter printer, String prefix, StreamingStatistics statistics, int cell) {
+		StringBuilder line = new StringBuilder();
+		line.append(prefix + "," + statistics.getMean(cell) + "," + statistics.getVariance(cell));
+		for(int q = 0; q < statistics.getNumberOfQuantiles(); q++) {
+			line.append("," + statistics.getQuantile(cell, q));
+		}
+		printer.println(line);
+	}
 }
@@ -0,0 +1,188 @@
+package nCoV;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * One of the processes of a spatially partitioned simulation (started with "java nCoV.Main partition <rank>"). Each process owns the agents living in a range of regions
+ * and only stores and updates these agents. The counts per region and age group that the infection rates depend on are summed over all processes with allReduce,
+ * so only these counts cross the network and not the agents. Process 0 listens on the coordinator port, the other processes connect to it (a star),
+ * process 0 adds all counts and sends the sums back.
+ */
+public class Partition implements Closeable {
+
+	private int rank;
+	// Number of this process, 0 until count - 1
+	private int count;
+	// Number of processes
+	private Socket[] sockets;
+	private DataInputStream[] in;
+	private DataOutputStream[] out;
+	// Connections to the other processes (process 0), or to process 0 (other processes)
+
+	private Partition(int rank, int count, int nrConnections) {
+		this.rank = rank;
+		this.count = count;
+		this.sockets = new Socket[nrConnections];
+		this.in = new DataInputStream[nrConnections];
+		this.out = new DataOutputStream[nrConnections];
+	}
+
+	/**
+	 * Connects this process to the other processes, returns when all processes are connected
+	 * @param rank number of this process, 0 until count - 1
+	 * @param count number of processes
+	 * @param host host of process 0
+	 * @param port port on which process 0 listens
+	 */
+	public static Partition connect(int rank, int count, String host, int port) throws IOException {
+		if(rank < 0 || rank >= count) throw new IllegalArgumentException("Partition " + rank + " does not exist, there are " + count + " partitions.");
+
+		if(rank == 0) {
+			Partition partition = new Partition(rank, count, count - 1);
+			try(ServerSocket server = new ServerSocket(port)) {
+				for(int i = 1; i < count; i++) {
+					Socket socket = server.accept();
+					DataInputStream socketIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+					int otherRank = socketIn.readInt();
+					int otherCount = socketIn.readInt();
+					if(otherCount != count || otherRank <= 0 || otherRank >= count || partition.sockets[otherRank - 1] != null) {
+						throw new IllegalStateException("Partition " + otherRank + " of " + otherCount + " cannot join " + count + " partitions.");
+					}
+					partition.sockets[otherRank - 1] = socket;
+					partition.in[otherRank - 1] = socketIn;
+					partition.out[otherRank - 1] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				}
+			}
+			return partition;
+		}
+		else {
+			Partition partition = new Partition(rank, count, 1);
+			Socket socket = Worker.connect(host, port);
+			partition.sockets[0] = socket;
+			partition.in[0] = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			partition.out[0] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			partition.out[0].writeInt(rank);
+			partition.out[0].writeInt(count);
+			partition.out[0].flush();
+			return partition;
+		}
+	}
+
+	public int getRank() {
+		return rank;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Splits the regions into count ranges of consecutive regions with about the same number of residents
+	 * @return the first region of each partition, followed by the number of regions
+	 */
+	public int[] splitRegions(int[] residentsPerCity) {
+		if(count > residentsPerCity.length) throw new IllegalArgumentException(count + " partitions for " + residentsPerCity.length + " regions, each partition needs at least one region.");
+
+		long total = 0;
+		for(int residents : residentsPerCity) {
+			total += residents;
+		}
+
+		int[] firstCity = new int[count + 1];
+		firstCity[count] = residentsPerCity.length;
+		long cumulative = 0;
+		int city = 0;
+		for(int p = 1; p < count; p++) {
+			do { // at least one region for this partition, and at least one region left for each next partition
+				cumulative += residentsPerCity[city];
+				city++;
+			} while(city < residentsPerCity.length - (count - p) && cumulative * count < total * p);
+			firstCity[p] = city;
+		}
+		return firstCity;
+	}
+
+	/**
+	 * Replaces the counts by their sums over all processes. All processes have to call this with counts of the same shape, in the same order.
+	 * @param counts arrays of ints, possibly nested (e.g. int[][])
+	 */
+	public void allReduce(Object... counts) {
+		int[] values = new int[Partition.copy(counts, null, 0, true)];
+		Partition.copy(counts, values, 0, true);
+
+		try {
+			if(rank == 0) {
+				for(DataInputStream socketIn : in) { // the sum does not depend on the order
+					int[] otherValues = new int[values.length];
+					Partition.read(socketIn, otherValues);
+					for(int i = 0; i < values.length; i++) {
+						values[i] += otherValues[i];
+					}
+				}
+				for(DataOutputStream socketOut : out) {
+					Partition.write(socketOut, values);
+				}
+			}
+			else {
+				Partition.write(out[0], values);
+				Partition.read(in[0], values);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Partition " + rank + " lost the connection to the other partitions.", e);
+		}
+
+		Partition.copy(counts, values, 0, false);
+	}
+
+	/**
+	 * Reads counts written by write, the number of counts has to be the same as in values
+	 */
+	private static void read(DataInputStream socketIn, int[] values) throws IOException {
+		int length = socketIn.readInt();
+		if(length != values.length) throw new IllegalStateException("Partitions reduce " + length + " and " + values.length + " counts.");
+		for(int i = 0; i < length; i++) {
+			values[i] = socketIn.readInt();
+		}
+	}
+
+	private static void write(DataOutputStream socketOut, int[] values) throws IOException {
+		socketOut.writeInt(values.length);
+		for(int value : values) {
+			socketOut.writeInt(value);
+		}
+		socketOut.flush();
+	}
+
+	/**
+	 * Copies nested arrays of counts to values starting at k (toValues) or back. With values null only the number of counts is determined.
+	 * @return the index in values after the last count
+	 */
+	private static int copy(Object counts, int[] values, int k, boolean toValues) {
+		if(counts instanceof int[]) {
+			int[] countsArray = (int[]) counts;
+			if(values != null) {
+				if(toValues) System.arraycopy(countsArray, 0, values, k, countsArray.length);
+				else System.arraycopy(values, k, countsArray, 0, countsArray.length);
+			}
+			return k + countsArray.length;
+		}
+		for(Object sub : (Object[]) counts) {
+			k = Partition.copy(sub, values, k, toValues);
+		}
+		return k;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for(Socket socket : sockets) {
+			if(socket != null) socket.close();
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package nCoV;
+
+import java.util.Arrays;
+
+/**
+ * All agents of a simulation. An agent is identified by its index, age groups and stages are given as their ordinals.
+ * The hospital of preference follows from the resident region (see Regions).
+ * Agents living in the same region and of the same age group have consecutive indices, such that a group can be filled at once (see Simulation.createIndividuals).
+ * How the characteristics are stored depends on the implementation: ColumnPopulation uses one array per characteristic, PackedPopulation one 32-bit word per agent.
+ */
+public abstract class Population {
+
+	protected int size;
+	protected Regions regions;
+	private boolean[] inHospital;
+	private boolean[] inQueue;
+	protected boolean grown;
+	// True when agents were added after creation (see add), the characteristics of the agents can then change and cannot be shared by copies
+	private long[] strain;
+	private int strainBits;
+	// Strain of each agent (see Strains) in strainBits (1, 2 or 4) bits, packed in words of 64 bits. Null when only one strain circulates, the strain is then 0
+
+	/**
+	 * Creates size healthy agents, all characteristics except the stage are 0 until they are filled
+	 */
+	protected Population(int size, Regions regions) {
+		this.size = size;
+		this.regions = regions;
+		this.inHospital = new boolean[size];
+		this.inQueue = new boolean[size];
+	}
+
+	/**
+	 * Copies the hospital and queue state of all agents, used when forking a simulation
+	 */
+	protected Population(Population other) {
+		this.size = other.size;
+		this.regions = other.regions;
+		this.inHospital = other.inHospital.clone();
+		this.inQueue = other.inQueue.clone();
+		this.grown = other.grown;
+		this.strain = other.strain == null ? null : other.strain.clone();
+		this.strainBits = other.strainBits;
+	}
+
+	/**
+	 * Copies all agents including their current stage, used when forking a simulation
+	 */
+	public abstract Population copy();
+
+	/**
+	 * Sets the age group and resident region of the agents start until end (exclusive). The agents do not commute until setCommutePlace is called.
+	 */
+	public abstract void fill(int start, int end, int ageGroup, int residentPlace);
+
+	/**
+	 * Sets the commute region of the agents start until end (exclusive)
+	 */
+	public abstract void setCommutePlace(int start, int end, int commutePlace);
+
+	/**
+	 * Sets all agents back to healthy, at time 0 in this stage and not in a hospital or queue
+	 */
+	public void reset() {
+		this.resetStages();
+		Arrays.fill(inHospital, false);
+		Arrays.fill(inQueue, false);
+		if(strain != null) {
+			Arrays.fill(strain, 0L);
+		}
+	}
+
+	/**
+	 * Sets the stage of all agents back to healthy and their time in stage to 0
+	 */
+	protected abstract void resetStages();
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds an agent after the last agent, at time 0 in the given stage and not in a hospital or queue. The storage grows when needed.
+	 * Used by the hybrid engine, in which only the severely ill are agents (see Compartments).
+	 * @return the index of the new agent
+	 */
+	public int add(int ageGroup, int residentPlace, int commutePlace, int stage) {
+		if(size == inHospital.length) {
+			this.grow(Math.max(16, 2 * size));
+			grown = true;
+		}
+		int i = size;
+		size++;
+		this.fill(i, i + 1, ageGroup, residentPlace);
+		this.setCommutePlace(i, i + 1, commutePlace);
+		this.setStage(i, stage);
+		this.setTimeInStage(i, 0);
+		inHospital[i] = false;
+		inQueue[i] = false;
+		this.setStrain(i, 0);
+		return i;
+	}
+
+	/**
+	 * Overwrites agent to with agent from, used to remove agents (see truncate)
+	 */
+	public void move(int from, int to) {
+		this.fill(to, to + 1, this.getAgeGroup(from), this.getResidentPlace(from));
+		this.setCommutePlace(to, to + 1, this.getCommutePlace(from));
+		this.setStage(to, this.getStage(from));
+		this.setTimeInStage(to, this.getTimeInStage(from));
+		inHospital[to] = inHospital[from];
+		inQueue[to] = inQueue[from];
+		this.setStrain(to, this.getStrain(from));
+	}
+
+	/**
+	 * Removes all agents from index size onwards
+	 */
+	public void truncate(int size) {
+		if(size > this.size) throw new IllegalArgumentException("Cannot truncate " + this.size + " agents to " + size + " agents.");
+		this.size = size;
+	}
+
+	/**
+	 * Makes room for capacity agents, keeping the current agents. Implementations grow their own storage and call this method.
+	 */
+	protected void grow(int capacity) {
+		inHospital = Arrays.copyOf(inHospital, capacity);
+		inQueue = Arrays.copyOf(inQueue, capacity);
+		if(strain != null) {
+			strain = Arrays.copyOf(strain, (int) (((long) capacity * strainBits + 63) / 64));
+		}
+	}
+
+	/**
+	 * Stores the strain of each agent, in the smallest number of bits (1, 2 or 4) that holds nrStrains strains. All agents get strain 0.
+	 * A word of 64 bits holds the strains of 64 / strainBits consecutive agents, so agents that are updated concurrently should not share a word (see Simulation.updateStages).
+	 */
+	public void enableStrains(int nrStrains) {
+		if(nrStrains > Strains.MAX_STRAINS) throw new IllegalArgumentException("At most " + Strains.MAX_STRAINS + " strains can be stored.");
+		if(nrStrains <= 1) {
+			this.strain = null;
+			this.strainBits = 0;
+			return;
+		}
+		this.strainBits = nrStrains <= 2 ? 1 : nrStrains <= 4 ? 2 : 4;
+		this.strain = new long[(int) (((long) inHospital.length * strainBits + 63) / 64)];
+	}
+
+	/**
+	 * Strain of the last infection of agent i, 0 when only one strain is stored
+	 */
+	public int getStrain(int i) {
+		if(strain == null) {
+			return 0;
+		}
+		long bit = (long) i * strainBits;
+		return (int) (strain[(int) (bit >>> 6)] >>> bit) & ((1 << strainBits) - 1);
+	}
+
+	public void setStrain(int i, int s) {
+		if(strain == null) {
+			if(s != 0) throw new IllegalStateException("Strain " + s + " cannot be stored, strains are not enabled.");
+			return;
+		}
+		long bit = (long) i * strainBits;
+		int word = (int) (bit >>> 6);
+		long mask = ((1L << strainBits) - 1) << bit;
+		strain[word] = (strain[word] & ~mask) | (((long) s << bit) & mask);
+	}
+
+	/**
+	 * Ordinal of the age group of agent i
+	 */
+	public abstract int getAgeGroup(int i);
+
+	/**
+	 * Ordinal of the stage of agent i
+	 */
+	public abstract int getStage(int i);
+
+	public abstract void setStage(int i, int stage);
+
+	public abstract int getTimeInStage(int i);
+
+	public abstract void setTimeInStage(int i, int timeInStage);
+
+	public abstract int getResidentPlace(int i);
+
+	public abstract int getCommutePlace(int i);
+
+	/**
+	 * Index of the hospital of preference of agent i
+	 */
+	public int getHospital(int i) {
+		return regions.getHospitalOfRegion(this.getResidentPlace(i));
+	}
+
+	public boolean inHospital(int i) {
+		return inHospital[i];
+	}
+
+	public void setInHospital(int i, boolean inHospital) {
+		this.inHospital[i] = inHospital;
+	}
+
+	public boolean inQueue(int i) {
+		return inQueue[i];
+	}
+
+	public void setQueue(int i, boolean inQueue) {
+		this.inQueue[i] = inQueue;
+	}
+}
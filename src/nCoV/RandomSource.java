@@ -0,0 +1,91 @@
+package nCoV;
+
+import java.util.Random;
+
+/**
+ * Random generator of a simulation run. It is a java.util.Random, so it can also be used for Collections.shuffle and rand.ints(),
+ * but the numbers come from the generator of the implementation: JumpableRandom (legacy, the same numbers as java.util.Random) or XoroshiroRandom (default, faster and of better quality).
+ * Next to the methods of java.util.Random it fills arrays of uniforms at once for the agent loop, skips the uniforms of agents of other partitions and copies its state for forks.
+ */
+public abstract class RandomSource extends Random {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String LEGACY = "legacy";
+	public static final String XOROSHIRO = "xoroshiro";
+	// Names of the generators in the settings (randomGenerator)
+
+	private double nextNextGaussian;
+	private boolean haveNextNextGaussian;
+	// Second normal of the last pair drawn by nextGaussian, kept here instead of in java.util.Random such that it is copied with the state
+
+	protected RandomSource(long seed) {
+		super(seed); // calls setSeed
+	}
+
+	/**
+	 * Creates the generator with the given name (LEGACY or XOROSHIRO)
+	 */
+	public static RandomSource create(String name, long seed) {
+		switch(name) {
+		case LEGACY:
+			return new JumpableRandom(seed);
+		case XOROSHIRO:
+			return new XoroshiroRandom(seed);
+		default:
+			throw new IllegalArgumentException("Unknown random generator " + name + ", use " + XOROSHIRO + " or " + LEGACY + ".");
+		}
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		this.haveNextNextGaussian = false;
+	}
+
+	/**
+	 * Fills values[0] until values[length] with uniforms in [0, 1), the same numbers as calling nextDouble() length times
+	 */
+	public abstract void nextDoubles(double[] values, int length);
+
+	/**
+	 * Skips n uniforms, as if nextDouble() was called n times
+	 */
+	public abstract void skipDoubles(long n);
+
+	/**
+	 * Copy of this generator including its state, which draws the same numbers from now on
+	 */
+	public abstract RandomSource copy();
+
+	/**
+	 * The same normals as java.util.Random (polar method) for the same uniforms
+	 */
+	@Override
+	public double nextGaussian() {
+		if(haveNextNextGaussian) {
+			haveNextNextGaussian = false;
+			return nextNextGaussian;
+		}
+		double v1;
+		double v2;
+		double s;
+		do {
+			v1 = 2 * this.nextDouble() - 1;
+			v2 = 2 * this.nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while(s >= 1 || s == 0);
+		double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+		nextNextGaussian = v2 * multiplier;
+		haveNextNextGaussian = true;
+		return v1 * multiplier;
+	}
+
+	/**
+	 * Copies the state kept by this class to the copy of a subclass
+	 */
+	protected void copyGaussian(RandomSource copy) {
+		copy.nextNextGaussian = nextNextGaussian;
+		copy.haveNextNextGaussian = haveNextNextGaussian;
+	}
+}
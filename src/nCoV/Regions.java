@@ -0,0 +1,83 @@
+package nCoV;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The regions of the simulation (e.g. the 40 corops, but also municipalities or postcode areas) and the hospitals serving them, read from input/Regions (see InputReader.readRegionsCSV).
+ * Regions and hospitals are identified by their index, which is the order in the input file (hospitals in the order they first appear).
+ * All input per region (commute, population, start situation) is matched on the region names, the output uses the order of the regions.
+ */
+public class Regions {
+
+	private String[] regionNames;
+	private String[] hospitalNames;
+	private int[] hospitalOfRegion;
+	// Index of the hospital of preference of the agents living in each region, several regions can share a hospital
+	private Map<String, Integer> regionIndex;
+	private Map<String, Integer> hospitalIndex;
+
+	public Regions(String[] regionNames, String[] hospitalNames, int[] hospitalOfRegion) {
+		if(regionNames.length != hospitalOfRegion.length) throw new IllegalArgumentException("Each region needs a hospital.");
+
+		this.regionNames = regionNames.clone();
+		this.hospitalNames = hospitalNames.clone();
+		this.hospitalOfRegion = hospitalOfRegion.clone();
+		this.regionIndex = new HashMap<>();
+		this.hospitalIndex = new HashMap<>();
+
+		for(int region = 0; region < regionNames.length; region++) {
+			if(regionIndex.put(regionNames[region], region) != null) throw new IllegalArgumentException("Region " + regionNames[region] + " is given twice.");
+			if(hospitalOfRegion[region] < 0 || hospitalOfRegion[region] >= hospitalNames.length) throw new IllegalArgumentException("Region " + regionNames[region] + " has no valid hospital.");
+		}
+		for(int hos = 0; hos < hospitalNames.length; hos++) {
+			if(hospitalIndex.put(hospitalNames[hos], hos) != null) throw new IllegalArgumentException("Hospital " + hospitalNames[hos] + " is given twice.");
+		}
+	}
+
+	public int getNumberOfRegions() {
+		return regionNames.length;
+	}
+
+	public int getNumberOfHospitals() {
+		return hospitalNames.length;
+	}
+
+	public String getRegionName(int region) {
+		return regionNames[region];
+	}
+
+	public String getHospitalName(int hos) {
+		return hospitalNames[hos];
+	}
+
+	public int getHospitalOfRegion(int region) {
+		return hospitalOfRegion[region];
+	}
+
+	public boolean containsRegion(String name) {
+		return regionIndex.containsKey(name);
+	}
+
+	public boolean containsHospital(String name) {
+		return hospitalIndex.containsKey(name);
+	}
+
+	/**
+	 * Index of the region with this name, throws an exception when the region is not part of the simulation
+	 */
+	public int getRegionIndex(String name) {
+		Integer region = regionIndex.get(name);
+		if(region == null) throw new IllegalStateException("Region " + name + " does not exist. Check your input files.");
+		return region;
+	}
+
+	/**
+	 * Index of the hospital with this name, throws an exception when no region uses this hospital
+	 */
+	public int getHospitalIndex(String name) {
+		Integer hos = hospitalIndex.get(name);
+		if(hos == null) throw new IllegalStateException("Hospital " + name + " does not exist. Check your input files.");
+		return hos;
+	}
+}
@@ -0,0 +1,334 @@
+package nCoV;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Cache of the results of single runs, such that a run whose input did not change is not simulated again. A run is identified by a SHA-256 hash over the contents
+ * of all input files of the scenario and the settings that change its result (P(T), horizon, seed, seeding, engine and random generator). The cache folder contains a folder per run with its output files
+ * and its counts (for the summary over all runs), and an index file with the size and the last use of each run. When the cache exceeds its budget,
+ * the least recently used runs are removed. The cache is meant to be used by one process at a time.
+ */
+public class ResultCache {
+
+	private static final String VERSION = "1";
+	// Changes when the output of a run with the same input changes, such that older results are not used
+	private static final String INDEX_FILE = "index.txt";
+	private static final String COUNTS_FILE = "counts.bin";
+
+	private Path directory;
+	private long budget;
+	// Maximum number of bytes of all cached runs
+	private Map<String, Entry> index;
+	// Cached runs by their hash
+
+	/**
+	 * A cached run
+	 */
+	private static class Entry {
+		private String key;
+		private long bytes;
+		private long lastUsed;
+		// Time of the last use (milliseconds), the entries that are used longest ago are removed first
+		private boolean outputFiles;
+		// True when the output files of the run are cached, otherwise only its counts
+
+		private Entry(String key, long bytes, long lastUsed, boolean outputFiles) {
+			this.key = key;
+			this.bytes = bytes;
+			this.lastUsed = lastUsed;
+			this.outputFiles = outputFiles;
+		}
+	}
+
+	/**
+	 * Opens the cache in the given folder, which is created when it does not exist
+	 * @param directory folder of the cache
+	 * @param budget maximum number of bytes used by the cached runs
+	 */
+	public ResultCache(String directory, long budget) {
+		this.directory = Paths.get(directory);
+		this.budget = budget;
+		this.index = new HashMap<>();
+
+		try {
+			Files.createDirectories(this.directory);
+			Path indexFile = this.directory.resolve(INDEX_FILE);
+			if(Files.exists(indexFile)) {
+				for(String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+					String[] words = line.split(",");
+					if(words.length == 4 && Files.isDirectory(this.directory.resolve(words[0]))) { // runs of which the folder was removed are forgotten
+						index.put(words[0], new Entry(words[0], Long.parseLong(words[1]), Long.parseLong(words[2]), Boolean.parseBoolean(words[3])));
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		this.evict(); // the budget may have been lowered since the last use
+		this.writeIndex();
+	}
+
+	/**
+	 * Hash over the contents of the given files, in the given order
+	 */
+	public static String hashFiles(List<String> fileNames) {
+		MessageDigest digest = ResultCache.createDigest();
+		for(String fileName : fileNames) {
+			try {
+				digest.update(fileName.substring(fileName.lastIndexOf('/') + 1).getBytes(StandardCharsets.UTF_8));
+				digest.update(Files.readAllBytes(Paths.get(fileName)));
+			} catch (IOException e) {
+				throw new IllegalStateException("Input file " + fileName + " cannot be hashed.", e);
+			}
+		}
+		return ResultCache.toHex(digest.digest());
+	}
+
+	/**
+	 * Hash identifying a single run
+	 * @param inputHash hash over the input files of the scenario (see hashFiles)
+	 * @param modelSettings settings of the contact network and the immunity (see InputSettings.getModelKey)
+	 */
+	public static String key(String inputHash, double transmissionProbability, int totalEpochsHorizon, int seed, boolean legacySeeding, boolean packedAgents, boolean hybridEngine, String randomGenerator, String modelSettings) {
+		MessageDigest digest = ResultCache.createDigest();
+		String settings = VERSION + "," + inputHash + "," + transmissionProbability + "," + totalEpochsHorizon + "," + seed + "," + legacySeeding + "," + packedAgents + "," + hybridEngine + "," + randomGenerator + "," + modelSettings;
+		return ResultCache.toHex(digest.digest(settings.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Hash of the settings of key that are the same for all runs, without the input files, P(T) and seed, but with the names of the intervention schedule and the strains.
+	 * Used to check that the workers of a distributed run use the same settings as the coordinator.
+	 */
+	public static String settingsKey(InputSettings inputSet) {
+		MessageDigest digest = ResultCache.createDigest();
+		String settings = VERSION + "," + inputSet.getInterventionSchedule() + "," + inputSet.getStrains() + "," + inputSet.getTotalEpochsHorizon() + "," + inputSet.isLegacySeeding() + "," + inputSet.isPackedAgents()
+				+ "," + inputSet.isHybridEngine() + "," + inputSet.getRandomGenerator() + "," + inputSet.getModelKey();
+		return ResultCache.toHex(digest.digest(settings.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Uses the cached result of a run, when it exists: the output files are hard linked (or copied when linking is not possible) to the given file names,
+	 * and the counts are added to the summary over all runs.
+	 * @param fileNames names of the output files of the run, null when they are not written
+	 * @param ensemble summary over all runs, can be null
+	 * @param replicas adaptive number of runs, can be null
+	 * @param reduction variance reduction over all runs, can be null
+	 * @return true when the result of the run was cached, false when it still has to be simulated
+	 */
+	public boolean restore(String key, String[] fileNames, EnsembleAggregator ensemble, AdaptiveReplicas replicas, VarianceReduction reduction) {
+		Entry entry = index.get(key);
+		if(entry == null || (fileNames != null && !entry.outputFiles)) {
+			return false;
+		}
+
+		Path runDirectory = directory.resolve(key);
+		try {
+			if(fileNames != null) {
+				for(int i = 0; i < fileNames.length; i++) {
+					Path target = Paths.get(fileNames[i]);
+					Files.deleteIfExists(target); // an existing file could itself be a link to another cached run
+					try {
+						Files.createLink(target, runDirectory.resolve(ResultCache.outputFileName(i)));
+					} catch (IOException | UnsupportedOperationException e) { // e.g. another file system
+						Files.copy(runDirectory.resolve(ResultCache.outputFileName(i)), target);
+					}
+				}
+			}
+			if(ensemble != null || replicas != null || reduction != null) {
+				try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runDirectory.resolve(COUNTS_FILE))))) {
+					int[][][][] stageCounts = new int[in.readInt()][in.readInt()][in.readInt()][in.readInt()];
+					int[][][] patientCounts = new int[in.readInt()][in.readInt()][in.readInt()];
+					int[] queueCounts = new int[in.readInt()];
+					ResultCache.readCounts(in, stageCounts);
+					ResultCache.readCounts(in, patientCounts);
+					ResultCache.readCounts(in, queueCounts);
+					if(ensemble != null) {
+						ensemble.addRun(stageCounts, patientCounts, queueCounts);
+					}
+					if(replicas != null) {
+						replicas.addRun(stageCounts, patientCounts, queueCounts);
+					}
+					if(reduction != null) {
+						reduction.addRun(stageCounts, patientCounts, queueCounts);
+					}
+				}
+			}
+		} catch (IOException e) { // the run is simulated again
+			e.printStackTrace();
+			return false;
+		}
+
+		entry.lastUsed = System.currentTimeMillis();
+		this.writeIndex();
+		return true;
+	}
+
+	/**
+	 * Adds the result of a finished run to the cache, and removes the least recently used runs when the cache exceeds its budget
+	 * @param fileNames names of the output files of the run, null when they are not written
+	 */
+	public void store(String key, String[] fileNames, Simulation sim) {
+		Path runDirectory = directory.resolve(key);
+		try {
+			this.remove(key);
+			Files.createDirectories(runDirectory);
+			if(fileNames != null) {
+				for(int i = 0; i < fileNames.length; i++) { // copied, as the output files may be overwritten later
+					Files.copy(Paths.get(fileNames[i]), runDirectory.resolve(ResultCache.outputFileName(i)), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runDirectory.resolve(COUNTS_FILE))))) {
+				int[][][][] stageCounts = sim.getStageCountsPerEpoch();
+				int[][][] patientCounts = sim.getPatientCountsPerEpoch();
+				out.writeInt(stageCounts.length);
+				out.writeInt(stageCounts[0].length);
+				out.writeInt(stageCounts[0][0].length);
+				out.writeInt(stageCounts[0][0][0].length);
+				out.writeInt(patientCounts.length);
+				out.writeInt(patientCounts[0].length);
+				out.writeInt(patientCounts[0][0].length);
+				out.writeInt(sim.getQueueCountsPerEpoch().length);
+				ResultCache.writeCounts(out, stageCounts);
+				ResultCache.writeCounts(out, patientCounts);
+				ResultCache.writeCounts(out, sim.getQueueCountsPerEpoch());
+			}
+
+			long bytes = 0;
+			try(Stream<Path> files = Files.list(runDirectory)) {
+				for(Path file : (Iterable<Path>) files::iterator) {
+					bytes += Files.size(file);
+				}
+			}
+			index.put(key, new Entry(key, bytes, System.currentTimeMillis(), fileNames != null));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		this.evict();
+		this.writeIndex();
+	}
+
+	/**
+	 * Removes the least recently used runs until the cache fits in its budget
+	 */
+	private void evict() {
+		long total = 0;
+		for(Entry entry : index.values()) {
+			total += entry.bytes;
+		}
+		if(total <= budget) {
+			return;
+		}
+
+		List<Entry> entries = new ArrayList<>(index.values());
+		entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+		for(Entry entry : entries) {
+			if(total <= budget) {
+				break;
+			}
+			total -= entry.bytes;
+			this.remove(entry.key);
+		}
+	}
+
+	private void remove(String key) {
+		index.remove(key);
+		Path runDirectory = directory.resolve(key);
+		if(!Files.exists(runDirectory)) {
+			return;
+		}
+		try(Stream<Path> files = Files.list(runDirectory)) {
+			for(Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file); // links to this file in the output folder keep their contents
+			}
+			Files.delete(runDirectory);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the index to a temporary file first, such that an interrupted write does not leave a broken index
+	 */
+	private void writeIndex() {
+		Path indexFile = directory.resolve(INDEX_FILE);
+		Path tempFile = directory.resolve(INDEX_FILE + ".tmp");
+		try(PrintWriter printer = new PrintWriter(Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))) {
+			for(Entry entry : index.values()) {
+				printer.println(entry.key + "," + entry.bytes + "," + entry.lastUsed + "," + entry.outputFiles);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		try {
+			Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static String outputFileName(int i) {
+		return "output" + i + ".txt";
+	}
+
+	private static void writeCounts(DataOutputStream out, Object counts) throws IOException {
+		if(counts instanceof int[]) {
+			for(int count : (int[]) counts) {
+				out.writeInt(count);
+			}
+			return;
+		}
+		for(Object sub : (Object[]) counts) {
+			ResultCache.writeCounts(out, sub);
+		}
+	}
+
+	private static void readCounts(DataInputStream in, Object counts) throws IOException {
+		if(counts instanceof int[]) {
+			int[] countsArray = (int[]) counts;
+			for(int i = 0; i < countsArray.length; i++) {
+				countsArray[i] = in.readInt();
+			}
+			return;
+		}
+		for(Object sub : (Object[]) counts) {
+			ResultCache.readCounts(in, sub);
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available.", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for(byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,248 @@
+package nCoV;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+import nCoV.Main.AgeGroup;
+import nCoV.Main.Stage;
+
+/**
+ * All input of a scenario (transition matrix and start situation) that is read from the input folder. The input does not change during a simulation,
+ * so it is read once and shared by all runs of the scenario, also by the runs of a worker in a distributed run (see Worker).
+ */
+public class ScenarioInput {
+
+	private int scenario;
+	private Regions regions;
+	private EnumMap<AgeGroup, SparseMatrix> COMMUTE_DISTRIBUTION;
+	private EnumMap<AgeGroup, EnumMap<Stage, EnumMap<Stage, Double>>> VIRUS_PROGRESSION;
+	private int[] HOSPITAL_CAPACITY;
+	private int[][][] INFECTION_NUMBERS;
+	private int[][] POPULATION_NUMBER;
+	private EnumMap<AgeGroup, EnumMap<AgeGroup, Double>> CONTACT_RATIO;
+	private EnumMap<AgeGroup, EnumMap<AgeGroup, Double>> NUMBER_DAILY_CONTACTS_PERAGEGROUP;
+	private SparseMatrix[] ALPHA;
+	private InterventionSchedule INTERVENTIONS;
+	// Interventions of the schedule given in the settings, null when no schedule is given
+	private Strains STRAINS;
+	// Strains of the virus given in the settings, null when only the strain of the scenario circulates
+	private List<String> inputFiles;
+	// Names of all files that are read, used to identify the input of a run in the ResultCache
+
+	private ScenarioInput(int scenario, Regions regions) {
+		this.scenario = scenario;
+		this.regions = regions;
+		this.inputFiles = new ArrayList<>();
+	}
+
+	/**
+	 * Reads the input of the scenario from user.dir/input
+	 * @param scenario number of the transition matrix and start situation
+	 * @param regions regions of the simulation
+	 * @param interventionName name of the intervention schedule in input/Interventions, empty when no interventions are used
+	 * @param strainsName name of the strains in input/Strains, empty when only the strain of the scenario circulates
+	 */
+	public static ScenarioInput read(int scenario, Regions regions, String interventionName, String strainsName) {
+
+		ScenarioInput input = new ScenarioInput(scenario, regions);
+		String transitionName = "matrix-" + scenario;
+		String startSituationName =	"startSit_"  + scenario;
+
+		/*
+		 * Filenames for the input files.
+		 */
+		String fileInput_contactRatio = System.getProperty("user.dir") + "/input/ContactData/ratioContacten.csv";
+		String fileInput_numberDailyContacts = System.getProperty("user.dir") + "/input/ContactData/number_daily_contacts.csv";
+		String fileInput_populationNumber = System.getProperty("user.dir") + "/input/Demographics/Bevolking_corop_leeftijd.csv";
+		String fileInput_commute = System.getProperty("user.dir") + "/input/Commute/Woonwerk_"; // filename is finished in the loop below, output is x1000 in inputreader
+		String fileInput_transitions = System.getProperty("user.dir") + "/input/TransitionMatrices/" + transitionName + ".csv";
+		String fileInput_hospital = System.getProperty("user.dir") + "/input/HospitalCapacity/Ziekenhuizen_NL.csv"; // output is set at a reasonable high number such that IC capacity is never an issue
+		String fileInput_initialInfection = System.getProperty("user.dir") + "/input/StartSituations/" + startSituationName + ".csv"; // updated 10-05
+		String fileInput_interventions = System.getProperty("user.dir") + "/input/Interventions/" + interventionName + ".csv"; // only used when an intervention schedule is given
+		input.inputFiles.add(fileInput_contactRatio);
+		input.inputFiles.add(fileInput_numberDailyContacts);
+		input.inputFiles.add(fileInput_populationNumber);
+		input.inputFiles.add(fileInput_transitions);
+		input.inputFiles.add(fileInput_hospital);
+		input.inputFiles.add(fileInput_initialInfection);
+		String fileInput_strains = System.getProperty("user.dir") + "/input/Strains/" + strainsName + ".csv"; // only used when strains are given
+		if(!interventionName.isEmpty()) {
+			input.inputFiles.add(fileInput_interventions);
+		}
+		if(!strainsName.isEmpty()) {
+			input.inputFiles.add(fileInput_strains);
+		}
+
+		/*
+		 * Input: contact patterns of individuals (given their age group)
+		 */
+		EnumMap<AgeGroup, Double> NUMBER_DAILY_CONTACTS = null;
+
+		try {
+			input.CONTACT_RATIO = InputReader.readContactPatternCSV(fileInput_contactRatio);
+			NUMBER_DAILY_CONTACTS = InputReader.readDailyContacts(fileInput_numberDailyContacts);
+		}
+		catch (FileNotFoundException e)
+		{
+			e.printStackTrace();
+		}
+
+		input.NUMBER_DAILY_CONTACTS_PERAGEGROUP = HelperFunction.determineNumberDailyContactsPerAgeGroup(input.CONTACT_RATIO, NUMBER_DAILY_CONTACTS);
+
+		/*
+		 * Input: Demographics and commute characteristics
+		 * Number of people in each corop and commute distribution per age group
+		 */
+		input.COMMUTE_DISTRIBUTION = new EnumMap<>(AgeGroup.class);
+		int[] agesForTheGroups = {0, 9, 10, 19, 20, 29, 30, 39, 40, 49, 50, 59, 60, 69, 70, 79, 80, 150}; // HARDCODED
+
+		try
+		{
+			input.POPULATION_NUMBER = InputReader.readPopulationDistributionCSV(fileInput_populationNumber, regions);
+			for(int i = 0; i < agesForTheGroups.length; i = i + 2) { // HARDCODED
+
+				int x = agesForTheGroups[i];
+				int y = agesForTheGroups[i + 1];
+
+				String ageName = "Age_" + x + "_" + y;
+				AgeGroup ageGroup = AgeGroup.valueOf(ageName);
+				if(ageGroup == null) { throw new IllegalArgumentException("Input stage: age group does not exist.");				}
+
+				String fileInput2 = fileInput_commute + x + "tot" + y + "jaar.csv";
+				input.inputFiles.add(fileInput2);
+				SparseMatrix cDist = InputReader.readCommuteCSV(fileInput2, regions);
+				input.COMMUTE_DISTRIBUTION.put(ageGroup, cDist);
+			}
+		}
+		catch (FileNotFoundException e)
+		{
+			e.printStackTrace();
+		}
+
+		input.ALPHA = HelperFunction.determineAlpha(input.COMMUTE_DISTRIBUTION, input.POPULATION_NUMBER);
+
+		/*
+		 * Input: Related to virus characteristics
+		 * Progression of the virus into the next stages. Virus progression depends on each age group
+		 */
+		try {
+			input.VIRUS_PROGRESSION = InputReader.readTransitionProbabilities(fileInput_transitions);
+		} catch (FileNotFoundException e1) {
+			e1.printStackTrace();
+		}
+
+		/*
+		 *  Input: Capacity of each hospital. Now it overwrites the original capacity to a high number, can be changed to read original capacity.
+		 */
+		try {
+			input.HOSPITAL_CAPACITY = InputReader.readICcapacityCSV(fileInput_hospital, regions);
+
+		} catch (FileNotFoundException e1) {
+			e1.printStackTrace();
+		}
+
+		/*
+		 * Number of individuals in each stage of their infection in their age group for every city
+		 */
+		try {
+			input.INFECTION_NUMBERS = InputReader.readInitialInfectionCSV(fileInput_initialInfection, regions);
+
+		} catch (FileNotFoundException e1) {
+			e1.printStackTrace();
+		}
+
+		/*
+		 * Interventions changing the contact patterns, commuting and P(T) during the simulation (optional)
+		 */
+		if(!interventionName.isEmpty()) {
+			try {
+				input.INTERVENTIONS = InputReader.readInterventionSchedule(fileInput_interventions, regions);
+			} catch (FileNotFoundException e1) {
+				e1.printStackTrace();
+			}
+		}
+
+		/*
+		 * Strains circulating next to the strain of the scenario, each with its own transition matrix (optional)
+		 */
+		if(!strainsName.isEmpty()) {
+			try {
+				input.STRAINS = InputReader.readStrains(fileInput_strains);
+				List<EnumMap<AgeGroup, EnumMap<Stage, EnumMap<Stage, Double>>>> progression = new ArrayList<>();
+				for(int strain = 0; strain < input.STRAINS.getNumberOfStrains(); strain++) {
+					String matrixName = input.STRAINS.getTransitionMatrix(strain);
+					if(matrixName.isEmpty()) {
+						progression.add(input.VIRUS_PROGRESSION);
+					}
+					else {
+						String fileInput_strainTransitions = System.getProperty("user.dir") + "/input/TransitionMatrices/" + matrixName + ".csv";
+						input.inputFiles.add(fileInput_strainTransitions);
+						progression.add(InputReader.readTransitionProbabilities(fileInput_strainTransitions));
+					}
+				}
+				input.STRAINS.setProgression(progression);
+			} catch (FileNotFoundException e1) {
+				e1.printStackTrace();
+			}
+		}
+		return input;
+	}
+
+	/**
+	 * Creates a simulation of this scenario, initialised for the given seed
+	 * @param inputSet settings of the runs (horizon, agent storage, engine, seeding, random generator)
+	 * @param VIRUS_TRANSMISSION_PROBABILITY P(T)
+	 * @param seed seed of the run (the run number)
+	 * @param partition processes of a spatially partitioned simulation, null when this process simulates all agents
+	 * @param fileNames names of the output files of the run, null when the output of the run is not written
+	 */
+	public Simulation createSimulation(InputSettings inputSet, double VIRUS_TRANSMISSION_PROBABILITY, int seed, Partition partition, String[] fileNames) {
+		Simulation sim = new Simulation(
+				inputSet.getTotalEpochsHorizon(),
+				regions,
+				COMMUTE_DISTRIBUTION,
+				VIRUS_PROGRESSION,
+				HOSPITAL_CAPACITY,
+				INFECTION_NUMBERS,
+				POPULATION_NUMBER,
+				CONTACT_RATIO,
+				NUMBER_DAILY_CONTACTS_PERAGEGROUP,
+				VIRUS_TRANSMISSION_PROBABILITY,
+				ALPHA,
+				inputSet.isPackedAgents(),
+				partition,
+				inputSet.isHybridEngine(),
+				inputSet.isMeanFieldEngine(),
+				fileNames);
+
+		sim.setInterventionSchedule(INTERVENTIONS);
+		sim.setLegacySeeding(inputSet.isLegacySeeding());
+		sim.setRandomGenerator(inputSet.getRandomGenerator());
+		sim.setStrains(STRAINS);
+		sim.setImmunityDuration(inputSet.getImmunityDuration());
+		sim.setContactNetwork(inputSet.getHouseholdSizes(), inputSet.getHouseholdTransmissionProbability(), inputSet.getVenueSize(), inputSet.getVenueTransmissionProbability());
+		sim.setContactSchedule(inputSet.getContactSchedule());
+		sim.setInfectionSources(inputSet.isInfectionSources(), inputSet.isInfectionLog());
+		sim.setTimeStep(inputSet.getEpochsPerStep());
+		sim.setCommonRandomNumbers(inputSet.isCommonRandomNumbers(), inputSet.isAntitheticRuns());
+		sim.initializeSimulation(seed);
+		return sim;
+	}
+
+	public int getScenario() {
+		return scenario;
+	}
+
+	public Regions getRegions() {
+		return regions;
+	}
+
+	/**
+	 * Names of all input files of the scenario, except the regions file
+	 */
+	public List<String> getInputFiles() {
+		return inputFiles;
+	}
+}
@@ -1,22 +1,28 @@
 package nCoV;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 import nCoV.Main.AgeGroup;
-import nCoV.Main.City;
-import nCoV.Main.Hospital;
 import nCoV.Main.Stage;
 
 public class Simulation {
@@ -24,74 +30,209 @@ public class Simulation {
 	/*
 	 *  Input for the simulation
 	 */
-	private EnumMap<AgeGroup, EnumMap<City, EnumMap<City,Integer>>> COMMUTE_DISTRIBUTION; 
-	// Number of agents (for each age group) that commute between one city and the other
+	private Regions regions;
+	// Regions (e.g. corops) and hospitals of the simulation, all cities and hospitals below are indices in this table
+	private EnumMap<AgeGroup, SparseMatrix> COMMUTE_DISTRIBUTION; 
+	// Number of agents (for each age group) that commute between one city and the other, only the nonzero flows are stored
 	private int totalEpochsHorizon; 
 	// Number of epochs, Epoch is day or night. During day the person works in the commute area, during night in his hometown
 	private EnumMap<AgeGroup, EnumMap<Stage, EnumMap<Stage, Double>>> VIRUS_PROGRESSION; 
 	// Health transmission matrix (Markov-chain)
-	private EnumMap<Hospital, Integer> HOSPITAL_CAPACITY; 
-	// Number of available IC beds in each corop, is currently not used (set to reasonable large)
-	private EnumMap<City, EnumMap<AgeGroup, EnumMap<Stage, Integer>>> INFECTION_NUMBERS; 
-	// Number of initial agents in certain health stages for each corop and age group. Number of susceptible agents do not have to be given
-	private EnumMap<City, EnumMap<AgeGroup, Integer>> POPULATION_NUMBER; 
-	// Number of agents of a certain age group living in a corop
+	private int[] HOSPITAL_CAPACITY; 
+	// Number of available IC beds in each hospital, is currently not used (set to reasonable large)
+	private int[][][] INFECTION_NUMBERS; 
+	// Number of initial agents in certain health stages [corop][age group][stage]. Number of susceptible agents do not have to be given
+	private int[][] POPULATION_NUMBER; 
+	// Number of agents of a certain age group living in a corop [corop][age group]
 	private EnumMap<AgeGroup, EnumMap<AgeGroup, Double>> CONTACT_RATIO;
 	// Is defined as \mathbb{P}\{E_{aa'}\}, which is the probability that an individual from age group $a$ encounters an individual from age group $a'$
 	private EnumMap<AgeGroup, EnumMap<AgeGroup, Double>> NUMBER_DAILY_CONTACTS_PERAGEGROUP;
 	// $[\#\textup{DailyContacts}]_{a,a'}$ is the number of daily contacts an agent of age group $a$ has with agents with age group $a'$
 	private double VIRUS_TRANSMISSION_PROBABILITY;
 	// Our P(T)
-	private EnumMap<AgeGroup, EnumMap<City, EnumMap<City, Double>>> ALPHA;
-	// Alpha as defined in the paper, fraction of people from age group $a'$, living in corop $c$ and being present in corop $c'$ during the current epoch
+	private SparseMatrix[] ALPHA;
+	// Alpha as defined in the paper, fraction of people from age group $a'$, living in corop $c$ and being present in corop $c'$ during the current epoch. 
+	// For each age group a' (ordinal) a sparse matrix [c][c'], all with the same structure (the diagonal and all pairs of corops with commuters)
 	private String[] fileNames;
-	// Names for the output files
+	// Names for the output files, null when the output of each run is not written to files
 
 
 	/*
 	 *  Used/filled throughout the simulation
 	 */
-	private Individual[] allIndividuals;
-	// Contains all simulated agents
-	private EnumMap<Hospital, Integer> patientsHospital;
-	// Number of patients in each hospital(/corop)
-	private EnumMap<Hospital, EnumMap<AgeGroup, List<Individual>>> patientsHospitalPerAgeGroup;
-	// For each hospital a list of (hospitalized) agents is stored given the patients' age groups. 
-	private List<Individual> queueHospital;
+	private Population population;
+	// Contains all simulated agents, an agent is identified by its index
+	private int[] patientsHospital;
+	// Number of patients in each hospital
+	private List<EnumMap<AgeGroup, List<Integer>>> patientsHospitalPerAgeGroup;
+	// For each hospital (index) a list of (hospitalized) agents is stored given the patients' age groups. 
+	private List<Integer> queueHospital;
 	//  Not used ATM, but it queues the individuals waiting for an ICU spot. Handled according to FIFO.
-	private EnumMap<Hospital, int[]> patientNumberHospital;
-	// Stores the number of patients in each hospital at each time epoch. Easy way to retrieve info.
-	private EnumMap<City, Integer> residentsPerCity;
+	private int[][] patientNumberHospital;
+	// Stores the number of patients in each hospital at each time epoch [hospital][epoch]. Easy way to retrieve info.
+	private int[] residentsPerCity;
 	// Stores the number of citizens in each city. It is used in the initialization of the individuals.
-	private List<Hospital> shuffleHospitals;
+	private List<Integer> shuffleHospitals;
 	// Not used ATM, but in case hospital of preference is full, a random other hospital is chosen which is not full
-	private EnumMap<City, EnumMap<AgeGroup, List<Individual>>> individualsCategorizedInitialisation;
-	// Categorizes the individuals given the corop they live in and their age group. Used for the initialisation. 
-	private EnumMap<City, EnumMap<AgeGroup,double[]>> infectionRate; 
-	// Stores the infection rate P_{a,c,t} (the infection probability in each corop for each age group and epoch)
-	private EnumMap<AgeGroup, EnumMap<Stage, int[]>> numberOfPeopleInEachStage; 
-	// Counts the number of people (for each agegroup and stage) who have been in that particular stage&agegroup for that many days. So the array int[] goes over the epochs. If you have {1, 0, 4} for stage x and agegroup y then this means that 1 person in y has been in stage x for 1 epoch, 0 persons in y have been in stage x for 2 epochs and 4 persons in y have been in stage x for 3 epochs 
-	private Map<Integer, EnumMap<AgeGroup,EnumMap<Stage, EnumMap<Stage, Integer>>>> numberSwitchersStage; 
-	// For a certain time epoch: counts the number of people who went from stage x to stage y, used for output purposes. 
-	private EnumMap<AgeGroup, EnumMap<City, Double>> ALPHA_SHORTCUT_HOME;
-	// Shortcut for ALPHA, contains precomputed values such that computation is faster
+	private int[] groupStart;
+	// The agents living in corop c of age group a are population[groupStart[c * #age groups + a]] until population[groupStart[c * #age groups + a + 1]]. Used for the initialisation.
+	private double[][][] infectionRate; 
+	// Stores the infection rate P_{a,c,t} [corop][age group][epoch] (the infection probability in each corop for each age group and epoch)
+	private int[][][] numberOfPeopleInEachStage; 
+	// Counts the number of people [age group][stage][epochs] who have been in that particular stage&agegroup for that many days. So the last index goes over the epochs. If you have {1, 0, 4} for stage x and agegroup y then this means that 1 person in y has been in stage x for 1 epoch, 0 persons in y have been in stage x for 2 epochs and 4 persons in y have been in stage x for 3 epochs 
+	private int[][][][] numberSwitchersStage; 
+	// Number of people [epoch][age group][stage x][stage y] who went from stage x to stage y in that epoch, used for output purposes. 
+	private int[][][][] stageCountsPerEpoch;
+	// Number of agents [epoch][stage][age group][resident city] at the beginning of each epoch. Used for the output and for the statistics over all runs (EnsembleAggregator)
+	private int[][][] patientCountsPerEpoch;
+	// Number of patients [epoch][hospital][age group] at the beginning of each epoch
+	private int[] queueCountsPerEpoch;
+	// Number of patients in the queue at the beginning of each epoch
+	private double[][] ALPHA_SHORTCUT_HOME;
+	// Shortcut for ALPHA [a'][c], contains precomputed values such that computation is faster
 	private Set<Stage> notEncounterStages;
 	// Contains all health stages of people you could not meet on the street (e.g. Deceased, ICU admission, ICU refusal)
+	private double[][][] progressionTable;
+	// Flat copy of VIRUS_PROGRESSION indexed by [age group][current stage][next stage] (ordinals), used in the agent loop instead of the EnumMap lookups
+	private double[] randomBlock;
+	// Random numbers for the block of agents that is currently updated
+	private StageCounters[] stageCounters;
+	// Counters of the stage transitions of each worker updating a part of a block, added to numberSwitchersStage and numberOfPeopleInEachStage at the end of each epoch
+	private Partition partition;
+	// Other processes of a spatially partitioned simulation (see Partition), null when this process simulates all corops
+	private int firstCity;
+	private int endCity;
+	// This process simulates the agents living in corop firstCity until endCity (exclusive), all corops without partitions
+	private int agentOffset;
+	// Agent i of this process is agent agentOffset + i of the whole population, the same agent as in a simulation without partitions
+	private int totalAgents;
+	// Number of agents of the whole population, over all partitions
+	private Compartments compartments;
+	// Agents who are not severely ill, counted per group in the hybrid engine (then population only contains the severely ill). Null when all agents are simulated as agents
+	private MeanField meanField;
+	// Expected number of agents of the mean-field engine (then population is empty). Null when agents are simulated
+	private ContactNetwork households;
+	// Households of the agents, who infect each other during the night next to the infection risk of their corop (see ContactNetwork). Null without households
+	private ContactNetwork venues;
+	// Schools and workplaces of the agents, who infect each other during the day. Null without venues
+	private double householdTransmission;
+	private double venueTransmission;
+	// Probability that an infectious agent infects a healthy member of its household (venue) in one epoch
+	private byte[][] infectiousContacts;
+	// Number of infectious members of the venue ([VENUE_LAYER]) and of the household ([HOUSEHOLD_LAYER]) of each healthy agent in the current epoch, only non-zero for members of the groups of infectiousAgents.
+	// Null for a layer without groups
+	private double[][] contactSchedule = {{1, 0}, {0, 1}};
+	// Part of the day (row 0) and of the night (row 1) that the agents spend in their venue and in their household, see setContactSchedule
+	private int[] infectiousAgents;
+	private int nrInfectiousAgents;
+	// Infectious agents (Ia and Is) at the beginning of the current epoch, only collected with a contact network
+	private TimingWheel immunityWheel;
+	// Cured agents by the epoch in which their immunity ends (see setImmunityDuration), null when immunity is lifelong
+	private double immunityLoss;
+	// Probability per epoch that a cured agent loses its immunity, 1 / the mean duration of the immunity
+	private long immunitySeed;
+	// Key of the durations of the immunity of the current run, derived from its seed
+	private long[] immunityEnding;
+	// Bit set of the agents whose immunity ends in the current epoch
+	private int[] scheduledImmunityEnd;
+	// Epoch in which the current immunity of each agent ends, only with strains: an agent infected again by another strain and cured again still has its old end in the wheel, which is then skipped
+	private int[][] curedPerWorker;
+	private int[] nrCuredPerWorker;
+	// Agents cured by each worker in the current block, scheduled in the wheel after the block in the order of the agents
+	private Vaccination vaccination;
+	// Agents who can still be vaccinated, created at the first epoch with vaccine doses. Null before
+	private Strains strains;
+	// Strains that circulate at the same time, null when only the strain of the scenario circulates
+	private double[][][][] strainProgressionTable;
+	// Flat progression table [strain][age group][stage][next stage] of each strain, the table of strain 0 is progressionTable
+	private InfectionSources infectionSources;
+	// Infector of each new infection, null when the infections are not attributed
+	private long sourceSeed;
+	// Key of the draws of the infectors of the current run, derived from its seed
+	private int[][] infectedPerWorker;
+	private int[] nrInfectedPerWorker;
+	// Agents infected by each worker in the current block, attributed after the block in the order of the agents
+	private int epochsPerStep;
+	// Number of epochs (half days) in a time step, 1 as in the manuscript. The agents are only updated at the first epoch of each step
+	private double[][][] stepProgressionTable;
+	// Flat progression table of a whole step: the power epochsPerStep of progressionTable for each age group
+	private double[][] stepDayRisk;
+	private double[][] stepNightRisk;
+	private int stepDayEpochs;
+	private int stepNightEpochs;
+	// Infection risk [city][age group] of a day and of a night epoch of the current step and the number of these epochs in the step
+	private double[][] stepDayEscape;
+	private double[][] stepNightEscape;
+	// Probability [city][age group] to escape the infection in all day epochs and in all night epochs of the current step
+	private boolean commonRandomNumbers;
+	// True when the random number of each agent in each epoch is a hash of the run, the agent, the epoch and the purpose of the draw instead of the next number of the random generator
+	private boolean antitheticRuns;
+	// True when the runs come in pairs with the same seed, the second run of a pair draws 1 - U for the agents where the first draws U
+	private boolean mirrored;
+	// True in the second run of an antithetic pair
+	private long infectionSeed;
+	private long progressionSeed;
+	// Keys of the infection draws and of the progression draws of the agents in the current run, derived from its seed
+
+	/*
+	 * Time-varying input, changed by the intervention schedule
+	 */
+	private InterventionSchedule interventionSchedule;
+	// Interventions changing the input below at given epochs, null when the input stays the same over the whole horizon
+	private double transmissionProbability;
+	// Current P(T), starts at VIRUS_TRANSMISSION_PROBABILITY
+	private double[][] contactRatio;
+	// Current P(E_{a,a'}) indexed by [a][a'] (ordinals), starts at CONTACT_RATIO
+	private double[][] dailyContactsPerAgeGroup;
+	// Current [#DailyContacts]_{a,a'} indexed by [a][a'] (ordinals), starts at NUMBER_DAILY_CONTACTS_PERAGEGROUP
+	private int vaccinationDoses;
+	// Number of vaccine doses given in each epoch, 0 without vaccination
+	private int[][] vaccinationPriority;
+	// Priority [age group][corop] of the agents for vaccination: 1 first, then 2, ..., 0 not vaccinated
+	private double[] commuteScaling;
+	// Fraction of the agents commuting from corop c to c' that still commute during the day, 1 without interventions. Indexed by the position of (c,c') in the structure of ALPHA
+	private boolean commuteScalingActive;
+	// True when at least one commute flow is scaled, only then the day time infection risk of commuters is adjusted
+	private SparseMatrix[] alphaOriginal;
+	// ALPHA as given in the input, ALPHA and ALPHA_SHORTCUT_HOME themselves are updated in place when commuting is scaled
+	private boolean legacySeeding;
+	// True when the initial stages are drawn as in the original implementation (rand.ints().distinct() on a list of the remaining agents), otherwise with a partial Fisher-Yates shuffle
+	private String randomGenerator;
+	// Name of the random generator of each run (see RandomSource.create)
 
 	/*
 	 * Other
 	 */
-	private Random rand;
-	// Random generator to replicate the experiments
+	private RandomSource rand;
+	// Random generator to replicate the experiments, used for the agents, the seeding and the hospitals
 	private boolean firstTimeInitialising;
 	// Boolean checks true if the simulation is the first time initialised. First time more initialisation is needed, when using the method again certain substeps do not need to be performed.
 	private boolean justDoneASimulation;
 	// In case a simulation has been performed, all arrays etc are filled and need to be reinitialised before another simulation can be performed. When true, it needs to be reinitialized. 
+	private int currentEpoch;
+	// The next epoch to simulate, the simulation can be run in parts (see simulateUntil)
+	private PrintWriter[] printers;
+	// Output files of the current simulation run, null when no run is in progress
+
+	private static final Stage[] STAGES = Stage.values();
+	// Cached Stage.values(), to convert ordinals back to stages without copying the array
+	private static final int NUMBER_OUTPUT_FILES = 6;
+	// Number of output files of a simulation run
+	private static final int BLOCK_SIZE = 65536;
+	// Number of agents for which the random numbers are drawn at once
+	private static final int MIN_AGENTS_PER_WORKER = 8192;
+	// A block is only split over multiple workers when each worker gets at least this many agents
+	private static final long NETWORK_SEED = 1;
+	// Seed of the generators drawing the households and venues, the same for all runs
+	private static final int VENUE_LAYER = 0;
+	private static final int HOUSEHOLD_LAYER = 1;
+	// Layers of the contact network, the columns of contactSchedule
 
 
 	/**
 	 * Constructor of the simulation. 
 	 * @param totalEpochsHorizon
+	 * @param regions
 	 * @param COMMUTE_DISTRIBUTION
 	 * @param VIRUS_PROGRESSION
 	 * @param HOSPITAL_CAPACITY
@@ -101,21 +242,31 @@ public class Simulation {
 	 * @param NUMBER_DAILY_CONTACTS_PERAGEGROUP
 	 * @param VIRUS_TRANSMISSION_PROBABILITY
 	 * @param ALPHA
+	 * @param packedAgents true to store each agent in a single 32-bit word (see PackedPopulation), false to store one array per characteristic
+	 * @param partition processes of a spatially partitioned simulation, this process only simulates the agents of its own corops. Null to simulate all agents.
+	 * @param hybridEngine true to count the agents who are not severely ill per group instead of simulating them as agents (see Compartments)
+	 * @param meanFieldEngine true to propagate the expected number of agents in each stage without random numbers instead of simulating agents (see MeanField)
 	 * @param fileNames
 	 */
 	public Simulation( 
 			int totalEpochsHorizon, 
-			EnumMap<AgeGroup, EnumMap<City, EnumMap<City,Integer>>> COMMUTE_DISTRIBUTION, 
+			Regions regions,
+			EnumMap<AgeGroup, SparseMatrix> COMMUTE_DISTRIBUTION, 
 			EnumMap<AgeGroup, EnumMap<Stage, EnumMap<Stage, Double>>> VIRUS_PROGRESSION,
-			EnumMap<Hospital, Integer> HOSPITAL_CAPACITY,
-			EnumMap<City, EnumMap<AgeGroup, EnumMap<Stage, Integer>>> INFECTION_NUMBERS,
-			EnumMap<City, EnumMap<AgeGroup, Integer>> POPULATION_NUMBER,
+			int[] HOSPITAL_CAPACITY,
+			int[][][] INFECTION_NUMBERS,
+			int[][] POPULATION_NUMBER,
 			EnumMap<AgeGroup, EnumMap<AgeGroup, Double>> CONTACT_RATIO,
 			EnumMap<AgeGroup, EnumMap<AgeGroup, Double>> NUMBER_DAILY_CONTACTS_PERAGEGROUP,
 			double VIRUS_TRANSMISSION_PROBABILITY,
-			EnumMap<AgeGroup, EnumMap<City, EnumMap<City, Double>>> ALPHA,
+			SparseMatrix[] ALPHA,
+			boolean packedAgents,
+			Partition partition,
+			boolean hybridEngine,
+			boolean meanFieldEngine,
 			String[] fileNames
 			){
+		this.regions = regions;
 		this.COMMUTE_DISTRIBUTION = COMMUTE_DISTRIBUTION; 
 		this.totalEpochsHorizon = totalEpochsHorizon;
 		this.VIRUS_PROGRESSION = VIRUS_PROGRESSION;
@@ -125,25 +276,24 @@ public class Simulation {
 		this.CONTACT_RATIO = CONTACT_RATIO;
 		this.NUMBER_DAILY_CONTACTS_PERAGEGROUP = NUMBER_DAILY_CONTACTS_PERAGEGROUP;
 		this.VIRUS_TRANSMISSION_PROBABILITY = VIRUS_TRANSMISSION_PROBABILITY;
-		this.ALPHA = ALPHA;
+		this.ALPHA = new SparseMatrix[ALPHA.length]; // ALPHA is changed in place by interventions, so the input itself is copied such that it can be shared by all runs
+		for(int a = 0; a < ALPHA.length; a++) {
+			this.ALPHA[a] = ALPHA[a].copy();
+		}
 		this.fileNames = fileNames;
-
-		this.patientsHospital = new EnumMap<Hospital, Integer>(Hospital.class);
-		this.patientsHospitalPerAgeGroup =  new EnumMap<Hospital, EnumMap<AgeGroup, List<Individual>>>(Hospital.class);
+		this.partition = partition;
+		this.epochsPerStep = 1;
+		if(hybridEngine && partition != null) throw new IllegalArgumentException("The hybrid engine cannot be used in a partitioned simulation.");
+		if(meanFieldEngine && partition != null) throw new IllegalArgumentException("The mean-field engine cannot be used in a partitioned simulation.");
+		if(meanFieldEngine && hybridEngine) throw new IllegalArgumentException("Only one of the hybrid and the mean-field engine can be used.");
+
+		this.patientsHospital = new int[regions.getNumberOfHospitals()];
+		this.patientsHospitalPerAgeGroup =  new ArrayList<>();
 		this.queueHospital = new ArrayList<>();
-		this.patientNumberHospital = new EnumMap<Hospital, int[]>(Hospital.class);
-		this.residentsPerCity = new EnumMap<City, Integer>(City.class);
-		this.numberOfPeopleInEachStage = new EnumMap<>(AgeGroup.class);
+		this.patientNumberHospital = new int[regions.getNumberOfHospitals()][];
+		this.residentsPerCity = new int[regions.getNumberOfRegions()];
 		this.shuffleHospitals = new ArrayList<>();
-		this.infectionRate = new EnumMap<>(City.class);
-		this.individualsCategorizedInitialisation = new EnumMap<>(City.class);
-
-		int totalPersons = 0;
-		for(City city : City.values()) {		
-			for(AgeGroup ageGroup : AgeGroup.values()) {
-				totalPersons += POPULATION_NUMBER.get(city).get(ageGroup);
-			}
-		}
+		this.infectionRate = new double[regions.getNumberOfRegions()][AgeGroup.values().length][];
 
 		this.notEncounterStages = new HashSet<>(); // Used for the infection probability, used to identify agents you could encounter (e.g. not hospitalized or staying at home because of being sick)
 		notEncounterStages.add(Stage.INFECTED_SYMPTOMS_SEVERE_ICnotpossible);
@@ -151,582 +301,2061 @@ public class Simulation {
 		notEncounterStages.add(Stage.INFECTED_SYMPTOMS_SEVERE_QUEUE); // Note that the queue was not needed in our research, but we still include it to be able to see its effects
 		notEncounterStages.add(Stage.DEAD);
 
-		this.allIndividuals = new Individual[totalPersons];
-		this.numberSwitchersStage = new HashMap<>();
-		this.ALPHA_SHORTCUT_HOME = new EnumMap<>(AgeGroup.class);
+		this.ALPHA_SHORTCUT_HOME = new double[AgeGroup.values().length][regions.getNumberOfRegions()];
 
+		this.randomGenerator = RandomSource.XOROSHIRO;
 		this.firstTimeInitialising = true; // set TRUE as first time this instance is initialized. 
 		this.justDoneASimulation = true; // is set TRUE when a simulation has finished and needs reinitalising
-		this.createIndividuals(); // create all agents and their characteristics, also set up a 
+		this.createIndividuals(packedAgents, hybridEngine, meanFieldEngine); // create all agents and their characteristics, also set up a 
 		this.createAllMaps(); // create all arrays, maps and data structures used during the simulation
 	}
 
 
 	/**
-	 * This method creates all individuals. Each individual is unique, has a certain age group, resident city and commute city.
-	 * In case the individual has no commute city, their night corop is their resident city. 
-	 * 
+	 * Creates a copy of the given simulation at its current epoch boundary (see fork()). Input which does not change during a simulation is shared, 
+	 * all agents, hospitals, the queue, the accumulators for the output and the random generator are copied.
 	 */
-	private void createIndividuals() {
-		int uniqueID = 0;
+	private Simulation(Simulation parent, String[] fileNames, InterventionSchedule interventionSchedule) {
+		this.regions = parent.regions;
+		this.COMMUTE_DISTRIBUTION = parent.COMMUTE_DISTRIBUTION; 
+		this.totalEpochsHorizon = parent.totalEpochsHorizon;
+		this.VIRUS_PROGRESSION = parent.VIRUS_PROGRESSION;
+		this.HOSPITAL_CAPACITY = parent.HOSPITAL_CAPACITY;
+		this.INFECTION_NUMBERS = parent.INFECTION_NUMBERS;
+		this.POPULATION_NUMBER = parent.POPULATION_NUMBER;
+		this.CONTACT_RATIO = parent.CONTACT_RATIO;
+		this.NUMBER_DAILY_CONTACTS_PERAGEGROUP = parent.NUMBER_DAILY_CONTACTS_PERAGEGROUP;
+		this.VIRUS_TRANSMISSION_PROBABILITY = parent.VIRUS_TRANSMISSION_PROBABILITY;
+		this.fileNames = fileNames;
+		this.notEncounterStages = parent.notEncounterStages;
+		this.epochsPerStep = parent.epochsPerStep;
+		this.stepProgressionTable = parent.stepProgressionTable;
+		this.progressionTable = parent.progressionTable;
+		this.alphaOriginal = parent.alphaOriginal;
+		this.randomBlock = new double[BLOCK_SIZE];
+		this.stageCounters = this.createStageCounters();
 
 		/*
-		 *  Initializing some maps, needed to categorize the generated individuals (only for first initializing) 
-		 *  For convenience, it also initializes the infection rate array, as we already use this double loop (although it belongs more to createAllMaps())
+		 * ALPHA is changed in place by interventions, so each fork gets its own copy
 		 */
-		for(City city : City.values()) {
-			EnumMap<AgeGroup, List<Individual>> tempMap = new EnumMap<>(AgeGroup.class);
-			int sumCity = 0;
-			EnumMap<AgeGroup, double[]> tempDing = new EnumMap<>(AgeGroup.class);
-
-			for(AgeGroup ageGroup : AgeGroup.values()) {
-				List<Individual> shuffleSet = new ArrayList<>();
-				tempMap.put(ageGroup, shuffleSet);
-				sumCity += POPULATION_NUMBER.get(city).get(ageGroup);
-
-				double[] infectionPerEpoch = new double[totalEpochsHorizon];
-				tempDing.put(ageGroup, infectionPerEpoch);
-			}
-
-			infectionRate.put(city, tempDing);
-			individualsCategorizedInitialisation.put(city, tempMap);
-			residentsPerCity.put(city, sumCity);
+		this.ALPHA = new SparseMatrix[parent.ALPHA.length];
+		this.ALPHA_SHORTCUT_HOME = new double[parent.ALPHA_SHORTCUT_HOME.length][];
+		for(int a = 0; a < ALPHA.length; a++) {
+			ALPHA[a] = parent.ALPHA[a].copy();
+			ALPHA_SHORTCUT_HOME[a] = parent.ALPHA_SHORTCUT_HOME[a].clone();
 		}
 
 		/*
-		 *  Initialising work corop of individuals
+		 * Copy all agents. Agents are identified by their index, so the lists of agents below stay valid for the copy.
 		 */
-		for(City residentCity : City.values()) {
+		this.population = parent.population.copy();
+		this.groupStart = parent.groupStart;
+		this.firstCity = parent.firstCity;
+		this.endCity = parent.endCity;
+		this.agentOffset = parent.agentOffset;
+		this.totalAgents = parent.totalAgents;
+		this.compartments = parent.compartments == null ? null : parent.compartments.copy();
+		this.meanField = parent.meanField == null ? null : parent.meanField.copy();
 
+		/*
+		 * Copy the hospitals and the queue
+		 */
+		this.patientsHospital = parent.patientsHospital.clone();
+		this.patientsHospitalPerAgeGroup = new ArrayList<>();
+		this.patientNumberHospital = new int[parent.patientNumberHospital.length][];
+		for(int hos = 0; hos < patientNumberHospital.length; hos++) {
+			EnumMap<AgeGroup, List<Integer>> tempMap = new EnumMap<>(AgeGroup.class);
 			for(AgeGroup ageGroup : AgeGroup.values()) {
-
-				int nrPeopleTotalNeeded_agegroup = POPULATION_NUMBER.get(residentCity).get(ageGroup); // each corop needs a certain number of agents of a particular age group 
-
-				for(City commuteCity : City.values()) {
-
-					int nrPeopleToThisCommuteCity_agegroup = COMMUTE_DISTRIBUTION.get(ageGroup).get(residentCity).get(commuteCity); // in each corop a certain number of agents of a particular age group commute to another corop.
-
-					for(int i = 0 ; i < nrPeopleToThisCommuteCity_agegroup; i++) { // Here we only create agents which commute!
-
-						Stage stage = Stage.HEALTHY; // each agent is initially Healthy (Susceptible). Agents can later be assigned another health stage (according to INFECTION_NUMBERS)
-						int timeInStage = 0;
-						Hospital hospital = Hospital.values()[residentCity.ordinal()]; // IMPORTANT: now 1-1 relation city to hospital
-						int number = uniqueID;
-						boolean inHospital = false;
-						boolean inQueue = false;
-
-						Individual idv = new Individual(ageGroup, stage , timeInStage, residentCity, commuteCity, hospital, number, inHospital, inQueue);
-						allIndividuals[uniqueID] = idv;
-						individualsCategorizedInitialisation.get(residentCity).get(ageGroup).add(idv);
-						uniqueID ++;	
-						nrPeopleTotalNeeded_agegroup--; // this number is decreased as we have simulated a commuting agent of this category. Later we simulate the remaining non-commuting agents
-					}
-				}
-
-				if(nrPeopleTotalNeeded_agegroup < 0) throw new IllegalArgumentException("Cannot generate number of people needed."); // Error: more agents are apparently commuting than living inside this corop!
-				for(int i = 0; i < nrPeopleTotalNeeded_agegroup; i++) { // Here we simulate agents who do not commute, that is if not all people needed for this age group are simulated yet
-					Stage stage = Stage.HEALTHY; 
-					int timeInStage = 0;
-					Hospital hospital = Hospital.values()[residentCity.ordinal()]; // IMPORTANT: now 1-1 relation city to hospital
-					int number = uniqueID;
-					boolean inHospital = false;
-					boolean inQueue = false;
-
-					// Individual which do not commute is assumed to be around in its own resident city
-					Individual idv = new Individual(ageGroup, stage , timeInStage, residentCity, residentCity, hospital, number, inHospital, inQueue);
-					allIndividuals[uniqueID] = idv;
-					individualsCategorizedInitialisation.get(residentCity).get(ageGroup).add(idv);
-					uniqueID ++;	
-				}
+				tempMap.put(ageGroup, new ArrayList<>(parent.patientsHospitalPerAgeGroup.get(hos).get(ageGroup)));
 			}
+			patientsHospitalPerAgeGroup.add(tempMap);
+			patientNumberHospital[hos] = parent.patientNumberHospital[hos].clone();
 		}
-	}
-	/**
-	 * Creates all maps/arrays/data structures needed for the simulation. Only needed for first initialization. 
-	 */
-	private void createAllMaps() {
+		this.queueHospital = new ArrayList<>(parent.queueHospital);
+		this.shuffleHospitals = new ArrayList<>(parent.shuffleHospitals); // the order matters for the random generator
+		this.residentsPerCity = parent.residentsPerCity.clone();
+
 		/*
-		 *  create this Map
+		 * Copy the accumulators for the output
 		 */
-		for(Hospital hos : Hospital.values()){
+		this.infectionRate = new double[parent.infectionRate.length][][];
+		for(int city = 0; city < infectionRate.length; city++) {
+			infectionRate[city] = new double[parent.infectionRate[city].length][];
+			for(int age = 0; age < infectionRate[city].length; age++) {
+				infectionRate[city][age] = parent.infectionRate[city][age].clone();
+			}
+		}
 
-			EnumMap<AgeGroup, List<Individual>> tempMap = new EnumMap<>(AgeGroup.class);
-			for(AgeGroup ageGroup : AgeGroup.values()) {
-				List<Individual> individualList = new ArrayList<>();
-				tempMap.put(ageGroup, individualList);
+		this.numberOfPeopleInEachStage = Simulation.copyCounts(parent.numberOfPeopleInEachStage);
+		this.numberSwitchersStage = new int[totalEpochsHorizon][][][];
+		this.stageCountsPerEpoch = new int[totalEpochsHorizon][][][];
+		this.patientCountsPerEpoch = new int[totalEpochsHorizon][][];
+		for(int i = 0; i < totalEpochsHorizon ; i ++) {
+			numberSwitchersStage[i] = Simulation.copyCounts(parent.numberSwitchersStage[i]);
+			stageCountsPerEpoch[i] = Simulation.copyCounts(parent.stageCountsPerEpoch[i]);
+			patientCountsPerEpoch[i] = new int[parent.patientCountsPerEpoch[i].length][];
+			for(int hos = 0; hos < patientCountsPerEpoch[i].length; hos++) {
+				patientCountsPerEpoch[i][hos] = parent.patientCountsPerEpoch[i][hos].clone();
 			}
-			patientsHospitalPerAgeGroup.put(hos, tempMap);
-			patientsHospital.put(hos, 0);
-			patientNumberHospital.put(hos, new int[totalEpochsHorizon]);
-			shuffleHospitals.add(hos);
 		}
+		this.queueCountsPerEpoch = parent.queueCountsPerEpoch.clone();
 
 		/*
-		 *  create map
+		 * Copy the time-varying input. The new intervention schedule is applied from the current epoch onwards.
 		 */
-		for(AgeGroup ageGroup : AgeGroup.values()) {
-			EnumMap<Stage, int[]> insideMap = new EnumMap<>(Stage.class);
-
-			for(Stage stage : Stage.values()) {
-				int[] nrPeopleForEachDay = new int[totalEpochsHorizon + 1]; // int[] has a timeline, its max size needs to be totalEpochsHorizon
-				// + 1 is included as in the last time epoch still people get updated. 
-				insideMap.put(stage, nrPeopleForEachDay);
+		this.interventionSchedule = interventionSchedule;
+		this.transmissionProbability = parent.transmissionProbability;
+		this.commuteScalingActive = parent.commuteScalingActive;
+		this.legacySeeding = parent.legacySeeding;
+		this.randomGenerator = parent.randomGenerator;
+		this.households = parent.households; // the groups do not change, the contacts are counted by each fork itself
+		this.venues = parent.venues;
+		this.householdTransmission = parent.householdTransmission;
+		this.venueTransmission = parent.venueTransmission;
+		this.contactSchedule = parent.contactSchedule;
+		if(parent.infectiousContacts != null) {
+			this.infectiousContacts = new byte[parent.infectiousContacts.length][];
+			for(int layer = 0; layer < infectiousContacts.length; layer++) {
+				if(parent.infectiousContacts[layer] != null) {
+					this.infectiousContacts[layer] = new byte[parent.infectiousContacts[layer].length];
+				}
 			}
-			numberOfPeopleInEachStage.put(ageGroup, insideMap);
+			this.infectiousAgents = new int[parent.infectiousAgents.length];
+		}
+		this.immunityLoss = parent.immunityLoss;
+		this.immunitySeed = parent.immunitySeed;
+		if(parent.immunityWheel != null) {
+			this.immunityWheel = parent.immunityWheel.copy();
+			this.immunityEnding = new long[parent.immunityEnding.length];
+			this.scheduledImmunityEnd = parent.scheduledImmunityEnd == null ? null : parent.scheduledImmunityEnd.clone();
+			this.curedPerWorker = new int[stageCounters.length][0];
+			this.nrCuredPerWorker = new int[stageCounters.length];
+		}
+		this.contactRatio = new double[parent.contactRatio.length][];
+		this.dailyContactsPerAgeGroup = new double[parent.dailyContactsPerAgeGroup.length][];
+		for(int a = 0; a < contactRatio.length; a++) {
+			contactRatio[a] = parent.contactRatio[a].clone();
+			dailyContactsPerAgeGroup[a] = parent.dailyContactsPerAgeGroup[a].clone();
+		}
+		this.commuteScaling = parent.commuteScaling.clone();
+		this.vaccinationDoses = parent.vaccinationDoses;
+		this.vaccinationPriority = new int[parent.vaccinationPriority.length][];
+		for(int a = 0; a < vaccinationPriority.length; a++) {
+			vaccinationPriority[a] = parent.vaccinationPriority[a].clone();
+		}
+		this.vaccination = parent.vaccination == null ? null : parent.vaccination.copy();
+		this.strains = parent.strains;
+		this.strainProgressionTable = parent.strainProgressionTable;
+		this.commonRandomNumbers = parent.commonRandomNumbers;
+		this.antitheticRuns = parent.antitheticRuns;
+		this.mirrored = parent.mirrored;
+		this.infectionSeed = parent.infectionSeed;
+		this.progressionSeed = parent.progressionSeed;
+		if(parent.infectionSources != null) {
+			this.infectionSources = parent.infectionSources.copy();
+			this.sourceSeed = parent.sourceSeed;
+			this.infectedPerWorker = new int[stageCounters.length][0];
+			this.nrInfectedPerWorker = new int[stageCounters.length];
 		}
 
 		/*
-		 * create map 
+		 * Copy the state of the random generator and of the run
 		 */
-		for(int i = 0; i < totalEpochsHorizon ; i ++) {
-			EnumMap<AgeGroup,EnumMap<Stage, EnumMap<Stage, Integer>>> ageMap = new EnumMap<>(AgeGroup.class);
+		this.rand = parent.rand.copy();
+		this.firstTimeInitialising = parent.firstTimeInitialising;
+		this.justDoneASimulation = parent.justDoneASimulation;
+		this.currentEpoch = parent.currentEpoch;
+	}
 
-			for(AgeGroup agegroup : AgeGroup.values()) {
-				EnumMap<Stage, EnumMap<Stage, Integer>> switchers = new EnumMap<>(Stage.class);
+	/**
+	 * Forks the simulation at the current epoch boundary. The fork continues from exactly the same state (agents, random generator, hospitals, queue and output so far),
+	 * but writes to its own output files and uses its own intervention schedule for the remaining epochs. The fork and this simulation can then be continued independently (also concurrently).
+	 * @param fileNames names of the output files of the fork, the output of the epochs so far is copied into them
+	 * @param interventionSchedule interventions for the remaining epochs of the fork, can be null
+	 * @return the fork
+	 */
+	public Simulation fork(String[] fileNames, InterventionSchedule interventionSchedule) {
 
-				for(Stage stage : Stage.values()) {
-					EnumMap<Stage, Integer> tempMap = new EnumMap<>(Stage.class);
+		if(printers == null && justDoneASimulation) {
+			throw new IllegalStateException("Simulation can only be forked when it is initialised or running.");
+		}
+		if(partition != null) {
+			throw new IllegalStateException("A partitioned simulation cannot be forked.");
+		}
 
-					for(Stage stage2 : Stage.values()) {
-						tempMap.put(stage2, 0);
-					}
-					switchers.put(stage, tempMap);
+		Simulation fork = new Simulation(this, fileNames, interventionSchedule);
+
+		if(printers != null && this.fileNames != null && fileNames != null) { // the output of the shared epochs is copied, the fork then continues the files
+			try
+			{
+				for(int i = 0; i < printers.length; i++) {
+					printers[i].flush();
+					Files.copy(Paths.get(this.fileNames[i]), Paths.get(fileNames[i]), StandardCopyOption.REPLACE_EXISTING);
+				}
+				if(infectionSources != null && infectionSources.isLogged()) {
+					infectionSources.flushLog();
+					Files.copy(Paths.get(this.fileNames[NUMBER_OUTPUT_FILES + 1]), Paths.get(fileNames[NUMBER_OUTPUT_FILES + 1]), StandardCopyOption.REPLACE_EXISTING);
 				}
-				ageMap.put(agegroup, switchers);
 			}
-
-			numberSwitchersStage.put(i, ageMap);
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			fork.openOutputFiles(true);
 		}
+		else if(printers != null && this.fileNames == null && fileNames == null) { // no output files are written
+			fork.openOutputFiles(false);
+		}
+		else if(printers != null) {
+			throw new IllegalArgumentException("Output files can only be forked when both the simulation and the fork write their output.");
+		}
+		return fork;
+	}
 
-		/*
-		 * Create ALPHA_SHORTCUT_HOME, already summed without own city. Shortcut for ALPHA, used for precompution
-		 */
-		for(AgeGroup ageGroup : AgeGroup.values()) {
-			EnumMap<City, Double> tempMap = new EnumMap<>(City.class);
-
-			for(City city : City.values()) {
+	/**
+	 * Finishes all given simulations (e.g. forks of the same simulation) concurrently, using at most one thread per processor.
+	 */
+	public static void finishConcurrently(List<Simulation> simulations) {
 
-				double sum = 0.0;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(simulations.size(), Runtime.getRuntime().availableProcessors())));
+		List<Future<?>> futures = new ArrayList<>();
+		for(Simulation sim : simulations) {
+			futures.add(executor.submit(sim::finishSimulation));
+		}
 
-				for(City otherCity : City.values()) {
-					if(!otherCity.equals(city)) {
-						sum += ALPHA.get(ageGroup).get(city).get(otherCity);
-					}
-				}				
-				tempMap.put(city, sum);
+		try {
+			for(Future<?> future : futures) {
+				future.get();
 			}
-			ALPHA_SHORTCUT_HOME.put(ageGroup, tempMap);
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Simulation branch failed.", e);
+		} finally {
+			executor.shutdown();
 		}
 	}
 
 	/**
-	 * This class sets up all information needed for this particular simulation input and the given seed.
-	 * In case this method is called a second time (etc.), the data structures will be emptied.
-	 * Furthermore, it randomly assigns each agent its health stage. 
+	 * Copies counts indexed by three indices, e.g. [age group][stage][epoch]
 	 */
-	public void initializeSimulation(int seed){
+	private static int[][][] copyCounts(int[][][] counts) {
+		int[][][] copy = new int[counts.length][][];
+		for(int i = 0; i < counts.length; i++) {
+			copy[i] = new int[counts[i].length][];
+			for(int j = 0; j < counts[i].length; j++) {
+				copy[i][j] = counts[i][j].clone();
+			}
+		}
+		return copy;
+	}
 
-		/*
-		 * Reinitialise/empty maps when doing a new simulation
-		 */
-		if(firstTimeInitialising == true) { // first time doing the simulation no need to reinitialize it
-			firstTimeInitialising = false;
-			justDoneASimulation = false;
+	/**
+	 * Copies counts indexed by three indices into counts of the same shape, without creating new arrays
+	 */
+	private static void copyCounts(int[][][] counts, int[][][] target) {
+		for(int i = 0; i < counts.length; i++) {
+			for(int j = 0; j < counts[i].length; j++) {
+				System.arraycopy(counts[i][j], 0, target[i][j], 0, counts[i][j].length);
+			}
 		}
-		else {  // empty all data structures
-			this.reinitialize();
+	}
+
+	/**
+	 * Sets counts indexed by three indices to 0, without creating new arrays
+	 */
+	private static void clearCounts(int[][][] counts) {
+		for(int[][] countsI : counts) {
+			for(int[] countsIJ : countsI) {
+				Arrays.fill(countsIJ, 0);
+			}
 		}
+	}
 
-		/*
-		 *  Settting up the random generator
-		 */
-		rand = new Random(seed);
+	/**
+	 * This method creates all individuals. Each individual is unique, has a certain age group, resident city and commute city.
+	 * In case the individual has no commute city, their night corop is their resident city. 
+	 * The agents of each corop and age group form a block of consecutive indices, starting at an offset that follows from POPULATION_NUMBER. 
+	 * The blocks are independent and are filled in parallel: first the commuters (in the order of the commute corops), then the agents who do not commute.
+	 * With partitions only the blocks of the own corops are created, the indices of the agents are shifted by agentOffset.
+	 * The hybrid engine does not create the agents but their groups (see Compartments), agents are only added when they become severely ill.
+	 * The mean-field engine does not create any agent (see MeanField).
+	 */
+	private void createIndividuals(boolean packedAgents, boolean hybridEngine, boolean meanFieldEngine) {
+		int nrAgeGroups = AgeGroup.values().length;
+		int nrBlocks = regions.getNumberOfRegions() * nrAgeGroups;
 
 		/*
-		 * Randomly assigning which agent is in which stage. 
+		 *  Determine the first agent of each block, and check that the commuters fit in their block.
+		 *  For convenience, it also initializes the infection rate array, as we already use this double loop (although it belongs more to createAllMaps())
 		 */
-		for(City city : City.values()) {
-			for(AgeGroup ageGroup : AgeGroup.values()) {
-
-				List<Individual> idvList = new ArrayList<>(individualsCategorizedInitialisation.get(city).get(ageGroup)); // which agents in this corop with a certain age group are eligible to obtain a certain health stage
-
-				for(Stage stage : Stage.values()) {
-					int numberThisStage = INFECTION_NUMBERS.get(city).get(ageGroup).get(stage); // number of agents who should get this health stage
+		this.groupStart = new int[nrBlocks + 1];
+		for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+			int sumCity = 0;
 
-					if(numberThisStage > 0 ) { // only when assignment is needed. If all categories stay 0, all agents stay healthy/susceptible.
+			for(AgeGroup ageGroup : AgeGroup.values()) {
+				int block = city * nrAgeGroups + ageGroup.ordinal();
+				int nrPeopleTotalNeeded_agegroup = POPULATION_NUMBER[city][ageGroup.ordinal()]; // each corop needs a certain number of agents of a particular age group 
+				SparseMatrix commute = COMMUTE_DISTRIBUTION.get(ageGroup);
 
-						int listSize = idvList.size();
+				int nrCommuters = 0;
+				for(int k = commute.getRowStart(city); k < commute.getRowEnd(city); k++) {
+					nrCommuters += (int) commute.getValue(k);
+				}
+				if(nrCommuters > nrPeopleTotalNeeded_agegroup) throw new IllegalArgumentException("Cannot generate number of people needed."); // Error: more agents are apparently commuting than living inside this corop!
 
-						if(numberThisStage > idvList.size()) throw new IllegalStateException("Number of people in a certain stage exceed number of people in that corop and agegroup. Check your input files.");
+				groupStart[block + 1] = groupStart[block] + nrPeopleTotalNeeded_agegroup;
+				sumCity += nrPeopleTotalNeeded_agegroup;
 
-						int[] randArray = rand.ints(0, listSize).distinct().limit(numberThisStage).toArray(); // this makes an array containing numbers which corresponds to the agents in numberThisStage and of those only listSize number of agents should be picked.
-						List<Individual> removalList = new ArrayList<>(); // consists of all agents who need to be removed
-						for(int i = 0 ; i < randArray.length ; i ++) {
-							Individual idv = idvList.get(randArray[i]);
-							idv.setStage(stage);
-							removalList.add(idv);
-						}
-						idvList.removeAll(removalList); //individuals are removed, so they cannot be assigned multiple stages
-					}
-				}
+				double[] infectionPerEpoch = new double[totalEpochsHorizon];
+				infectionRate[city][ageGroup.ordinal()] = infectionPerEpoch;
 			}
+			residentsPerCity[city] = sumCity;
 		}
-	}
-
-	/**
-	 * Reinitialize the simulation. Is needed when doing multiple runs of the same simulation instance. 
-	 */
-	private void reinitialize() {
 
 		/*
-		 * Overwrite time in healthy stage
+		 * Determine the corops of this process
 		 */
-		for(Individual idv : allIndividuals) {
-			idv.setStage(Stage.HEALTHY);
-			idv.setTimeInStage(0);
-			idv.setInHospital(false);
-			idv.setQueue(false);
+		this.totalAgents = groupStart[nrBlocks];
+		this.firstCity = 0;
+		this.endCity = regions.getNumberOfRegions();
+		if(partition != null) {
+			int[] split = partition.splitRegions(residentsPerCity);
+			firstCity = split[partition.getRank()];
+			endCity = split[partition.getRank() + 1];
+			System.out.println("Partition " + partition.getRank() + ": corops " + regions.getRegionName(firstCity) + " until " + regions.getRegionName(endCity - 1));
+		}
+		this.agentOffset = groupStart[firstCity * nrAgeGroups];
+		int nrAgents = groupStart[endCity * nrAgeGroups] - agentOffset;
+
+		if(hybridEngine) {
+			this.population = new ColumnPopulation(0, regions);
+			this.compartments = new Compartments(regions, COMMUTE_DISTRIBUTION, POPULATION_NUMBER, ALPHA[0], totalEpochsHorizon);
+			System.out.println("Hybrid engine: " + nrAgents + " agents in " + compartments.getNumberOfGroups() + " groups");
+			return;
+		}
+		if(meanFieldEngine) {
+			this.population = new ColumnPopulation(0, regions);
+			this.meanField = new MeanField(regions, COMMUTE_DISTRIBUTION, POPULATION_NUMBER, ALPHA[0], totalEpochsHorizon);
+			System.out.println("Mean-field engine: " + nrAgents + " agents in " + meanField.getNumberOfGroups() + " groups");
+			return;
 		}
 
 		/*
-		 * emptying maps 
+		 *  Fill the blocks. Each agent is initially Healthy (Susceptible), agents can later be assigned another health stage (according to INFECTION_NUMBERS)
 		 */
-		for(City city : City.values()) {
-			for(AgeGroup agegroup : AgeGroup.values()) {
-				double[] tempArray = new double[totalEpochsHorizon];
-				infectionRate.get(city).put(agegroup, tempArray);		
+		if(packedAgents) {
+			this.population = new PackedPopulation(nrAgents, regions);
+			if(PackedPopulation.capsTimeInStage(totalEpochsHorizon)) {
+				System.out.println("Packed agents store at most " + PackedPopulation.MAX_TIME_IN_STAGE + " epochs in a stage, longer times in a stage are counted as " + (PackedPopulation.MAX_TIME_IN_STAGE + 1) + " epochs in the output.");
 			}
 		}
+		else {
+			this.population = new ColumnPopulation(nrAgents, regions);
+		}
+		IntStream.range(firstCity * nrAgeGroups, endCity * nrAgeGroups).parallel().forEach(block -> {
+			int residentCity = block / nrAgeGroups;
+			AgeGroup ageGroup = AgeGroup.values()[block % nrAgeGroups];
+			SparseMatrix commute = COMMUTE_DISTRIBUTION.get(ageGroup);
+
+			population.fill(groupStart[block] - agentOffset, groupStart[block + 1] - agentOffset, ageGroup.ordinal(), residentCity); // agents who do not commute are assumed to be around in their own resident city
+
+			int next = groupStart[block] - agentOffset;
+			for(int k = commute.getRowStart(residentCity); k < commute.getRowEnd(residentCity); k++) { // only the corops to which agents commute
+				int nrPeopleToThisCommuteCity_agegroup = (int) commute.getValue(k); // in each corop a certain number of agents of a particular age group commute to another corop.
+				population.setCommutePlace(next, next + nrPeopleToThisCommuteCity_agegroup, commute.getColumn(k));
+				next += nrPeopleToThisCommuteCity_agegroup;
+			}
+		});
+	}
 
+	/**
+	 * Creates all maps/arrays/data structures needed for the simulation. Only needed for first initialization. 
+	 */
+	private void createAllMaps() {
 		/*
-		 *  emptying maps
+		 *  create this Map
 		 */
-		shuffleHospitals.clear(); // just to get the same order again
-		queueHospital.clear(); 
-		for(Hospital hos : Hospital.values()){
-			EnumMap<AgeGroup, List<Individual>> tempMap = patientsHospitalPerAgeGroup.get(hos);
+		for(int hos = 0; hos < regions.getNumberOfHospitals(); hos++){
+
+			EnumMap<AgeGroup, List<Integer>> tempMap = new EnumMap<>(AgeGroup.class);
 			for(AgeGroup ageGroup : AgeGroup.values()) {
-				List<Individual> individualList = tempMap.get(ageGroup);
-				individualList.clear();
+				List<Integer> individualList = new ArrayList<>();
+				tempMap.put(ageGroup, individualList);
 			}
-			patientsHospital.put(hos, 0);
-			patientNumberHospital.put(hos, new int[totalEpochsHorizon]);
+			patientsHospitalPerAgeGroup.add(tempMap);
+			patientsHospital[hos] = 0;
+			patientNumberHospital[hos] = new int[totalEpochsHorizon];
 			shuffleHospitals.add(hos);
 		}
 
 		/*
-		 *  emptying the map
+		 *  create the counters of the output, these are allocated once and emptied with Arrays.fill for every next run (see reinitialize)
+		 */
+		this.numberOfPeopleInEachStage = new int[AgeGroup.values().length][Stage.values().length][totalEpochsHorizon + 1]; // the last index is a timeline, its max size needs to be totalEpochsHorizon
+		// + 1 is included as in the last time epoch still people get updated. 
+		this.numberSwitchersStage = new int[totalEpochsHorizon][AgeGroup.values().length][Stage.values().length][Stage.values().length];
+
+		/*
+		 * create the counts per epoch, these are overwritten every epoch so they do not need to be emptied
+		 */
+		this.stageCountsPerEpoch = new int[totalEpochsHorizon][Stage.values().length][AgeGroup.values().length][regions.getNumberOfRegions()];
+		this.patientCountsPerEpoch = new int[totalEpochsHorizon][regions.getNumberOfHospitals()][AgeGroup.values().length];
+		this.queueCountsPerEpoch = new int[totalEpochsHorizon];
+
+		/*
+		 * Create ALPHA_SHORTCUT_HOME, already summed without own city. Shortcut for ALPHA, used for precompution
 		 */
 		for(AgeGroup ageGroup : AgeGroup.values()) {
-			EnumMap<Stage, int[]> insideMap = numberOfPeopleInEachStage.get(ageGroup);
 
-			for(Stage stage : Stage.values()) {
-				int[] nrPeopleForEachDay = new int[totalEpochsHorizon + 1]; // int[] has a timeline, its max size needs to be totalEpochsHorizon
-				// + 1 is included as in the last time epoch still people get updated. 
-				insideMap.put(stage, nrPeopleForEachDay);
+			SparseMatrix alpha = ALPHA[ageGroup.ordinal()];
+
+			for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+
+				double sum = 0.0;
+
+				for(int k = alpha.getRowStart(city); k < alpha.getRowEnd(city); k++) { // only the corops to which agents commute
+					if(alpha.getColumn(k) != city) {
+						sum += alpha.getValue(k);
+					}
+				}				
+				ALPHA_SHORTCUT_HOME[ageGroup.ordinal()][city] = sum;
 			}
 		}
 
 		/*
-		 * emptying map 
+		 * Create the flat progression table and the buffer of random numbers used in the agent loop
 		 */
-		for(int i = 0; i < totalEpochsHorizon ; i ++) {
-
-			for(AgeGroup agegroup : AgeGroup.values()) {
-				EnumMap<Stage, EnumMap<Stage, Integer>> switchers = numberSwitchersStage.get(i).get(agegroup);
+		this.progressionTable = Simulation.createProgressionTable(VIRUS_PROGRESSION);
+		this.randomBlock = new double[BLOCK_SIZE];
+		this.stageCounters = this.createStageCounters();
 
-				for(Stage stage : Stage.values()) {
-					EnumMap<Stage, Integer> tempMap = switchers.get(stage);
+		/*
+		 * Create the time-varying input, these start at the original input
+		 */
+		int nrAgeGroups = AgeGroup.values().length;
+		this.contactRatio = new double[nrAgeGroups][nrAgeGroups];
+		this.dailyContactsPerAgeGroup = new double[nrAgeGroups][nrAgeGroups];
+		this.commuteScaling = new double[ALPHA[0].getNumberOfNonZeros()];
+		this.vaccinationPriority = new int[nrAgeGroups][regions.getNumberOfRegions()];
+		this.alphaOriginal = new SparseMatrix[nrAgeGroups];
+		for(int a = 0; a < nrAgeGroups; a++) {
+			alphaOriginal[a] = ALPHA[a].copy();
+		}
+		this.resetInterventionInput();
+	}
 
-					for(Stage stage2 : Stage.values()) {
-						tempMap.put(stage2, 0);
-					}
+	/**
+	 * Flat table [age group][stage][next stage] of the transition probabilities, used in the agent loop instead of the EnumMaps
+	 */
+	private static double[][][] createProgressionTable(EnumMap<AgeGroup, EnumMap<Stage, EnumMap<Stage, Double>>> progression) {
+		double[][][] table = new double[AgeGroup.values().length][STAGES.length][STAGES.length];
+		for(AgeGroup ageGroup : AgeGroup.values()) {
+			for(Stage stage : STAGES) {
+				for(Stage stage2 : STAGES) {
+					table[ageGroup.ordinal()][stage.ordinal()][stage2.ordinal()] = progression.get(ageGroup).get(stage).get(stage2);
 				}
 			}
 		}
+		return table;
+	}
 
-		// overwrite boolean as now stuff is reinitialised
-		justDoneASimulation = false;
+	/**
+	 * Sets the schedule of interventions that change the input during the simulation. Can be null (no interventions).
+	 * The schedule is applied from epoch 0 of the next simulation run, the population does not need to be rebuilt.
+	 */
+	public void setInterventionSchedule(InterventionSchedule interventionSchedule) {
+		this.interventionSchedule = interventionSchedule;
+	}
 
+	/**
+	 * Sets how the initial stages are drawn in initializeSimulation. With legacySeeding the random draws of the original implementation are reproduced, 
+	 * otherwise a partial Fisher-Yates shuffle is used, which is also reproducible for a given seed but draws different agents.
+	 */
+	public void setLegacySeeding(boolean legacySeeding) {
+		this.legacySeeding = legacySeeding;
 	}
 
 	/**
-	 * This runs the simulation, for each epoch 
+	 * Sets the random generator of the next runs (see RandomSource.create), RandomSource.LEGACY draws the same numbers as the original implementation
 	 */
-	public void startSimulation(){
+	public void setRandomGenerator(String randomGenerator) {
+		this.randomGenerator = randomGenerator;
+	}
 
-		if(justDoneASimulation == true) {
-			throw new IllegalStateException("Simulation cannot start until it is (re)initialised.");
-		}
-		else {
-			justDoneASimulation = true;
+	/**
+	 * Lets cured agents become healthy (susceptible) again after an immunity of on average immunityDuration epochs, 0 for lifelong immunity as in the manuscript.
+	 * The immunity ends with the same probability 1 / immunityDuration in each epoch, but instead of a draw for every cured agent in every epoch, the epoch in which it ends is drawn once
+	 * when the agent is cured and the agent is put in a timing wheel (see TimingWheel), so each epoch only the agents whose immunity ends are visited.
+	 */
+	public void setImmunityDuration(double immunityDuration) {
+		if(immunityDuration <= 0) {
+			this.immunityWheel = null;
+			return;
 		}
+		if(immunityDuration < 1) throw new IllegalArgumentException("The immunity lasts at least one epoch.");
+		if(compartments != null) throw new IllegalArgumentException("Waning immunity cannot be used with the hybrid engine.");
+		if(meanField != null) throw new IllegalArgumentException("Waning immunity cannot be used with the mean-field engine.");
+		this.immunityLoss = 1 / immunityDuration;
+		this.immunityWheel = new TimingWheel();
+		this.immunityEnding = new long[(population.size() + 63) / 64];
+		this.curedPerWorker = new int[stageCounters.length][0];
+		this.nrCuredPerWorker = new int[stageCounters.length];
+	}
 
-		/*
-		 *  Opening all files and keeping them open until the simulation has finished. This makes writing down all info quicker, and saves memory as we immediately write down all important informaton. 
-		 */
-		PrintWriter print1 = null;
-		PrintWriter print2 = null;
-		PrintWriter print3 = null;
-		PrintWriter print4 = null;
-		PrintWriter print5 = null;
-		PrintWriter print6 = null;
-
-		try
-		{
-			print1 = new PrintWriter(new BufferedWriter(new FileWriter(fileNames[0])));
-			print2 = new PrintWriter(new BufferedWriter(new FileWriter(fileNames[1])));
-			print3 = new PrintWriter(new BufferedWriter(new FileWriter(fileNames[2])));
-			print4 = new PrintWriter(new BufferedWriter(new FileWriter(fileNames[3])));
-			print5 = new PrintWriter(new BufferedWriter(new FileWriter(fileNames[4])));
-			print6 = new PrintWriter(new BufferedWriter(new FileWriter(fileNames[5])));
+	/**
+	 * Lets the strains circulate at the same time (see Strains), null for only the strain of the scenario as in the manuscript. The start situation is strain 0, the other strains are introduced
+	 * at their introduction epoch. The infection rates of all strains are determined in one pass over the commute flows and each agent stores the strain of its last infection in a few bits (see Population).
+	 * A susceptible agent is infected by at most one strain, a cured agent can be infected by a strain its immunity does not protect against.
+	 */
+	public void setStrains(Strains strains) {
+		if(strains == null || strains.getNumberOfStrains() == 1 && strains.getIntroductions(0) == 0) {
+			this.strains = null;
+			this.strainProgressionTable = null;
+			population.enableStrains(1);
+			return;
 		}
-		catch (IOException e)
-		{
-			e.printStackTrace();
+		if(compartments != null) throw new IllegalArgumentException("Strains cannot be used with the hybrid engine.");
+		if(meanField != null) throw new IllegalArgumentException("Strains cannot be used with the mean-field engine.");
+		if(infectiousContacts != null) throw new IllegalArgumentException("Strains cannot be used with a contact network.");
+		this.strains = strains;
+		this.strainProgressionTable = new double[strains.getNumberOfStrains()][][][];
+		for(int strain = 0; strain < strainProgressionTable.length; strain++) {
+			strainProgressionTable[strain] = strain == 0 ? progressionTable : Simulation.createProgressionTable(strains.getProgression(strain));
 		}
+		population.enableStrains(strains.getNumberOfStrains());
+	}
 
-		for(int epoch = 0; epoch < totalEpochsHorizon; epoch++){
-
-			/*
-			 *  Writing output at the beginning of each epoch. 
-			 */
-			OutputWriter.outputWriterAggregateStageInfection(print1, allIndividuals, epoch);
-			OutputWriter.outputWriterAggregateStageInfectionCityTotal(print2, allIndividuals, epoch);
-			OutputWriter.outputWriterHospitalInfo(print3, patientsHospitalPerAgeGroup, queueHospital.size(), epoch);
+	/**
+	 * Draws the households and venues of the agents (see ContactNetwork). Without them (no household sizes and venue size 0) infection only depends on the corop and age group, as in the manuscript.
+	 * Households stay within a corop, so they can be used with partitions; venues mix the agents commuting to a corop and cannot.
+	 * @param householdSizes fraction of the households with 1, 2, ... members, empty for no households
+	 * @param householdTransmission probability that an infectious agent infects a healthy member of its household during one night
+	 * @param venueSize number of agents of a school or workplace, 0 for no venues
+	 * @param venueTransmission probability that an infectious agent infects a healthy member of its venue during one day
+	 */
+	public void setContactNetwork(double[] householdSizes, double householdTransmission, int venueSize, double venueTransmission) {
+		if(householdSizes.length == 0 && venueSize == 0) {
+			return;
+		}
+		if(compartments != null) throw new IllegalArgumentException("A contact network cannot be used with the hybrid engine.");
+		if(meanField != null) throw new IllegalArgumentException("A contact network cannot be used with the mean-field engine.");
+		if(venueSize > 0 && partition != null) throw new IllegalArgumentException("Venues cannot be used in a partitioned simulation.");
+		if(strains != null) throw new IllegalArgumentException("A contact network cannot be used with strains.");
+		if(infectionSources != null) throw new IllegalArgumentException("A contact network cannot be used when infections are attributed.");
+
+		int nrAgeGroups = AgeGroup.values().length;
+		if(householdSizes.length > 0) {
+			int[] cityStart = new int[regions.getNumberOfRegions() + 1]; // the blocks of a corop are consecutive, so its agents are too
+			for(int city = firstCity; city <= endCity; city++) {
+				cityStart[city] = groupStart[city * nrAgeGroups] - agentOffset;
+			}
+			this.households = ContactNetwork.households(population, cityStart, firstCity, endCity, householdSizes, NETWORK_SEED);
+			System.out.println("Contact network: " + households.getNumberOfGroups() + " households");
+		}
+		if(venueSize > 0) {
+			this.venues = ContactNetwork.venues(population, regions.getNumberOfRegions(), venueSize, NETWORK_SEED);
+			System.out.println("Contact network: " + venues.getNumberOfGroups() + " schools and workplaces");
+		}
+		this.householdTransmission = householdTransmission;
+		this.venueTransmission = venueTransmission;
+		this.infectiousContacts = new byte[2][];
+		this.infectiousContacts[VENUE_LAYER] = venues == null ? null : new byte[population.size()];
+		this.infectiousContacts[HOUSEHOLD_LAYER] = households == null ? null : new byte[population.size()];
+		this.infectiousAgents = new int[1024];
+	}
 
-			/*
-			 * Determine all infection rate in each city. 
-			 */
+	/**
+	 * Splits the day and the night epochs into slots in the venue and in the household, for instance a day of school or work followed by an evening at home. An agent is exposed to each infectious member
+	 * of the group of a slot with the transmission probability of that layer to the power of the part of the epoch of the slot, so the escapes of the slots multiply. The contacts of both layers are counted
+	 * in an epoch that has slots of both. Without a schedule the agents are the whole day in their venue and the whole night in their household.
+	 * @param schedule part of the day (row 0) and of the night (row 1) in the venue (column 0) and in the household (column 1), empty for the default
+	 */
+	public void setContactSchedule(double[][] schedule) {
+		if(schedule.length == 0) {
+			return;
+		}
+		if(infectiousContacts == null) throw new IllegalArgumentException("A contact schedule needs a contact network.");
+		for(double[] period : schedule) {
+			for(double part : period) {
+				if(part < 0) throw new IllegalArgumentException("The parts of the contact schedule cannot be negative.");
+			}
+		}
+		this.contactSchedule = schedule;
+	}
 
-			//Intialize the map which contains the number of people who can spread the disease (Ia (infectious asymptomatic), Is (infectious symptomatic)) and are susceptible.
-			EnumMap<City, EnumMap<AgeGroup,Integer>> infectedWhoSpreadIa = new EnumMap<>(City.class); // Ia who spread the disease
-			EnumMap<City, EnumMap<AgeGroup,Integer>> infectedWhoSpreadIs = new EnumMap<>(City.class); // Is who spread the disease. 
-			EnumMap<City, EnumMap<AgeGroup,Integer>> encounterGroup = new EnumMap<>(City.class); // Will contain all agents per corop and age group (for the denominator of P(I_{a',c,t})) that you could possible encounter
+	/**
+	 * Attributes each new infection to an infector (see InfectionSources): the corop, age group and stage (Ia or Is) of the infector are drawn in proportion to their contribution to the infection rate.
+	 * The draws use a hash of the run, the agent and the epoch instead of the random generator, so the results do not change. The infections per corop of the infector and of the infection are written
+	 * to the output file after the output files of the run (see Main.outputFileNames), and with log each infection is written to a binary file after it.
+	 * Infections in a household or venue are not in the infection rate, so the contact network cannot be used.
+	 */
+	public void setInfectionSources(boolean attributed, boolean log) {
+		if(!attributed && !log) {
+			this.infectionSources = null;
+			return;
+		}
+		if(compartments != null) throw new IllegalArgumentException("Infections cannot be attributed with the hybrid engine.");
+		if(meanField != null) throw new IllegalArgumentException("Infections cannot be attributed with the mean-field engine.");
+		if(infectiousContacts != null) throw new IllegalArgumentException("Infections cannot be attributed with a contact network.");
+		if(log && partition != null) throw new IllegalArgumentException("The infection log cannot be written in a partitioned simulation.");
+		this.infectionSources = new InfectionSources(ALPHA, strains == null ? 1 : strains.getNumberOfStrains(), log);
+		this.infectedPerWorker = new int[stageCounters.length][0];
+		this.nrInfectedPerWorker = new int[stageCounters.length];
+	}
 
-			this.initializeInfectionStructures(infectedWhoSpreadIa, infectedWhoSpreadIs, encounterGroup);
+	/**
+	 * With common random numbers the random number of an agent in an epoch is a hash of the seed, the agent, the epoch and the purpose of the draw (whether a healthy or cured agent is infected,
+	 * or the next stage of an infected agent) instead of the next number of the random generator. Runs of other scenarios or P(T)'s with the same seed then draw the same numbers
+	 * for the same agent, epoch and purpose, whatever happened before, so the difference between the runs has less noise. The seeding, the hospitals and the vaccinations still use the random generator.
+	 * With antithetic runs, runs 2k - 1 and 2k both use seed k, and run 2k draws 1 - U for the agents where run 2k - 1 draws U.
+	 * The hybrid engine is not supported: its compartments, almost the whole population, draw binomials from the random generator, so the runs would not be paired.
+	 */
+	public void setCommonRandomNumbers(boolean commonRandomNumbers, boolean antitheticRuns) {
+		if(antitheticRuns && !commonRandomNumbers) throw new IllegalArgumentException("Antithetic runs need common random numbers.");
+		if(commonRandomNumbers && meanField != null) throw new IllegalArgumentException("Common random numbers cannot be used with the mean-field engine, which draws no random numbers.");
+		if(commonRandomNumbers && compartments != null) throw new IllegalArgumentException("Common random numbers cannot be used with the hybrid engine, whose compartments draw from the random generator.");
+		this.commonRandomNumbers = commonRandomNumbers;
+		this.antitheticRuns = antitheticRuns;
+	}
 
-			// Counting which individual is Ia and Is given their resident corop. And counting number of individuals you could encounter
-			this.countNumberInfections(infectedWhoSpreadIa, infectedWhoSpreadIs, encounterGroup);
+	/**
+	 * Lets the agents take steps of epochsPerStep epochs (e.g. 2 for a day, 14 for a week) instead of one epoch, for fast screening of long horizons. At the first epoch of each step
+	 * a susceptible agent is infected with the risk of the day epochs of the step in its commute corop and of the night epochs in its resident corop, with the infectious agents of the start of the step,
+	 * and an infected agent makes one transition with the power epochsPerStep of the transition matrix of its age group, which is precomputed. The other epochs of a step repeat the counts of its start
+	 * (see carryEpoch), so all output still has one line per epoch. Interventions starting within a step take effect at the next step.
+	 * Steps cannot be used with the hybrid engine, the contact network, strains or the attribution of infections, which follow the epochs themselves.
+	 */
+	public void setTimeStep(int epochsPerStep) {
+		if(epochsPerStep < 1) throw new IllegalArgumentException("A time step has at least one epoch.");
+		this.epochsPerStep = epochsPerStep;
+		if(epochsPerStep == 1) {
+			this.stepProgressionTable = null;
+			return;
+		}
+		if(compartments != null) throw new IllegalArgumentException("Time steps cannot be used with the hybrid engine.");
+		if(meanField != null) throw new IllegalArgumentException("Time steps cannot be used with the mean-field engine.");
+		if(infectiousContacts != null) throw new IllegalArgumentException("Time steps cannot be used with a contact network.");
+		if(strains != null) throw new IllegalArgumentException("Time steps cannot be used with strains.");
+		if(infectionSources != null) throw new IllegalArgumentException("Time steps cannot be used when infections are attributed.");
+
+		this.stepProgressionTable = new double[progressionTable.length][][];
+		for(int age = 0; age < progressionTable.length; age++) {
+			double[][] power = progressionTable[age];
+			for(int k = 1; k < epochsPerStep; k++) {
+				power = Simulation.multiply(power, progressionTable[age]);
+			}
+			stepProgressionTable[age] = power;
+		}
+	}
 
-			// Determine Infection probability P_{a,a',c,t}
-			EnumMap<AgeGroup, EnumMap<AgeGroup, EnumMap<City, Double>>> infectionProbability = new EnumMap<>(AgeGroup.class); // for this given epoch: P_{a,a',c,t}
-			this.determinePaact(infectedWhoSpreadIa, infectedWhoSpreadIs, encounterGroup, epoch, infectionProbability);
+	/**
+	 * Product of two square matrices
+	 */
+	private static double[][] multiply(double[][] left, double[][] right) {
+		int n = left.length;
+		double[][] product = new double[n][n];
+		for(int i = 0; i < n; i++) {
+			for(int k = 0; k < n; k++) {
+				double value = left[i][k];
+				if(value != 0) {
+					for(int j = 0; j < n; j++) {
+						product[i][j] += value * right[k][j];
+					}
+				}
+			}
+		}
+		return product;
+	}
 
-			// Determine infection probability P_{a,c,t}
-			EnumMap<City, EnumMap<AgeGroup,Double>> infectionProbability_endversion = new EnumMap<>(City.class); // for this given epoch t: P_{a,c,t}
-			this.determinePact(epoch, infectionProbability, infectionProbability_endversion);
+	/**
+	 * Sets all time-varying input back to the original input, as at the start of a simulation no intervention is active yet.
+	 */
+	private void resetInterventionInput() {
+		this.transmissionProbability = VIRUS_TRANSMISSION_PROBABILITY;
 
-			/*
-			 * Already infected people have a probability of getting more sick or recovering. Healthy (susceptible) people have a probability of getting sick.
-			 */
-			for(Individual idv : allIndividuals){
+		for(AgeGroup a : AgeGroup.values()) {
+			for(AgeGroup a_prime : AgeGroup.values()) {
+				contactRatio[a.ordinal()][a_prime.ordinal()] = CONTACT_RATIO.get(a).get(a_prime);
+				dailyContactsPerAgeGroup[a.ordinal()][a_prime.ordinal()] = NUMBER_DAILY_CONTACTS_PERAGEGROUP.get(a).get(a_prime);
+			}
+		}
 
-				Stage currentStage = idv.getStage();
-				AgeGroup ageGroup = idv.getAgeGroup();
-				double randomNumber = rand.nextDouble();
-				int timeInStage = idv.getTimeInStage() + 1; 
-				Stage nextStage = null;
+		Arrays.fill(commuteScaling, 1.0);
+		if(commuteScalingActive) { // only ALPHA needs to be restored if it was changed
+			for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+				this.updateAlphaRow(city);
+			}
+		}
+		this.commuteScalingActive = false;
 
-				if(!idv.getStage().equals(Stage.HEALTHY)) { 
+		this.vaccinationDoses = 0;
+		for(int[] priority : vaccinationPriority) {
+			Arrays.fill(priority, 0);
+		}
+	}
 
-					nextStage = this.determineRandomComponent(randomNumber, VIRUS_PROGRESSION.get(ageGroup).get(currentStage));
+	/**
+	 * Applies the interventions starting at this epoch. Only the entries that are changed by an intervention are updated, 
+	 * all other precomputed input (e.g. the ALPHA rows of corops without changes in commuting) stays as it is.
+	 */
+	private void applyInterventions(int epoch) {
+		if(interventionSchedule == null) {
+			return;
+		}
 
-					if(nextStage.equals(currentStage)) {
-						idv.setTimeInStage(timeInStage);
+		int nrAgeGroups = AgeGroup.values().length;
+		int nrCities = regions.getNumberOfRegions();
+		boolean[] changedCities = null;
+
+		for(InterventionSchedule.Intervention intervention : interventionSchedule.getInterventions(epoch)) {
+			System.out.println("Epoch " + epoch + ": " + intervention);
+			double value = intervention.getValue();
+
+			switch(intervention.getType()) {
+			case TRANSMISSION_PROBABILITY:
+				transmissionProbability = value;
+				break;
+			case CONTACT_RATIO:
+				for(int a = 0; a < nrAgeGroups; a++) {
+					if(intervention.getFrom() != InterventionSchedule.ALL && intervention.getFrom() != a) continue;
+					for(int a_prime = 0; a_prime < nrAgeGroups; a_prime++) {
+						if(intervention.getTo() != InterventionSchedule.ALL && intervention.getTo() != a_prime) continue;
+						contactRatio[a][a_prime] = value;
 					}
-					else {
-						idv.setStage(nextStage); // stage of individual is overwritten
-						numberOfPeopleInEachStage.get(ageGroup).get(currentStage)[timeInStage] ++;
-						idv.setTimeInStage(0); // time is resetted. 
+				}
+				break;
+			case CONTACT_SCALING:
+				for(AgeGroup a : AgeGroup.values()) {
+					if(intervention.getFrom() != InterventionSchedule.ALL && intervention.getFrom() != a.ordinal()) continue;
+					for(AgeGroup a_prime : AgeGroup.values()) {
+						if(intervention.getTo() != InterventionSchedule.ALL && intervention.getTo() != a_prime.ordinal()) continue;
+						dailyContactsPerAgeGroup[a.ordinal()][a_prime.ordinal()] = value * NUMBER_DAILY_CONTACTS_PERAGEGROUP.get(a).get(a_prime);
 					}
 				}
-				else {
-					City currentCity = this.getCurrentCityIndividual(epoch, idv);
-					double infectionRisk = infectionProbability_endversion.get(currentCity).get(ageGroup) + VIRUS_PROGRESSION.get(ageGroup).get(currentStage).get(Stage.INFECTED_NOSYMPTOMS_NOTCONTAGIOUS); // From susceptible (healthy) to exposed (INFECTED_NOSYMPTOMS_NOTCONTAGIOUS)
-					if(infectionRisk > 1) {throw new IllegalStateException("Infection rate to go to state Susceptible to Exposed exceeds 1.");}
-
-					if(randomNumber > infectionRisk){  // nextstage is equal to currenstage => you stay healthy
-						nextStage = currentStage; // stays healthy
-						idv.setTimeInStage(timeInStage);	
+				break;
+			case COMMUTE_SCALING:
+				if(changedCities == null) {
+					changedCities = new boolean[nrCities];
+				}
+				SparseMatrix structure = ALPHA[0]; // all age groups have the same structure
+				for(int c = 0; c < nrCities; c++) {
+					if(intervention.getFrom() != InterventionSchedule.ALL && intervention.getFrom() != c) continue;
+					for(int k = structure.getRowStart(c); k < structure.getRowEnd(c); k++) { // only pairs of corops with commuters
+						int c_prime = structure.getColumn(k);
+						if(c_prime == c || (intervention.getTo() != InterventionSchedule.ALL && intervention.getTo() != c_prime)) continue;
+						commuteScaling[k] = value;
+						changedCities[c] = true;
 					}
-					else {// healthy person becomes sick/exposed
-						nextStage = Stage.INFECTED_NOSYMPTOMS_NOTCONTAGIOUS;
-						idv.setStage(nextStage);
-						numberOfPeopleInEachStage.get(ageGroup).get(currentStage)[timeInStage] ++;
-						idv.setTimeInStage(0); // time is resetted
-					}	
 				}
-				// new 05-04; 
-				numberSwitchersStage.get(epoch).get(ageGroup).get(currentStage).put(nextStage, numberSwitchersStage.get(epoch).get(ageGroup).get(currentStage).get(nextStage) + 1);
-
+				break;
+			case VACCINATION_DOSES:
+				vaccinationDoses = (int) Math.round(value);
+				break;
+			case VACCINATION_PRIORITY:
+				for(int a = 0; a < nrAgeGroups; a++) {
+					if(intervention.getFrom() != InterventionSchedule.ALL && intervention.getFrom() != a) continue;
+					for(int c = 0; c < nrCities; c++) {
+						if(intervention.getTo() != InterventionSchedule.ALL && intervention.getTo() != c) continue;
+						vaccinationPriority[a][c] = (int) Math.round(value);
+					}
+				}
+				break;
+			}
+		}
+
+		if(changedCities != null) { // only the ALPHA rows of corops whose commuting changed are recomputed
+			for(int city = 0; city < nrCities; city++) {
+				if(changedCities[city]) {
+					this.updateAlphaRow(city);
+				}
+			}
+			commuteScalingActive = false;
+			for(double scaling : commuteScaling) {
+				if(scaling != 1.0) {
+					commuteScalingActive = true;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recomputes ALPHA and ALPHA_SHORTCUT_HOME for agents living in this corop, given the current commute scaling. 
+	 * Agents who no longer commute stay in their own corop during the day.
+	 */
+	private void updateAlphaRow(int c) {
+
+		for(int a = 0; a < ALPHA.length; a++) {
+			SparseMatrix original = alphaOriginal[a];
+			SparseMatrix alphaRow = ALPHA[a];
+			int diagonal = original.find(c, c);
+			double stayingHome = original.getValue(diagonal);
+			double sum = 0.0;
+
+			for(int k = original.getRowStart(c); k < original.getRowEnd(c); k++) {
+				if(k != diagonal) {
+					double alpha = original.getValue(k) * commuteScaling[k];
+					stayingHome += original.getValue(k) - alpha;
+					alphaRow.setValue(k, alpha);
+					sum += alpha;
+				}
+			}
+			alphaRow.setValue(diagonal, stayingHome);
+			ALPHA_SHORTCUT_HOME[a][c] = sum;
+		}
+	}
+
+	/**
+	 * Sets the output files of the next run, when the simulation is used for another run (see initializeSimulation)
+	 * @param fileNames names of the output files, null when the output of the run is not written
+	 */
+	public void setOutputFiles(String[] fileNames) {
+		if(printers != null) throw new IllegalStateException("The output files cannot be changed while a run is in progress.");
+		this.fileNames = fileNames;
+	}
+
+	/**
+	 * This class sets up all information needed for this particular simulation input and the given seed.
+	 * In case this method is called a second time (etc.), the data structures will be emptied.
+	 * Furthermore, it randomly assigns each agent its health stage. 
+	 */
+	public void initializeSimulation(int seed){
+
+		/*
+		 * Reinitialise/empty maps when doing a new simulation
+		 */
+		if(firstTimeInitialising == true) { // first time doing the simulation no need to reinitialize it
+			firstTimeInitialising = false;
+			justDoneASimulation = false;
+		}
+		else {  // empty all data structures
+			this.reinitialize();
+		}
+
+		/*
+		 *  Settting up the random generator, the two runs of an antithetic pair use the same seed
+		 */
+		mirrored = antitheticRuns && seed % 2 == 0;
+		if(antitheticRuns) {
+			seed = (seed + 1) / 2;
+		}
+		rand = RandomSource.create(randomGenerator, seed);
+		infectionSeed = XoroshiroRandom.mix(seed + 0x632BE59BD9B4E019L);
+		progressionSeed = XoroshiroRandom.mix(seed - 0x632BE59BD9B4E019L);
+		currentEpoch = 0;
+		sourceSeed = XoroshiroRandom.mix(~(long) seed);
+
+		if(compartments != null) { // the hybrid engine draws the agents of each stage from the groups
+			compartments.seed(INFECTION_NUMBERS, population, rand);
+			return;
+		}
+		if(meanField != null) {
+			meanField.seed(INFECTION_NUMBERS);
+			return;
+		}
+
+		/*
+		 * Randomly assigning which agent is in which stage. 
+		 * The agents of a corop and age group who can still get a stage are kept in pool, which is reused for all corops and age groups.
+		 * With partitions the stages of all corops are drawn, such that the random generator stays the same as without partitions, but only the own agents get their stage.
+		 */
+		int nrAgeGroups = AgeGroup.values().length;
+		int maxGroupSize = 0;
+		for(int block = 0; block < groupStart.length - 1; block++) {
+			maxGroupSize = Math.max(maxGroupSize, groupStart[block + 1] - groupStart[block]);
+		}
+		int[] pool = new int[maxGroupSize];
+
+		for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+			for(AgeGroup ageGroup : AgeGroup.values()) {
+
+				int block = city * nrAgeGroups + ageGroup.ordinal();
+				int first = 0; // pool[first] until pool[size] are eligible to obtain a certain health stage
+				int size = groupStart[block + 1] - groupStart[block];
+				for(int i = 0; i < size; i++) {
+					pool[i] = groupStart[block] + i;
+				}
+
+				for(Stage stage : Stage.values()) {
+					int numberThisStage = INFECTION_NUMBERS[city][ageGroup.ordinal()][stage.ordinal()]; // number of agents who should get this health stage
+
+					if(numberThisStage > 0 ) { // only when assignment is needed. If all categories stay 0, all agents stay healthy/susceptible.
+
+						if(numberThisStage > size - first) throw new IllegalStateException("Number of people in a certain stage exceed number of people in that corop and agegroup. Check your input files.");
+
+						if(legacySeeding) {
+							size = this.seedStageLegacy(pool, size, numberThisStage, stage.ordinal());
+						}
+						else {
+							first = this.seedStage(pool, first, size, numberThisStage, stage.ordinal());
+						}
+					}
+				}
+			}
+		}
+
+		if(immunityWheel != null) { // the agents who are cured at the start lose their immunity as if they were cured just before
+			immunityWheel.reset();
+			immunitySeed = XoroshiroRandom.mix(seed);
+			if(strains != null) {
+				if(scheduledImmunityEnd == null) {
+					scheduledImmunityEnd = new int[population.size()];
+				}
+				Arrays.fill(scheduledImmunityEnd, -1);
+			}
+			int cured = Stage.CURED.ordinal();
+			for(int i = 0; i < population.size(); i++) {
+				if(population.getStage(i) == cured) {
+					this.scheduleImmunityEnd(i, 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Schedules the epoch in which the immunity of agent i, cured from firstEpoch onwards, ends. With probability immunityLoss per epoch the immunity lasts a geometric number of epochs,
+	 * which is drawn from a hash of the run, the agent and firstEpoch instead of the random generator, such that the random numbers of the agents (and of the partitions) stay the same.
+	 * Immunity ending after the horizon is not scheduled.
+	 */
+	private void scheduleImmunityEnd(int i, int firstEpoch) {
+		double end = this.immunityEnd(i, firstEpoch);
+		if(scheduledImmunityEnd != null) {
+			scheduledImmunityEnd[i] = (int) Math.min(end, Integer.MAX_VALUE);
+		}
+		if(end < totalEpochsHorizon) {
+			immunityWheel.schedule(i, (int) end);
+		}
+	}
+
+	/**
+	 * Epoch in which the immunity of agent i, cured from firstEpoch onwards, ends (see scheduleImmunityEnd)
+	 */
+	private double immunityEnd(int i, int firstEpoch) {
+		long hash = XoroshiroRandom.mix(XoroshiroRandom.mix(immunitySeed + 0x9E3779B97F4A7C15L * (agentOffset + i)) + firstEpoch);
+		double u = ((hash >>> 11) + 1) * 0x1.0p-53; // uniform in (0, 1]
+		double epochs = immunityLoss >= 1 ? 0 : Math.floor(Math.log(u) / Math.log(1 - immunityLoss)); // epochs in which the immunity does not end
+		return firstEpoch + epochs;
+	}
+
+	/**
+	 * Assigns the stage to n random agents of pool[first] until pool[size] with a partial Fisher-Yates shuffle. The chosen agents are swapped to pool[first] until pool[first + n],
+	 * so they cannot be assigned another stage. 
+	 * @return the first agent in pool that is still eligible (first + n)
+	 */
+	private int seedStage(int[] pool, int first, int size, int n, int stage) {
+		for(int i = first; i < first + n; i++) {
+			int j = i + rand.nextInt(size - i);
+			int idv = pool[j];
+			pool[j] = pool[i];
+			pool[i] = idv;
+			this.seedAgent(idv, stage);
+		}
+		return first + n;
+	}
+
+	/**
+	 * Assigns the stage to n random agents of pool[0] until pool[size], with the same random draws as the original implementation (rand.ints().distinct() on a list of the eligible agents).
+	 * The chosen agents are removed from the pool, the other agents keep their order.
+	 * @return the number of agents in pool that are still eligible
+	 */
+	private int seedStageLegacy(int[] pool, int size, int n, int stage) {
+		int[] randArray = rand.ints(0, size).distinct().limit(n).toArray(); // this makes an array containing numbers which corresponds to the agents in numberThisStage and of those only listSize number of agents should be picked.
+		for(int i = 0; i < randArray.length; i++) {
+			this.seedAgent(pool[randArray[i]], stage);
+			pool[randArray[i]] = -1;
+		}
+
+		int remaining = 0;
+		for(int i = 0; i < size; i++) {
+			if(pool[i] >= 0) {
+				pool[remaining] = pool[i];
+				remaining++;
+			}
+		}
+		return remaining;
+	}
+
+	/**
+	 * Assigns the initial stage to agent idv of the whole population, when it is an agent of this process
+	 */
+	private void seedAgent(int idv, int stage) {
+		if(idv >= agentOffset && idv < agentOffset + population.size()) {
+			population.setStage(idv - agentOffset, stage);
+		}
+	}
+
+	/**
+	 * Reinitialize the simulation. Is needed when doing multiple runs of the same simulation instance. 
+	 */
+	private void reinitialize() {
+
+		/*
+		 * Overwrite time in healthy stage
+		 */
+		population.reset();
+		if(compartments != null) { // the severely ill agents of the hybrid engine are removed, all agents are counted as healthy again
+			population.truncate(0);
+			compartments.reset();
+		}
+		if(meanField != null) {
+			meanField.reset();
+		}
+		if(vaccination != null) { // all agents can be vaccinated again
+			vaccination.reset();
+		}
+		if(infectionSources != null) {
+			infectionSources.reset();
+		}
+
+		/*
+		 * emptying maps 
+		 */
+		for(double[][] infectionRatePerAgeGroup : infectionRate) {
+			for(double[] tempArray : infectionRatePerAgeGroup) {
+				Arrays.fill(tempArray, 0.0);		
+			}
+		}
+
+		/*
+		 *  emptying maps
+		 */
+		shuffleHospitals.clear(); // just to get the same order again
+		queueHospital.clear(); 
+		for(int hos = 0; hos < regions.getNumberOfHospitals(); hos++){
+			EnumMap<AgeGroup, List<Integer>> tempMap = patientsHospitalPerAgeGroup.get(hos);
+			for(AgeGroup ageGroup : AgeGroup.values()) {
+				List<Integer> individualList = tempMap.get(ageGroup);
+				individualList.clear();
+			}
+			patientsHospital[hos] = 0;
+			Arrays.fill(patientNumberHospital[hos], 0);
+			shuffleHospitals.add(hos);
+		}
+
+		/*
+		 *  emptying the counters
+		 */
+		Simulation.clearCounts(numberOfPeopleInEachStage);
+		for(int[][][] switchers : numberSwitchersStage) {
+			Simulation.clearCounts(switchers);
+		}
+
+		/*
+		 * Input changed by interventions is set back to the original input
+		 */
+		this.resetInterventionInput();
+
+		// overwrite boolean as now stuff is reinitialised
+		justDoneASimulation = false;
+
+	}
+
+	/**
+	 * This runs the simulation, for each epoch 
+	 */
+	public void startSimulation(){
+		this.simulateUntil(totalEpochsHorizon);
+		this.finishSimulation();
+	}
+
+	/**
+	 * Runs the simulation from the current epoch up to (not including) the given epoch. Can be called multiple times to run the simulation in parts, e.g. to fork it at an epoch boundary.
+	 * @param untilEpoch
+	 */
+	public void simulateUntil(int untilEpoch){
+
+		if(printers == null) { // first part of this simulation run
+			if(justDoneASimulation == true) {
+				throw new IllegalStateException("Simulation cannot start until it is (re)initialised.");
+			}
+			else {
+				justDoneASimulation = true;
+			}
+			this.openOutputFiles(false);
+		}
+		if(untilEpoch < currentEpoch || untilEpoch > totalEpochsHorizon) {
+			throw new IllegalArgumentException("Cannot simulate from epoch " + currentEpoch + " until epoch " + untilEpoch + ".");
+		}
+
+		for(; currentEpoch < untilEpoch; currentEpoch++){
+			this.simulateEpoch(currentEpoch);
+		}
+	}
+
+	/**
+	 * Runs the remaining epochs of the simulation, writes the output which is only known at the end and closes all output files.
+	 */
+	public void finishSimulation(){
+
+		this.simulateUntil(totalEpochsHorizon);
+
+		if(partition != null) { // the time spent in each stage is only counted over all agents at the end
+			partition.allReduce((Object) numberOfPeopleInEachStage);
+		}
+		if(meanField != null) {
+			meanField.addTimeInStage(numberOfPeopleInEachStage);
+		}
+		OutputWriter.outputWriterTimeSpendEachStage(printers[3], numberOfPeopleInEachStage, totalEpochsHorizon);
+		OutputWriter.outputWriterInfectionRateInEachCorop(printers[4], regions, infectionRate, totalEpochsHorizon);
+
+		for(PrintWriter printer : printers) {
+			printer.close();
+		}
+		printers = null;
+
+		if(infectionSources != null) {
+			if(partition != null) {
+				partition.allReduce((Object) infectionSources.getCounts());
+			}
+			try
+			{
+				infectionSources.closeLog();
+				if(fileNames != null) {
+					PrintWriter printer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(Simulation.openOutputFile(fileNames[NUMBER_OUTPUT_FILES], false))));
+					OutputWriter.outputWriterInfectionSources(printer, regions, infectionSources.getCounts());
+					printer.close();
+				}
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Opens an output file of a run. A new file is created instead of overwriting the file itself, as the file can be a link to a run in the ResultCache, which would then be changed as well.
+	 * @param append true to continue the file (e.g. of a fork)
+	 */
+	static OutputStream openOutputFile(String fileName, boolean append) throws IOException {
+		if(!append) {
+			Files.deleteIfExists(Paths.get(fileName));
+		}
+		return new FileOutputStream(fileName, append);
+	}
+
+	/**
+	 * Opening all files and keeping them open until the simulation has finished. This makes writing down all info quicker, and saves memory as we immediately write down all important informaton. 
+	 * @param append true when continuing files that already contain the first epochs (used by a fork)
+	 */
+	private void openOutputFiles(boolean append) {
+		printers = new PrintWriter[NUMBER_OUTPUT_FILES];
+
+		try
+		{
+			for(int i = 0; i < printers.length; i++) {
+				if(fileNames == null) { // output of this run is not written, only kept in memory (e.g. for the EnsembleAggregator)
+					printers[i] = new PrintWriter(OutputStream.nullOutputStream());
+				}
+				else {
+					printers[i] = new PrintWriter(new BufferedWriter(new OutputStreamWriter(Simulation.openOutputFile(fileNames[i], append))));
+				}
+			}
+			if(infectionSources != null && infectionSources.isLogged()) {
+				infectionSources.openLog(fileNames == null ? null : fileNames[NUMBER_OUTPUT_FILES + 1], append);
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Simulates one epoch: writes the output at the beginning of the epoch, determines the infection rates, updates the stage of all agents and lets patients enter and leave the hospitals.
+	 * @param epoch
+	 */
+	private void simulateEpoch(int epoch) {
+
+		if(epoch % epochsPerStep != 0) { // within a time step the agents are not updated
+			this.carryEpoch(epoch);
+			return;
+		}
+		if(meanField != null) {
+			this.simulateEpochMeanField(epoch);
+			return;
+		}
+
+		/*
+		 *  Counting the agents at the beginning of each epoch, for the output and for the infection rates.
+		 */
+		this.introduceStrains(epoch);
+		this.countStages(epoch);
+
+		//Intialize the map which contains the number of people who can spread the disease (Ia (infectious asymptomatic), Is (infectious symptomatic)) and are susceptible.
+		// All are indexed by [corop][age group] and start at 0 (each epoch needed, as we have to recount), the infectious agents also by the strain they spread
+		int nrStrains = strains == null ? 1 : strains.getNumberOfStrains();
+		int[][][] infectedWhoSpreadIa = new int[nrStrains][regions.getNumberOfRegions()][AgeGroup.values().length]; // Ia who spread the disease
+		int[][][] infectedWhoSpreadIs = new int[nrStrains][regions.getNumberOfRegions()][AgeGroup.values().length]; // Is who spread the disease. 
+		int[][] encounterGroup = new int[regions.getNumberOfRegions()][AgeGroup.values().length]; // Will contain all agents per corop and age group (for the denominator of P(I_{a',c,t})) that you could possible encounter
+
+		// Counting which individual is Ia and Is given their resident corop. And counting number of individuals you could encounter
+		this.countNumberInfections(infectedWhoSpreadIa, infectedWhoSpreadIs, encounterGroup);
+
+		if(partition != null) { // each process counted its own agents, the sums over all processes are the counts of the whole population
+			int[] queueCount = {queueCountsPerEpoch[epoch]};
+			partition.allReduce(stageCountsPerEpoch[epoch], patientCountsPerEpoch[epoch], queueCount, infectedWhoSpreadIa, infectedWhoSpreadIs, encounterGroup);
+			queueCountsPerEpoch[epoch] = queueCount[0];
+		}
+		if(strains != null) {
+			this.printStrains(infectedWhoSpreadIa, infectedWhoSpreadIs, epoch);
+		}
+
+		/*
+		 *  Writing output at the beginning of each epoch. 
+		 */
+		OutputWriter.outputWriterAggregateStageInfection(printers[0], stageCountsPerEpoch[epoch], epoch);
+		OutputWriter.outputWriterAggregateStageInfectionCityTotal(printers[1], regions, stageCountsPerEpoch[epoch], epoch);
+		OutputWriter.outputWriterHospitalInfo(printers[2], regions, patientCountsPerEpoch[epoch], queueCountsPerEpoch[epoch], epoch);
+
+		/*
+		 * Interventions starting at this epoch change the input of the infection rates
+		 */
+		this.applyInterventions(epoch);
+
+		/*
+		 * Determine all infection rate in each city. 
+		 */
+
+		// Determine Infection probability P_{a,a',c,t}
+		double[][][][] infectionProbability = new double[nrStrains][AgeGroup.values().length][AgeGroup.values().length][regions.getNumberOfRegions()]; // for this given epoch: P_{a,a',c,t} [strain][a][a'][c]
+		this.determinePaact(Simulation.toDouble(infectedWhoSpreadIa), Simulation.toDouble(infectedWhoSpreadIs), Simulation.toDouble(encounterGroup), epoch, infectionProbability);
+
+		// Determine infection probability P_{a,c,t}
+		double[][][] infectionProbability_endversion = new double[nrStrains][regions.getNumberOfRegions()][AgeGroup.values().length]; // for this given epoch t: P_{a,c,t} [strain][c][a]
+		this.determinePact(epoch, infectionProbability, infectionProbability_endversion);
+		if(infectionSources != null) {
+			infectionSources.update(epoch, infectedWhoSpreadIa, infectedWhoSpreadIs, ALPHA, ALPHA_SHORTCUT_HOME, infectionProbability, dailyContactsPerAgeGroup);
+		}
+
+		/*
+		 * Already infected people have a probability of getting more sick or recovering. Healthy (susceptible) people have a probability of getting sick.
+		 */
+		double[][][] infectionRisk = this.determineInfectionRiskTable(infectionProbability_endversion);
+		if(epochsPerStep > 1) {
+			this.determineStepInfectionRisk(epoch, infectedWhoSpreadIa, infectedWhoSpreadIs, encounterGroup, infectionRisk[0]);
+		}
+		this.addNetworkContacts(epoch);
+		this.vaccinate(epoch);
+		this.updateStages(epoch, infectionRisk, infectionProbability_endversion);
+		this.clearNetworkContacts(epoch);
+		if(vaccination != null) {
+			vaccination.clear();
+		}
+
+		/*
+		 * Remove deceased and cured individuals from the queue
+		 * Not used ATM (as queues are not needed with the large hospital capacity), but when patients are deceased (D) or immune (IM) they are removed from the queue.
+		 */
+		Set<Integer> toBeRemoved = new HashSet<Integer>();
+		for (int idv : queueHospital)
+		{
+			Stage stage = STAGES[population.getStage(idv)];
+			if(stage.equals(Stage.DEAD) || stage.equals(Stage.CURED) || stage.equals(Stage.INFECTED_SYMPTOMS_SEVERE_ICnotpossible)){ // third condition is now unused, but can be used when needed
+				toBeRemoved.add(idv);
+				population.setQueue(idv, false);
+			}
+		}
+		queueHospital.removeAll(toBeRemoved);
+
+		/*
+		 * Remove deceased and cured individuals from the hospitals.
+		 * This method is currently needed, however in this set-up it is not needed to get people from the queue into the hospital.
+		 * The reason agents enter from the queue here is to give them precedence over other new agents who have just obtained the health stage ICU admission,
+		 * as the next Hospital entry loop lets all individuals enter the hospitals when there is a spot left. 
+		 */
+
+		System.out.println("Epoch " + epoch);
+		for(int hos = 0; hos < regions.getNumberOfHospitals(); hos++) {
+
+			for(AgeGroup ageGroup : AgeGroup.values()) { // checks for all age group in each hospital whether they contain deceased/cured patients
+				List<Integer> idvInHospital = patientsHospitalPerAgeGroup.get(hos).get(ageGroup); // agents of this age group currently in the hospital
+				List<Integer> loopList = new ArrayList<>(idvInHospital);  // looplist is created as we cannot remove directly from idvInHospital when looping over the list
+
+				for (Integer idv : loopList) {
+
+					if(!population.inHospital(idv)){throw new IllegalStateException("Patient should not be inside the hospital.");}
+
+					Stage stage = STAGES[population.getStage(idv)];
+					if (stage.equals(Stage.DEAD) || stage.equals(Stage.CURED) || stage.equals(Stage.INFECTED_SYMPTOMS_SEVERE_ICnotpossible)){ // the ICU place of the this patient becomes available
+						population.setInHospital(idv, false);
+						idvInHospital.remove(idv); // removes the agent, not the position
+						patientsHospital[hos] --; // there is now one patient less 
+
+						if (!queueHospital.isEmpty()) { // people already in the queue, still alive and sick. Check whether they can enter directly the hospital. 
+							int firstPatient = queueHospital.get(0); // first patient (alive and sick) in the queue gets selected
+							Stage firstStage = STAGES[population.getStage(firstPatient)];
+
+							if(firstStage.equals(Stage.DEAD) || firstStage.equals(Stage.CURED) || firstStage.equals(Stage.INFECTED_SYMPTOMS_SEVERE_ICnotpossible) || firstStage.equals(Stage.INFECTED_SYMPTOMS_SEVERE_ICpossible)){
+								throw new IllegalStateException("First patient should have already been removed! Or it's stage is not correctly defined - should be QUEUE.");
+							}
+
+							population.setStage(firstPatient, Stage.INFECTED_SYMPTOMS_SEVERE_ICpossible.ordinal()); // in case the patient was in queue, a new stage should be assigned (as it current stage would now be ICQ
+							population.setTimeInStage(firstPatient, 0); // this is overwritten as now the patient goes from ICQ to ICY
+							population.setInHospital(firstPatient, true); 
+							population.setQueue(firstPatient, false);
+							queueHospital.remove(0);
+							patientsHospitalPerAgeGroup.get(hos).get(AgeGroup.values()[population.getAgeGroup(firstPatient)]).add(firstPatient);
+							patientsHospital[hos] ++; // ICU bed is now occupied again
+						}
+					}
+				}
+			}
+		}
+
+
+		/*
+		 * Hospital entry loop. Happens when the ICU still has capacity left for new entrances.
+		 * Note that this part is not used in our research, however you can use it to see what happens with the hospital queue when the hospital capacity provided is not enough, 
+		 */
+		int severe = Stage.INFECTED_SYMPTOMS_SEVERE_ICpossible.ordinal();
+		int severeQueue = Stage.INFECTED_SYMPTOMS_SEVERE_QUEUE.ordinal();
+		int[] otherPartitionsToOtherHospital = null;
+		if(partition != null) { // the patients of the preceding processes who go to another hospital have shuffled the hospitals before the own patients
+			otherPartitionsToOtherHospital = this.reduceHospitalEntries(epoch);
+			this.replayShuffleHospitals(otherPartitionsToOtherHospital[0]);
+		}
+		for (int idv = 0; idv < population.size(); idv++)
+		{
+			boolean stage_boolean = (population.getStage(idv) == severe || population.getStage(idv) == severeQueue); // Note: 26-06-2020: I even think the last check on ICQ is not needed, however this does not influence the results. 
+
+			if( stage_boolean && !population.inHospital(idv)){// only when hospitalization is needed and the individual is not yet hospitalized, patients enter the hospital. 
+
+				int hos;
+				// When your own hospital is available you will go there. In our case this will always be possible, however when IC is limited this is not the case
+				if(this.isOwnHospitalAvailable(idv, patientsHospital, HOSPITAL_CAPACITY)) {
+					hos = population.getHospital(idv);
+				}
+				else {
+					hos = this.findEmptyHospital(idv, patientsHospital, HOSPITAL_CAPACITY, shuffleHospitals); // randomly selects another hospital which has an ICU spot left. This is currently not needed to use, as we assume there will be enough capacity.
+				}
+
+				if(hos == -1){ // if there is no hospital available, this means that hos is -1. This means the patient has to go to the queue. Again, this is not currently needed. 
+					// Goes into the queue
+					if(!population.inQueue(idv)){ // if individual not already waiting in the queue, the patient will put in the queue (this happens when this agent has obtained stage ICY this epoch, but the ICU remains fulls)
+						queueHospital.add(idv);
+						population.setQueue(idv, true);
+						population.setStage(idv, severeQueue); // Change from ICY to ICQ
+						population.setTimeInStage(idv, 0); // CHECK
+					}
+				}
+				else { // Individual goes into hospital (NOTE: this implies that the queue is empty, as the queue was emptied in the previous section (Remove deceased and cured individuals from the hospitals.))
+					patientsHospitalPerAgeGroup.get(hos).get(AgeGroup.values()[population.getAgeGroup(idv)]).add(idv);
+					patientsHospital[hos] ++;
+
+					// Important detail: in this case it is thus not necessary to overwrite the status to SEVERE_ICpossible, as the agent can only be SEVERE_ICpossible!!! (as the queue is empty!)
+					//patientsHospital.get(hos).add(idv); // patient has not status QUEUE, but SEVERE_ICpossible
+					population.setInHospital(idv, true);
+					if (!queueHospital.isEmpty()) {
+						throw new IllegalStateException("Hospital " + regions.getHospitalName(hos) + " queue is not empty while below capacity!");
+					}
+				}
+			}
+		}
+
+		if(partition != null) { // and the patients of the next processes after them
+			this.replayShuffleHospitals(otherPartitionsToOtherHospital[1]);
+		}
+
+		if(compartments != null) { // cured and deceased agents are counted again in the hybrid engine
+			this.releaseAgents(epoch);
+		}
+
+		OutputWriter.outputWriterStageSwitching(printers[5], numberSwitchersStage[epoch], epoch);
+	}
+
+	/**
+	 * One epoch of the mean-field engine: the expected counts of the agents give the infection rates with the same equations as the agents (determinePaact and determinePact),
+	 * and all counts move to their next stage in proportion to the infection risk and VIRUS_PROGRESSION (see MeanField). The output gets the expected counts rounded to whole agents.
+	 */
+	private void simulateEpochMeanField(int epoch) {
+		int nrCities = regions.getNumberOfRegions();
+		int nrAgeGroups = AgeGroup.values().length;
+
+		Simulation.clearCounts(stageCountsPerEpoch[epoch]);
+		meanField.countStages(stageCountsPerEpoch[epoch]);
+		for(int[] patients : patientCountsPerEpoch[epoch]) {
+			Arrays.fill(patients, 0);
+		}
+		meanField.countPatients(regions, patientCountsPerEpoch[epoch]);
+		queueCountsPerEpoch[epoch] = 0;
+
+		double[][][] infectedWhoSpreadIa = new double[1][nrCities][nrAgeGroups];
+		double[][][] infectedWhoSpreadIs = new double[1][nrCities][nrAgeGroups];
+		double[][] encounterGroup = new double[nrCities][nrAgeGroups];
+		meanField.countInfections(infectedWhoSpreadIa[0], infectedWhoSpreadIs[0], encounterGroup, notEncounterStages);
+
+		OutputWriter.outputWriterAggregateStageInfection(printers[0], stageCountsPerEpoch[epoch], epoch);
+		OutputWriter.outputWriterAggregateStageInfectionCityTotal(printers[1], regions, stageCountsPerEpoch[epoch], epoch);
+		OutputWriter.outputWriterHospitalInfo(printers[2], regions, patientCountsPerEpoch[epoch], queueCountsPerEpoch[epoch], epoch);
+		this.applyInterventions(epoch);
+
+		double[][][][] infectionProbability = new double[1][nrAgeGroups][nrAgeGroups][nrCities];
+		this.determinePaact(infectedWhoSpreadIa, infectedWhoSpreadIs, encounterGroup, epoch, infectionProbability);
+		double[][][] infectionProbability_endversion = new double[1][nrCities][nrAgeGroups];
+		this.determinePact(epoch, infectionProbability, infectionProbability_endversion);
+		double[][][] infectionRisk = this.determineInfectionRiskTable(infectionProbability_endversion);
+		this.vaccinate(epoch); // only to refuse vaccination, which needs agents
+
+		meanField.update(epoch, infectionRisk[0], commuteScalingActive ? commuteScaling : null, progressionTable);
+		meanField.addSwitchers(numberSwitchersStage[epoch]);
+
+		System.out.println("Epoch " + epoch);
+		OutputWriter.outputWriterStageSwitching(printers[5], numberSwitchersStage[epoch], epoch);
+	}
+
+	/**
+	 * An epoch within a time step (see setTimeStep). The agents are not updated: the counts and infection rates of the start of the step are written again,
+	 * and the interventions starting at this epoch are applied, so they take effect at the next step.
+	 */
+	private void carryEpoch(int epoch) {
+		int step = epoch - epoch % epochsPerStep;
+		Simulation.copyCounts(stageCountsPerEpoch[step], stageCountsPerEpoch[epoch]);
+		for(int hos = 0; hos < patientCountsPerEpoch[epoch].length; hos++) {
+			System.arraycopy(patientCountsPerEpoch[step][hos], 0, patientCountsPerEpoch[epoch][hos], 0, patientCountsPerEpoch[step][hos].length);
+		}
+		queueCountsPerEpoch[epoch] = queueCountsPerEpoch[step];
+		if(epoch - 2 >= step) { // the rates of the first day and night epoch of the step are determined at its start
+			for(double[][] infectionRatePerAgeGroup : infectionRate) {
+				for(double[] rates : infectionRatePerAgeGroup) {
+					rates[epoch] = rates[epoch - 2];
+				}
 			}
+		}
 
-			/*
-			 * Remove deceased and cured individuals from the queue
-			 * Not used ATM (as queues are not needed with the large hospital capacity), but when patients are deceased (D) or immune (IM) they are removed from the queue.
-			 */
-			Set<Individual> toBeRemoved = new HashSet<Individual>();
-			for (Individual idv : queueHospital)
-			{
-				if(idv.getStage().equals(Stage.DEAD) || idv.getStage().equals(Stage.CURED) ||idv.getStage().equals(Stage.INFECTED_SYMPTOMS_SEVERE_ICnotpossible)){ // third condition is now unused, but can be used when needed
-					toBeRemoved.add(idv);
-					idv.setQueue(false);
+		OutputWriter.outputWriterAggregateStageInfection(printers[0], stageCountsPerEpoch[epoch], epoch);
+		OutputWriter.outputWriterAggregateStageInfectionCityTotal(printers[1], regions, stageCountsPerEpoch[epoch], epoch);
+		OutputWriter.outputWriterHospitalInfo(printers[2], regions, patientCountsPerEpoch[epoch], queueCountsPerEpoch[epoch], epoch);
+		this.applyInterventions(epoch);
+		System.out.println("Epoch " + epoch);
+		OutputWriter.outputWriterStageSwitching(printers[5], numberSwitchersStage[epoch], epoch);
+	}
+
+	/**
+	 * Determines the infection risk of the day and of the night epochs of the time step starting at this epoch. The risk of the half of the day of this epoch is already determined,
+	 * the other half is determined with the same counts at the next epoch (when the step has such an epoch).
+	 * @param infectionRisk infection risk [city][age group] in this epoch
+	 */
+	private void determineStepInfectionRisk(int epoch, int[][][] infectedWhoSpreadIa, int[][][] infectedWhoSpreadIs, int[][] encounterGroup, double[][] infectionRisk) {
+		int stepEnd = Math.min(epoch + epochsPerStep, totalEpochsHorizon);
+		int dayEpochs = (stepEnd - epoch + 1 - epoch % 2) / 2; // even epochs in the step
+		double[][] otherRisk = infectionRisk;
+		if(stepEnd > epoch + 1) {
+			double[][][][] infectionProbability = new double[1][AgeGroup.values().length][AgeGroup.values().length][regions.getNumberOfRegions()];
+			this.determinePaact(Simulation.toDouble(infectedWhoSpreadIa), Simulation.toDouble(infectedWhoSpreadIs), Simulation.toDouble(encounterGroup), epoch + 1, infectionProbability);
+			double[][][] infectionProbability_endversion = new double[1][regions.getNumberOfRegions()][AgeGroup.values().length];
+			this.determinePact(epoch + 1, infectionProbability, infectionProbability_endversion);
+			otherRisk = this.determineInfectionRiskTable(infectionProbability_endversion)[0];
+		}
+		this.stepDayRisk = epoch % 2 == 0 ? infectionRisk : otherRisk;
+		this.stepNightRisk = epoch % 2 == 0 ? otherRisk : infectionRisk;
+		this.stepDayEpochs = dayEpochs;
+		this.stepNightEpochs = stepEnd - epoch - dayEpochs;
+		this.stepDayEscape = new double[stepDayRisk.length][stepDayRisk[0].length];
+		this.stepNightEscape = new double[stepNightRisk.length][stepNightRisk[0].length];
+		for(int city = 0; city < stepDayRisk.length; city++) {
+			for(int age = 0; age < stepDayRisk[city].length; age++) {
+				stepDayEscape[city][age] = Math.pow(1 - stepDayRisk[city][age], stepDayEpochs);
+				stepNightEscape[city][age] = Math.pow(1 - stepNightRisk[city][age], stepNightEpochs);
+			}
+		}
+	}
+
+	/**
+	 * With partitions each process lets its own agents enter the hospitals. This gives the same result as without partitions as long as no hospital becomes full during the hospital entry loop
+	 * (patients then enter their own hospital, or when that was already full the first hospital that is not full after shuffleHospitals), which is checked here over all processes.
+	 * Each patient who goes to another hospital shuffles shuffleHospitals with the random generator, so the number of these patients of the other processes is determined as well.
+	 * Also the transitions of this epoch are summed over all processes.
+	 * @return the number of patients who go to another hospital of the preceding processes and of the next processes
+	 */
+	private int[] reduceHospitalEntries(int epoch) {
+		int[] patients = patientsHospital.clone();
+		int[][] entering = new int[partition.getCount()][regions.getNumberOfHospitals()]; // patients entering a hospital [process][own hospital]
+		int severe = Stage.INFECTED_SYMPTOMS_SEVERE_ICpossible.ordinal();
+		int severeQueue = Stage.INFECTED_SYMPTOMS_SEVERE_QUEUE.ordinal();
+		for (int idv = 0; idv < population.size(); idv++) {
+			int stage = population.getStage(idv);
+			if((stage == severe || stage == severeQueue) && !population.inHospital(idv)) {
+				entering[partition.getRank()][population.getHospital(idv)] ++;
+			}
+		}
+
+		partition.allReduce(patients, entering, numberSwitchersStage[epoch]);
+
+		int totalEntering = 0;
+		for(int[] enteringProcess : entering) {
+			for(int number : enteringProcess) {
+				totalEntering += number;
+			}
+		}
+		boolean anyAvailable = false;
+		for(int hos = 0; hos < regions.getNumberOfHospitals(); hos++) {
+			boolean available = patients[hos] < HOSPITAL_CAPACITY[hos];
+			if(available && patients[hos] + totalEntering > HOSPITAL_CAPACITY[hos]) {
+				throw new IllegalStateException("Hospital " + regions.getHospitalName(hos) + " can become full in epoch " + epoch + ", a partitioned simulation needs enough hospital capacity for all patients.");
+			}
+			anyAvailable |= available;
+		}
+		if(totalEntering > 0 && !anyAvailable) {
+			throw new IllegalStateException("All hospitals are full in epoch " + epoch + ", a partitioned simulation cannot queue patients.");
+		}
+
+		int[] toOtherHospital = new int[2];
+		for(int rank = 0; rank < partition.getCount(); rank++) {
+			if(rank == partition.getRank()) continue;
+			for(int hos = 0; hos < regions.getNumberOfHospitals(); hos++) {
+				if(patients[hos] >= HOSPITAL_CAPACITY[hos]) { // own hospital is full
+					toOtherHospital[rank < partition.getRank() ? 0 : 1] += entering[rank][hos];
 				}
 			}
-			queueHospital.removeAll(toBeRemoved);
+		}
+		return toOtherHospital;
+	}
+
+	/**
+	 * Moves the agents who are no longer severely ill (and thus no longer in a hospital or the queue) from the population to the compartments of the hybrid engine.
+	 * The remaining agents get new indices, so the patients in the hospitals and the queue are renumbered.
+	 */
+	private void releaseAgents(int epoch) {
+		int[] newIndex = new int[population.size()];
+		int kept = 0;
+		for(int idv = 0; idv < population.size(); idv++) {
+			int stage = population.getStage(idv);
+			if(Compartments.AGENT_STAGES.contains(STAGES[stage])) {
+				if(idv != kept) {
+					population.move(idv, kept);
+				}
+				newIndex[idv] = kept;
+				kept++;
+			}
+			else {
+				if(population.inHospital(idv) || population.inQueue(idv)) throw new IllegalStateException("Agent " + idv + " in stage " + STAGES[stage] + " is still in a hospital or the queue.");
+				compartments.add(population.getAgeGroup(idv), population.getResidentPlace(idv), population.getCommutePlace(idv), stage, epoch);
+				newIndex[idv] = -1;
+			}
+		}
+		if(kept == population.size()) {
+			return;
+		}
+		population.truncate(kept);
+
+		for(EnumMap<AgeGroup, List<Integer>> patients : patientsHospitalPerAgeGroup) {
+			for(List<Integer> patientsAgeGroup : patients.values()) {
+				patientsAgeGroup.replaceAll(idv -> newIndex[idv]);
+			}
+		}
+		queueHospital.replaceAll(idv -> newIndex[idv]);
+	}
+
+	/**
+	 * Shuffles the hospitals as findEmptyHospital does for the given number of patients, such that the hospitals and the random generator are in the same state as without partitions
+	 */
+	private void replayShuffleHospitals(int numberOfPatients) {
+		for(int i = 0; i < numberOfPatients; i++) {
+			Collections.shuffle(shuffleHospitals, rand);
+		}
+	}
+
+	/**
+	 * Counts the number of agents in each stage (per age group and resident city) and the number of patients in each hospital at the beginning of this epoch.
+	 */
+	private void countStages(int epoch) {
+		int[][][] stageCounts = stageCountsPerEpoch[epoch];
+		Simulation.clearCounts(stageCounts);
+
+		for(int i = 0; i < population.size(); i++) {
+			stageCounts[population.getStage(i)][population.getAgeGroup(i)][population.getResidentPlace(i)] ++;
+		}
+		if(compartments != null) {
+			compartments.countStages(stageCounts);
+		}
+
+		for(int hos = 0; hos < regions.getNumberOfHospitals(); hos++) {
+			for(AgeGroup ageGroup : AgeGroup.values()) {
+				patientCountsPerEpoch[epoch][hos][ageGroup.ordinal()] = patientsHospitalPerAgeGroup.get(hos).get(ageGroup).size();
+			}
+		}
+		queueCountsPerEpoch[epoch] = queueHospital.size();
+	}
+
+	/**
+	 * Number of agents [epoch][stage][age group][resident city] at the beginning of each epoch of the last simulation run
+	 */
+	public int[][][][] getStageCountsPerEpoch() {
+		return stageCountsPerEpoch;
+	}
 
-			/*
-			 * Remove deceased and cured individuals from the hospitals.
-			 * This method is currently needed, however in this set-up it is not needed to get people from the queue into the hospital.
-			 * The reason agents enter from the queue here is to give them precedence over other new agents who have just obtained the health stage ICU admission,
-			 * as the next Hospital entry loop lets all individuals enter the hospitals when there is a spot left. 
-			 */
+	/**
+	 * Number of patients [epoch][hospital][age group] at the beginning of each epoch of the last simulation run
+	 */
+	public int[][][] getPatientCountsPerEpoch() {
+		return patientCountsPerEpoch;
+	}
 
-			System.out.println("Epoch " + epoch);
-			for(Hospital hos : Hospital.values()) {
+	/**
+	 * Number of patients in the queue at the beginning of each epoch of the last simulation run
+	 */
+	public int[] getQueueCountsPerEpoch() {
+		return queueCountsPerEpoch;
+	}
 
-				for(AgeGroup ageGroup : AgeGroup.values()) { // checks for all age group in each hospital whether they contain deceased/cured patients
-					List<Individual> idvInHospital = patientsHospitalPerAgeGroup.get(hos).get(ageGroup); // agents of this age group currently in the hospital
-					List<Individual> loopList = new ArrayList<>(idvInHospital);  // looplist is created as we cannot remove directly from idvInHospital when looping over the list
+	/**
+	 * Updates the health stage of every agent for this epoch. Already infected agents progress according to VIRUS_PROGRESSION, susceptible agents become exposed with their infection risk.
+	 * Agents are handled in blocks: first the random numbers of a block are drawn (in the same order as drawing them one by one), then the block is processed using the flat lookup tables only.
+	 * As the random numbers are already drawn, the agents of a block are independent and the block is split over the workers, each counting the transitions in its own StageCounters.
+	 * In the hybrid engine the counted agents are updated after the agents, with binomial draws for each group (see Compartments).
+	 * @param epoch
+	 * @param infectionRisk infection risk [strain][city][age group] of a susceptible agent in this epoch
+	 * @param infectionProbability_endversion P_{a,c,t} [strain][c][a], the part of the infection risk that comes from infectious agents
+	 */
+	private void updateStages(int epoch, double[][][] infectionRisk, double[][][] infectionProbability_endversion) {
 
-					for (Individual idv : loopList) {
+		if(partition != null && !commonRandomNumbers) { // with partitions the random numbers of the agents of the preceding processes are skipped, one uniform per agent
+			rand.skipDoubles(agentOffset);
+		}
 
-						if(!idv.inHospital()){throw new IllegalStateException("Patient should not be inside the hospital.");}
+		int[] immunityEnds = immunityWheel == null ? new int[0] : this.expireImmunity(epoch);
+		for(int i : immunityEnds) {
+			if(scheduledImmunityEnd == null || scheduledImmunityEnd[i] == epoch) { // an agent infected again by another strain has a new immunity, its old end is skipped
+				immunityEnding[i >>> 6] |= 1L << i;
+			}
+		}
 
-						if (idv.getStage().equals(Stage.DEAD) || idv.getStage().equals(Stage.CURED) || idv.getStage().equals(Stage.INFECTED_SYMPTOMS_SEVERE_ICnotpossible)){ // the ICU place of the this patient becomes available
-							idv.setInHospital(false);
-							patientsHospitalPerAgeGroup.get(hos).get(idv.getAgeGroup()).remove(idv);
-							patientsHospital.put(hos, patientsHospital.get(hos) - 1); // there is now one patient less 
+		for(int blockStart = 0; blockStart < population.size(); blockStart += BLOCK_SIZE) {
+			int first = blockStart;
+			int blockEnd = Math.min(blockStart + BLOCK_SIZE, population.size());
 
-							if (!queueHospital.isEmpty()) { // people already in the queue, still alive and sick. Check whether they can enter directly the hospital. 
-								Individual firstPatient = queueHospital.get(0); // first patient (alive and sick) in the queue gets selected
+			if(!commonRandomNumbers) { // with common random numbers each worker draws the numbers of its agents (see drawKeyed)
+				rand.nextDoubles(randomBlock, blockEnd - blockStart); // fill the block with random numbers, one per agent
+			}
 
-								if(firstPatient.getStage().equals(Stage.DEAD) || firstPatient.getStage().equals(Stage.CURED) || firstPatient.getStage().equals(Stage.INFECTED_SYMPTOMS_SEVERE_ICnotpossible) || firstPatient.getStage().equals(Stage.INFECTED_SYMPTOMS_SEVERE_ICpossible)){
-									throw new IllegalStateException("First patient should have already been removed! Or it's stage is not correctly defined - should be QUEUE.");
-								}
+			int nrWorkers = Math.max(1, Math.min(stageCounters.length, (blockEnd - blockStart) / MIN_AGENTS_PER_WORKER));
+			if(nrWorkers == 1) {
+				this.updateStages(epoch, infectionRisk, first, blockEnd, first, 0);
+			}
+			else {
+				int agentsPerWorker = ((blockEnd - blockStart + nrWorkers - 1) / nrWorkers + 63) & ~63; // a multiple of 64 agents, such that the workers do not share a word of the strains (see Population)
+				IntStream.range(0, nrWorkers).parallel().forEach(worker -> {
+					int from = first + worker * agentsPerWorker;
+					int to = Math.min(from + agentsPerWorker, blockEnd);
+					this.updateStages(epoch, infectionRisk, from, to, first, worker);
+				});
+			}
 
-								firstPatient.setStage(Stage.INFECTED_SYMPTOMS_SEVERE_ICpossible); // in case the patient was in queue, a new stage should be assigned (as it current stage would now be ICQ
-								firstPatient.setTimeInStage(0); // this is overwritten as now the patient goes from ICQ to ICY
-								firstPatient.setInHospital(true); 
-								firstPatient.setQueue(false);
-								queueHospital.remove(0);
-								patientsHospitalPerAgeGroup.get(hos).get(firstPatient.getAgeGroup()).add(firstPatient);
-								patientsHospital.put(hos, patientsHospital.get(hos) + 1); // ICU bed is now occupied again
-							}
-						}
+			if(immunityWheel != null) { // the workers update consecutive agents, so this is the order of the agents
+				for(int worker = 0; worker < nrWorkers; worker++) {
+					for(int k = 0; k < nrCuredPerWorker[worker]; k++) {
+						this.scheduleImmunityEnd(curedPerWorker[worker][k], epoch + 1);
+					}
+					nrCuredPerWorker[worker] = 0;
+				}
+			}
+			if(infectionSources != null) {
+				for(int worker = 0; worker < nrWorkers; worker++) {
+					for(int k = 0; k < nrInfectedPerWorker[worker]; k++) {
+						this.attributeInfection(epoch, infectedPerWorker[worker][k], infectionRisk, infectionProbability_endversion);
 					}
+					nrInfectedPerWorker[worker] = 0;
 				}
 			}
+		}
 
+		for(int i : immunityEnds) {
+			immunityEnding[i >>> 6] = 0;
+		}
 
-			/*
-			 * Hospital entry loop. Happens when the ICU still has capacity left for new entrances.
-			 * Note that this part is not used in our research, however you can use it to see what happens with the hospital queue when the hospital capacity provided is not enough, 
-			 */
-			for (Individual idv : allIndividuals)
-			{
-				boolean stage_boolean = (idv.getStage().equals(Stage.INFECTED_SYMPTOMS_SEVERE_ICpossible) || idv.getStage().equals(Stage.INFECTED_SYMPTOMS_SEVERE_QUEUE)); // Note: 26-06-2020: I even think the last check on ICQ is not needed, however this does not influence the results. 
+		if(partition != null && !commonRandomNumbers) { // and those of the next processes
+			rand.skipDoubles(totalAgents - agentOffset - population.size());
+		}
+
+		if(compartments != null) {
+			compartments.update(epoch, infectionRisk[0], commuteScalingActive ? commuteScaling : null, progressionTable, population, stageCounters[0], rand);
+		}
+
+		for(StageCounters counters : stageCounters) { // the order does not matter as the counts are added
+			counters.addTo(numberSwitchersStage[epoch], numberOfPeopleInEachStage);
+		}
+	}
+
+	/**
+	 * Takes the agents whose immunity ends out of the wheel, for all epochs since the previous update of the agents (the epochs of the previous time step)
+	 */
+	private int[] expireImmunity(int epoch) {
+		int[] ends = new int[0];
+		for(int e = Math.max(0, epoch - epochsPerStep + 1); e <= epoch; e++) { // in increasing order, as the wheel requires
+			int[] expired = immunityWheel.expire(e);
+			int[] all = Arrays.copyOf(ends, ends.length + expired.length);
+			System.arraycopy(expired, 0, all, ends.length, expired.length);
+			ends = all;
+		}
+		return ends;
+	}
+
+	/**
+	 * Updates the health stage of the agents from until to (exclusive), which are part of the block starting at blockStart. The transitions are counted in the counters of the worker.
+	 */
+	private void updateStages(int epoch, double[][][] infectionRisk, int from, int to, int blockStart, int worker) {
+
+		StageCounters counters = stageCounters[worker];
+		int healthy = Stage.HEALTHY.ordinal();
+		int cured = Stage.CURED.ordinal();
+		int exposed = Stage.INFECTED_NOSYMPTOMS_NOTCONTAGIOUS.ordinal();
+		double[][][] progression = epochsPerStep > 1 ? stepProgressionTable : progressionTable;
+		if(commonRandomNumbers) {
+			this.drawKeyed(epoch, from, to, blockStart);
+		}
+
+		for(int i = from; i < to; i++) {
 
-				if( stage_boolean && !idv.inHospital()){// only when hospitalization is needed and the individual is not yet hospitalized, patients enter the hospital. 
+			int age = population.getAgeGroup(i);
+			int current = population.getStage(i);
+			double randomNumber = randomBlock[i - blockStart];
+			int timeInStage = population.getTimeInStage(i) + 1; 
+			int strain = population.getStrain(i);
+			int next;
 
-					Hospital hos;
-					// When your own hospital is available you will go there. In our case this will always be possible, however when IC is limited this is not the case
-					if(this.isOwnHospitalAvailable(idv, patientsHospital, HOSPITAL_CAPACITY)) {
-						hos = idv.getHospital();
+			if(current == cured && immunityEnding != null && (immunityEnding[i >>> 6] & (1L << i)) != 0) { // the immunity of this agent ends
+				next = healthy;
+			}
+			else if(current == cured && strains != null) { // only protected against another strain with the probability of its cross-immunity
+				next = cured;
+				double risk = 0.0;
+				for(int s = 0; s < infectionRisk.length; s++) {
+					risk += this.determineInfectionRisk(epoch, i, age, infectionRisk[s]) * (1 - strains.getImmunity(s, strain));
+					if(randomNumber <= risk) {
+						next = exposed;
+						strain = s;
+						break;
 					}
-					else {
-						hos = this.findEmptyHospital(idv, patientsHospital, HOSPITAL_CAPACITY, shuffleHospitals); // randomly selects another hospital which has an ICU spot left. This is currently not needed to use, as we assume there will be enough capacity.
+				}
+				if(next == cured) { // the rest of the random number decides the (normally certain) transition of a cured agent
+					next = this.determineNextStage((randomNumber - risk) / (1 - risk), strainProgressionTable[strain][age][current]);
+				}
+			}
+			else if(current != healthy) { 
+				next = this.determineNextStage(randomNumber, strains == null ? progression[age][current] : strainProgressionTable[strain][age][current]);
+			}
+			else if(vaccination != null && vaccination.isVaccinated(i)) { // immune from this epoch onwards
+				next = cured;
+				strain = 0; // protected as an agent cured from the first strain
+			}
+			else { // the strains compete: with one random number the agent is infected by strain s when it falls in the risk of strain s after the risks of the strains before it
+				next = healthy;
+				double risk = 0.0;
+				for(int s = 0; s < infectionRisk.length; s++) {
+					risk += this.determineInfectionRisk(epoch, i, age, infectionRisk[s]);
+					if(randomNumber <= risk) { // healthy person stays healthy or becomes sick/exposed
+						next = exposed;
+						strain = s;
+						break;
 					}
+				}
+			}
 
-					if(hos == null){ // if there is no hospital available, this means that hos remains null. This means the patient has to go to the queue. Again, this is not currently needed. 
-						// Goes into the queue
-						if(!idv.inQueue()){ // if individual not already waiting in the queue, the patient will put in the queue (this happens when this agent has obtained stage ICY this epoch, but the ICU remains fulls)
-							queueHospital.add(idv);
-							idv.setQueue(true);
-							idv.setStage(Stage.INFECTED_SYMPTOMS_SEVERE_QUEUE); // Change from ICY to ICQ
-							idv.setTimeInStage(0); // CHECK
-						}
+			if(next == current) {
+				population.setTimeInStage(i, timeInStage);
+			}
+			else {
+				if(strains != null) {
+					population.setStrain(i, strain);
+				}
+				population.setStage(i, next); // stage of individual is overwritten
+				counters.countTimeInStage(age, current, Math.min(timeInStage * epochsPerStep, totalEpochsHorizon));
+				population.setTimeInStage(i, 0); // time is resetted. 
+				if(next == cured && immunityWheel != null) {
+					if(nrCuredPerWorker[worker] == curedPerWorker[worker].length) {
+						curedPerWorker[worker] = Arrays.copyOf(curedPerWorker[worker], Math.max(1024, 2 * nrCuredPerWorker[worker]));
 					}
-					else { // Individual goes into hospital (NOTE: this implies that the queue is empty, as the queue was emptied in the previous section (Remove deceased and cured individuals from the hospitals.))
-						patientsHospitalPerAgeGroup.get(hos).get(idv.getAgeGroup()).add(idv);
-						patientsHospital.put(hos, patientsHospital.get(hos) + 1);
-
-						// Important detail: in this case it is thus not necessary to overwrite the status to SEVERE_ICpossible, as the agent can only be SEVERE_ICpossible!!! (as the queue is empty!)
-						//patientsHospital.get(hos).add(idv); // patient has not status QUEUE, but SEVERE_ICpossible
-						idv.setInHospital(true);
-						if (!queueHospital.isEmpty()) {
-							throw new IllegalStateException("Hospital " + hos + " queue is not empty while below capacity!");
-						}
+					curedPerWorker[worker][nrCuredPerWorker[worker]++] = i;
+				}
+				if(next == exposed && infectionSources != null) {
+					if(nrInfectedPerWorker[worker] == infectedPerWorker[worker].length) {
+						infectedPerWorker[worker] = Arrays.copyOf(infectedPerWorker[worker], Math.max(1024, 2 * nrInfectedPerWorker[worker]));
+					}
+					infectedPerWorker[worker][nrInfectedPerWorker[worker]++] = i;
+				}
+			}
+			// new 05-04; 
+			counters.countSwitch(age, current, next);
+		}
+	}
+
+	/**
+	 * Draws the random numbers of the agents from until to (exclusive) with common random numbers: a hash of the seed, the agent and the epoch, with the key of the infection draws
+	 * for a healthy or cured agent and with the key of the progression draws for an infected agent. In the second run of an antithetic pair all bits are flipped, which gives 1 - 2^-53 - U.
+	 */
+	private void drawKeyed(int epoch, int from, int to, int blockStart) {
+		int healthy = Stage.HEALTHY.ordinal();
+		int cured = Stage.CURED.ordinal();
+		long flip = mirrored ? -1L : 0L;
+		for(int i = from; i < to; i++) {
+			int current = population.getStage(i);
+			long key = current == healthy || current == cured ? infectionSeed : progressionSeed;
+			long hash = XoroshiroRandom.mix(XoroshiroRandom.mix(key + 0x9E3779B97F4A7C15L * (agentOffset + i)) + epoch) ^ flip;
+			randomBlock[i - blockStart] = (hash >>> 11) * 0x1.0p-53;
+		}
+	}
+
+	/**
+	 * Draws the infector of agent i, who was infected in this epoch. A commuter for whom part of the commuters stays at home is infected in its commute or resident corop in proportion to their risk.
+	 */
+	private void attributeInfection(int epoch, int i, double[][][] infectionRisk, double[][][] infectionProbability_endversion) {
+		long hash = XoroshiroRandom.mix(XoroshiroRandom.mix(sourceSeed + 0x9E3779B97F4A7C15L * (agentOffset + i)) + epoch);
+		int age = population.getAgeGroup(i);
+		int strain = population.getStrain(i);
+		int city = this.getCurrentCityIndividual(epoch, i);
+		if(commuteScalingActive && epoch % 2 == 0 && city != population.getResidentPlace(i)) {
+			int residentCity = population.getResidentPlace(i);
+			double stillCommuting = commuteScaling[ALPHA[age].find(residentCity, city)];
+			double commuteRisk = stillCommuting * infectionRisk[strain][city][age];
+			double homeRisk = (1 - stillCommuting) * infectionRisk[strain][residentCity][age];
+			if((hash >>> 11) * 0x1.0p-53 * (commuteRisk + homeRisk) >= commuteRisk) {
+				city = residentCity;
+			}
+			hash = XoroshiroRandom.mix(hash);
+		}
+		double risk = infectionRisk[strain][city][age];
+		double background = risk > 0 ? (risk - infectionProbability_endversion[strain][city][age]) / risk : 1.0;
+		infectionSources.attribute(epoch, agentOffset + i, city, age, strain, background, hash);
+	}
+
+	/**
+	 * Infection risk of susceptible agent i in the corop where it is in this epoch. A commuter has the risk of both corops when part of the commuters stays at home,
+	 * and the risk of the corop is combined with the risk of its infectious household or venue members.
+	 * @param infectionRisk infection risk [city][age group] of one strain
+	 */
+	private double determineInfectionRisk(int epoch, int i, int age, double[][] infectionRisk) {
+		if(epochsPerStep > 1) { // escapes the infection in all day and night epochs of the step
+			int commuteCity = population.getCommutePlace(i);
+			int residentCity = population.getResidentPlace(i);
+			double dayEscape = stepDayEscape[commuteCity][age];
+			if(commuteScalingActive && commuteCity != residentCity) {
+				double stillCommuting = commuteScaling[ALPHA[age].find(residentCity, commuteCity)];
+				dayEscape = Math.pow(1 - stillCommuting * stepDayRisk[commuteCity][age] - (1 - stillCommuting) * stepDayRisk[residentCity][age], stepDayEpochs);
+			}
+			return 1 - dayEscape * stepNightEscape[residentCity][age];
+		}
+		int currentCity = this.getCurrentCityIndividual(epoch, i);
+		double risk = infectionRisk[currentCity][age];
+		if(commuteScalingActive && epoch % 2 == 0 && currentCity != population.getResidentPlace(i)) { // part of the commuters stays at home during the day, so a commuter has the risk of both corops
+			int residentCity = population.getResidentPlace(i);
+			double stillCommuting = commuteScaling[ALPHA[age].find(residentCity, currentCity)];
+			risk = stillCommuting * risk + (1 - stillCommuting) * infectionRisk[residentCity][age];
+		}
+		if(infectiousContacts != null) { // escapes the infection in the corop and from each infectious member of its household and venue, during its part of the epoch
+			double contactEscape = 1;
+			for(int layer = 0; layer < infectiousContacts.length; layer++) {
+				if(infectiousContacts[layer] != null && infectiousContacts[layer][i] > 0 && contactSchedule[epoch % 2][layer] > 0) {
+					double transmission = layer == VENUE_LAYER ? venueTransmission : householdTransmission;
+					contactEscape *= Math.pow(1 - transmission, contactSchedule[epoch % 2][layer] * infectiousContacts[layer][i]);
+				}
+			}
+			if(contactEscape < 1) {
+				risk = 1 - (1 - risk) * contactEscape;
+			}
+		}
+		return risk;
+	}
+
+	/**
+	 * Infects random agents with the strains introduced in this epoch, before the agents are counted. An agent is drawn from the whole population, such that all partitions draw the same numbers,
+	 * and only becomes exposed when it is an agent of this process and healthy, so slightly fewer agents than the number of introductions can be infected.
+	 */
+	private void introduceStrains(int epoch) {
+		if(strains == null) {
+			return;
+		}
+		int healthy = Stage.HEALTHY.ordinal();
+		int exposed = Stage.INFECTED_NOSYMPTOMS_NOTCONTAGIOUS.ordinal();
+		for(int strain = 0; strain < strains.getNumberOfStrains(); strain++) {
+			if(strains.getIntroductionEpoch(strain) != epoch) {
+				continue;
+			}
+			for(int n = 0; n < strains.getIntroductions(strain); n++) {
+				int i = rand.nextInt(totalAgents) - agentOffset;
+				if(i >= 0 && i < population.size() && population.getStage(i) == healthy) {
+					int age = population.getAgeGroup(i);
+					stageCounters[0].countTimeInStage(age, healthy, population.getTimeInStage(i));
+					stageCounters[0].countSwitch(age, healthy, exposed);
+					population.setStage(i, exposed);
+					population.setTimeInStage(i, 0);
+					population.setStrain(i, strain);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prints the infectious agents (Ia and Is) of each strain at the beginning of the epoch
+	 */
+	private void printStrains(int[][][] infectedWhoSpreadIa, int[][][] infectedWhoSpreadIs, int epoch) {
+		StringBuilder line = new StringBuilder("Epoch " + epoch + " infectious:");
+		for(int strain = 0; strain < strains.getNumberOfStrains(); strain++) {
+			long infectious = 0;
+			for(int city = 0; city < infectedWhoSpreadIa[strain].length; city++) {
+				for(int age = 0; age < infectedWhoSpreadIa[strain][city].length; age++) {
+					infectious += infectedWhoSpreadIa[strain][city][age] + infectedWhoSpreadIs[strain][city][age];
+				}
+			}
+			line.append(" " + strains.getName(strain) + " " + infectious);
+		}
+		System.out.println(line.toString());
+	}
+
+	/**
+	 * Marks the agents vaccinated in this epoch, who become cured (immune) in the update of the stages. The doses go to the age groups and corops of priority 1 first,
+	 * within a priority in proportion to the agents who can still be vaccinated, and the doses left go to the next priority. The work is proportional to the number of doses.
+	 */
+	private void vaccinate(int epoch) {
+		if(vaccinationDoses <= 0) {
+			return;
+		}
+		if(vaccination == null) {
+			if(partition != null) throw new IllegalStateException("Vaccination cannot be used in a partitioned simulation.");
+			if(compartments != null) throw new IllegalStateException("Vaccination cannot be used with the hybrid engine.");
+			if(meanField != null) throw new IllegalStateException("Vaccination cannot be used with the mean-field engine.");
+			this.vaccination = new Vaccination(groupStart);
+		}
+
+		int nrAgeGroups = AgeGroup.values().length;
+		int maxPriority = 0;
+		for(int[] priority : vaccinationPriority) {
+			for(int p : priority) {
+				maxPriority = Math.max(maxPriority, p);
+			}
+		}
+
+		int doses = vaccinationDoses * epochsPerStep; // the doses of all epochs of a time step
+		for(int p = 1; p <= maxPriority && doses > 0; p++) {
+			int[] blocks = new int[regions.getNumberOfRegions() * nrAgeGroups];
+			int nrBlocks = 0;
+			for(int c = 0; c < regions.getNumberOfRegions(); c++) {
+				for(int a = 0; a < nrAgeGroups; a++) {
+					if(vaccinationPriority[a][c] == p) {
+						blocks[nrBlocks++] = c * nrAgeGroups + a;
 					}
 				}
 			}
+			doses -= vaccination.vaccinate(Arrays.copyOf(blocks, nrBlocks), doses, population, rand);
+		}
+	}
+
+	/**
+	 * Counts the infectious members of the venue and household of each healthy agent, for the layers with a slot in the contact schedule of this epoch (by default the venue during the day
+	 * and the household during the night), going only over the groups of the infectious agents.
+	 */
+	private void addNetworkContacts(int epoch) {
+		for(int layer = 0; infectiousContacts != null && layer < infectiousContacts.length; layer++) {
+			if(infectiousContacts[layer] != null && contactSchedule[epoch % 2][layer] > 0) {
+				ContactNetwork network = layer == VENUE_LAYER ? venues : households;
+				for(int k = 0; k < nrInfectiousAgents; k++) {
+					network.addInfectiousContacts(infectiousAgents[k], population, infectiousContacts[layer]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the counts of addNetworkContacts back to 0 for the next epoch, over the same groups
+	 */
+	private void clearNetworkContacts(int epoch) {
+		for(int layer = 0; infectiousContacts != null && layer < infectiousContacts.length; layer++) {
+			if(infectiousContacts[layer] != null && contactSchedule[epoch % 2][layer] > 0) {
+				ContactNetwork network = layer == VENUE_LAYER ? venues : households;
+				for(int k = 0; k < nrInfectiousAgents; k++) {
+					network.clearContacts(infectiousAgents[k], infectiousContacts[layer]);
+				}
+			}
+		}
+	}
 
-			OutputWriter.outputWriterStageSwitching(print6, numberSwitchersStage.get(epoch), epoch);
+	/**
+	 * Creates the counters of the stage transitions, one for each worker (at most one worker per processor)
+	 */
+	private StageCounters[] createStageCounters() {
+		StageCounters[] counters = new StageCounters[Runtime.getRuntime().availableProcessors()];
+		for(int worker = 0; worker < counters.length; worker++) {
+			counters[worker] = new StageCounters(AgeGroup.values().length, STAGES.length, totalEpochsHorizon);
 		}
+		return counters;
+	}
 
-		OutputWriter.outputWriterTimeSpendEachStage(print4, numberOfPeopleInEachStage, totalEpochsHorizon);
-		OutputWriter.outputWriterInfectionRateInEachCorop(print5, infectionRate, totalEpochsHorizon);
+	/**
+	 * Determines the infection risk of a susceptible agent for each city and age group in this epoch. 
+	 * The risk to go from susceptible (healthy) to exposed (INFECTED_NOSYMPTOMS_NOTCONTAGIOUS) is P_{a,c,t} plus the (normally zero) transition probability in VIRUS_PROGRESSION,
+	 * which is added to the first strain. The risks of the strains are added in updateStages, so their sum should not exceed 1.
+	 * @param infectionProbability_endversion P_{a,c,t} [strain][c][a]
+	 * @return infection risk [strain][city][age group]
+	 */
+	private double[][][] determineInfectionRiskTable(double[][][] infectionProbability_endversion) {
 
-		print1.close();
-		print2.close();
-		print3.close();
-		print4.close();
-		print5.close();
-		print6.close();
+		double[][][] infectionRisk = new double[infectionProbability_endversion.length][regions.getNumberOfRegions()][AgeGroup.values().length];
+		int healthy = Stage.HEALTHY.ordinal();
+		int exposed = Stage.INFECTED_NOSYMPTOMS_NOTCONTAGIOUS.ordinal();
+
+		for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+			for(AgeGroup ageGroup : AgeGroup.values()) {
+				double total = 0.0;
+				for(int strain = 0; strain < infectionRisk.length; strain++) {
+					double risk = infectionProbability_endversion[strain][city][ageGroup.ordinal()];
+					if(strain == 0) {
+						risk += progressionTable[ageGroup.ordinal()][healthy][exposed];
+					}
+					total += risk;
+					infectionRisk[strain][city][ageGroup.ordinal()] = risk;
+				}
+				if(total > 1) {throw new IllegalStateException("Infection rate to go to state Susceptible to Exposed exceeds 1.");}
+			}
+		}
+		return infectionRisk;
 	}
 
 	/**
-	 * Determines for a given EnumMap with a random probability p one of the elements, given the numerical value of the keys
+	 * Determines for a given row of transition probabilities with a random probability p the next stage (ordinal). 
+	 * Equal to walking over the EnumMap of VIRUS_PROGRESSION in the order of the stages. 
 	 */
-	private <T extends Enum<T>> T determineRandomComponent(double p, EnumMap<T, Double> pMap)
+	private int determineNextStage(double p, double[] probabilities)
 	{
-		T lastT = null;
-		for(T t : pMap.keySet())
+		for(int next = 0; next < probabilities.length; next++)
 		{		
-			double value = pMap.get(t);
+			double value = probabilities[next];
 
 			if(p <= value  && value > 1e-13)
 			{
-				return t; // now it immediately stops the for loop when found
-			}
-			else
-			{
-				p -= value;
-				lastT = t;
+				return next; // now it immediately stops the for loop when found
 			}
+			p -= value;
 		}
-		return lastT; // never happens when prob sums up to exactly 1 otherwise it can happen
+		return probabilities.length - 1; // never happens when prob sums up to exactly 1 otherwise it can happen
 	}
 	/**
 	 * Where is the individual at this given time epoch
 	 * @return
 	 */
-	private City getCurrentCityIndividual(int epoch, Individual idv){
+	private int getCurrentCityIndividual(int epoch, int idv){
 
 		if(epoch % 2 == 0){ //day time
-			return idv.getCommutePlace();
+			return population.getCommutePlace(idv);
 		}
 		else{ // night time
-			return idv.getResidentPlace();
+			return population.getResidentPlace(idv);
 		}
 	}
 	/**
-	 * Find a random free hospital. If none is found, null is returned
+	 * Find a random free hospital. If none is found, -1 is returned
 	 * @param idv
 	 * @param hosList
 	 * @param capacities
 	 * @param shuffleHospitalList
 	 * @return
 	 */
-	private Hospital findEmptyHospital(Individual idv, EnumMap<Hospital, Integer> hosList2, EnumMap<Hospital, Integer> capacities, List<Hospital> shuffleHospitalList)
+	private int findEmptyHospital(int idv, int[] hosList2, int[] capacities, List<Integer> shuffleHospitalList)
 	{
 		Collections.shuffle(shuffleHospitalList, rand);
 
-		for (Hospital hos : shuffleHospitalList) {
-			if (hosList2.get(hos) < capacities.get(hos)) {return hos;}
+		for (int hos : shuffleHospitalList) {
+			if (hosList2[hos] < capacities[hos]) {return hos;}
 		}
-		return null;
+		return -1;
 	}
 
 	/**
@@ -736,142 +2365,183 @@ public class Simulation {
 	 * @param capacities
 	 * @return
 	 */
-	private boolean isOwnHospitalAvailable(Individual idv, EnumMap<Hospital, Integer> hosList2, EnumMap<Hospital, Integer> capacities) {
+	private boolean isOwnHospitalAvailable(int idv, int[] hosList2, int[] capacities) {
 
-		Hospital ownHospital = idv.getHospital(); 
-		if(hosList2.get(ownHospital)< capacities.get(ownHospital)) {
+		int ownHospital = population.getHospital(idv); 
+		if(hosList2[ownHospital]< capacities[ownHospital]) {
 			return true;
 		}
 		return false;
 	}
 
-	/**
-	 * Initialize the infection structures, set everything to 0 (each epoch needed, as we have to recount).
-	 * @param infectedWhoSpreadIa
-	 * @param infectedWhoSpreadIs
-	 * @param encounterGroup
-	 */
-	private void initializeInfectionStructures(EnumMap<City, EnumMap<AgeGroup,Integer>> infectedWhoSpreadIa, EnumMap<City, EnumMap<AgeGroup,Integer>> infectedWhoSpreadIs, EnumMap<City, EnumMap<AgeGroup,Integer>> encounterGroup) {
-
-		for(City city : City.values()){
-			EnumMap<AgeGroup, Integer> tempMapIa = new EnumMap<>(AgeGroup.class);
-			EnumMap<AgeGroup, Integer> tempMapIs = new EnumMap<>(AgeGroup.class);
-			EnumMap<AgeGroup, Integer> tempMapSusp = new EnumMap<>(AgeGroup.class);
-
-			for(AgeGroup ageGroup : AgeGroup.values()) {
-				tempMapIa.put(ageGroup, 0);
-				tempMapIs.put(ageGroup, 0);
-				tempMapSusp.put(ageGroup, 0);
-			}
-			infectedWhoSpreadIa.put(city, tempMapIa);
-			infectedWhoSpreadIs.put(city, tempMapIs);
-			encounterGroup.put(city, tempMapSusp);
-		}
-	}
-
+	private void countNumberInfections(int[][][] infectedWhoSpreadIa, int[][][] infectedWhoSpreadIs, int[][] encounterGroup) {
 
-	private void countNumberInfections(EnumMap<City, EnumMap<AgeGroup,Integer>> infectedWhoSpreadIa, EnumMap<City, EnumMap<AgeGroup,Integer>> infectedWhoSpreadIs, EnumMap<City, EnumMap<AgeGroup,Integer>> encounterGroup) {
+		nrInfectiousAgents = 0;
 
 		// Counting which individual is Ia and Is given their resident corop. And counting number of susceptible individuals
-		for(Individual idv : allIndividuals){
+		for(int idv = 0; idv < population.size(); idv++){
 
-			Stage currentStage = idv.getStage();
-			AgeGroup currentAge = idv.getAgeGroup();
-			City currentCity = idv.getResidentPlace(); // obtain the resident place! IsPORTANT!!!
+			Stage currentStage = STAGES[population.getStage(idv)];
+			int currentAge = population.getAgeGroup(idv);
+			int currentCity = population.getResidentPlace(idv); // obtain the resident place! IsPORTANT!!!
 
 			if(currentStage.equals(Stage.INFECTED_NOSYMPTOMS_ISCONTAGIOUS)){ 
 				// update number who spread
-				infectedWhoSpreadIa.get(currentCity).put(currentAge, infectedWhoSpreadIa.get(currentCity).get(currentAge) + 1);
+				infectedWhoSpreadIa[population.getStrain(idv)][currentCity][currentAge] ++;
 			}
 			if(currentStage.equals(Stage.INFECTED_SYMPTOMS_MILD)) {
-				infectedWhoSpreadIs.get(currentCity).put(currentAge, infectedWhoSpreadIs.get(currentCity).get(currentAge) + 1);
+				infectedWhoSpreadIs[population.getStrain(idv)][currentCity][currentAge] ++;
+			}
+			if(infectiousAgents != null && (currentStage.equals(Stage.INFECTED_NOSYMPTOMS_ISCONTAGIOUS) || currentStage.equals(Stage.INFECTED_SYMPTOMS_MILD))) {
+				if(nrInfectiousAgents == infectiousAgents.length) {
+					infectiousAgents = Arrays.copyOf(infectiousAgents, 2 * nrInfectiousAgents);
+				}
+				infectiousAgents[nrInfectiousAgents++] = idv;
 			}
 			if(!notEncounterStages.contains(currentStage)) { // so basically agents that you could encounter
-				encounterGroup.get(currentCity).put(currentAge, encounterGroup.get(currentCity).get(currentAge) + 1);	
+				encounterGroup[currentCity][currentAge] ++;	
 			}
 		}
+		if(compartments != null) {
+			compartments.countInfections(infectedWhoSpreadIa[0], infectedWhoSpreadIs[0], encounterGroup, notEncounterStages);
+		}
 
 	}
 
 
-	private void determinePaact(EnumMap<City, EnumMap<AgeGroup,Integer>> infectedWhoSpreadIa, EnumMap<City, EnumMap<AgeGroup,Integer>> infectedWhoSpreadIs, EnumMap<City, EnumMap<AgeGroup,Integer>> encounterGroup, int epoch, EnumMap<AgeGroup, EnumMap<AgeGroup, EnumMap<City, Double>>> infectionProbability) {
+	/**
+	 * Determines P_{a,a',c,t} = P(I_{a',c,t}) * P(E_{a,a'}) * P(T) for each strain, with P(T) times the transmissibility of the strain. P(I_{a',c,t}) does not depend on a and is determined once for each a' and corop.
+	 * During the day the infectious and encounterable agents commuting into each corop are sparse matrix-vector products with ALPHA, so the work grows with the number of commute flows.
+	 * The products of all strains and of the encounterable agents are done in one pass over ALPHA.
+	 */
+	private void determinePaact(double[][][] infectedWhoSpreadIa, double[][][] infectedWhoSpreadIs, double[][] encounterGroup, int epoch, double[][][][] infectionProbability) {
+
+		int nrCities = regions.getNumberOfRegions();
+		int nrStrains = infectedWhoSpreadIa.length;
+		double[][][] I_aprime_c = new double[nrStrains][AgeGroup.values().length][nrCities]; // P(I_{a',c,t}) [strain][a'][c]
+		double[][] living = new double[nrStrains + 1][nrCities]; // infectious agents of each strain living in each corop (of age group a'), followed by the agents you could encounter
+		double[][] present = new double[nrStrains + 1][nrCities]; // infectious agents of each strain from other corops present in each corop during the day, followed by T_{a',c,t}
+		double[] encounter = living[nrStrains]; // agents you could encounter living in each corop (of age group a')
+		double[] denominator = present[nrStrains]; // T_{a',c,t}, agents you could encounter present in each corop
 
-		for(AgeGroup a : AgeGroup.values()) {
+		for(AgeGroup a_prime : AgeGroup.values()) {
 
-			EnumMap<AgeGroup, EnumMap<City, Double>> tempMap = new EnumMap<>(AgeGroup.class); // used to store infection prob info
+			int ap = a_prime.ordinal();
+			SparseMatrix alpha = ALPHA[ap];
 
-			for(AgeGroup a_prime : AgeGroup.values()) {
+			for(int city = 0; city < nrCities; city++) {
+				for(int strain = 0; strain < nrStrains; strain++) {
+					living[strain][city] = infectedWhoSpreadIa[strain][city][ap] + infectedWhoSpreadIs[strain][city][ap];
+				}
+				encounter[city] = encounterGroup[city][ap];
+			}
+
+			if(epoch % 2 == 0) { // day time. I make a distinction between the two, as the night time one is much easier to compute
+				for(int strain = 0; strain < nrStrains; strain++) {
+					Arrays.fill(present[strain], 0.0);
+				}
+				for(int city = 0; city < nrCities; city++) {
+					denominator[city] = encounter[city] * alpha.get(city, city); // use alpha to know which part of the corop stays in this corop during the day
+				}
+				alpha.transposeMultiplyOffDiagonal(living, present); // sum over all other corops c' of alpha_{a',c',c} * infected_{c'}, only a fraction of the other corop comes to this corop, and the same for the agents you could encounter
+			}
 
-				double E_a_aprime = CONTACT_RATIO.get(a).get(a_prime); // P(E_{a,a'})
-				EnumMap<City, Double> tempMapInside = new EnumMap<>(City.class); // used to store infection prob info
+			for(int strain = 0; strain < nrStrains; strain++) {
+				double[] infected = living[strain];
+				double[] travel = present[strain];
 
-				for(City city : City.values()) {
+				for(int city = 0; city < nrCities; city++) {
 
 					double numerator = 0.0;
-					double denominator = encounterGroup.get(city).get(a_prime);// + infectedWhoSpreadIM.get(city).get(a_prime); //  Part of the denominator of P(I_{a,c,t}), will contain more terms during day time. T_{a',c,t}
-					
-					double home_first = infectedWhoSpreadIa.get(city).get(a_prime) + infectedWhoSpreadIs.get(city).get(a_prime); // all agents living in this city that are infectious. (part of the) first term of H_{a',c,t}
-		
-					if(epoch % 2 == 0) { // day time. I make a distinction between the two, as the night time one is much easier to compute
-
-						denominator *= ALPHA.get(a_prime).get(city).get(city); // use alpha to know which part of the corop stays in this corop during the day
-						double infectedHome = infectedWhoSpreadIa.get(city).get(a_prime) + infectedWhoSpreadIs.get(city).get(a_prime); // all agents living in this city, but some are now in a different corop...
-						double home_alpha = ALPHA_SHORTCUT_HOME.get(a_prime).get(city); // which part of this corop are in a different corop during the day, use the shortcut to know the total fraction
-						double home_second = - home_alpha * (infectedHome); // this is the part of H_{a',c,t} that has to be subtracted., as some of the agents living in this city are currently working in a different corop
-
-						double travel = 0.0; // used to extend the expression of H_{a'c,t}. This part counts the agents from a different corop travelling during the day to this corop
-						for(City otherCity : City.values()) { // summing over all the other cities (c \neq c'). This is used for the denominator
-
-							if(!otherCity.equals(city)) {
-								double infectedTravel = infectedWhoSpreadIa.get(otherCity).get(a_prime) + infectedWhoSpreadIs.get(otherCity).get(a_prime); // total infected agents of the other corop, but only a fraction comes to this corop...
-								double travel_alpha = ALPHA.get(a_prime).get(otherCity).get(city); // therefore, discount it! Note that we cannot use the shortcut ALPHA
-								travel += travel_alpha * (infectedTravel);
-								
-								denominator += ALPHA.get(a_prime).get(otherCity).get(city) * (encounterGroup.get(otherCity).get(a_prime));// + infectedWhoSpreadIs.get(otherCity).get(a_prIse) );
-							}
-						}
-						numerator = (home_first + home_second + travel); // So, home_first + home_second is the total infectious agents in this corop present during the day and travel is the total infectious agents living in other corops who are present during the day. 
-
+					double denominatorCity = encounter[city]; //  Part of the denominator of P(I_{a,c,t}), will contain more terms during day time. T_{a',c,t}
+					double home_first = infected[city]; // all agents living in this city that are infectious. (part of the) first term of H_{a',c,t}
+
+					if(epoch % 2 == 0) { // day time
+						denominatorCity = denominator[city];
+						double home_alpha = ALPHA_SHORTCUT_HOME[ap][city]; // which part of this corop are in a different corop during the day, use the shortcut to know the total fraction
+						double home_second = - home_alpha * (infected[city]); // this is the part of H_{a',c,t} that has to be subtracted., as some of the agents living in this city are currently working in a different corop
+						numerator = (home_first + home_second + travel[city]); // So, home_first + home_second is the total infectious agents in this corop present during the day and travel is the total infectious agents living in other corops who are present during the day. 
 					}
-					else { // night tIse
+					else { // night time
 						numerator = home_first; // as everybody stays at home you only count the agents that are contagious living in this corop
 					}
 
-					if(denominator == 0) {throw new IllegalStateException("Problem with P[I_{a', c, t}]: divide by zero!");}
-					double I_aprime_c_t = numerator / denominator; // finally, you obtain P(I_{a',c,t})
+					if(denominatorCity == 0) {throw new IllegalStateException("Problem with P[I_{a', c, t}]: divide by zero!");}
+					I_aprime_c[strain][ap][city] = numerator / denominatorCity; // finally, you obtain P(I_{a',c,t})
+				}
+			}
+		}
+
+		for(int strain = 0; strain < nrStrains; strain++) {
+			double transmission = strains == null ? transmissionProbability : transmissionProbability * strains.getTransmissibility(strain); // P(T) of this strain
 
-					double totalProbability = I_aprime_c_t * E_a_aprime * VIRUS_TRANSMISSION_PROBABILITY; 	 // P(I_{a',c,t} * P(E_{a,a'}) * P(T) = P_{a,a',c,t}
+			for(AgeGroup a : AgeGroup.values()) {
+				for(AgeGroup a_prime : AgeGroup.values()) {
 
-					tempMapInside.put(city, totalProbability);
+					double E_a_aprime = contactRatio[a.ordinal()][a_prime.ordinal()]; // P(E_{a,a'})
+					double[] probabilityPerCity = infectionProbability[strain][a.ordinal()][a_prime.ordinal()]; // used to store infection prob info
+
+					for(int city = 0; city < nrCities; city++) {
+						probabilityPerCity[city] = I_aprime_c[strain][a_prime.ordinal()][city] * E_a_aprime * transmission; 	 // P(I_{a',c,t} * P(E_{a,a'}) * P(T) = P_{a,a',c,t}
+					}
 				}
-				tempMap.put(a_prime, tempMapInside);
 			}
-			infectionProbability.put(a, tempMap);
 		}
 	}
 
 
-	private void determinePact(int epoch, EnumMap<AgeGroup, EnumMap<AgeGroup, EnumMap<City, Double>>> infectionProbability, EnumMap<City, EnumMap<AgeGroup,Double>> infectionProbability_endversion) {
-		for(City city : City.values()) {
-			EnumMap<AgeGroup, Double> tempMapInfection = new EnumMap<>(AgeGroup.class); // place to store info
+	/**
+	 * Counts [corop][age group] as doubles for determinePaact, the counts of the agents are exact as doubles
+	 */
+	private static double[][] toDouble(int[][] counts) {
+		double[][] values = new double[counts.length][];
+		for(int i = 0; i < counts.length; i++) {
+			values[i] = new double[counts[i].length];
+			for(int j = 0; j < counts[i].length; j++) {
+				values[i][j] = counts[i][j];
+			}
+		}
+		return values;
+	}
+
+	private static double[][][] toDouble(int[][][] counts) {
+		double[][][] values = new double[counts.length][][];
+		for(int strain = 0; strain < counts.length; strain++) {
+			values[strain] = Simulation.toDouble(counts[strain]);
+		}
+		return values;
+	}
 
+	/**
+	 * Determines P_{a,c,t} of each strain. The infection rate of the output is the probability of an infection by any of the strains, the sum over the strains as the strains compete (see updateStages).
+	 */
+	private void determinePact(int epoch, double[][][][] infectionProbability, double[][][] infectionProbability_endversion) {
+		for(int city = 0; city < regions.getNumberOfRegions(); city++) {
 			for(AgeGroup agegroup : AgeGroup.values()) {
-				double infecProb = 1.0; 				
+				infectionRate[city][agegroup.ordinal()][epoch] = 0.0;
+			}
+		}
 
-				for(AgeGroup aprime : AgeGroup.values()) { // over all age groups
+		for(int strain = 0; strain < infectionProbability.length; strain++) {
+			for(int city = 0; city < regions.getNumberOfRegions(); city++) {
+				double[] tempMapInfection = infectionProbability_endversion[strain][city]; // place to store info
 
-					double termA = (1 - infectionProbability.get(agegroup).get(aprime).get(city));
-					double termB = 0.5 * NUMBER_DAILY_CONTACTS_PERAGEGROUP.get(agegroup).get(aprime); // multiply by 0.5 as it is assumed you meet halve of your contacts during the night and day
-					infecProb *= Math.pow(termA, termB);
-				}
+				for(AgeGroup agegroup : AgeGroup.values()) {
+					double infecProb = 1.0; 				
 
-				infecProb = 1 - infecProb; // as p_{a,c,t} =  1- \prod_{a' \in A} \left(1-p_{a,a',c,t}\right)^{[\#\textup{DailyContacts}]_{a,a'}}, so you start with 1 and subtract the rest
+					for(AgeGroup aprime : AgeGroup.values()) { // over all age groups
 
-				tempMapInfection.put(agegroup, infecProb);
-				infectionRate.get(city).get(agegroup)[epoch] = infecProb;
-			}
-			infectionProbability_endversion.put(city, tempMapInfection); // P_{a,c,t}s
+						double termA = (1 - infectionProbability[strain][agegroup.ordinal()][aprime.ordinal()][city]);
+						double termB = 0.5 * dailyContactsPerAgeGroup[agegroup.ordinal()][aprime.ordinal()]; // multiply by 0.5 as it is assumed you meet halve of your contacts during the night and day
+						infecProb *= Math.pow(termA, termB);
+					}
+
+					infecProb = 1 - infecProb; // as p_{a,c,t} =  1- \prod_{a' \in A} \left(1-p_{a,a',c,t}\right)^{[\#\textup{DailyContacts}]_{a,a'}}, so you start with 1 and subtract the rest
 
+					tempMapInfection[agegroup.ordinal()] = infecProb;
+					infectionRate[city][agegroup.ordinal()][epoch] += infecProb;
+				}
+			}
 		}
 	}
 }
@@ -0,0 +1,222 @@
+package nCoV;
+
+import java.util.Arrays;
+
+/**
+ * Matrix in compressed sparse row (CSR) format, used for the commute flows and ALPHA between regions as most regions only exchange commuters with a few others.
+ * The stored values of a row are at positions getRowStart(row) until getRowEnd(row), with increasing column index. Memory grows with the number of stored values instead of rows x columns.
+ * The positions (structure) are fixed, the values can be changed. Copies share the structure.
+ */
+public class SparseMatrix {
+
+	private int numberOfRows;
+	private int numberOfColumns;
+	private int[] rowStart;
+	// Position of the first stored value of each row in columns/values, rowStart[numberOfRows] is the number of stored values
+	private int[] columns;
+	private double[] values;
+
+	private SparseMatrix(int numberOfRows, int numberOfColumns, int[] rowStart, int[] columns, double[] values) {
+		this.numberOfRows = numberOfRows;
+		this.numberOfColumns = numberOfColumns;
+		this.rowStart = rowStart;
+		this.columns = columns;
+		this.values = values;
+	}
+
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	public int getNumberOfNonZeros() {
+		return rowStart[numberOfRows];
+	}
+
+	public int getRowStart(int row) {
+		return rowStart[row];
+	}
+
+	public int getRowEnd(int row) {
+		return rowStart[row + 1];
+	}
+
+	/**
+	 * Column of the k-th stored value
+	 */
+	public int getColumn(int k) {
+		return columns[k];
+	}
+
+	/**
+	 * Value of the k-th stored value
+	 */
+	public double getValue(int k) {
+		return values[k];
+	}
+
+	public void setValue(int k, double value) {
+		values[k] = value;
+	}
+
+	/**
+	 * Position of (row, column) in the stored values, -1 when it is not stored
+	 */
+	public int find(int row, int column) {
+		int k = Arrays.binarySearch(columns, rowStart[row], rowStart[row + 1], column);
+		return k >= 0 ? k : -1;
+	}
+
+	/**
+	 * Value at (row, column), 0 when it is not stored
+	 */
+	public double get(int row, int column) {
+		int k = this.find(row, column);
+		return k >= 0 ? values[k] : 0.0;
+	}
+
+	/**
+	 * Copy with the same structure (shared) and its own values
+	 */
+	public SparseMatrix copy() {
+		return new SparseMatrix(numberOfRows, numberOfColumns, rowStart, columns, values.clone());
+	}
+
+	/**
+	 * Sum of the values in the row, summed in the order of the columns
+	 */
+	public double rowSum(int row) {
+		double sum = 0.0;
+		for(int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+			sum += values[k];
+		}
+		return sum;
+	}
+
+	/**
+	 * Adds the transpose of this matrix without its diagonal times x to y: y[column] += value(row, column) * x[row] for all stored row != column.
+	 * For each column the products are added in increasing order of the rows, so the result equals the dense sum over the rows.
+	 */
+	public void transposeMultiplyOffDiagonal(double[] x, double[] y) {
+		for(int row = 0; row < numberOfRows; row++) {
+			double xRow = x[row];
+			for(int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+				int column = columns[k];
+				if(column != row) {
+					y[column] += values[k] * xRow;
+				}
+			}
+		}
+	}
+
+	/**
+	 * transposeMultiplyOffDiagonal for several vectors in one pass over the matrix: y[v][column] += value(row, column) * x[v][row] for each vector v.
+	 * Each y[v] gets the same sums in the same order as a separate call, so the result is identical; the stored values are only read once for all vectors.
+	 */
+	public void transposeMultiplyOffDiagonal(double[][] x, double[][] y) {
+		int nrVectors = x.length;
+		for(int row = 0; row < numberOfRows; row++) {
+			for(int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+				int column = columns[k];
+				if(column != row) {
+					double value = values[k];
+					for(int v = 0; v < nrVectors; v++) {
+						y[v][column] += value * x[v][row];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects the values of a matrix in any order, values at the same position are summed. 
+	 * Only the added positions are stored, also when the value is 0 (e.g. to reserve a position which is filled later).
+	 */
+	public static class Builder {
+
+		private int numberOfRows;
+		private int numberOfColumns;
+		private int size;
+		private int[] rows;
+		private int[] columns;
+		private double[] values;
+
+		public Builder(int numberOfRows, int numberOfColumns) {
+			this.numberOfRows = numberOfRows;
+			this.numberOfColumns = numberOfColumns;
+			this.size = 0;
+			this.rows = new int[16];
+			this.columns = new int[16];
+			this.values = new double[16];
+		}
+
+		public void add(int row, int column, double value) {
+			if(row < 0 || row >= numberOfRows || column < 0 || column >= numberOfColumns) throw new IllegalArgumentException("Position (" + row + "," + column + ") is outside the matrix.");
+			if(size == rows.length) {
+				rows = Arrays.copyOf(rows, 2 * size);
+				columns = Arrays.copyOf(columns, 2 * size);
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			rows[size] = row;
+			columns[size] = column;
+			values[size] = value;
+			size++;
+		}
+
+		public SparseMatrix build() {
+
+			// count the values per row and sort them into the rows, keeping the order in which they were added
+			int[] rowStart = new int[numberOfRows + 1];
+			for(int i = 0; i < size; i++) {
+				rowStart[rows[i] + 1]++;
+			}
+			for(int row = 0; row < numberOfRows; row++) {
+				rowStart[row + 1] += rowStart[row];
+			}
+			int[] next = Arrays.copyOf(rowStart, numberOfRows);
+			int[] sortedColumns = new int[size];
+			double[] sortedValues = new double[size];
+			for(int i = 0; i < size; i++) {
+				int k = next[rows[i]]++;
+				sortedColumns[k] = columns[i];
+				sortedValues[k] = values[i];
+			}
+
+			// sort each row on the column (rows are short and mostly already sorted) and sum duplicates
+			int[] compactStart = new int[numberOfRows + 1];
+			int nonZeros = 0;
+			for(int row = 0; row < numberOfRows; row++) {
+				for(int k = rowStart[row] + 1; k < rowStart[row + 1]; k++) {
+					int column = sortedColumns[k];
+					double value = sortedValues[k];
+					int j = k - 1;
+					while(j >= rowStart[row] && sortedColumns[j] > column) {
+						sortedColumns[j + 1] = sortedColumns[j];
+						sortedValues[j + 1] = sortedValues[j];
+						j--;
+					}
+					sortedColumns[j + 1] = column;
+					sortedValues[j + 1] = value;
+				}
+
+				compactStart[row] = nonZeros;
+				for(int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+					if(nonZeros > compactStart[row] && sortedColumns[nonZeros - 1] == sortedColumns[k]) {
+						sortedValues[nonZeros - 1] += sortedValues[k];
+					}
+					else {
+						sortedColumns[nonZeros] = sortedColumns[k];
+						sortedValues[nonZeros] = sortedValues[k];
+						nonZeros++;
+					}
+				}
+			}
+			compactStart[numberOfRows] = nonZeros;
+
+			return new SparseMatrix(numberOfRows, numberOfColumns, compactStart, Arrays.copyOf(sortedColumns, nonZeros), Arrays.copyOf(sortedValues, nonZeros));
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package nCoV;
+
+import java.util.Arrays;
+
+/**
+ * Counters of the stage transitions of a part of the agents during one epoch. Each worker updating a part of the population has its own counters,
+ * such that no counters are shared during the update. At the end of the epoch the counters of all workers are added to the output of the simulation (see addTo).
+ */
+public class StageCounters {
+
+	private int[][][] switchers;
+	// Number of agents [age group][stage][next stage] who went from one stage to the next
+	private int[][][] timeInStage;
+	// Number of agents [age group][stage][epochs] who left the stage after that many epochs
+
+	public StageCounters(int nrAgeGroups, int nrStages, int maxTimeInStage) {
+		this.switchers = new int[nrAgeGroups][nrStages][nrStages];
+		this.timeInStage = new int[nrAgeGroups][nrStages][maxTimeInStage + 1];
+	}
+
+	public void countSwitch(int age, int stage, int nextStage) {
+		switchers[age][stage][nextStage]++;
+	}
+
+	/**
+	 * Counts number agents at once, used for the counted agents of the hybrid engine (see Compartments)
+	 */
+	public void countSwitch(int age, int stage, int nextStage, int number) {
+		switchers[age][stage][nextStage] += number;
+	}
+
+	public void countTimeInStage(int age, int stage, int time) {
+		timeInStage[age][stage][time]++;
+	}
+
+	public void countTimeInStage(int age, int stage, int time, int number) {
+		timeInStage[age][stage][time] += number;
+	}
+
+	/**
+	 * Adds the counters to the given totals (indexed as the counters) and sets the counters back to 0
+	 */
+	public void addTo(int[][][] switchersTotal, int[][][] timeInStageTotal) {
+		StageCounters.addAndClear(switchers, switchersTotal);
+		StageCounters.addAndClear(timeInStage, timeInStageTotal);
+	}
+
+	private static void addAndClear(int[][][] counts, int[][][] total) {
+		for(int i = 0; i < counts.length; i++) {
+			for(int j = 0; j < counts[i].length; j++) {
+				int[] countsIJ = counts[i][j];
+				int[] totalIJ = total[i][j];
+				for(int k = 0; k < countsIJ.length; k++) {
+					totalIJ[k] += countsIJ[k];
+				}
+				Arrays.fill(countsIJ, 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package nCoV;
+
+import nCoV.Main.Stage;
+
+/**
+ * Error of time steps of several epochs (see Simulation.setTimeStep), estimated over the runs. Each run with time steps is simulated again with one epoch per step and the same seed,
+ * and the national number of agents in each stage of both runs is added. A single pair of runs cannot separate the error of the steps from the random variation between two runs,
+ * so the difference of the expected numbers is estimated by the mean difference over the runs, with a confidence interval of Student's t distribution over the pairs.
+ */
+public class StepError {
+
+	private static final double CONFIDENCE = 0.95;
+	// Confidence level of the intervals of the mean difference
+
+	private int epochsPerStep;
+	private StreamingStatistics halfDay;
+	private StreamingStatistics coarse;
+	private StreamingStatistics difference;
+	// National number of agents of the runs with one epoch per step, of the runs with time steps and their difference, cell epoch * number of stages + stage
+
+	public StepError(int epochsPerStep, int totalEpochsHorizon) {
+		this.epochsPerStep = epochsPerStep;
+		this.halfDay = new StreamingStatistics(totalEpochsHorizon * Stage.values().length, new double[0]);
+		this.coarse = new StreamingStatistics(totalEpochsHorizon * Stage.values().length, new double[0]);
+		this.difference = new StreamingStatistics(totalEpochsHorizon * Stage.values().length, new double[0]);
+	}
+
+	/**
+	 * Adds a pair of runs with the same seed, both over the whole horizon
+	 * @param halfDayCounts stage counts [epoch][stage][age group][corop] of the run with one epoch per step
+	 * @param coarseCounts stage counts [epoch][stage][age group][corop] of the run with time steps
+	 */
+	public void addPair(int[][][][] halfDayCounts, int[][][][] coarseCounts) {
+		int nrStages = Stage.values().length;
+		for(int epoch = 0; epoch < this.getNumberOfEpochs(); epoch++) {
+			for(int stage = 0; stage < nrStages; stage++) {
+				int baseline = StepError.total(halfDayCounts[epoch][stage]);
+				int step = StepError.total(coarseCounts[epoch][stage]);
+				halfDay.add(epoch * nrStages + stage, baseline);
+				coarse.add(epoch * nrStages + stage, step);
+				difference.add(epoch * nrStages + stage, step - baseline);
+			}
+		}
+	}
+
+	private static int total(int[][] counts) {
+		int total = 0;
+		for(int[] row : counts) {
+			for(int n : row) {
+				total += n;
+			}
+		}
+		return total;
+	}
+
+	public int getNumberOfPairs() {
+		return difference.getCount(0);
+	}
+
+	public int getNumberOfEpochs() {
+		return difference.getNumberOfCells() / Stage.values().length;
+	}
+
+	public int getEpochsPerStep() {
+		return epochsPerStep;
+	}
+
+	public double getConfidence() {
+		return CONFIDENCE;
+	}
+
+	public double getMeanHalfDay(int epoch, int stage) {
+		return halfDay.getMean(epoch * Stage.values().length + stage);
+	}
+
+	public double getMeanCoarse(int epoch, int stage) {
+		return coarse.getMean(epoch * Stage.values().length + stage);
+	}
+
+	/**
+	 * Mean difference of the runs with time steps and the runs with one epoch per step
+	 */
+	public double getMeanDifference(int epoch, int stage) {
+		return difference.getMean(epoch * Stage.values().length + stage);
+	}
+
+	/**
+	 * Half-width of the confidence interval of the mean difference, infinite with less than two pairs
+	 */
+	public double getHalfWidth(int epoch, int stage) {
+		int cell = epoch * Stage.values().length + stage;
+		int n = difference.getCount(cell);
+		if(n < 2) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return AdaptiveReplicas.studentQuantile((1 + CONFIDENCE) / 2, n - 1) * Math.sqrt(difference.getVariance(cell) / n);
+	}
+}
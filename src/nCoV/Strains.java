@@ -0,0 +1,80 @@
+package nCoV;
+
+import java.util.EnumMap;
+import java.util.List;
+
+import nCoV.Main.AgeGroup;
+import nCoV.Main.Stage;
+
+/**
+ * Strains of the virus that circulate at the same time (e.g. the replacement of the wild type by a variant). Strain 0 is the strain of the start situation.
+ * Each strain has its own transmissibility (a factor on P(T), such that interventions on P(T) hold for all strains), its own transition matrix and is introduced
+ * into the population at an epoch. An agent cured from strain s is protected against strain s' with probability immunity[s'][s].
+ */
+public class Strains {
+
+	private String[] names;
+	private double[] transmissibility;
+	// Factor on P(T) of each strain, 1 for the wild type
+	private String[] transitionMatrices;
+	// Name of the transition matrix of each strain in input/TransitionMatrices, empty for the matrix of the scenario
+	private List<EnumMap<AgeGroup, EnumMap<Stage, EnumMap<Stage, Double>>>> progression;
+	// Transition probabilities of each strain, set when the scenario is read (see ScenarioInput)
+	private int[] introductionEpoch;
+	private int[] introductions;
+	// Number of agents infected (exposed) with the strain at the beginning of its introduction epoch
+	private double[][] immunity;
+	// Protection [infecting strain][strain the agent is cured from] of a cured agent
+
+	public static final int MAX_STRAINS = 16;
+	// The strain of an agent is stored in at most 4 bits (see Population)
+
+	public Strains(String[] names, double[] transmissibility, String[] transitionMatrices, int[] introductionEpoch, int[] introductions, double[][] immunity) {
+		if(names.length > MAX_STRAINS) throw new IllegalArgumentException("At most " + MAX_STRAINS + " strains can be simulated, " + names.length + " are given.");
+		this.names = names;
+		this.transmissibility = transmissibility;
+		this.transitionMatrices = transitionMatrices;
+		this.introductionEpoch = introductionEpoch;
+		this.introductions = introductions;
+		this.immunity = immunity;
+	}
+
+	public int getNumberOfStrains() {
+		return names.length;
+	}
+
+	public String getName(int strain) {
+		return names[strain];
+	}
+
+	public double getTransmissibility(int strain) {
+		return transmissibility[strain];
+	}
+
+	public String getTransitionMatrix(int strain) {
+		return transitionMatrices[strain];
+	}
+
+	public EnumMap<AgeGroup, EnumMap<Stage, EnumMap<Stage, Double>>> getProgression(int strain) {
+		return progression.get(strain);
+	}
+
+	public void setProgression(List<EnumMap<AgeGroup, EnumMap<Stage, EnumMap<Stage, Double>>>> progression) {
+		this.progression = progression;
+	}
+
+	public int getIntroductionEpoch(int strain) {
+		return introductionEpoch[strain];
+	}
+
+	public int getIntroductions(int strain) {
+		return introductions[strain];
+	}
+
+	/**
+	 * Probability that an agent cured from strain cured is protected against strain infecting
+	 */
+	public double getImmunity(int infecting, int cured) {
+		return immunity[infecting][cured];
+	}
+}
@@ -0,0 +1,177 @@
+package nCoV;
+
+import java.util.Arrays;
+
+/**
+ * Streaming statistics for a fixed number of cells (e.g. all combinations of epoch, stage, corop and age group).
+ * For each cell the mean and variance are updated with Welford's method and the quantiles are estimated with the P^2 algorithm (Jain and Chlamtac, 1985),
+ * which keeps five markers per quantile. Memory therefore does not grow with the number of observations.
+ * All data is stored in flat arrays, such that a large number of cells does not create a large number of objects.
+ */
+public class StreamingStatistics {
+
+	private static final int MARKERS = 5;
+	// Number of markers of the P^2 algorithm
+
+	private int numberOfCells;
+	private double[] probabilities;
+	// Quantiles to estimate, e.g. {0.05, 0.5, 0.95}
+	private double[][] increments;
+	// Increments of the desired marker positions for each quantile
+
+	private int[] count;
+	// Number of observations of each cell
+	private double[] mean;
+	private double[] m2;
+	// Sum of squared differences from the mean (Welford)
+	private double[] heights;
+	// Marker heights, indexed by (cell * number of quantiles + quantile) * MARKERS + marker. Before MARKERS observations are seen, these are the observations themselves
+	private int[] positions;
+	// Marker positions (1-based), same indexing as heights
+
+	public StreamingStatistics(int numberOfCells, double[] probabilities) {
+		this.numberOfCells = numberOfCells;
+		this.probabilities = probabilities.clone();
+		this.increments = new double[probabilities.length][];
+		for(int q = 0; q < probabilities.length; q++) {
+			double p = probabilities[q];
+			if(p <= 0 || p >= 1) throw new IllegalArgumentException("Quantile " + p + " should be between 0 and 1.");
+			increments[q] = new double[] {0, p / 2, p, (1 + p) / 2, 1};
+		}
+
+		this.count = new int[numberOfCells];
+		this.mean = new double[numberOfCells];
+		this.m2 = new double[numberOfCells];
+		this.heights = new double[numberOfCells * probabilities.length * MARKERS];
+		this.positions = new int[numberOfCells * probabilities.length * MARKERS];
+	}
+
+	/**
+	 * Adds an observation x to the given cell
+	 */
+	public void add(int cell, double x) {
+		int n = ++count[cell];
+
+		// Welford
+		double delta = x - mean[cell];
+		mean[cell] += delta / n;
+		m2[cell] += delta * (x - mean[cell]);
+
+		for(int q = 0; q < probabilities.length; q++) {
+			int offset = (cell * probabilities.length + q) * MARKERS;
+
+			if(n <= MARKERS) { // the first observations are stored, and sorted when all markers are filled
+				heights[offset + n - 1] = x;
+				if(n == MARKERS) {
+					Arrays.sort(heights, offset, offset + MARKERS);
+					for(int i = 0; i < MARKERS; i++) {
+						positions[offset + i] = i + 1;
+					}
+				}
+			}
+			else {
+				this.updateMarkers(offset, x, n, increments[q]);
+			}
+		}
+	}
+
+	/**
+	 * One step of the P^2 algorithm for the markers starting at offset, after the n-th observation x
+	 */
+	private void updateMarkers(int offset, double x, int n, double[] increment) {
+
+		// find the cell k of the observation and update the extreme markers
+		int k;
+		if(x < heights[offset]) {
+			heights[offset] = x;
+			k = 0;
+		}
+		else if(x >= heights[offset + MARKERS - 1]) {
+			heights[offset + MARKERS - 1] = x;
+			k = MARKERS - 2;
+		}
+		else {
+			k = 0;
+			while(x >= heights[offset + k + 1]) {
+				k++;
+			}
+		}
+
+		for(int i = k + 1; i < MARKERS; i++) {
+			positions[offset + i]++;
+		}
+
+		// adjust the middle markers when they are too far from their desired position
+		for(int i = 1; i < MARKERS - 1; i++) {
+			double desired = 1 + (n - 1) * increment[i];
+			double d = desired - positions[offset + i];
+			int nPrev = positions[offset + i - 1];
+			int nCur = positions[offset + i];
+			int nNext = positions[offset + i + 1];
+
+			if((d >= 1 && nNext - nCur > 1) || (d <= -1 && nPrev - nCur < -1)) {
+				int sign = d > 0 ? 1 : -1;
+				double qPrev = heights[offset + i - 1];
+				double qCur = heights[offset + i];
+				double qNext = heights[offset + i + 1];
+
+				double parabolic = qCur + (double) sign / (nNext - nPrev) * ((nCur - nPrev + sign) * (qNext - qCur) / (nNext - nCur) + (nNext - nCur - sign) * (qCur - qPrev) / (nCur - nPrev));
+				if(qPrev < parabolic && parabolic < qNext) {
+					heights[offset + i] = parabolic;
+				}
+				else { // linear prediction
+					double qNeighbour = heights[offset + i + sign];
+					int nNeighbour = positions[offset + i + sign];
+					heights[offset + i] = qCur + sign * (qNeighbour - qCur) / (nNeighbour - nCur);
+				}
+				positions[offset + i] = nCur + sign;
+			}
+		}
+	}
+
+	public int getNumberOfCells() {
+		return numberOfCells;
+	}
+
+	public double[] getProbabilities() {
+		return probabilities.clone();
+	}
+
+	public int getNumberOfQuantiles() {
+		return probabilities.length;
+	}
+
+	public int getCount(int cell) {
+		return count[cell];
+	}
+
+	public double getMean(int cell) {
+		return mean[cell];
+	}
+
+	/**
+	 * Sample variance of the cell, 0 when it has less than two observations
+	 */
+	public double getVariance(int cell) {
+		return count[cell] > 1 ? m2[cell] / (count[cell] - 1) : 0.0;
+	}
+
+	/**
+	 * Estimate of the q-th quantile (index in the given probabilities) of the cell. With less than five observations the exact sample quantile is returned.
+	 */
+	public double getQuantile(int cell, int q) {
+		int n = count[cell];
+		int offset = (cell * probabilities.length + q) * MARKERS;
+
+		if(n == 0) {
+			return Double.NaN;
+		}
+		if(n < MARKERS) {
+			double[] observations = Arrays.copyOfRange(heights, offset, offset + n);
+			Arrays.sort(observations);
+			int index = (int) Math.ceil(probabilities[q] * n) - 1;
+			return observations[Math.max(0, index)];
+		}
+		return heights[offset + 2];
+	}
+}
@@ -0,0 +1,139 @@
+package nCoV;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel of agents who have an event at a later epoch, such as the end of their immunity.
+ * Level 0 has a slot for each of the next 64 epochs, level 1 a slot for each of the next 64 periods of 64 epochs and level 2 for periods of 4096 epochs, later events wait in an overflow slot.
+ * When the wheel enters a new period, the agents of its slot on the level above are divided over the slots of the level below.
+ * Scheduling an agent and taking out the agents of an epoch cost O(1) per agent, plus at most one move per level, so the work per epoch is proportional to the number of events and not to the number of agents waiting.
+ */
+public class TimingWheel {
+
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int LEVELS = 3;
+	private static final int OVERFLOW = LEVELS * SLOTS;
+	// Slot s of level l is bucket l * SLOTS + s, the last bucket holds the events beyond the last level
+
+	private int[][] agents;
+	private int[][] epochs;
+	private int[] size;
+	// Agents in each bucket and the epoch of their event, agents[b][0] until agents[b][size[b]]
+	private int now;
+	// Epoch of the last call of expire (-1 before the first call), events are scheduled relative to this epoch
+
+	public TimingWheel() {
+		this.agents = new int[OVERFLOW + 1][0];
+		this.epochs = new int[OVERFLOW + 1][0];
+		this.size = new int[OVERFLOW + 1];
+		this.now = -1;
+	}
+
+	private TimingWheel(TimingWheel other) {
+		this.agents = new int[other.agents.length][];
+		this.epochs = new int[other.epochs.length][];
+		for(int b = 0; b < agents.length; b++) {
+			agents[b] = Arrays.copyOf(other.agents[b], other.size[b]);
+			epochs[b] = Arrays.copyOf(other.epochs[b], other.size[b]);
+		}
+		this.size = other.size.clone();
+		this.now = other.now;
+	}
+
+	/**
+	 * Copy with the same events, used when a simulation is forked
+	 */
+	public TimingWheel copy() {
+		return new TimingWheel(this);
+	}
+
+	/**
+	 * Removes all events and sets the wheel back to before epoch 0
+	 */
+	public void reset() {
+		Arrays.fill(size, 0);
+		now = -1;
+	}
+
+	/**
+	 * Schedules an event of the agent at the given epoch, which should be after the epoch of the last call of expire
+	 */
+	public void schedule(int agent, int epoch) {
+		if(epoch <= now) throw new IllegalArgumentException("Event at epoch " + epoch + " is not after epoch " + now + ".");
+		this.insert(agent, epoch);
+	}
+
+	/**
+	 * Puts the event in the bucket of the lowest level whose current period contains its epoch
+	 */
+	private void insert(int agent, int epoch) {
+		int bucket = OVERFLOW;
+		for(int level = 0; level < LEVELS; level++) {
+			int shift = BITS * (level + 1);
+			if((epoch >> shift) == (now >> shift)) { // within the current period of this level
+				bucket = level * SLOTS + ((epoch >> (BITS * level)) & (SLOTS - 1));
+				break;
+			}
+		}
+		if(size[bucket] == agents[bucket].length) {
+			int capacity = Math.max(16, 2 * size[bucket]);
+			agents[bucket] = Arrays.copyOf(agents[bucket], capacity);
+			epochs[bucket] = Arrays.copyOf(epochs[bucket], capacity);
+		}
+		agents[bucket][size[bucket]] = agent;
+		epochs[bucket][size[bucket]] = epoch;
+		size[bucket] ++;
+	}
+
+	/**
+	 * Takes out the agents with an event at this epoch. Should be called for every epoch in increasing order, starting at 0.
+	 * @return the agents, in the order in which they were scheduled within their slot
+	 */
+	public int[] expire(int epoch) {
+		if(epoch <= now) throw new IllegalArgumentException("Epoch " + epoch + " is not after epoch " + now + ".");
+		now = epoch;
+		if((epoch & ((1 << (BITS * LEVELS)) - 1)) == 0) { // the events of a new period move down, starting at the highest level
+			this.cascade(OVERFLOW);
+		}
+		for(int level = LEVELS - 1; level > 0; level--) {
+			if((epoch & ((1 << (BITS * level)) - 1)) == 0) {
+				this.cascade(level * SLOTS + ((epoch >> (BITS * level)) & (SLOTS - 1)));
+			}
+		}
+
+		int bucket = epoch & (SLOTS - 1);
+		int[] expired = Arrays.copyOf(agents[bucket], size[bucket]);
+		size[bucket] = 0;
+		return expired;
+	}
+
+	/**
+	 * Schedules the events of a bucket again, which puts them on a lower level now that their period has started
+	 */
+	private void cascade(int bucket) {
+		int n = size[bucket];
+		if(n == 0) {
+			return;
+		}
+		int[] bucketAgents = agents[bucket];
+		int[] bucketEpochs = epochs[bucket];
+		agents[bucket] = new int[0];
+		epochs[bucket] = new int[0];
+		size[bucket] = 0;
+		for(int k = 0; k < n; k++) {
+			this.insert(bucketAgents[k], bucketEpochs[k]); // events of the current epoch itself end up in the slot taken out next
+		}
+	}
+
+	/**
+	 * Number of events that are scheduled
+	 */
+	public long getNumberOfEvents() {
+		long total = 0;
+		for(int n : size) {
+			total += n;
+		}
+		return total;
+	}
+}
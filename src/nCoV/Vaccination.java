@@ -0,0 +1,150 @@
+package nCoV;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import nCoV.Main.Stage;
+
+/**
+ * Pools of the agents who can still be vaccinated, one pool for each corop and age group (block of agents, see Simulation.groupStart).
+ * A dose takes a random agent from the pool and removes it by swapping it with the last agent of the pool, both in O(1).
+ * Agents who are no longer healthy (infected or cured) are only removed when they are drawn, so an epoch costs O(doses + removed agents) instead of going over all agents.
+ * Agents who were removed because they were not healthy are not vaccinated later, even when they become healthy again through waning immunity.
+ */
+public class Vaccination {
+
+	private int[] pool;
+	// Agents of block b who can still be vaccinated are pool[blockStart[b]] until pool[blockStart[b] + poolSize[b]]
+	private int[] poolSize;
+	private int[] blockStart;
+	// First agent of each block, the pool of a block starts at the same index
+	private long[] vaccinated;
+	// Bit set of the agents vaccinated in the current epoch
+	private int[] vaccinatedAgents;
+	private int nrVaccinated;
+	// The agents vaccinated in the current epoch, used to clear the bit set
+
+	public Vaccination(int[] blockStart) {
+		this.blockStart = blockStart;
+		this.pool = new int[blockStart[blockStart.length - 1]];
+		this.poolSize = new int[blockStart.length - 1];
+		this.vaccinated = new long[(pool.length + 63) / 64];
+		this.vaccinatedAgents = new int[1024];
+		this.reset();
+	}
+
+	private Vaccination(Vaccination other) {
+		this.blockStart = other.blockStart;
+		this.pool = other.pool.clone();
+		this.poolSize = other.poolSize.clone();
+		this.vaccinated = new long[other.vaccinated.length]; // forks are made between epochs, when no agent is marked
+		this.vaccinatedAgents = new int[other.vaccinatedAgents.length];
+	}
+
+	/**
+	 * Copy with the same pools, used when a simulation is forked
+	 */
+	public Vaccination copy() {
+		return new Vaccination(this);
+	}
+
+	/**
+	 * Puts all agents back in their pool
+	 */
+	public void reset() {
+		for(int i = 0; i < pool.length; i++) {
+			pool[i] = i;
+		}
+		for(int block = 0; block < poolSize.length; block++) {
+			poolSize[block] = blockStart[block + 1] - blockStart[block];
+		}
+		this.clear();
+	}
+
+	/**
+	 * Divides the doses over the blocks of the same priority in proportion to their pools, until all doses are given or all pools are empty.
+	 * The vaccinated agents are marked until clear() is called.
+	 * @param blocks blocks of the same priority
+	 * @return the number of doses given
+	 */
+	public int vaccinate(int[] blocks, int doses, Population population, Random random) {
+		if(nrVaccinated + doses > vaccinatedAgents.length) {
+			vaccinatedAgents = Arrays.copyOf(vaccinatedAgents, Math.max(nrVaccinated + doses, 2 * vaccinatedAgents.length));
+		}
+
+		int total = 0;
+		while(total < doses) {
+			long eligible = 0;
+			for(int block : blocks) {
+				eligible += poolSize[block];
+			}
+			if(eligible == 0) {
+				break;
+			}
+
+			int left = doses - total;
+			int given = 0;
+			for(int block : blocks) {
+				int share = (int) ((long) left * poolSize[block] / eligible);
+				given += this.vaccinate(block, share, population, random);
+			}
+			if(given == 0) { // fewer doses than blocks, one dose at a time in the order of the blocks
+				for(int block : blocks) {
+					if(given < left) {
+						given += this.vaccinate(block, 1, population, random);
+					}
+				}
+			}
+			total += given;
+		}
+		return total;
+	}
+
+	/**
+	 * Gives at most the number of doses to random healthy agents of the block, who are removed from the pool
+	 * @return the number of doses given, less than doses only when the pool is empty
+	 */
+	private int vaccinate(int block, int doses, Population population, Random random) {
+		int healthy = Stage.HEALTHY.ordinal();
+		int start = blockStart[block];
+		int given = 0;
+		while(given < doses && poolSize[block] > 0) {
+			int k = start + random.nextInt(poolSize[block]);
+			int last = start + poolSize[block] - 1;
+			int agent = pool[k];
+			pool[k] = pool[last];
+			pool[last] = agent;
+			poolSize[block] --;
+			if(population.getStage(agent) == healthy) {
+				vaccinated[agent >>> 6] |= 1L << agent;
+				vaccinatedAgents[nrVaccinated++] = agent;
+				given ++;
+			}
+		}
+		return given;
+	}
+
+	/**
+	 * True when agent i is vaccinated in the current epoch
+	 */
+	public boolean isVaccinated(int i) {
+		return (vaccinated[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Number of agents vaccinated in the current epoch
+	 */
+	public int getNumberVaccinated() {
+		return nrVaccinated;
+	}
+
+	/**
+	 * Removes the marks of the agents vaccinated in the current epoch, in O(vaccinated agents)
+	 */
+	public void clear() {
+		for(int k = 0; k < nrVaccinated; k++) {
+			vaccinated[vaccinatedAgents[k] >>> 6] = 0;
+		}
+		nrVaccinated = 0;
+	}
+}
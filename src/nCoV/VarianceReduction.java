@@ -0,0 +1,123 @@
+package nCoV;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Variance reduction of common random numbers and antithetic runs, estimated from the runs themselves for the metrics of AdaptiveReplicas.
+ * The runs of a scenario and P(T) are taken in units of the same seed: pairs with antithetic runs, otherwise single runs, so the units are independent.
+ * With k runs per unit, the variance of the mean over the runs is k * Var(unit mean) / runs instead of Var(run) / runs for independent runs,
+ * and the variance of the mean difference with another scenario or P(T) is k * Var(unit difference) / runs instead of (Var(run) + Var(other run)) / runs.
+ * The factors compare these variances, e.g. a factor of 4 means that independent runs need four times as many runs for the same precision.
+ */
+public class VarianceReduction {
+
+	private String name;
+	// Name of the scenario and P(T), as in the name of the ensemble summary
+	private int runsPerUnit;
+	// Number of runs with the same seed, 2 with antithetic runs
+	private List<double[]> runs;
+	// Values of the metrics (see AdaptiveReplicas.METRICS) of each run, in the order of the seeds
+
+	public VarianceReduction(String name, boolean antitheticRuns) {
+		this.name = name;
+		this.runsPerUnit = antitheticRuns ? 2 : 1;
+		this.runs = new ArrayList<>();
+	}
+
+	/**
+	 * Adds the metrics of the next run
+	 * @param stageCounts number of agents [epoch][stage][age group][corop] at the beginning of each epoch
+	 * @param patientCounts number of patients [epoch][hospital][age group] at the beginning of each epoch
+	 * @param queueCounts number of patients in the queue [epoch] at the beginning of each epoch
+	 */
+	public void addRun(int[][][][] stageCounts, int[][][] patientCounts, int[] queueCounts) {
+		runs.add(AdaptiveReplicas.metricValues(stageCounts, patientCounts));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getNumberOfRuns() {
+		return runs.size();
+	}
+
+	/**
+	 * Number of complete units (runs with the same seed)
+	 */
+	public int getNumberOfUnits() {
+		return runs.size() / runsPerUnit;
+	}
+
+	/**
+	 * Mean of the metric over the runs of the first units
+	 */
+	public double getMean(int metric, int units) {
+		return VarianceReduction.mean(this.unitMeans(metric, units));
+	}
+
+	/**
+	 * Sample variance of the metric over the single runs of the first units
+	 */
+	public double getRunVariance(int metric, int units) {
+		double[] values = new double[units * runsPerUnit];
+		for(int r = 0; r < values.length; r++) {
+			values[r] = runs.get(r)[metric];
+		}
+		return VarianceReduction.variance(values);
+	}
+
+	/**
+	 * Variance of a single run that gives the same variance of the mean as the units: runsPerUnit * Var(unit mean)
+	 */
+	public double getUnitVariance(int metric, int units) {
+		return runsPerUnit * VarianceReduction.variance(this.unitMeans(metric, units));
+	}
+
+	/**
+	 * Variance of a single run that gives the same variance of the mean difference with the reference as the units: runsPerUnit * Var(unit mean - unit mean of the reference)
+	 */
+	public double getDifferenceVariance(VarianceReduction reference, int metric, int units) {
+		double[] differences = this.unitMeans(metric, units);
+		double[] other = reference.unitMeans(metric, units);
+		for(int u = 0; u < units; u++) {
+			differences[u] -= other[u];
+		}
+		return runsPerUnit * VarianceReduction.variance(differences);
+	}
+
+	private double[] unitMeans(int metric, int units) {
+		double[] means = new double[units];
+		for(int u = 0; u < units; u++) {
+			for(int r = u * runsPerUnit; r < (u + 1) * runsPerUnit; r++) {
+				means[u] += runs.get(r)[metric];
+			}
+			means[u] /= runsPerUnit;
+		}
+		return means;
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0.0;
+		for(double value : values) {
+			sum += value;
+		}
+		return values.length == 0 ? Double.NaN : sum / values.length;
+	}
+
+	/**
+	 * Sample variance, NaN with less than two values
+	 */
+	private static double variance(double[] values) {
+		if(values.length < 2) {
+			return Double.NaN;
+		}
+		double mean = VarianceReduction.mean(values);
+		double sum = 0.0;
+		for(double value : values) {
+			sum += (value - mean) * (value - mean);
+		}
+		return sum / (values.length - 1);
+	}
+}
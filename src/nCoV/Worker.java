@@ -0,0 +1,120 @@
+package nCoV;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Worker of a distributed run (started with "java nCoV.Main worker"). Connects to the Coordinator, runs the units it gets and sends back the counts of each run.
+ * The input of each scenario is read once and kept for all later units of that scenario, and the simulation of a unit is reused for the next unit of the same scenario and P(T).
+ */
+public class Worker {
+
+	private static final int CONNECT_ATTEMPTS = 30;
+	// Number of times connecting is tried, such that workers (and partitions) can be started before the coordinator (partition 0)
+	private static final int CONNECT_WAIT_MILLIS = 1000;
+
+	/**
+	 * Runs units of the coordinator in the settings until the coordinator has no units left
+	 */
+	public static void run(InputSettings inputSet, Regions regions) throws IOException {
+
+		String interventionName = inputSet.getInterventionSchedule();
+		Map<Integer, ScenarioInput> scenarioInputs = new HashMap<>();
+		// Input of each scenario that this worker has run
+		Simulation sim = null;
+		String simulationKey = null;
+		// Simulation of the last unit and its scenario and P(T)
+
+		try(Socket socket = Worker.connect(inputSet.getCoordinatorHost(), inputSet.getCoordinatorPort());
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+
+			out.println(Coordinator.ready(inputSet, regions));
+			out.flush();
+
+			String line;
+			while((line = in.readLine()) != null && !line.equals(Coordinator.STOP)) {
+				String[] words = line.split(" ");
+				if(!words[0].equals(Coordinator.UNIT)) throw new IOException("Expected " + Coordinator.UNIT + " but got " + line);
+				int id = Integer.parseInt(words[1]);
+				int scenario = Integer.parseInt(words[2]);
+				double VIRUS_TRANSMISSION_PROBABILITY = Double.parseDouble(words[3]);
+				int seed = Integer.parseInt(words[4]);
+
+				ScenarioInput scenarioInput = scenarioInputs.computeIfAbsent(scenario, s -> ScenarioInput.read(s, regions, interventionName, inputSet.getStrains()));
+				String runName = VIRUS_TRANSMISSION_PROBABILITY + "_" + (interventionName.isEmpty() ? "" : interventionName + "_") + seed;
+				String[] allFileNames = inputSet.isWriteRunOutput() ? Main.outputFileNames(inputSet.getFolderName(), "matrix-" + scenario, runName, inputSet) : null;
+
+				long timeBegin = System.nanoTime();
+				if((scenario + " " + VIRUS_TRANSMISSION_PROBABILITY).equals(simulationKey)) {
+					sim.setOutputFiles(allFileNames);
+					sim.initializeSimulation(seed);
+				}
+				else {
+					sim = null; // the agents of the last simulation can be collected first
+					sim = scenarioInput.createSimulation(inputSet, VIRUS_TRANSMISSION_PROBABILITY, seed, null, allFileNames);
+					simulationKey = scenario + " " + VIRUS_TRANSMISSION_PROBABILITY;
+				}
+				sim.startSimulation();
+				System.out.println("Worker: unit " + id + " (scenario " + scenario + ", P(T) " + VIRUS_TRANSMISSION_PROBABILITY + ", seed " + seed + ") done in " + (System.nanoTime() - timeBegin)/1e9);
+
+				out.println(Coordinator.RESULT + " " + id);
+				Worker.writeCounts(out, sim.getStageCountsPerEpoch());
+				Worker.writeCounts(out, sim.getPatientCountsPerEpoch());
+				Worker.writeCounts(out, sim.getQueueCountsPerEpoch());
+				out.println(Coordinator.END);
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Connects to the given host and port, retrying for a while when nobody listens yet
+	 */
+	static Socket connect(String host, int port) throws IOException {
+		for(int attempt = 1; ; attempt++) {
+			try {
+				return new Socket(host, port);
+			} catch (ConnectException e) {
+				if(attempt == CONNECT_ATTEMPTS) throw e;
+				try {
+					Thread.sleep(CONNECT_WAIT_MILLIS);
+				} catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes all counts on one line, the last index changing fastest
+	 */
+	private static void writeCounts(PrintWriter out, Object counts) {
+		StringBuilder line = new StringBuilder();
+		Worker.appendCounts(line, counts);
+		out.println(line);
+	}
+
+	private static void appendCounts(StringBuilder line, Object counts) {
+		if(counts instanceof int[]) {
+			for(int count : (int[]) counts) {
+				if(line.length() > 0) line.append(' ');
+				line.append(count);
+			}
+		}
+		else {
+			for(Object sub : (Object[]) counts) {
+				Worker.appendCounts(line, sub);
+			}
+		}
+	}
+}
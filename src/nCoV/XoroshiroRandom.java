@@ -0,0 +1,100 @@
+package nCoV;
+
+/**
+ * Default random generator (randomGenerator,xoroshiro): xoroshiro128++ by Blackman and Vigna, seeded with SplitMix64.
+ * It has a period of 2^128 - 1, passes the statistical tests that the generator of java.util.Random fails, and needs one step (a few shifts and additions) per uniform.
+ */
+public class XoroshiroRandom extends RandomSource {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+	private long s0;
+	private long s1;
+	// 128-bit state, never both 0
+
+	public XoroshiroRandom(long seed) {
+		super(seed); // calls setSeed
+	}
+
+	/**
+	 * Sets the state to the next two outputs of SplitMix64 started at the seed, such that close seeds give unrelated states
+	 */
+	@Override
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		long x = seed;
+		x += 0x9E3779B97F4A7C15L;
+		this.s0 = XoroshiroRandom.mix(x);
+		x += 0x9E3779B97F4A7C15L;
+		this.s1 = XoroshiroRandom.mix(x);
+	}
+
+	/**
+	 * Finalizer of SplitMix64: a bijection whose output bits all depend on all input bits, also used to derive a random number from a key
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public long nextLong() {
+		long a = s0;
+		long b = s1;
+		long result = Long.rotateLeft(a + b, 17) + a;
+		b ^= a;
+		s0 = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+		s1 = Long.rotateLeft(b, 28);
+		return result;
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int) (this.nextLong() >>> (64 - bits));
+	}
+
+	/**
+	 * Uniform in [0, 1) from the 53 high bits of one step
+	 */
+	@Override
+	public double nextDouble() {
+		return (this.nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	@Override
+	public void nextDoubles(double[] values, int length) {
+		long a = s0; // the state is kept in local variables during the loop
+		long b = s1;
+		for(int i = 0; i < length; i++) {
+			long result = Long.rotateLeft(a + b, 17) + a;
+			b ^= a;
+			a = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+			b = Long.rotateLeft(b, 28);
+			values[i] = (result >>> 11) * DOUBLE_UNIT;
+		}
+		s0 = a;
+		s1 = b;
+	}
+
+	/**
+	 * Skips n uniforms by stepping the generator n times, which is still cheap compared with updating an agent
+	 */
+	@Override
+	public void skipDoubles(long n) {
+		for(long i = 0; i < n; i++) {
+			this.nextLong();
+		}
+	}
+
+	@Override
+	public RandomSource copy() {
+		XoroshiroRandom copy = new XoroshiroRandom(0);
+		copy.s0 = s0;
+		copy.s1 = s1;
+		this.copyGaussian(copy);
+		return copy;
+	}
+}